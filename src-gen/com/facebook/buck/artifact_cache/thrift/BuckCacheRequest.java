@@ -42,6 +42,7 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
   private static final org.apache.thrift.protocol.TField PAYLOADS_FIELD_DESC = new org.apache.thrift.protocol.TField("payloads", org.apache.thrift.protocol.TType.LIST, (short)100);
   private static final org.apache.thrift.protocol.TField FETCH_REQUEST_FIELD_DESC = new org.apache.thrift.protocol.TField("fetchRequest", org.apache.thrift.protocol.TType.STRUCT, (short)101);
   private static final org.apache.thrift.protocol.TField STORE_REQUEST_FIELD_DESC = new org.apache.thrift.protocol.TField("storeRequest", org.apache.thrift.protocol.TType.STRUCT, (short)102);
+  private static final org.apache.thrift.protocol.TField MULTI_CONTAINS_REQUEST_FIELD_DESC = new org.apache.thrift.protocol.TField("multiContainsRequest", org.apache.thrift.protocol.TType.STRUCT, (short)103);
 
   private static final Map<Class<? extends IScheme>, SchemeFactory> schemes = new HashMap<Class<? extends IScheme>, SchemeFactory>();
   static {
@@ -57,6 +58,7 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
   public List<PayloadInfo> payloads; // optional
   public BuckCacheFetchRequest fetchRequest; // optional
   public BuckCacheStoreRequest storeRequest; // optional
+  public BuckCacheMultiContainsRequest multiContainsRequest; // optional
 
   /** The set of fields this struct contains, along with convenience methods for finding and manipulating them. */
   public enum _Fields implements org.apache.thrift.TFieldIdEnum {
@@ -67,7 +69,8 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
     TYPE((short)1, "type"),
     PAYLOADS((short)100, "payloads"),
     FETCH_REQUEST((short)101, "fetchRequest"),
-    STORE_REQUEST((short)102, "storeRequest");
+    STORE_REQUEST((short)102, "storeRequest"),
+    MULTI_CONTAINS_REQUEST((short)103, "multiContainsRequest");
 
     private static final Map<String, _Fields> byName = new HashMap<String, _Fields>();
 
@@ -90,6 +93,8 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
           return FETCH_REQUEST;
         case 102: // STORE_REQUEST
           return STORE_REQUEST;
+        case 103: // MULTI_CONTAINS_REQUEST
+          return MULTI_CONTAINS_REQUEST;
         default:
           return null;
       }
@@ -130,7 +135,7 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
   }
 
   // isset id assignments
-  private static final _Fields optionals[] = {_Fields.TYPE,_Fields.PAYLOADS,_Fields.FETCH_REQUEST,_Fields.STORE_REQUEST};
+  private static final _Fields optionals[] = {_Fields.TYPE,_Fields.PAYLOADS,_Fields.FETCH_REQUEST,_Fields.STORE_REQUEST,_Fields.MULTI_CONTAINS_REQUEST};
   public static final Map<_Fields, org.apache.thrift.meta_data.FieldMetaData> metaDataMap;
   static {
     Map<_Fields, org.apache.thrift.meta_data.FieldMetaData> tmpMap = new EnumMap<_Fields, org.apache.thrift.meta_data.FieldMetaData>(_Fields.class);
@@ -143,6 +148,8 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
         new org.apache.thrift.meta_data.StructMetaData(org.apache.thrift.protocol.TType.STRUCT, BuckCacheFetchRequest.class)));
     tmpMap.put(_Fields.STORE_REQUEST, new org.apache.thrift.meta_data.FieldMetaData("storeRequest", org.apache.thrift.TFieldRequirementType.OPTIONAL, 
         new org.apache.thrift.meta_data.StructMetaData(org.apache.thrift.protocol.TType.STRUCT, BuckCacheStoreRequest.class)));
+    tmpMap.put(_Fields.MULTI_CONTAINS_REQUEST, new org.apache.thrift.meta_data.FieldMetaData("multiContainsRequest", org.apache.thrift.TFieldRequirementType.OPTIONAL, 
+        new org.apache.thrift.meta_data.StructMetaData(org.apache.thrift.protocol.TType.STRUCT, BuckCacheMultiContainsRequest.class)));
     metaDataMap = Collections.unmodifiableMap(tmpMap);
     org.apache.thrift.meta_data.FieldMetaData.addStructMetaDataMap(BuckCacheRequest.class, metaDataMap);
   }
@@ -172,6 +179,9 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
     if (other.isSetStoreRequest()) {
       this.storeRequest = new BuckCacheStoreRequest(other.storeRequest);
     }
+    if (other.isSetMultiContainsRequest()) {
+      this.multiContainsRequest = new BuckCacheMultiContainsRequest(other.multiContainsRequest);
+    }
   }
 
   public BuckCacheRequest deepCopy() {
@@ -185,6 +195,7 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
     this.payloads = null;
     this.fetchRequest = null;
     this.storeRequest = null;
+    this.multiContainsRequest = null;
   }
 
   /**
@@ -306,6 +317,30 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
     }
   }
 
+  public BuckCacheMultiContainsRequest getMultiContainsRequest() {
+    return this.multiContainsRequest;
+  }
+
+  public BuckCacheRequest setMultiContainsRequest(BuckCacheMultiContainsRequest multiContainsRequest) {
+    this.multiContainsRequest = multiContainsRequest;
+    return this;
+  }
+
+  public void unsetMultiContainsRequest() {
+    this.multiContainsRequest = null;
+  }
+
+  /** Returns true if field multiContainsRequest is set (has been assigned a value) and false otherwise */
+  public boolean isSetMultiContainsRequest() {
+    return this.multiContainsRequest != null;
+  }
+
+  public void setMultiContainsRequestIsSet(boolean value) {
+    if (!value) {
+      this.multiContainsRequest = null;
+    }
+  }
+
   public void setFieldValue(_Fields field, Object value) {
     switch (field) {
     case TYPE:
@@ -340,6 +375,14 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
       }
       break;
 
+    case MULTI_CONTAINS_REQUEST:
+      if (value == null) {
+        unsetMultiContainsRequest();
+      } else {
+        setMultiContainsRequest((BuckCacheMultiContainsRequest)value);
+      }
+      break;
+
     }
   }
 
@@ -357,6 +400,9 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
     case STORE_REQUEST:
       return getStoreRequest();
 
+    case MULTI_CONTAINS_REQUEST:
+      return getMultiContainsRequest();
+
     }
     throw new IllegalStateException();
   }
@@ -376,6 +422,8 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
       return isSetFetchRequest();
     case STORE_REQUEST:
       return isSetStoreRequest();
+    case MULTI_CONTAINS_REQUEST:
+      return isSetMultiContainsRequest();
     }
     throw new IllegalStateException();
   }
@@ -429,6 +477,15 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
         return false;
     }
 
+    boolean this_present_multiContainsRequest = true && this.isSetMultiContainsRequest();
+    boolean that_present_multiContainsRequest = true && that.isSetMultiContainsRequest();
+    if (this_present_multiContainsRequest || that_present_multiContainsRequest) {
+      if (!(this_present_multiContainsRequest && that_present_multiContainsRequest))
+        return false;
+      if (!this.multiContainsRequest.equals(that.multiContainsRequest))
+        return false;
+    }
+
     return true;
   }
 
@@ -456,6 +513,11 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
     if (present_storeRequest)
       list.add(storeRequest);
 
+    boolean present_multiContainsRequest = true && (isSetMultiContainsRequest());
+    list.add(present_multiContainsRequest);
+    if (present_multiContainsRequest)
+      list.add(multiContainsRequest);
+
     return list.hashCode();
   }
 
@@ -507,6 +569,16 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
         return lastComparison;
       }
     }
+    lastComparison = Boolean.valueOf(isSetMultiContainsRequest()).compareTo(other.isSetMultiContainsRequest());
+    if (lastComparison != 0) {
+      return lastComparison;
+    }
+    if (isSetMultiContainsRequest()) {
+      lastComparison = org.apache.thrift.TBaseHelper.compareTo(this.multiContainsRequest, other.multiContainsRequest);
+      if (lastComparison != 0) {
+        return lastComparison;
+      }
+    }
     return 0;
   }
 
@@ -566,6 +638,16 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
       }
       first = false;
     }
+    if (isSetMultiContainsRequest()) {
+      if (!first) sb.append(", ");
+      sb.append("multiContainsRequest:");
+      if (this.multiContainsRequest == null) {
+        sb.append("null");
+      } else {
+        sb.append(this.multiContainsRequest);
+      }
+      first = false;
+    }
     sb.append(")");
     return sb.toString();
   }
@@ -579,6 +661,9 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
     if (storeRequest != null) {
       storeRequest.validate();
     }
+    if (multiContainsRequest != null) {
+      multiContainsRequest.validate();
+    }
   }
 
   private void writeObject(java.io.ObjectOutputStream out) throws java.io.IOException {
@@ -660,6 +745,15 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
               org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
             }
             break;
+          case 103: // MULTI_CONTAINS_REQUEST
+            if (schemeField.type == org.apache.thrift.protocol.TType.STRUCT) {
+              struct.multiContainsRequest = new BuckCacheMultiContainsRequest();
+              struct.multiContainsRequest.read(iprot);
+              struct.setMultiContainsRequestIsSet(true);
+            } else { 
+              org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
+            }
+            break;
           default:
             org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
         }
@@ -710,6 +804,13 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
           oprot.writeFieldEnd();
         }
       }
+      if (struct.multiContainsRequest != null) {
+        if (struct.isSetMultiContainsRequest()) {
+          oprot.writeFieldBegin(MULTI_CONTAINS_REQUEST_FIELD_DESC);
+          struct.multiContainsRequest.write(oprot);
+          oprot.writeFieldEnd();
+        }
+      }
       oprot.writeFieldStop();
       oprot.writeStructEnd();
     }
@@ -740,7 +841,10 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
       if (struct.isSetStoreRequest()) {
         optionals.set(3);
       }
-      oprot.writeBitSet(optionals, 4);
+      if (struct.isSetMultiContainsRequest()) {
+        optionals.set(4);
+      }
+      oprot.writeBitSet(optionals, 5);
       if (struct.isSetType()) {
         oprot.writeI32(struct.type.getValue());
       }
@@ -759,12 +863,15 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
       if (struct.isSetStoreRequest()) {
         struct.storeRequest.write(oprot);
       }
+      if (struct.isSetMultiContainsRequest()) {
+        struct.multiContainsRequest.write(oprot);
+      }
     }
 
     @Override
     public void read(org.apache.thrift.protocol.TProtocol prot, BuckCacheRequest struct) throws org.apache.thrift.TException {
       TTupleProtocol iprot = (TTupleProtocol) prot;
-      BitSet incoming = iprot.readBitSet(4);
+      BitSet incoming = iprot.readBitSet(5);
       if (incoming.get(0)) {
         struct.type = com.facebook.buck.artifact_cache.thrift.BuckCacheRequestType.findByValue(iprot.readI32());
         struct.setTypeIsSet(true);
@@ -793,6 +900,11 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
         struct.storeRequest.read(iprot);
         struct.setStoreRequestIsSet(true);
       }
+      if (incoming.get(4)) {
+        struct.multiContainsRequest = new BuckCacheMultiContainsRequest();
+        struct.multiContainsRequest.read(iprot);
+        struct.setMultiContainsRequestIsSet(true);
+      }
     }
   }
 
@@ -44,6 +44,7 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
   private static final org.apache.thrift.protocol.TField PAYLOADS_FIELD_DESC = new org.apache.thrift.protocol.TField("payloads", org.apache.thrift.protocol.TType.LIST, (short)100);
   private static final org.apache.thrift.protocol.TField FETCH_RESPONSE_FIELD_DESC = new org.apache.thrift.protocol.TField("fetchResponse", org.apache.thrift.protocol.TType.STRUCT, (short)101);
   private static final org.apache.thrift.protocol.TField STORE_RESPONSE_FIELD_DESC = new org.apache.thrift.protocol.TField("storeResponse", org.apache.thrift.protocol.TType.STRUCT, (short)102);
+  private static final org.apache.thrift.protocol.TField MULTI_CONTAINS_RESPONSE_FIELD_DESC = new org.apache.thrift.protocol.TField("multiContainsResponse", org.apache.thrift.protocol.TType.STRUCT, (short)103);
 
   private static final Map<Class<? extends IScheme>, SchemeFactory> schemes = new HashMap<Class<? extends IScheme>, SchemeFactory>();
   static {
@@ -61,6 +62,7 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
   public List<PayloadInfo> payloads; // optional
   public BuckCacheFetchResponse fetchResponse; // optional
   public BuckCacheStoreResponse storeResponse; // optional
+  public BuckCacheMultiContainsResponse multiContainsResponse; // optional
 
   /** The set of fields this struct contains, along with convenience methods for finding and manipulating them. */
   public enum _Fields implements org.apache.thrift.TFieldIdEnum {
@@ -73,7 +75,8 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
     TYPE((short)10, "type"),
     PAYLOADS((short)100, "payloads"),
     FETCH_RESPONSE((short)101, "fetchResponse"),
-    STORE_RESPONSE((short)102, "storeResponse");
+    STORE_RESPONSE((short)102, "storeResponse"),
+    MULTI_CONTAINS_RESPONSE((short)103, "multiContainsResponse");
 
     private static final Map<String, _Fields> byName = new HashMap<String, _Fields>();
 
@@ -100,6 +103,8 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
           return FETCH_RESPONSE;
         case 102: // STORE_RESPONSE
           return STORE_RESPONSE;
+        case 103: // MULTI_CONTAINS_RESPONSE
+          return MULTI_CONTAINS_RESPONSE;
         default:
           return null;
       }
@@ -142,7 +147,7 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
   // isset id assignments
   private static final int __WASSUCCESSFUL_ISSET_ID = 0;
   private byte __isset_bitfield = 0;
-  private static final _Fields optionals[] = {_Fields.WAS_SUCCESSFUL,_Fields.ERROR_MESSAGE,_Fields.TYPE,_Fields.PAYLOADS,_Fields.FETCH_RESPONSE,_Fields.STORE_RESPONSE};
+  private static final _Fields optionals[] = {_Fields.WAS_SUCCESSFUL,_Fields.ERROR_MESSAGE,_Fields.TYPE,_Fields.PAYLOADS,_Fields.FETCH_RESPONSE,_Fields.STORE_RESPONSE,_Fields.MULTI_CONTAINS_RESPONSE};
   public static final Map<_Fields, org.apache.thrift.meta_data.FieldMetaData> metaDataMap;
   static {
     Map<_Fields, org.apache.thrift.meta_data.FieldMetaData> tmpMap = new EnumMap<_Fields, org.apache.thrift.meta_data.FieldMetaData>(_Fields.class);
@@ -159,6 +164,8 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
         new org.apache.thrift.meta_data.StructMetaData(org.apache.thrift.protocol.TType.STRUCT, BuckCacheFetchResponse.class)));
     tmpMap.put(_Fields.STORE_RESPONSE, new org.apache.thrift.meta_data.FieldMetaData("storeResponse", org.apache.thrift.TFieldRequirementType.OPTIONAL, 
         new org.apache.thrift.meta_data.StructMetaData(org.apache.thrift.protocol.TType.STRUCT, BuckCacheStoreResponse.class)));
+    tmpMap.put(_Fields.MULTI_CONTAINS_RESPONSE, new org.apache.thrift.meta_data.FieldMetaData("multiContainsResponse", org.apache.thrift.TFieldRequirementType.OPTIONAL, 
+        new org.apache.thrift.meta_data.StructMetaData(org.apache.thrift.protocol.TType.STRUCT, BuckCacheMultiContainsResponse.class)));
     metaDataMap = Collections.unmodifiableMap(tmpMap);
     org.apache.thrift.meta_data.FieldMetaData.addStructMetaDataMap(BuckCacheResponse.class, metaDataMap);
   }
@@ -193,6 +200,9 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
     if (other.isSetStoreResponse()) {
       this.storeResponse = new BuckCacheStoreResponse(other.storeResponse);
     }
+    if (other.isSetMultiContainsResponse()) {
+      this.multiContainsResponse = new BuckCacheMultiContainsResponse(other.multiContainsResponse);
+    }
   }
 
   public BuckCacheResponse deepCopy() {
@@ -209,6 +219,7 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
     this.payloads = null;
     this.fetchResponse = null;
     this.storeResponse = null;
+    this.multiContainsResponse = null;
   }
 
   public boolean isWasSuccessful() {
@@ -377,6 +388,30 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
     }
   }
 
+  public BuckCacheMultiContainsResponse getMultiContainsResponse() {
+    return this.multiContainsResponse;
+  }
+
+  public BuckCacheResponse setMultiContainsResponse(BuckCacheMultiContainsResponse multiContainsResponse) {
+    this.multiContainsResponse = multiContainsResponse;
+    return this;
+  }
+
+  public void unsetMultiContainsResponse() {
+    this.multiContainsResponse = null;
+  }
+
+  /** Returns true if field multiContainsResponse is set (has been assigned a value) and false otherwise */
+  public boolean isSetMultiContainsResponse() {
+    return this.multiContainsResponse != null;
+  }
+
+  public void setMultiContainsResponseIsSet(boolean value) {
+    if (!value) {
+      this.multiContainsResponse = null;
+    }
+  }
+
   public void setFieldValue(_Fields field, Object value) {
     switch (field) {
     case WAS_SUCCESSFUL:
@@ -427,6 +462,14 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
       }
       break;
 
+    case MULTI_CONTAINS_RESPONSE:
+      if (value == null) {
+        unsetMultiContainsResponse();
+      } else {
+        setMultiContainsResponse((BuckCacheMultiContainsResponse)value);
+      }
+      break;
+
     }
   }
 
@@ -450,6 +493,9 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
     case STORE_RESPONSE:
       return getStoreResponse();
 
+    case MULTI_CONTAINS_RESPONSE:
+      return getMultiContainsResponse();
+
     }
     throw new IllegalStateException();
   }
@@ -473,6 +519,8 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
       return isSetFetchResponse();
     case STORE_RESPONSE:
       return isSetStoreResponse();
+    case MULTI_CONTAINS_RESPONSE:
+      return isSetMultiContainsResponse();
     }
     throw new IllegalStateException();
   }
@@ -544,6 +592,15 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
         return false;
     }
 
+    boolean this_present_multiContainsResponse = true && this.isSetMultiContainsResponse();
+    boolean that_present_multiContainsResponse = true && that.isSetMultiContainsResponse();
+    if (this_present_multiContainsResponse || that_present_multiContainsResponse) {
+      if (!(this_present_multiContainsResponse && that_present_multiContainsResponse))
+        return false;
+      if (!this.multiContainsResponse.equals(that.multiContainsResponse))
+        return false;
+    }
+
     return true;
   }
 
@@ -581,6 +638,11 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
     if (present_storeResponse)
       list.add(storeResponse);
 
+    boolean present_multiContainsResponse = true && (isSetMultiContainsResponse());
+    list.add(present_multiContainsResponse);
+    if (present_multiContainsResponse)
+      list.add(multiContainsResponse);
+
     return list.hashCode();
   }
 
@@ -652,6 +714,16 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
         return lastComparison;
       }
     }
+    lastComparison = Boolean.valueOf(isSetMultiContainsResponse()).compareTo(other.isSetMultiContainsResponse());
+    if (lastComparison != 0) {
+      return lastComparison;
+    }
+    if (isSetMultiContainsResponse()) {
+      lastComparison = org.apache.thrift.TBaseHelper.compareTo(this.multiContainsResponse, other.multiContainsResponse);
+      if (lastComparison != 0) {
+        return lastComparison;
+      }
+    }
     return 0;
   }
 
@@ -727,6 +799,16 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
       }
       first = false;
     }
+    if (isSetMultiContainsResponse()) {
+      if (!first) sb.append(", ");
+      sb.append("multiContainsResponse:");
+      if (this.multiContainsResponse == null) {
+        sb.append("null");
+      } else {
+        sb.append(this.multiContainsResponse);
+      }
+      first = false;
+    }
     sb.append(")");
     return sb.toString();
   }
@@ -740,6 +822,9 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
     if (storeResponse != null) {
       storeResponse.validate();
     }
+    if (multiContainsResponse != null) {
+      multiContainsResponse.validate();
+    }
   }
 
   private void writeObject(java.io.ObjectOutputStream out) throws java.io.IOException {
@@ -839,6 +924,15 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
               org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
             }
             break;
+          case 103: // MULTI_CONTAINS_RESPONSE
+            if (schemeField.type == org.apache.thrift.protocol.TType.STRUCT) {
+              struct.multiContainsResponse = new BuckCacheMultiContainsResponse();
+              struct.multiContainsResponse.read(iprot);
+              struct.setMultiContainsResponseIsSet(true);
+            } else { 
+              org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
+            }
+            break;
           default:
             org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
         }
@@ -901,6 +995,13 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
           oprot.writeFieldEnd();
         }
       }
+      if (struct.multiContainsResponse != null) {
+        if (struct.isSetMultiContainsResponse()) {
+          oprot.writeFieldBegin(MULTI_CONTAINS_RESPONSE_FIELD_DESC);
+          struct.multiContainsResponse.write(oprot);
+          oprot.writeFieldEnd();
+        }
+      }
       oprot.writeFieldStop();
       oprot.writeStructEnd();
     }
@@ -937,7 +1038,10 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
       if (struct.isSetStoreResponse()) {
         optionals.set(5);
       }
-      oprot.writeBitSet(optionals, 6);
+      if (struct.isSetMultiContainsResponse()) {
+        optionals.set(6);
+      }
+      oprot.writeBitSet(optionals, 7);
       if (struct.isSetWasSuccessful()) {
         oprot.writeBool(struct.wasSuccessful);
       }
@@ -962,12 +1066,15 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
       if (struct.isSetStoreResponse()) {
         struct.storeResponse.write(oprot);
       }
+      if (struct.isSetMultiContainsResponse()) {
+        struct.multiContainsResponse.write(oprot);
+      }
     }
 
     @Override
     public void read(org.apache.thrift.protocol.TProtocol prot, BuckCacheResponse struct) throws org.apache.thrift.TException {
       TTupleProtocol iprot = (TTupleProtocol) prot;
-      BitSet incoming = iprot.readBitSet(6);
+      BitSet incoming = iprot.readBitSet(7);
       if (incoming.get(0)) {
         struct.wasSuccessful = iprot.readBool();
         struct.setWasSuccessfulIsSet(true);
@@ -1004,6 +1111,11 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
         struct.storeResponse.read(iprot);
         struct.setStoreResponseIsSet(true);
       }
+      if (incoming.get(6)) {
+        struct.multiContainsResponse = new BuckCacheMultiContainsResponse();
+        struct.multiContainsResponse.read(iprot);
+        struct.setMultiContainsResponseIsSet(true);
+      }
     }
   }
 
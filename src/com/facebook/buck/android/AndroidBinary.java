@@ -215,6 +215,8 @@ public class AndroidBinary
   protected final AndroidGraphEnhancementResult enhancementResult;
   private final ListeningExecutorService dxExecutorService;
   @AddToRuleKey
+  private final boolean dexInProcess;
+  @AddToRuleKey
   private final Optional<Integer> xzCompressionLevel;
   @AddToRuleKey
   private final Optional<Boolean> packageAssetLibraries;
@@ -251,6 +253,7 @@ public class AndroidBinary
       Optional<SourcePath> dexReorderDataDumpFile,
       Optional<Integer> xzCompressionLevel,
       ListeningExecutorService dxExecutorService,
+      boolean dexInProcess,
       Optional<Boolean> packageAssetLibraries,
       Optional<Boolean> compressAssetLibraries,
       ManifestEntries manifestEntries,
@@ -280,6 +283,7 @@ public class AndroidBinary
     this.dexReorderToolFile = dexReorderToolFile;
     this.dexReorderDataDumpFile = dexReorderDataDumpFile;
     this.dxExecutorService = dxExecutorService;
+    this.dexInProcess = dexInProcess;
     this.xzCompressionLevel = xzCompressionLevel;
     this.packageAssetLibraries = packageAssetLibraries;
     this.compressAssetLibraries = compressAssetLibraries;
@@ -355,6 +359,10 @@ public class AndroidBinary
     return manifestEntries;
   }
 
+  boolean isDexInProcess() {
+    return dexInProcess;
+  }
+
   JavaRuntimeLauncher getJavaRuntimeLauncher() {
     return javaRuntimeLauncher;
   }
@@ -1048,6 +1056,12 @@ public class AndroidBinary
     EnumSet<DxStep.Option> dxOptions = PackageType.RELEASE.equals(packageType)
         ? EnumSet.noneOf(DxStep.Option.class)
         : EnumSet.of(DxStep.Option.NO_OPTIMIZE);
+    if (dexInProcess) {
+      // Like pre-dexing, dex in-process with Buck's own dx, rather than starting (and warming up)
+      // a new JVM for every dex file.
+      dxOptions.add(DxStep.Option.USE_CUSTOM_DX_IF_AVAILABLE);
+      dxOptions.add(DxStep.Option.RUN_IN_PROCESS);
+    }
     Path selectedPrimaryDexPath = primaryDexPath;
     if (isReorderingClasses()) {
       String primaryDexFileName = primaryDexPath.getFileName().toString();
@@ -100,6 +100,7 @@ public class AndroidBinaryDescription
   private final CxxBuckConfig cxxBuckConfig;
   private final ImmutableMap<TargetCpuType, NdkCxxPlatform> nativePlatforms;
   private final ListeningExecutorService dxExecutorService;
+  private final boolean dexInProcess;
 
   public AndroidBinaryDescription(
       JavaOptions javaOptions,
@@ -107,6 +108,7 @@ public class AndroidBinaryDescription
       ProGuardConfig proGuardConfig,
       ImmutableMap<TargetCpuType, NdkCxxPlatform> nativePlatforms,
       ListeningExecutorService dxExecutorService,
+      boolean dexInProcess,
       CxxBuckConfig cxxBuckConfig) {
     this.javaOptions = javaOptions;
     this.javacOptions = javacOptions;
@@ -114,6 +116,7 @@ public class AndroidBinaryDescription
     this.cxxBuckConfig = cxxBuckConfig;
     this.nativePlatforms = nativePlatforms;
     this.dxExecutorService = dxExecutorService;
+    this.dexInProcess = dexInProcess;
   }
 
   @Override
@@ -277,6 +280,7 @@ public class AndroidBinaryDescription
         args.dexReorderDataDumpFile,
         args.xzCompressionLevel,
         dxExecutorService,
+        dexInProcess,
         args.packageAssetLibraries,
         args.compressAssetLibraries,
         args.manifestEntries.or(ManifestEntries.empty()),
@@ -80,6 +80,14 @@ public class AndroidBuckConfig {
     return delegate.getEnum("ndk", "cxx_runtime", NdkCxxPlatforms.CxxRuntime.class);
   }
 
+  /**
+   * Whether {@code android_binary} rules that don't pre-dex should dex their secondary dex shards
+   * in-process with Buck's own dx, instead of forking the SDK's dx for each of them.
+   */
+  public boolean shouldDexInProcess() {
+    return delegate.getBooleanValue("android", "dex_in_process", false);
+  }
+
   /**
    * Returns the path to the platform specific aapt executable that is overridden by the current
    * project. If not specified, the Android platform aapt will be used.
@@ -83,6 +83,7 @@ public class AndroidInstrumentationApk extends AndroidBinary {
         Optional.<SourcePath>absent(),
         Optional.<Integer>absent(),
         dxExecutorService,
+        apkUnderTest.isDexInProcess(),
         Optional.<Boolean>absent(),
         Optional.<Boolean>absent(),
         apkUnderTest.getManifestEntries(),
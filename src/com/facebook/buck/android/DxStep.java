@@ -35,6 +35,7 @@ import java.nio.file.Path;
 import java.util.Collection;
 import java.util.EnumSet;
 import java.util.Set;
+import java.util.concurrent.Semaphore;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
@@ -76,6 +77,13 @@ public class DxStep extends ShellStep {
     }
   };
 
+  /**
+   * In-process dexers share Buck's heap, and there is no point in running more of them at once than
+   * there are cores to run them on, so rules and {@link SmartDexingStep}s queue up for them here.
+   */
+  private static final Semaphore IN_PROCESS_DEXERS =
+      new Semaphore(SmartDexingStep.determineOptimalThreadCount());
+
   private final ProjectFilesystem filesystem;
   private final Path outputDexFile;
   private final Set<Path> filesToDex;
@@ -185,7 +193,7 @@ public class DxStep extends ShellStep {
     }
   }
 
-  private int executeInProcess(ExecutionContext context) {
+  private int executeInProcess(ExecutionContext context) throws InterruptedException {
     ImmutableList<String> argv = getShellCommandInternal(context);
 
     // The first arguments should be ".../dx --dex" ("...\dx.bat --dex on Windows).  Strip them off
@@ -195,6 +203,7 @@ public class DxStep extends ShellStep {
     Preconditions.checkState(argv.get(1).equals("--dex"));
     ImmutableList<String> args = argv.subList(2, argv.size());
 
+    IN_PROCESS_DEXERS.acquire();
     try {
       com.android.dx.command.dexer.Main dexer = new com.android.dx.command.dexer.Main();
       int returncode = dexer.run(
@@ -209,6 +218,8 @@ public class DxStep extends ShellStep {
     } catch (IOException e) {
       e.printStackTrace(context.getStdErr());
       return 1;
+    } finally {
+      IN_PROCESS_DEXERS.release();
     }
   }
 
@@ -28,35 +28,43 @@ import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.StepExecutionResult;
 import com.facebook.buck.util.MoreStrings;
-import com.facebook.buck.util.XmlDomParser;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
+import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Ordering;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 /**
  * Step which parses resources in an android {@code res} directory and compiles them into a
@@ -74,15 +82,21 @@ public class MiniAapt implements Step {
   private static final String ITEM_TAG = "item";
   private static final String CUSTOM_DRAWABLE_PREFIX = "app-";
 
-  private static final XPathExpression ANDROID_ID_USAGE =
-      createExpression("//@*[starts-with(., '@') and " +
-              "not(starts-with(., '@+')) and " +
-              "not(starts-with(., '@android:')) and " +
-              "not(starts-with(., '@null'))]");
-
-  private static final XPathExpression ANDROID_ID_DEFINITION =
-      createExpression("//@*[starts-with(., '@+') and " +
-              "not(starts-with(., '@+android:id'))]");
+  // Each file is scanned on its own, so let a few per core be in flight.
+  private static final int MAX_CONCURRENT_SCANS =
+      Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+  // XMLInputFactory isn't guaranteed to be thread-safe, so give each scanning thread its own.
+  private static final ThreadLocal<XMLInputFactory> XML_INPUT_FACTORY =
+      new ThreadLocal<XMLInputFactory>() {
+        @Override
+        protected XMLInputFactory initialValue() {
+          XMLInputFactory factory = XMLInputFactory.newFactory();
+          // Resource files often use prefixes such as "tools:" without declaring them.
+          factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+          return factory;
+        }
+      };
 
   private static final ImmutableMap<String, RType> RESOURCE_TYPES = getResourceTypes();
   private static final ImmutableSet<String> IGNORED_TAGS = ImmutableSet.of(
@@ -135,14 +149,6 @@ public class MiniAapt implements Step {
     this.resourceUnion = resourceUnion;
   }
 
-  private static XPathExpression createExpression(String expressionStr) {
-    try {
-      return XPathFactory.newInstance().newXPath().compile(expressionStr);
-    } catch (XPathExpressionException e) {
-      throw new RuntimeException(e);
-    }
-  }
-
   private static ImmutableMap<String, RType> getResourceTypes() {
     ImmutableMap.Builder<String, RType> types = ImmutableMap.builder();
     for (RType rType : RType.values()) {
@@ -162,11 +168,13 @@ public class MiniAapt implements Step {
   @Override
   public StepExecutionResult execute(ExecutionContext context) throws InterruptedException {
     ImmutableSet.Builder<RDotTxtEntry> references = ImmutableSet.builder();
+    ListeningExecutorService executorService =
+        context.getExecutorService(ExecutionContext.ExecutorPool.CPU);
 
     try {
-      collectResources(filesystem, context.getBuckEventBus());
-      processXmlFilesForIds(filesystem, references);
-    } catch (IOException | XPathExpressionException | ResourceParseException e) {
+      collectResources(filesystem, context.getBuckEventBus(), executorService);
+      processXmlFilesForIds(filesystem, references, executorService);
+    } catch (IOException | ResourceParseException e) {
       context.logError(e, "Error parsing resources to generate resource IDs for %s.", resDirectory);
       return StepExecutionResult.ERROR;
     }
@@ -252,8 +260,12 @@ public class MiniAapt implements Step {
    * For files under the {@code values*} directories, see
    * {@link #processValuesFile(ProjectFilesystem, Path)}
    */
-  private void collectResources(ProjectFilesystem filesystem, BuckEventBus eventBus)
-      throws IOException, ResourceParseException {
+  private void collectResources(
+      ProjectFilesystem filesystem,
+      BuckEventBus eventBus,
+      ListeningExecutorService executorService)
+      throws IOException, ResourceParseException, InterruptedException {
+    ImmutableList.Builder<ResourceScan> scans = ImmutableList.builder();
     Collection<Path> contents = filesystem.getDirectoryContents(
         resolver.getAbsolutePath(resDirectory));
     for (Path dir : contents) {
@@ -269,16 +281,25 @@ public class MiniAapt implements Step {
         if (!isAValuesDir(dirname)) {
           throw new ResourceParseException("'%s' is not a valid values directory.", dir);
         }
-        processValues(filesystem, eventBus, dir);
+        scans.addAll(scanValues(filesystem, eventBus, dir));
       } else {
-        processFileNamesInDirectory(filesystem, dir);
+        scans.add(scanFileNamesInDirectory(filesystem, dir));
       }
 
     }
+
+    for (ScannedResources scanned : scanAll(scans.build(), executorService)) {
+      scanned.addTo(resourceCollector);
+    }
   }
 
   void processFileNamesInDirectory(ProjectFilesystem filesystem, Path dir)
       throws IOException, ResourceParseException {
+    scanFileNamesInDirectory(filesystem, dir).call().addTo(resourceCollector);
+  }
+
+  private ResourceScan scanFileNamesInDirectory(final ProjectFilesystem filesystem, final Path dir)
+      throws ResourceParseException {
     String dirname = dir.getFileName().toString();
     int dashIndex = dirname.indexOf('-');
     if (dashIndex != -1) {
@@ -288,57 +309,85 @@ public class MiniAapt implements Step {
     if (!RESOURCE_TYPES.containsKey(dirname)) {
       throw new ResourceParseException("'%s' is not a valid resource sub-directory.", dir);
     }
+    final RType rType = Preconditions.checkNotNull(RESOURCE_TYPES.get(dirname));
+
+    return new ResourceScan() {
+      @Override
+      public ScannedResources call() throws IOException, ResourceParseException {
+        ScannedResources resources = new ScannedResources();
+        for (Path resourceFile : filesystem.getDirectoryContents(dir)) {
+          if (shouldIgnoreFile(resourceFile, filesystem)) {
+            continue;
+          }
 
-    for (Path resourceFile : filesystem.getDirectoryContents(dir)) {
-      if (shouldIgnoreFile(resourceFile, filesystem)) {
-        continue;
-      }
-
-      String filename = resourceFile.getFileName().toString();
-      int dotIndex = filename.indexOf('.');
-      String resourceName = dotIndex != -1 ? filename.substring(0, dotIndex) : filename;
+          String filename = resourceFile.getFileName().toString();
+          int dotIndex = filename.indexOf('.');
+          String resourceName = dotIndex != -1 ? filename.substring(0, dotIndex) : filename;
 
-      RType rType = Preconditions.checkNotNull(RESOURCE_TYPES.get(dirname));
-      if (rType == RType.DRAWABLE) {
-        processDrawables(filesystem, resourceFile);
-      } else {
-        resourceCollector.addIntResourceIfNotPresent(
-            rType,
-            resourceName);
+          if (rType == RType.DRAWABLE) {
+            scanDrawable(filesystem, resourceFile, resources);
+          } else {
+            resources.addIntResource(rType, resourceName);
+          }
+        }
+        return resources;
       }
-    }
+    };
   }
 
   void processDrawables(ProjectFilesystem filesystem, Path resourceFile)
       throws IOException, ResourceParseException {
+    ScannedResources resources = new ScannedResources();
+    scanDrawable(filesystem, resourceFile, resources);
+    resources.addTo(resourceCollector);
+  }
+
+  private static void scanDrawable(
+      ProjectFilesystem filesystem,
+      Path resourceFile,
+      ScannedResources resources)
+      throws IOException, ResourceParseException {
     String filename = resourceFile.getFileName().toString();
     int dotIndex = filename.indexOf('.');
     String resourceName = dotIndex != -1 ? filename.substring(0, dotIndex) : filename;
 
-    // Look into the XML file.
+    // Look into the XML file. Only the root element matters, so don't read any further than that.
     boolean isCustomDrawable = false;
     if (filename.endsWith(".xml")) {
       try (InputStream stream = filesystem.newFileInputStream(resourceFile)) {
-        Document dom = parseXml(resourceFile, stream);
-        Element root = dom.getDocumentElement();
-        isCustomDrawable = root.getNodeName().startsWith(CUSTOM_DRAWABLE_PREFIX);
+        XMLStreamReader reader = XML_INPUT_FACTORY.get().createXMLStreamReader(stream);
+        try {
+          isCustomDrawable = nextChildElement(reader) &&
+              getElementName(reader).startsWith(CUSTOM_DRAWABLE_PREFIX);
+        } finally {
+          reader.close();
+        }
+      } catch (XMLStreamException e) {
+        throw newXmlParseException(resourceFile, e);
       }
     }
 
     if (isCustomDrawable) {
-      resourceCollector.addCustomDrawableResourceIfNotPresent(
-          RType.DRAWABLE,
-          resourceName);
+      resources.addCustomDrawableResource(RType.DRAWABLE, resourceName);
     } else {
-      resourceCollector.addIntResourceIfNotPresent(
-          RType.DRAWABLE,
-          resourceName);
+      resources.addIntResource(RType.DRAWABLE, resourceName);
     }
   }
 
   void processValues(ProjectFilesystem filesystem, BuckEventBus eventBus, Path valuesDir)
       throws IOException, ResourceParseException {
-    for (Path path : filesystem.getFilesUnderPath(valuesDir)) {
+    for (ResourceScan scan : scanValues(filesystem, eventBus, valuesDir)) {
+      scan.call().addTo(resourceCollector);
+    }
+  }
+
+  private ImmutableList<ResourceScan> scanValues(
+      final ProjectFilesystem filesystem,
+      BuckEventBus eventBus,
+      Path valuesDir)
+      throws IOException {
+    ImmutableList.Builder<ResourceScan> scans = ImmutableList.builder();
+    for (final Path path : filesystem.getFilesUnderPath(valuesDir)) {
       if (shouldIgnoreFile(path, filesystem)) {
         continue;
       }
@@ -346,8 +395,17 @@ public class MiniAapt implements Step {
         eventBus.post(ConsoleEvent.warning("MiniAapt [warning]: ignoring non-file '%s'.", path));
         continue;
       }
-      processValuesFile(filesystem, path);
+      scans.add(
+          new ResourceScan() {
+            @Override
+            public ScannedResources call() throws IOException, ResourceParseException {
+              ScannedResources resources = new ScannedResources();
+              scanValuesFile(filesystem, path, resources);
+              return resources;
+            }
+          });
     }
+    return scans.build();
   }
 
   /**
@@ -376,100 +434,136 @@ public class MiniAapt implements Step {
   @VisibleForTesting
   void processValuesFile(ProjectFilesystem filesystem, Path valuesFile)
       throws IOException, ResourceParseException {
+    ScannedResources resources = new ScannedResources();
+    scanValuesFile(filesystem, valuesFile, resources);
+    resources.addTo(resourceCollector);
+  }
+
+  private static void scanValuesFile(
+      ProjectFilesystem filesystem,
+      Path valuesFile,
+      ScannedResources resources)
+      throws IOException, ResourceParseException {
     try (InputStream stream = filesystem.newFileInputStream(valuesFile)) {
-      Document dom = parseXml(valuesFile, stream);
-      Element root = dom.getDocumentElement();
-
-      // Exclude resources annotated with the attribute {@code exclude-from-resource-map}.
-      // This is useful to exclude using generated strings to build the
-      // resource map, which ensures a build break will show up at build time
-      // rather than being hidden until generated resources are updated.
-      if (root.getAttribute("exclude-from-buck-resource-map").equals("true")) {
-        return;
-      }
+      XMLStreamReader reader = XML_INPUT_FACTORY.get().createXMLStreamReader(stream);
+      try {
+        if (!nextChildElement(reader)) {
+          return;
+        }
 
-      for (Node node = root.getFirstChild(); node != null; node = node.getNextSibling()) {
-        if (node.getNodeType() != Node.ELEMENT_NODE) {
-          continue;
+        // Exclude resources annotated with the attribute {@code exclude-from-resource-map}.
+        // This is useful to exclude using generated strings to build the
+        // resource map, which ensures a build break will show up at build time
+        // rather than being hidden until generated resources are updated.
+        if ("true".equals(getAttribute(reader, "exclude-from-buck-resource-map"))) {
+          return;
         }
 
-        String resourceType = node.getNodeName();
-        if (resourceType.equals(ITEM_TAG)) {
-          Node typeNode = node.getAttributes().getNamedItem("type");
-          if (typeNode == null) {
-            throw new ResourceParseException(
-                "Error parsing file '%s', expected a 'type' attribute in: \n'%s'\n",
-                valuesFile,
-                node.toString());
+        while (nextChildElement(reader)) {
+          String resourceType = getElementName(reader);
+          if (resourceType.equals(ITEM_TAG)) {
+            String type = getAttribute(reader, "type");
+            if (type == null) {
+              throw new ResourceParseException(
+                  "Error parsing file '%s', expected a 'type' attribute in: \n'%s'\n",
+                  valuesFile,
+                  "<" + resourceType + ">");
+            }
+            resourceType = type;
           }
-          resourceType = typeNode.getNodeValue();
-        }
 
-        if (IGNORED_TAGS.contains(resourceType)) {
-          continue;
-        }
+          if (IGNORED_TAGS.contains(resourceType)) {
+            skipElement(reader);
+            continue;
+          }
 
-        if (!RESOURCE_TYPES.containsKey(resourceType)) {
-          throw new ResourceParseException(
-              "Invalid resource type '<%s>' in '%s'.",
-              resourceType,
-              valuesFile);
-        }
+          if (!RESOURCE_TYPES.containsKey(resourceType)) {
+            throw new ResourceParseException(
+                "Invalid resource type '<%s>' in '%s'.",
+                resourceType,
+                valuesFile);
+          }
 
-        RType rType = Preconditions.checkNotNull(RESOURCE_TYPES.get(resourceType));
-        addToResourceCollector(node, rType);
+          RType rType = Preconditions.checkNotNull(RESOURCE_TYPES.get(resourceType));
+          scanResourceDefinition(reader, rType, resources);
+        }
+      } finally {
+        reader.close();
       }
+    } catch (XMLStreamException e) {
+      throw newXmlParseException(valuesFile, e);
     }
   }
 
-  private void addToResourceCollector(Node node, RType rType) throws ResourceParseException {
-    String resourceName = sanitizeName(extractNameAttribute(node));
+  /**
+   * Adds the resource defined by the element {@code reader} is at the start of, and reads up to
+   * the end of that element.
+   */
+  private static void scanResourceDefinition(
+      XMLStreamReader reader,
+      RType rType,
+      ScannedResources resources)
+      throws XMLStreamException, ResourceParseException {
+    String resourceName = sanitizeName(extractNameAttribute(reader));
     if (rType.equals(RType.STYLEABLE)) {
 
       int count = 0;
-      for (Node attrNode = node.getFirstChild();
-           attrNode != null;
-           attrNode = attrNode.getNextSibling()) {
-        if (attrNode.getNodeType() != Node.ELEMENT_NODE ||
-            !attrNode.getNodeName().equals("attr")) {
+      while (nextChildElement(reader)) {
+        if (!getElementName(reader).equals("attr")) {
+          skipElement(reader);
           continue;
         }
 
-        String rawAttrName = extractNameAttribute(attrNode);
+        String rawAttrName = extractNameAttribute(reader);
+        skipElement(reader);
         String attrName = sanitizeName(rawAttrName);
-        resourceCollector.addResource(
-            RType.STYLEABLE,
-            IdType.INT,
+        resources.addStyleableAttr(
             String.format(
                 "%s_%s",
                 resourceName,
                 attrName),
-            Integer.toString(count++));
+            count++);
 
         if (!rawAttrName.startsWith("android:")) {
-          resourceCollector.addIntResourceIfNotPresent(RType.ATTR, attrName);
+          resources.addIntResource(RType.ATTR, attrName);
         }
       }
 
-      resourceCollector.addIntArrayResourceIfNotPresent(rType, resourceName, count);
+      resources.addIntArrayResource(rType, resourceName, count);
     } else {
-      resourceCollector.addIntResourceIfNotPresent(rType, resourceName);
+      skipElement(reader);
+      resources.addIntResource(rType, resourceName);
     }
   }
 
   void processXmlFilesForIds(
-      ProjectFilesystem filesystem,
-      ImmutableSet.Builder<RDotTxtEntry> references)
-      throws IOException, XPathExpressionException, ResourceParseException {
+      final ProjectFilesystem filesystem,
+      ImmutableSet.Builder<RDotTxtEntry> references,
+      ListeningExecutorService executorService)
+      throws IOException, ResourceParseException, InterruptedException {
     Path absoluteResDir = resolver.getAbsolutePath(resDirectory);
     Path relativeResDir = resolver.getRelativePath(resDirectory);
-    for (Path path : filesystem.getFilesUnderPath(absoluteResDir, ENDS_WITH_XML)) {
+    ImmutableList.Builder<ResourceScan> scans = ImmutableList.builder();
+    for (final Path path : filesystem.getFilesUnderPath(absoluteResDir, ENDS_WITH_XML)) {
       String dirname = relativeResDir.relativize(path).getName(0).toString();
       if (isAValuesDir(dirname)) {
         // Ignore files under values* directories.
         continue;
       }
-      processXmlFile(filesystem, path, references);
+      scans.add(
+          new ResourceScan() {
+            @Override
+            public ScannedResources call() throws IOException, ResourceParseException {
+              ScannedResources resources = new ScannedResources();
+              scanXmlFile(filesystem, path, resources);
+              return resources;
+            }
+          });
+    }
+
+    for (ScannedResources scanned : scanAll(scans.build(), executorService)) {
+      scanned.addTo(resourceCollector);
+      references.addAll(scanned.getReferences());
     }
   }
 
@@ -478,71 +572,218 @@ public class MiniAapt implements Step {
       ProjectFilesystem filesystem,
       Path xmlFile,
       ImmutableSet.Builder<RDotTxtEntry> references)
-      throws IOException, XPathExpressionException, ResourceParseException {
+      throws IOException, ResourceParseException {
+    ScannedResources resources = new ScannedResources();
+    scanXmlFile(filesystem, xmlFile, resources);
+    resources.addTo(resourceCollector);
+    references.addAll(resources.getReferences());
+  }
+
+  /**
+   * Adds the ids defined in {@code xmlFile}, i.e. the attributes with values like
+   * {@code @+id/name}, and the resources it references, i.e. attributes with values like
+   * {@code @type/name}.
+   */
+  private static void scanXmlFile(
+      ProjectFilesystem filesystem,
+      Path xmlFile,
+      ScannedResources resources)
+      throws IOException, ResourceParseException {
+    List<String> definitions = new ArrayList<>();
+    List<Map.Entry<String, String>> usages = new ArrayList<>();
     try (InputStream stream = filesystem.newFileInputStream(xmlFile)) {
-      Document dom = parseXml(xmlFile, stream);
-      NodeList nodesWithIds =
-          (NodeList) ANDROID_ID_DEFINITION.evaluate(dom, XPathConstants.NODESET);
-      for (int i = 0; i < nodesWithIds.getLength(); i++) {
-        String resourceName = nodesWithIds.item(i).getNodeValue();
-        if (!resourceName.startsWith(ID_DEFINITION_PREFIX)) {
-          throw new ResourceParseException("Invalid definition of a resource: '%s'", resourceName);
+      XMLStreamReader reader = XML_INPUT_FACTORY.get().createXMLStreamReader(stream);
+      try {
+        while (reader.hasNext()) {
+          if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+            continue;
+          }
+
+          // Visit the attributes of each element sorted by name, which is the order in which the
+          // DOM based parsing this replaced found them, so that ids are assigned in the same order.
+          SortedMap<String, String> attributes = new TreeMap<>();
+          for (int i = 0; i < reader.getAttributeCount(); i++) {
+            attributes.put(getAttributeName(reader, i), reader.getAttributeValue(i));
+          }
+          for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+            String value = attribute.getValue();
+            if (isIdDefinition(value)) {
+              definitions.add(value);
+            } else if (isIdUsage(value)) {
+              usages.add(attribute);
+            }
+          }
         }
-        Preconditions.checkState(resourceName.startsWith(ID_DEFINITION_PREFIX));
+      } finally {
+        reader.close();
+      }
+    } catch (XMLStreamException e) {
+      throw newXmlParseException(xmlFile, e);
+    }
 
-        resourceCollector.addIntResourceIfNotPresent(
-            RType.ID,
-            resourceName.substring(ID_DEFINITION_PREFIX.length()));
+    for (String resourceName : definitions) {
+      if (!resourceName.startsWith(ID_DEFINITION_PREFIX)) {
+        throw new ResourceParseException("Invalid definition of a resource: '%s'", resourceName);
       }
+      Preconditions.checkState(resourceName.startsWith(ID_DEFINITION_PREFIX));
 
-      NodeList nodesUsingIds =
-          (NodeList) ANDROID_ID_USAGE.evaluate(dom, XPathConstants.NODESET);
-      for (int i = 0; i < nodesUsingIds.getLength(); i++) {
-        String resourceName = nodesUsingIds.item(i).getNodeValue();
-        int slashPosition = resourceName.indexOf('/');
-        if (resourceName.charAt(0) != '@' || slashPosition == -1) {
-          throw new ResourceParseException("Invalid definition of a resource: '%s'", resourceName);
-        }
+      resources.addIntResource(
+          RType.ID,
+          resourceName.substring(ID_DEFINITION_PREFIX.length()));
+    }
 
-        String rawRType = resourceName.substring(1, slashPosition);
-        String name = resourceName.substring(slashPosition + 1);
+    for (Map.Entry<String, String> usage : usages) {
+      String resourceName = usage.getValue();
+      int slashPosition = resourceName.indexOf('/');
+      if (resourceName.charAt(0) != '@' || slashPosition == -1) {
+        throw new ResourceParseException("Invalid definition of a resource: '%s'", resourceName);
+      }
 
-        String nodeName = nodesUsingIds.item(i).getNodeName();
-        if (name.startsWith("android:") || nodeName.startsWith("tools:")) {
-          continue;
+      String rawRType = resourceName.substring(1, slashPosition);
+      String name = resourceName.substring(slashPosition + 1);
+
+      String nodeName = usage.getKey();
+      if (name.startsWith("android:") || nodeName.startsWith("tools:")) {
+        continue;
+      }
+      if (!RESOURCE_TYPES.containsKey(rawRType)) {
+        throw new ResourceParseException("Invalid reference '%s' in '%s'", resourceName, xmlFile);
+      }
+      RType rType = Preconditions.checkNotNull(RESOURCE_TYPES.get(rawRType));
+
+      resources.addReference(new FakeRDotTxtEntry(IdType.INT, rType, sanitizeName(name)));
+    }
+  }
+
+  private static boolean isIdDefinition(String value) {
+    return value.startsWith("@+") && !value.startsWith("@+android:id");
+  }
+
+  private static boolean isIdUsage(String value) {
+    return value.startsWith("@") &&
+        !value.startsWith("@+") &&
+        !value.startsWith("@android:") &&
+        !value.startsWith("@null");
+  }
+
+  /**
+   * Runs {@code scans} on {@code executorService}, a few at a time, and returns what they found in
+   * the same order as {@code scans}. If any of them fails, the exception of the first one to fail
+   * in that order is thrown.
+   */
+  private static ImmutableList<ScannedResources> scanAll(
+      ImmutableList<ResourceScan> scans,
+      ListeningExecutorService executorService)
+      throws IOException, ResourceParseException, InterruptedException {
+    ImmutableList.Builder<ScannedResources> results = ImmutableList.builder();
+    Deque<ListenableFuture<ScannedResources>> pendingScans = new ArrayDeque<>();
+    Iterator<ResourceScan> scansToSubmit = scans.iterator();
+    try {
+      while (scansToSubmit.hasNext() || !pendingScans.isEmpty()) {
+        while (scansToSubmit.hasNext() && pendingScans.size() < MAX_CONCURRENT_SCANS) {
+          pendingScans.add(executorService.submit(scansToSubmit.next()));
         }
-        if (!RESOURCE_TYPES.containsKey(rawRType)) {
-          throw new ResourceParseException("Invalid reference '%s' in '%s'", resourceName, xmlFile);
+        try {
+          results.add(pendingScans.remove().get());
+        } catch (ExecutionException e) {
+          Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+          Throwables.propagateIfInstanceOf(e.getCause(), ResourceParseException.class);
+          throw Throwables.propagate(e.getCause());
         }
-        RType rType = Preconditions.checkNotNull(RESOURCE_TYPES.get(rawRType));
+      }
+    } finally {
+      for (ListenableFuture<ScannedResources> pendingScan : pendingScans) {
+        pendingScan.cancel(/* mayInterruptIfRunning */ false);
+      }
+    }
+    return results.build();
+  }
 
+  /**
+   * Moves {@code reader} to the start of the next child of the current element and returns true,
+   * or to the end of the current element and returns false. Any previous child must have been read
+   * up to its end.
+   */
+  private static boolean nextChildElement(XMLStreamReader reader) throws XMLStreamException {
+    while (reader.hasNext()) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        return true;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        return false;
+      }
+    }
+    return false;
+  }
 
-        references.add(new FakeRDotTxtEntry(IdType.INT, rType, sanitizeName(name)));
+  /**
+   * Moves {@code reader} from the start of an element to its end, and returns the text in it.
+   */
+  private static String skipElement(XMLStreamReader reader) throws XMLStreamException {
+    StringBuilder text = new StringBuilder();
+    int depth = 1;
+    while (depth > 0) {
+      switch (reader.next()) {
+        case XMLStreamConstants.START_ELEMENT:
+          depth++;
+          break;
+        case XMLStreamConstants.END_ELEMENT:
+          depth--;
+          break;
+        case XMLStreamConstants.CHARACTERS:
+        case XMLStreamConstants.CDATA:
+        case XMLStreamConstants.SPACE:
+          text.append(reader.getText());
+          break;
       }
     }
+    return text.toString();
   }
 
-  private static Document parseXml(Path filepath, InputStream inputStream)
-      throws IOException, ResourceParseException {
-    try {
-      return XmlDomParser.parse(inputStream);
-    } catch (SAXException e) {
-      throw new ResourceParseException(
-          "Error parsing xml file '%s': %s.",
-          filepath,
-          e.getMessage());
+  private static String getElementName(XMLStreamReader reader) {
+    String prefix = reader.getPrefix();
+    return Strings.isNullOrEmpty(prefix) ?
+        reader.getLocalName() :
+        prefix + ":" + reader.getLocalName();
+  }
+
+  private static String getAttributeName(XMLStreamReader reader, int index) {
+    String prefix = reader.getAttributePrefix(index);
+    return Strings.isNullOrEmpty(prefix) ?
+        reader.getAttributeLocalName(index) :
+        prefix + ":" + reader.getAttributeLocalName(index);
+  }
+
+  @Nullable
+  private static String getAttribute(XMLStreamReader reader, String name) {
+    for (int i = 0; i < reader.getAttributeCount(); i++) {
+      if (getAttributeName(reader, i).equals(name)) {
+        return reader.getAttributeValue(i);
+      }
     }
+    return null;
+  }
+
+  private static ResourceParseException newXmlParseException(
+      Path filepath,
+      XMLStreamException e) {
+    return new ResourceParseException(
+        "Error parsing xml file '%s': %s.",
+        filepath,
+        e.getMessage());
   }
 
-  private static String extractNameAttribute(Node node) throws ResourceParseException {
-    Node attribute = node.getAttributes().getNamedItem("name");
-    if (attribute == null) {
+  private static String extractNameAttribute(XMLStreamReader reader)
+      throws XMLStreamException, ResourceParseException {
+    String name = getAttribute(reader, "name");
+    if (name == null) {
+      String nodeName = getElementName(reader);
       throw new ResourceParseException(
           "Error: expected a 'name' attribute in node '%s' with value '%s'",
-          node.getNodeName(),
-          node.getTextContent());
+          nodeName,
+          skipElement(reader));
     }
-    return attribute.getNodeValue();
+    return name;
   }
 
   private static String sanitizeName(String rawName) {
@@ -598,6 +839,98 @@ public class MiniAapt implements Step {
     return getShortName() + " " + resDirectory;
   }
 
+  /**
+   * Scans a file, or a directory of files, for the resources it defines and references. Scans
+   * don't touch the {@link AaptResourceCollector}, so they can run concurrently.
+   */
+  private abstract static class ResourceScan implements Callable<ScannedResources> {
+    @Override
+    public abstract ScannedResources call() throws IOException, ResourceParseException;
+  }
+
+  /**
+   * The resources found by a {@link ResourceScan}, in the order in which they were found. Ids are
+   * handed out in the order in which resources are added to the {@link AaptResourceCollector}, so
+   * these are added to it in a fixed order, however the scans were scheduled.
+   */
+  private static class ScannedResources {
+
+    private enum Kind {
+      INT,
+      CUSTOM_DRAWABLE,
+      STYLEABLE_ATTR,
+      INT_ARRAY
+    }
+
+    private final List<Definition> definitions = new ArrayList<>();
+    private final List<RDotTxtEntry> references = new ArrayList<>();
+
+    void addIntResource(RType rType, String name) {
+      definitions.add(new Definition(Kind.INT, rType, name, 0));
+    }
+
+    void addCustomDrawableResource(RType rType, String name) {
+      definitions.add(new Definition(Kind.CUSTOM_DRAWABLE, rType, name, 0));
+    }
+
+    void addStyleableAttr(String name, int index) {
+      definitions.add(new Definition(Kind.STYLEABLE_ATTR, RType.STYLEABLE, name, index));
+    }
+
+    void addIntArrayResource(RType rType, String name, int numValues) {
+      definitions.add(new Definition(Kind.INT_ARRAY, rType, name, numValues));
+    }
+
+    void addReference(RDotTxtEntry reference) {
+      references.add(reference);
+    }
+
+    List<RDotTxtEntry> getReferences() {
+      return references;
+    }
+
+    void addTo(AaptResourceCollector collector) {
+      for (Definition definition : definitions) {
+        switch (definition.kind) {
+          case INT:
+            collector.addIntResourceIfNotPresent(definition.rType, definition.name);
+            break;
+          case CUSTOM_DRAWABLE:
+            collector.addCustomDrawableResourceIfNotPresent(definition.rType, definition.name);
+            break;
+          case STYLEABLE_ATTR:
+            collector.addResource(
+                definition.rType,
+                IdType.INT,
+                definition.name,
+                Integer.toString(definition.value));
+            break;
+          case INT_ARRAY:
+            collector.addIntArrayResourceIfNotPresent(
+                definition.rType,
+                definition.name,
+                definition.value);
+            break;
+        }
+      }
+    }
+
+    private static class Definition {
+      private final Kind kind;
+      private final RType rType;
+      private final String name;
+      // The index of a styleable attribute, or the number of values of an array.
+      private final int value;
+
+      Definition(Kind kind, RType rType, String name, int value) {
+        this.kind = kind;
+        this.rType = rType;
+        this.name = name;
+        this.value = value;
+      }
+    }
+  }
+
   @SuppressWarnings("serial")
   @VisibleForTesting
   static class ResourceParseException extends Exception {
@@ -24,7 +24,9 @@ import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.slb.HttpService;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
@@ -38,10 +40,18 @@ import java.nio.file.Paths;
 import java.util.Set;
 import java.util.regex.Matcher;
 
+import javax.annotation.concurrent.GuardedBy;
+
 public abstract class AbstractNetworkCache implements ArtifactCache {
 
   private static final Logger LOG = Logger.get(AbstractNetworkCache.class);
 
+  /**
+   * The most batches in a row skipped after multiContains requests fail.
+   */
+  @VisibleForTesting
+  static final int MAX_SKIPPED_MULTI_CONTAINS_BATCHES = 256;
+
   protected final String name;
   protected final HttpService fetchClient;
   protected final HttpService storeClient;
@@ -54,6 +64,15 @@ public abstract class AbstractNetworkCache implements ArtifactCache {
 
   private final Set<String> seenErrors = Sets.newConcurrentHashSet();
 
+  // After a multiContains request fails, such as against a server which doesn't support it, the
+  // next batches skip the round trip: twice as many after each failure in a row, up to
+  // MAX_SKIPPED_MULTI_CONTAINS_BATCHES. So a transient failure only costs a batch its hint, while
+  // a server which never answers them is rarely asked.
+  @GuardedBy("this")
+  private int multiContainsBackOff = 1;
+  @GuardedBy("this")
+  private int multiContainsBatchesToSkip = 0;
+
   public AbstractNetworkCache(NetworkCacheArgs args) {
     this.name = args.getCacheName();
     this.fetchClient = args.getFetchClient();
@@ -71,13 +90,46 @@ public abstract class AbstractNetworkCache implements ArtifactCache {
       LazyPath output,
       final HttpArtifactCacheEvent.Finished.Builder eventBuilder) throws IOException;
 
+  protected abstract CacheResult fetchStreamingImpl(
+      RuleKey ruleKey,
+      ArtifactStreamConsumer consumer,
+      final HttpArtifactCacheEvent.Finished.Builder eventBuilder) throws IOException;
+
+  protected abstract ImmutableMap<RuleKey, Boolean> multiContainsImpl(
+      ImmutableSet<RuleKey> ruleKeys) throws IOException;
+
   protected abstract void storeImpl(ArtifactInfo info,
       final Path file,
       final HttpArtifactCacheEvent.Finished.Builder eventBuilder)
       throws IOException;
 
   @Override
-  public CacheResult fetch(RuleKey ruleKey, LazyPath output) {
+  public CacheResult fetch(final RuleKey ruleKey, final LazyPath output) {
+    return fetchWithEvents(
+        ruleKey,
+        new FetchOperation() {
+          @Override
+          public CacheResult fetch(HttpArtifactCacheEvent.Finished.Builder eventBuilder)
+              throws IOException {
+            return fetchImpl(ruleKey, output, eventBuilder);
+          }
+        });
+  }
+
+  @Override
+  public CacheResult fetchStreaming(final RuleKey ruleKey, final ArtifactStreamConsumer consumer) {
+    return fetchWithEvents(
+        ruleKey,
+        new FetchOperation() {
+          @Override
+          public CacheResult fetch(HttpArtifactCacheEvent.Finished.Builder eventBuilder)
+              throws IOException {
+            return fetchStreamingImpl(ruleKey, consumer, eventBuilder);
+          }
+        });
+  }
+
+  private CacheResult fetchWithEvents(RuleKey ruleKey, FetchOperation operation) {
     HttpArtifactCacheEvent.Started startedEvent = HttpArtifactCacheEvent.newFetchStartedEvent(
         ImmutableSet.of(ruleKey));
     buckEventBus.post(startedEvent);
@@ -86,7 +138,7 @@ public abstract class AbstractNetworkCache implements ArtifactCache {
         .setRuleKeys(Lists.newArrayList(ruleKey));
 
     try {
-      CacheResult result = fetchImpl(ruleKey, output, eventBuilder);
+      CacheResult result = operation.fetch(eventBuilder);
       buckEventBus.post(
           eventBuilder
               .setFetchResult(result)
@@ -104,6 +156,51 @@ public abstract class AbstractNetworkCache implements ArtifactCache {
     }
   }
 
+  @Override
+  public ImmutableMap<RuleKey, Boolean> multiContains(ImmutableSet<RuleKey> ruleKeys) {
+    if (ruleKeys.isEmpty() || !shouldSendMultiContains()) {
+      return ImmutableMap.of();
+    }
+    try {
+      ImmutableMap<RuleKey, Boolean> result = multiContainsImpl(ruleKeys);
+      recordMultiContainsSuccess();
+      return result;
+    } catch (IOException e) {
+      // This is only a hint, so the individual fetches will find out what is really there.
+      if (recordMultiContainsFailure()) {
+        reportFailure(
+            e,
+            "multiContains(%d rule keys): %s: %s",
+            ruleKeys.size(),
+            e.getClass().getName(),
+            e.getMessage());
+      }
+      return ImmutableMap.of();
+    }
+  }
+
+  private synchronized boolean shouldSendMultiContains() {
+    if (multiContainsBatchesToSkip > 0) {
+      multiContainsBatchesToSkip--;
+      return false;
+    }
+    return true;
+  }
+
+  private synchronized void recordMultiContainsSuccess() {
+    multiContainsBackOff = 1;
+  }
+
+  /**
+   * @return whether this is the first of a run of failed multiContains requests.
+   */
+  private synchronized boolean recordMultiContainsFailure() {
+    boolean first = multiContainsBackOff == 1;
+    multiContainsBatchesToSkip = multiContainsBackOff;
+    multiContainsBackOff = Math.min(2 * multiContainsBackOff, MAX_SKIPPED_MULTI_CONTAINS_BATCHES);
+    return first;
+  }
+
   @Override
   public ListenableFuture<Void> store(
       final ArtifactInfo info,
@@ -220,6 +317,10 @@ public abstract class AbstractNetworkCache implements ArtifactCache {
     }
   }
 
+  private interface FetchOperation {
+    CacheResult fetch(HttpArtifactCacheEvent.Finished.Builder eventBuilder) throws IOException;
+  }
+
   private static boolean isArtefactTooBigToBeStored(
       Path file,
       Optional<Long> maxStoreSize,
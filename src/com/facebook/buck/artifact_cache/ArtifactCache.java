@@ -19,6 +19,8 @@ package com.facebook.buck.artifact_cache;
 import com.facebook.buck.io.BorrowablePath;
 import com.facebook.buck.io.LazyPath;
 import com.facebook.buck.rules.RuleKey;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.ListenableFuture;
 
 public interface ArtifactCache extends AutoCloseable {
@@ -34,6 +36,30 @@ public interface ArtifactCache extends AutoCloseable {
    */
   CacheResult fetch(RuleKey ruleKey, LazyPath output);
 
+  /**
+   * Fetch a cached artifact, keyed by ruleKey, and hand its contents to {@code consumer} while they
+   * are being read, rather than saving them to a file first.
+   * <p>
+   * If the fetch is not a success, the artifact may still have been partially handed to the
+   * consumer, e.g. if it turned out to be corrupt.
+   *
+   * @param ruleKey cache fetch key
+   * @param consumer receives the contents of the artifact, unless it was a miss.
+   * @return whether it was a {@link CacheResultType#MISS} (indicating a failure) or some
+   *     type of hit.
+   */
+  CacheResult fetchStreaming(RuleKey ruleKey, ArtifactStreamConsumer consumer);
+
+  /**
+   * Check which of the given rule keys are present in the cache, using as few round trips as the
+   * cache allows. This is only a hint to let callers skip fetching artifacts which are known to be
+   * missing: a key which is reported as present may still miss when fetched.
+   *
+   * @param ruleKeys cache fetch keys
+   * @return whether each key is present. Keys which the cache cannot check cheaply are left out.
+   */
+  ImmutableMap<RuleKey, Boolean> multiContains(ImmutableSet<RuleKey> ruleKeys);
+
   /**
    * Store the artifact at path specified by output to cache, such that it can later be fetched
    * using ruleKey as the lookup key.  If any internal errors occur, fail silently and continue
@@ -190,7 +190,7 @@ public class ArtifactCaches {
       // Don't bother wrapping a single artifact cache in MultiArtifactCache.
       result = artifactCaches.get(0);
     } else {
-      result = new MultiArtifactCache(artifactCaches);
+      result = new MultiArtifactCache(artifactCaches, projectFilesystem);
     }
 
     // Always support reading two-level cache stores (in case we performed any in the past).
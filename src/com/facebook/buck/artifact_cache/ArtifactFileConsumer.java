@@ -0,0 +1,40 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * An {@link ArtifactStreamConsumer} which can also read an artifact in place, when the cache keeps
+ * it in a local file. This lets the artifact be sent on (e.g. with
+ * {@link FileChannel#transferTo}) without first being copied out of the cache.
+ * <p>
+ * Caches which don't keep artifacts in local files call
+ * {@link ArtifactStreamConsumer#consume(java.io.InputStream)} instead.
+ */
+public interface ArtifactFileConsumer extends ArtifactStreamConsumer {
+
+  /**
+   * Called at most once per fetch, in place of
+   * {@link ArtifactStreamConsumer#consume(java.io.InputStream)}, with the artifact's metadata and
+   * a read-only channel of its file. The channel is owned by the cache and must not be closed.
+   */
+  void consume(ImmutableMap<String, String> metadata, FileChannel artifact) throws IOException;
+}
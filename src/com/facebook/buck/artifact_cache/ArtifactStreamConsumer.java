@@ -0,0 +1,37 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Receives the contents of an artifact as it is being fetched from an {@link ArtifactCache}, so
+ * that it can be processed (e.g. unzipped) without first being written to a temporary file.
+ */
+public interface ArtifactStreamConsumer {
+
+  /**
+   * Called at most once per fetch, with a stream of the artifact's contents. The stream is owned by
+   * the cache: implementations need not read it to the end, and must not close it.
+   * <p>
+   * Caches verify the integrity of the artifact only once the stream has been fully read, so a
+   * consumer may have seen a corrupt artifact even if the fetch is eventually reported as a
+   * failure.
+   */
+  void consume(InputStream artifact) throws IOException;
+}
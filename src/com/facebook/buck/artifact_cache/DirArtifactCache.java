@@ -18,26 +18,28 @@ package com.facebook.buck.artifact_cache;
 
 import com.facebook.buck.io.BorrowablePath;
 import com.facebook.buck.io.LazyPath;
-import com.facebook.buck.io.MoreFiles;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.rules.RuleKey;
-import com.facebook.buck.util.collect.ArrayIterable;
+import com.facebook.buck.util.concurrent.MostExecutors;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
-import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.nio.file.FileVisitOption;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
@@ -45,11 +47,28 @@ import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An {@link ArtifactCache} in a local directory.
+ * <p>
+ * Stores only take a copy (or a move, for a borrowable path) of the artifact on the storing
+ * thread. Moving it into place, writing its metadata and evicting old artifacts happen on a single
+ * writer thread, which is the only user of the {@link DirArtifactCacheIndex} that tracks what to
+ * evict. At most {@link #MAX_PENDING_STORES} stores wait for the writer at once; further stores
+ * block until it catches up. The index is written out whenever the writer runs out of work.
+ */
 public class DirArtifactCache implements ArtifactCache {
 
   private static final Logger LOG = Logger.get(DirArtifactCache.class);
@@ -59,12 +78,28 @@ public class DirArtifactCache implements ArtifactCache {
   // How much of the max size to leave if we decide to delete old files.
   private static final float MAX_BYTES_TRIM_RATIO = 2 / 3f;
   private static final String TMP_EXTENSION = ".tmp";
+  private static final String TMP_FOLDER_NAME = "tmp";
+  @VisibleForTesting
+  static final int MAX_PENDING_STORES = 32;
+
+  // Stores which haven't finished yet, by cache directory, so that fetches from any instance using
+  // the same directory can wait for them.
+  private static final ConcurrentMap<Path, ConcurrentMap<RuleKey, ListenableFuture<Void>>>
+      PENDING_STORES_BY_CACHE_DIR = new ConcurrentHashMap<>();
 
   private final String name;
   private final ProjectFilesystem filesystem;
   private final Path cacheDir;
   private final Optional<Long> maxCacheSizeBytes;
   private final boolean doStore;
+  private final ListeningExecutorService writer;
+  private final Semaphore pendingStorePermits;
+  private final ConcurrentMap<RuleKey, ListenableFuture<Void>> pendingStores;
+  // Tasks submitted to the writer which haven't finished yet.
+  private final AtomicInteger queuedWriterTasks;
+
+  // Only accessed on the writer thread.
+  private final Optional<DirArtifactCacheIndex> index;
   private long bytesSinceLastDeleteOldFiles;
 
   public DirArtifactCache(
@@ -79,34 +114,41 @@ public class DirArtifactCache implements ArtifactCache {
     this.cacheDir = cacheDir;
     this.maxCacheSizeBytes = maxCacheSizeBytes;
     this.doStore = doStore;
+    // Unlike MostExecutors' executors, this one throws when it rejects a task, so that a store
+    // racing with close() doesn't wait forever for a task that will never run.
+    this.writer = MoreExecutors.listeningDecorator(
+        Executors.newSingleThreadExecutor(
+            new MostExecutors.NamedThreadFactory("DirArtifactCache writer")));
+    this.pendingStorePermits = new Semaphore(MAX_PENDING_STORES);
+    this.queuedWriterTasks = new AtomicInteger();
     this.bytesSinceLastDeleteOldFiles = 0L;
     filesystem.mkdirs(cacheDir);
+    Path cacheRoot = filesystem.resolve(cacheDir).normalize();
+    PENDING_STORES_BY_CACHE_DIR.putIfAbsent(
+        cacheRoot,
+        new ConcurrentHashMap<RuleKey, ListenableFuture<Void>>());
+    this.pendingStores = PENDING_STORES_BY_CACHE_DIR.get(cacheRoot);
+    if (maxCacheSizeBytes.isPresent()) {
+      this.index = Optional.of(
+          new DirArtifactCacheIndex(cacheRoot, cacheRoot.resolve(TMP_FOLDER_NAME)));
+    } else {
+      this.index = Optional.absent();
+    }
   }
 
   @Override
   public CacheResult fetch(RuleKey ruleKey, LazyPath output) {
+    waitForPendingStore(ruleKey);
     CacheResult result;
     try {
       // First, build up the metadata from the metadata file.
-      ImmutableMap.Builder<String, String> metadata = ImmutableMap.builder();
-      try (DataInputStream in =
-               new DataInputStream(
-                   filesystem.newFileInputStream(
-                       getPathForRuleKey(ruleKey, Optional.of(".metadata"))))) {
-        int sz = in.readInt();
-        for (int i = 0; i < sz; i++) {
-          String key = in.readUTF();
-          int valSize = in.readInt();
-          byte[] val = new byte[valSize];
-          ByteStreams.readFully(in, val);
-          metadata.put(key, new String(val, Charsets.UTF_8));
-        }
-      }
+      ImmutableMap<String, String> metadata = readMetadata(ruleKey);
 
       // Now copy the artifact out.
       filesystem.copyFile(getPathForRuleKey(ruleKey, Optional.<String>absent()), output.get());
 
-      result = CacheResult.hit(name, metadata.build(), filesystem.getFileSize(output.get()));
+      result = CacheResult.hit(name, metadata, filesystem.getFileSize(output.get()));
+      recordAccess(ruleKey);
     } catch (NoSuchFileException e) {
       result = CacheResult.miss();
     } catch (IOException e) {
@@ -126,17 +168,223 @@ public class DirArtifactCache implements ArtifactCache {
     return result;
   }
 
+  @Override
+  public CacheResult fetchStreaming(RuleKey ruleKey, ArtifactStreamConsumer consumer) {
+    waitForPendingStore(ruleKey);
+    CacheResult result;
+    try {
+      ImmutableMap<String, String> metadata = readMetadata(ruleKey);
+
+      // The artifact is already on disk, so hand it to the consumer straight from the cache.
+      Path artifactPath = getPathForRuleKey(ruleKey, Optional.<String>absent());
+      if (consumer instanceof ArtifactFileConsumer) {
+        // The open channel stays readable even if the artifact is evicted while it's being read.
+        try (FileChannel channel =
+                 FileChannel.open(filesystem.resolve(artifactPath), StandardOpenOption.READ)) {
+          ((ArtifactFileConsumer) consumer).consume(metadata, channel);
+        }
+      } else {
+        try (InputStream in = filesystem.newFileInputStream(artifactPath)) {
+          consumer.consume(in);
+        }
+      }
+
+      result = CacheResult.hit(name, metadata, filesystem.getFileSize(artifactPath));
+      recordAccess(ruleKey);
+    } catch (NoSuchFileException e) {
+      result = CacheResult.miss();
+    } catch (IOException e) {
+      LOG.warn(
+          e,
+          "Artifact fetchStreaming(%s) error",
+          ruleKey);
+      result = CacheResult.error(name, String.format("%s: %s", e.getClass(), e.getMessage()));
+    }
+
+    LOG.debug(
+        "Artifact fetchStreaming(%s) cache %s",
+        ruleKey,
+        (result.getType().isSuccess() ? "hit" : "miss"));
+    return result;
+  }
+
+  @Override
+  public ImmutableMap<RuleKey, Boolean> multiContains(ImmutableSet<RuleKey> ruleKeys) {
+    ImmutableMap.Builder<RuleKey, Boolean> result = ImmutableMap.builder();
+    for (RuleKey ruleKey : ruleKeys) {
+      waitForPendingStore(ruleKey);
+      result.put(
+          ruleKey,
+          filesystem.exists(getPathForRuleKey(ruleKey, Optional.<String>absent())));
+    }
+    return result.build();
+  }
+
+  private ImmutableMap<String, String> readMetadata(RuleKey ruleKey) throws IOException {
+    ImmutableMap.Builder<String, String> metadata = ImmutableMap.builder();
+    try (DataInputStream in =
+             new DataInputStream(
+                 filesystem.newFileInputStream(
+                     getPathForRuleKey(ruleKey, Optional.of(".metadata"))))) {
+      int sz = in.readInt();
+      for (int i = 0; i < sz; i++) {
+        String key = in.readUTF();
+        int valSize = in.readInt();
+        byte[] val = new byte[valSize];
+        ByteStreams.readFully(in, val);
+        metadata.put(key, new String(val, Charsets.UTF_8));
+      }
+    }
+    return metadata.build();
+  }
+
+  private void waitForPendingStore(RuleKey ruleKey) {
+    ListenableFuture<Void> pendingStore = pendingStores.get(ruleKey);
+    if (pendingStore == null) {
+      return;
+    }
+    try {
+      pendingStore.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      // The store logs its own errors, and a failed store is just a miss.
+    }
+  }
+
+  private void recordAccess(final RuleKey ruleKey) {
+    if (!doStore || !index.isPresent()) {
+      return;
+    }
+    final long nowMillis = System.currentTimeMillis();
+    try {
+      submitToWriter(
+          new Runnable() {
+            @Override
+            public void run() {
+              index.get().access(
+                  getIndexPathForRuleKey(ruleKey, Optional.<String>absent()),
+                  nowMillis);
+              index.get().access(
+                  getIndexPathForRuleKey(ruleKey, Optional.of(".metadata")),
+                  nowMillis);
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      // The cache has been closed, and won't evict anything any more.
+    }
+  }
+
   @Override
   public ListenableFuture<Void> store(
-      ArtifactInfo info,
-      BorrowablePath output) {
+      final ArtifactInfo info,
+      final BorrowablePath output) {
 
-    if (!doStore) {
+    if (!doStore || writer.isShutdown()) {
+      return Futures.immediateFuture(null);
+    }
+
+    // Take our own copy of the artifact before returning, as the caller may change or delete it.
+    pendingStorePermits.acquireUninterruptibly();
+    final Path staged;
+    try {
+      staged = filesystem.createTempFile(getPreparedTempFolder(), "artifact", TMP_EXTENSION);
+      if (!output.canBorrow()) {
+        filesystem.copyFile(output.getPath(), staged);
+      } else {
+        // This branch means that we are apparently the only users of the `output`, so instead
+        // of making a safe transfer of the output to the dir cache (copy+move), we can just
+        // move it without copying.  This significantly optimizes the Disk I/O.
+        filesystem.move(output.getPath(), staged, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } catch (IOException e) {
+      pendingStorePermits.release();
+      LOG.warn(
+          e,
+          "Artifact store(%s, %s) error",
+          info.getRuleKeys(),
+          output);
       return Futures.immediateFuture(null);
     }
 
+    final ListenableFuture<Void> future;
     try {
-      Optional<Path> borrowedAndStoredArtifactPath = Optional.absent();
+      future = submitToWriter(
+          new Runnable() {
+            @Override
+            public void run() {
+              try {
+                storeStaged(info, staged);
+              } catch (IOException e) {
+                LOG.warn(
+                    e,
+                    "Artifact store(%s, %s) error",
+                    info.getRuleKeys(),
+                    output);
+              } finally {
+                pendingStorePermits.release();
+              }
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      // The cache was closed while the artifact was being staged.
+      pendingStorePermits.release();
+      try {
+        filesystem.deleteFileAtPathIfExists(staged);
+      } catch (IOException deleteException) {
+        LOG.debug(deleteException, "Failed to delete staged artifact %s", staged);
+      }
+      return Futures.immediateFailedFuture(e);
+    }
+    for (final RuleKey ruleKey : info.getRuleKeys()) {
+      pendingStores.put(ruleKey, future);
+      future.addListener(
+          new Runnable() {
+            @Override
+            public void run() {
+              pendingStores.remove(ruleKey, future);
+            }
+          },
+          MoreExecutors.directExecutor());
+    }
+    return future;
+  }
+
+  /**
+   * Runs {@code task} on the writer, and writes out the index once the writer has nothing else to
+   * do, so that a crash loses at most the records of the last batch of stores.
+   *
+   * @throws RejectedExecutionException if the cache has been closed.
+   */
+  private ListenableFuture<Void> submitToWriter(final Runnable task) {
+    queuedWriterTasks.incrementAndGet();
+    try {
+      return writer.submit(
+          new Runnable() {
+            @Override
+            public void run() {
+              try {
+                task.run();
+              } finally {
+                if (queuedWriterTasks.decrementAndGet() == 0) {
+                  flushIndex();
+                }
+              }
+            }
+          },
+          null);
+    } catch (RejectedExecutionException e) {
+      queuedWriterTasks.decrementAndGet();
+      throw e;
+    }
+  }
+
+  /**
+   * Moves an artifact staged in the temp folder into the cache. Runs on the writer thread.
+   */
+  private void storeStaged(ArtifactInfo info, Path staged) throws IOException {
+    try {
+      Optional<Path> storedArtifactPath = Optional.absent();
       for (RuleKey ruleKey : info.getRuleKeys()) {
         Path artifactPath = getPathForRuleKey(ruleKey, Optional.<String>absent());
         Path metadataPath = getPathForRuleKey(ruleKey, Optional.of(".metadata"));
@@ -147,20 +395,13 @@ public class DirArtifactCache implements ArtifactCache {
 
         filesystem.mkdirs(getParentDirForRuleKey(ruleKey));
 
-        if (!output.canBorrow()) {
-          storeArtifactOutput(output.getPath(), artifactPath);
+        if (!storedArtifactPath.isPresent()) {
+          storedArtifactPath = Optional.of(artifactPath);
+          filesystem.move(staged, artifactPath, StandardCopyOption.REPLACE_EXISTING);
         } else {
-          // This branch means that we are apparently the only users of the `output`, so instead
-          // of making a safe transfer of the output to the dir cache (copy+move), we can just
-          // move it without copying.  This significantly optimizes the Disk I/O.
-          if (!borrowedAndStoredArtifactPath.isPresent()) {
-            borrowedAndStoredArtifactPath = Optional.of(artifactPath);
-            filesystem.move(output.getPath(), artifactPath, StandardCopyOption.REPLACE_EXISTING);
-          } else {
-            storeArtifactOutput(borrowedAndStoredArtifactPath.get(), artifactPath);
-          }
+          storeArtifactOutput(storedArtifactPath.get(), artifactPath);
         }
-        bytesSinceLastDeleteOldFiles += filesystem.getFileSize(artifactPath);
+        recordStoredFile(ruleKey, Optional.<String>absent());
 
         // Now, write the meta data artifact.
         Path tmp = filesystem.createTempFile(getPreparedTempFolder(), "metadata", TMP_EXTENSION);
@@ -175,32 +416,36 @@ public class DirArtifactCache implements ArtifactCache {
             }
           }
           filesystem.move(tmp, metadataPath, StandardCopyOption.REPLACE_EXISTING);
-          bytesSinceLastDeleteOldFiles += filesystem.getFileSize(metadataPath);
+          recordStoredFile(ruleKey, Optional.of(".metadata"));
         } finally {
           filesystem.deleteFileAtPathIfExists(tmp);
         }
       }
-
-    } catch (IOException e) {
-      LOG.warn(
-          e,
-          "Artifact store(%s, %s) error",
-          info.getRuleKeys(),
-          output);
+    } finally {
+      // Nothing was moved out of the temp folder if every key was already stored.
+      filesystem.deleteFileAtPathIfExists(staged);
     }
 
     if (maxCacheSizeBytes.isPresent() &&
         bytesSinceLastDeleteOldFiles >
             (maxCacheSizeBytes.get() * STORED_TO_MAX_BYTES_RATIO_TRIM_TRIGGER)) {
-      bytesSinceLastDeleteOldFiles = 0L;
-      deleteOldFiles();
+      deleteOldFilesOnWriter();
     }
+  }
 
-    return Futures.immediateFuture(null);
+  private void recordStoredFile(RuleKey ruleKey, Optional<String> extension) throws IOException {
+    long sizeBytes = filesystem.getFileSize(getPathForRuleKey(ruleKey, extension));
+    bytesSinceLastDeleteOldFiles += sizeBytes;
+    if (index.isPresent()) {
+      index.get().add(
+          getIndexPathForRuleKey(ruleKey, extension),
+          sizeBytes,
+          System.currentTimeMillis());
+    }
   }
 
-  private Path getPathToTempFolder() throws IOException {
-    return cacheDir.resolve("tmp");
+  private Path getPathToTempFolder() {
+    return cacheDir.resolve(TMP_FOLDER_NAME);
   }
 
   private Path getPreparedTempFolder() throws IOException {
@@ -235,6 +480,17 @@ public class DirArtifactCache implements ArtifactCache {
     return result;
   }
 
+  /**
+   * @return the path of a file in the cache, relative to the cache directory, as it is indexed.
+   */
+  private String getIndexPathForRuleKey(RuleKey ruleKey, Optional<String> extension) {
+    StringBuilder result = new StringBuilder();
+    for (String f : subfolders(ruleKey)) {
+      result.append(f).append(File.separatorChar);
+    }
+    return result.append(ruleKey.toString()).append(extension.or("")).toString();
+  }
+
   private void storeArtifactOutput(Path output, Path artifactPath) throws IOException {
     // Write to a temporary file and move the file to its final location atomically to protect
     // against partial artifacts (whether due to buck interruption or filesystem failure) posing
@@ -243,7 +499,6 @@ public class DirArtifactCache implements ArtifactCache {
     try {
       filesystem.copyFile(output, tmp);
       filesystem.move(tmp, artifactPath);
-      bytesSinceLastDeleteOldFiles += filesystem.getFileSize(artifactPath);
     } finally {
       filesystem.deleteFileAtPathIfExists(tmp);
     }
@@ -259,40 +514,99 @@ public class DirArtifactCache implements ArtifactCache {
 
   @Override
   public void close() {
-    // Do a cache clean up on exit only if cache was written to.
-    if (bytesSinceLastDeleteOldFiles > 0) {
-      deleteOldFiles();
+    if (writer.isShutdown()) {
+      return;
+    }
+    try {
+      writer.execute(
+          new Runnable() {
+            @Override
+            public void run() {
+              // Do a cache clean up on exit only if cache was written to.
+              if (bytesSinceLastDeleteOldFiles > 0) {
+                deleteOldFilesOnWriter();
+              }
+              flushIndex();
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      // Another thread closed the cache first.
+      return;
+    }
+    try {
+      MostExecutors.shutdown(writer);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
     }
   }
 
   /**
    * Deletes files that haven't been accessed recently from the directory cache.
+   *
+   * @throws RejectedExecutionException if the cache has been closed.
    */
   @VisibleForTesting
   void deleteOldFiles() {
     if (!maxCacheSizeBytes.isPresent()) {
       return;
     }
+    Futures.getUnchecked(
+        submitToWriter(
+            new Runnable() {
+              @Override
+              public void run() {
+                deleteOldFilesOnWriter();
+              }
+            }));
+  }
+
+  private void deleteOldFilesOnWriter() {
+    bytesSinceLastDeleteOldFiles = 0L;
+    if (!index.isPresent()) {
+      return;
+    }
+    long maxSizeBytes = maxCacheSizeBytes.get();
     try {
-      for (File fileAccessedEntry : findFilesToDelete()) {
+      if (index.get().getTotalSizeBytes() <= maxSizeBytes) {
+        return;
+      }
+      ImmutableList<String> evicted =
+          index.get().evict((long) (maxSizeBytes * MAX_BYTES_TRIM_RATIO));
+      for (String path : evicted) {
         try {
-          Files.deleteIfExists(fileAccessedEntry.toPath());
+          filesystem.deleteFileAtPathIfExists(cacheDir.resolve(path));
         } catch (IOException e) {
           // Eat any IOExceptions while attempting to clean up the cache directory.  If the file is
           // now in use, we no longer want to delete it.
           continue;
         }
       }
+      LOG.debug("Evicted %d files from cache %s.", evicted.size(), cacheDir);
     } catch (IOException e) {
       LOG.error(e, "Failed to delete old files from cache");
     }
+    // Record the evictions now, so that other processes don't count the deleted files.
+    flushIndex();
+  }
+
+  private void flushIndex() {
+    if (!index.isPresent()) {
+      return;
+    }
+    try {
+      index.get().flush();
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to write cache index for %s", cacheDir);
+    }
   }
 
   @VisibleForTesting
   File[] getAllFilesInCache() throws IOException {
+    final Path cacheRoot = filesystem.resolve(cacheDir).normalize();
+    final Path tempFolder = cacheRoot.resolve(TMP_FOLDER_NAME);
     final List<File> allFiles = new ArrayList<>();
     Files.walkFileTree(
-        filesystem.resolve(cacheDir),
+        cacheRoot,
         ImmutableSet.<FileVisitOption>of(),
         Integer.MAX_VALUE,
         new SimpleFileVisitor<Path>() {
@@ -301,7 +615,7 @@ public class DirArtifactCache implements ArtifactCache {
           public FileVisitResult preVisitDirectory(
               Path dir, BasicFileAttributes attrs) throws IOException {
             // do not work with files in temp folder as they will be moved later
-            if (dir.equals(getPathToTempFolder())) {
+            if (dir.equals(tempFolder)) {
               return FileVisitResult.SKIP_SUBTREE;
             }
             return super.preVisitDirectory(dir, attrs);
@@ -310,34 +624,13 @@ public class DirArtifactCache implements ArtifactCache {
           @Override
           public FileVisitResult visitFile(Path file,
               BasicFileAttributes attrs) throws IOException {
-            allFiles.add(file.toFile());
+            if (!file.getParent().equals(cacheRoot) ||
+                !DirArtifactCacheIndex.FILE_NAMES.contains(file.getFileName().toString())) {
+              allFiles.add(file.toFile());
+            }
             return super.visitFile(file, attrs);
           }
         });
     return allFiles.toArray(new File[0]);
   }
-
-  private Iterable<File> findFilesToDelete() throws IOException {
-    Preconditions.checkState(maxCacheSizeBytes.isPresent());
-    long maxSizeBytes = maxCacheSizeBytes.get();
-
-    File[] files = getAllFilesInCache();
-    MoreFiles.sortFilesByAccessTime(files);
-
-    // Finds the first N from the list ordered by last access time who's combined size is less than
-    // maxCacheSizeBytes.
-    long currentSizeBytes = 0;
-    Optional<Integer> maxTrimMark = Optional.absent();
-    for (int i = 0; i < files.length; ++i) {
-      File file = files[i];
-      currentSizeBytes += file.length();
-      if (!maxTrimMark.isPresent() && currentSizeBytes > maxSizeBytes * MAX_BYTES_TRIM_RATIO) {
-        maxTrimMark = Optional.of(i);
-      }
-      if (currentSizeBytes > maxSizeBytes) {
-        return ArrayIterable.of(files, maxTrimMark.get(), files.length);
-      }
-    }
-    return ImmutableList.of();
-  }
 }
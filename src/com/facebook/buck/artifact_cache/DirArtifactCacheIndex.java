@@ -0,0 +1,489 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.log.Logger;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.CountingInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.annotation.Nullable;
+
+/**
+ * Tracks the size and last access time of the files in a {@link DirArtifactCache}, so that the
+ * least recently used files can be evicted without walking the cache directory.
+ * <p>
+ * The index is a log of the files added to, accessed in and removed from the cache, kept at the
+ * root of the cache directory. Changes are appended to it, so recording them doesn't require the
+ * index to be read, and several buck processes sharing a cache see each other's changes. The log
+ * is only read when something needs to be evicted, and is rewritten with one record per file once
+ * it has grown too long. A missing or unreadable log is rebuilt from a walk of the cache directory.
+ * <p>
+ * Once read, the log is read again from where it was left off, under the lock, before the index is
+ * used to evict files or the log is rewritten, so that the records other processes have appended
+ * since are neither missed nor dropped. Each rewrite gives the log a new generation, so a process
+ * whose log was rewritten by another reads it again from the start.
+ * <p>
+ * This class is not thread safe.
+ */
+class DirArtifactCacheIndex {
+  private static final Logger LOG = Logger.get(DirArtifactCacheIndex.class);
+
+  static final String INDEX_FILE_NAME = ".index";
+  static final String LOCK_FILE_NAME = ".index.lock";
+  static final ImmutableSet<String> FILE_NAMES = ImmutableSet.of(INDEX_FILE_NAME, LOCK_FILE_NAME);
+
+  private static final int MAGIC = 0xd1ca1d3c;
+  private static final int VERSION = 2;
+  private static final Random GENERATIONS = new Random();
+
+  private static final byte ADD = 1;
+  private static final byte ACCESS = 2;
+  private static final byte REMOVE = 3;
+
+  // The log is compacted once it has this many more records than there are files in the cache.
+  private static final int MIN_RECORDS_BEFORE_COMPACTION = 10000;
+
+  private final Path cacheRoot;
+  private final Path tmpDir;
+  private final Path indexPath;
+  private final Path lockPath;
+
+  // The changes which haven't been written to the log yet.
+  private final List<Record> pendingRecords = new ArrayList<>();
+
+  // All the files in the cache, from the least to the most recently used, once the log is read.
+  @Nullable
+  private LinkedHashMap<String, Entry> entries;
+  private long totalSizeBytes;
+  private long recordCount;
+  // The generation of the log the entries were read from, and how many bytes of it were read.
+  private long generation;
+  private long readOffset;
+
+  /**
+   * @param cacheRoot absolute path to the root of the cache directory.
+   * @param tmpDir absolute path to the directory of files not yet in the cache.
+   */
+  DirArtifactCacheIndex(Path cacheRoot, Path tmpDir) {
+    this.cacheRoot = cacheRoot;
+    this.tmpDir = tmpDir;
+    this.indexPath = cacheRoot.resolve(INDEX_FILE_NAME);
+    this.lockPath = cacheRoot.resolve(LOCK_FILE_NAME);
+  }
+
+  /**
+   * Records that {@code path}, relative to the cache root, was added to the cache.
+   */
+  public void add(String path, long sizeBytes, long nowMillis) {
+    record(new Record(ADD, path, sizeBytes, nowMillis));
+  }
+
+  /**
+   * Records that {@code path}, relative to the cache root, was read from the cache.
+   */
+  public void access(String path, long nowMillis) {
+    record(new Record(ACCESS, path, 0, nowMillis));
+  }
+
+  public long getTotalSizeBytes() throws IOException {
+    refresh();
+    return totalSizeBytes;
+  }
+
+  /**
+   * Removes the least recently used files from the index until the files left take up at most
+   * {@code targetSizeBytes}. Deleting the files is up to the caller.
+   *
+   * @return the evicted paths, relative to the cache root.
+   */
+  public ImmutableList<String> evict(long targetSizeBytes) throws IOException {
+    refresh();
+    ImmutableList.Builder<String> evicted = ImmutableList.builder();
+    Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+    while (totalSizeBytes > targetSizeBytes && iterator.hasNext()) {
+      Map.Entry<String, Entry> entry = iterator.next();
+      iterator.remove();
+      totalSizeBytes -= entry.getValue().sizeBytes;
+      pendingRecords.add(new Record(REMOVE, entry.getKey(), 0, 0));
+      evicted.add(entry.getKey());
+    }
+    return evicted.build();
+  }
+
+  /**
+   * Writes the pending changes to the log.
+   */
+  public void flush() throws IOException {
+    if (pendingRecords.isEmpty() && entries == null) {
+      return;
+    }
+    try (FileChannel lockChannel = FileChannel.open(
+             lockPath,
+             StandardOpenOption.CREATE,
+             StandardOpenOption.WRITE);
+         FileLock lock = lockChannel.lock()) {
+      if (entries != null) {
+        // Don't compact away, or append our records ahead of, those other processes have written.
+        load();
+      }
+      if (!Files.exists(indexPath)) {
+        // Appending to a new log would leave out the files already in the cache.
+        if (entries == null) {
+          rebuild();
+          for (Record record : pendingRecords) {
+            apply(record);
+          }
+        }
+        rewrite();
+      } else if (entries != null &&
+          recordCount + pendingRecords.size() >
+              2 * entries.size() + MIN_RECORDS_BEFORE_COMPACTION) {
+        rewrite();
+      } else if (!pendingRecords.isEmpty()) {
+        append();
+      }
+      pendingRecords.clear();
+    }
+  }
+
+  private void record(Record record) {
+    pendingRecords.add(record);
+    if (entries != null) {
+      apply(record);
+    }
+  }
+
+  private void apply(Record record) {
+    Entry previous;
+    switch (record.op) {
+      case ADD:
+        previous = entries.remove(record.path);
+        if (previous != null) {
+          totalSizeBytes -= previous.sizeBytes;
+        }
+        entries.put(record.path, new Entry(record.sizeBytes, record.timeMillis));
+        totalSizeBytes += record.sizeBytes;
+        break;
+      case ACCESS:
+        previous = entries.remove(record.path);
+        if (previous != null) {
+          entries.put(record.path, new Entry(previous.sizeBytes, record.timeMillis));
+        }
+        break;
+      case REMOVE:
+        previous = entries.remove(record.path);
+        if (previous != null) {
+          totalSizeBytes -= previous.sizeBytes;
+        }
+        break;
+      default:
+        throw new IllegalStateException("Unknown index record: " + record.op);
+    }
+  }
+
+  private void refresh() throws IOException {
+    try (FileChannel lockChannel = FileChannel.open(
+             lockPath,
+             StandardOpenOption.CREATE,
+             StandardOpenOption.WRITE);
+         FileLock lock = lockChannel.lock()) {
+      load();
+    }
+  }
+
+  /**
+   * Brings the entries up to date with the log. Must be called with the lock held.
+   */
+  private void load() throws IOException {
+    if (entries == null || !readNewRecords()) {
+      if (!read()) {
+        rebuild();
+        rewrite();
+      }
+    }
+    // Our own changes happened after the ones in the log.
+    for (Record record : pendingRecords) {
+      apply(record);
+    }
+  }
+
+  /**
+   * @return whether the log could be read.
+   */
+  private boolean read() throws IOException {
+    entries = new LinkedHashMap<>();
+    totalSizeBytes = 0;
+    recordCount = 0;
+    try (CountingInputStream counting =
+             new CountingInputStream(new BufferedInputStream(Files.newInputStream(indexPath)))) {
+      DataInputStream in = new DataInputStream(counting);
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        LOG.info("Rebuilding cache index %s with an unknown format.", indexPath);
+        return false;
+      }
+      generation = in.readLong();
+      readRecords(in);
+      readOffset = counting.getCount();
+      LOG.debug("Read %d cache index records from %s.", recordCount, indexPath);
+      return true;
+    } catch (NoSuchFileException e) {
+      LOG.info("Building missing cache index %s.", indexPath);
+      return false;
+    } catch (EOFException | IllegalStateException e) {
+      // Most likely a process died while appending to the log.
+      LOG.warn(e, "Rebuilding truncated cache index %s.", indexPath);
+      return false;
+    }
+  }
+
+  /**
+   * Applies the records appended to the log since it was last read.
+   *
+   * @return whether that was possible, rather than the log having been replaced or damaged since.
+   */
+  private boolean readNewRecords() throws IOException {
+    try (FileChannel channel = FileChannel.open(indexPath, StandardOpenOption.READ)) {
+      DataInputStream header = new DataInputStream(Channels.newInputStream(channel));
+      if (channel.size() < readOffset ||
+          header.readInt() != MAGIC ||
+          header.readInt() != VERSION ||
+          header.readLong() != generation) {
+        return false;
+      }
+      channel.position(readOffset);
+      CountingInputStream counting =
+          new CountingInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+      long previousRecordCount = recordCount;
+      readRecords(new DataInputStream(counting));
+      readOffset += counting.getCount();
+      LOG.debug(
+          "Read %d new cache index records from %s.",
+          recordCount - previousRecordCount,
+          indexPath);
+      return true;
+    } catch (NoSuchFileException | EOFException | IllegalStateException e) {
+      return false;
+    }
+  }
+
+  private void readRecords(DataInputStream in) throws IOException {
+    while (true) {
+      int op = in.read();
+      if (op == -1) {
+        break;
+      }
+      apply(readRecord((byte) op, in));
+      recordCount++;
+    }
+  }
+
+  /**
+   * Replaces the entries with the files found in the cache directory.
+   */
+  private void rebuild() throws IOException {
+    final List<Map.Entry<String, Entry>> found = new ArrayList<>();
+    Files.walkFileTree(
+        cacheRoot,
+        ImmutableSet.<FileVisitOption>of(),
+        Integer.MAX_VALUE,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+            // Files in the temp folder are not in the cache yet.
+            if (dir.equals(tmpDir)) {
+              return FileVisitResult.SKIP_SUBTREE;
+            }
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+            if (!file.getParent().equals(cacheRoot) ||
+                !FILE_NAMES.contains(file.getFileName().toString())) {
+              found.add(
+                  new AbstractMap.SimpleImmutableEntry<>(
+                      cacheRoot.relativize(file).toString(),
+                      new Entry(attrs.size(), attrs.lastAccessTime().toMillis())));
+            }
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFileFailed(Path file, IOException exc) {
+            // The file may have been evicted by another process.
+            return FileVisitResult.CONTINUE;
+          }
+        });
+    Collections.sort(
+        found,
+        new Comparator<Map.Entry<String, Entry>>() {
+          @Override
+          public int compare(Map.Entry<String, Entry> a, Map.Entry<String, Entry> b) {
+            return Long.compare(a.getValue().lastAccessMillis, b.getValue().lastAccessMillis);
+          }
+        });
+    entries = new LinkedHashMap<>();
+    totalSizeBytes = 0;
+    for (Map.Entry<String, Entry> entry : found) {
+      entries.put(entry.getKey(), entry.getValue());
+      totalSizeBytes += entry.getValue().sizeBytes;
+    }
+    LOG.debug("Found %d files in cache %s.", entries.size(), cacheRoot);
+  }
+
+  /**
+   * Replaces the log with one record per file in the cache.
+   */
+  private void rewrite() throws IOException {
+    Path tempPath = indexPath.resolveSibling(INDEX_FILE_NAME + ".tmp");
+    long newGeneration = GENERATIONS.nextLong();
+    try (DataOutputStream out =
+             new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(newGeneration);
+      for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+        writeRecord(
+            new Record(
+                ADD,
+                entry.getKey(),
+                entry.getValue().sizeBytes,
+                entry.getValue().lastAccessMillis),
+            out);
+      }
+    }
+    Files.move(
+        tempPath,
+        indexPath,
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    generation = newGeneration;
+    readOffset = Files.size(indexPath);
+    recordCount = entries.size();
+  }
+
+  private void append() throws IOException {
+    // Write the records at once, so that a reader never sees part of them.
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      for (Record record : pendingRecords) {
+        writeRecord(record, out);
+      }
+    }
+    try (OutputStream out = Files.newOutputStream(indexPath, StandardOpenOption.APPEND)) {
+      bytes.writeTo(out);
+    }
+    // The entries are up to date with the log whenever there are any, so ours are the last records.
+    readOffset += bytes.size();
+    recordCount += pendingRecords.size();
+  }
+
+  private static Record readRecord(byte op, DataInputStream in) throws IOException {
+    String path = in.readUTF();
+    switch (op) {
+      case ADD:
+        long sizeBytes = in.readLong();
+        return new Record(op, path, sizeBytes, in.readLong());
+      case ACCESS:
+        return new Record(op, path, 0, in.readLong());
+      case REMOVE:
+        return new Record(op, path, 0, 0);
+      default:
+        throw new IllegalStateException("Unknown index record: " + op);
+    }
+  }
+
+  private static void writeRecord(Record record, DataOutputStream out) throws IOException {
+    out.writeByte(record.op);
+    out.writeUTF(record.path);
+    switch (record.op) {
+      case ADD:
+        out.writeLong(record.sizeBytes);
+        out.writeLong(record.timeMillis);
+        break;
+      case ACCESS:
+        out.writeLong(record.timeMillis);
+        break;
+      case REMOVE:
+        break;
+      default:
+        throw new IllegalStateException("Unknown index record: " + record.op);
+    }
+  }
+
+  @VisibleForTesting
+  ImmutableList<String> getPathsByLastAccess() throws IOException {
+    refresh();
+    return ImmutableList.copyOf(entries.keySet());
+  }
+
+  private static class Entry {
+    private final long sizeBytes;
+    private final long lastAccessMillis;
+
+    public Entry(long sizeBytes, long lastAccessMillis) {
+      this.sizeBytes = sizeBytes;
+      this.lastAccessMillis = lastAccessMillis;
+    }
+  }
+
+  private static class Record {
+    private final byte op;
+    private final String path;
+    private final long sizeBytes;
+    private final long timeMillis;
+
+    public Record(byte op, String path, long sizeBytes, long timeMillis) {
+      this.op = op;
+      this.path = path;
+      this.sizeBytes = sizeBytes;
+      this.timeMillis = timeMillis;
+    }
+  }
+}
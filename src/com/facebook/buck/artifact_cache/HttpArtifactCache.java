@@ -22,6 +22,9 @@ import com.facebook.buck.log.Logger;
 import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.slb.HttpResponse;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.io.ByteSource;
 
 import java.io.DataInputStream;
@@ -70,16 +73,10 @@ public class HttpArtifactCache extends AbstractNetworkCache {
       try (DataInputStream input =
                new DataInputStream(new FullyReadOnCloseInputStream(response.getBody()))) {
 
-        if (response.code() == HttpURLConnection.HTTP_NOT_FOUND) {
-          LOG.info("fetch(%s, %s): cache miss", response.requestUrl(), ruleKey);
-          return CacheResult.miss();
-        }
-
-        if (response.code() != HttpURLConnection.HTTP_OK) {
-          String msg = String.format("unexpected response: %d", response.code());
-          reportFailure("fetch(%s, %s): %s", response.requestUrl(), ruleKey, msg);
-          eventBuilder.setErrorMessage(msg);
-          return CacheResult.error(name, msg);
+        Optional<CacheResult> unsuccessfulResult =
+            getResultForUnsuccessfulResponse(response, ruleKey, eventBuilder);
+        if (unsuccessfulResult.isPresent()) {
+          return unsuccessfulResult.get();
         }
 
         // Setup a temporary file, which sits next to the destination, to write to and
@@ -98,25 +95,11 @@ public class HttpArtifactCache extends AbstractNetworkCache {
               tempFileOutputStream);
         }
 
-        eventBuilder.setResponseSizeBytes(fetchedData.getResponseSizeBytes());
-        eventBuilder.setArtifactContentHash(fetchedData.getArtifactOnlyHashCode().toString());
-
-        // Verify that we were one of the rule keys that stored this artifact.
-        if (!fetchedData.getRuleKeys().contains(ruleKey)) {
-          String msg = "incorrect key name";
-          reportFailure("fetch(%s, %s): %s", response.requestUrl(), ruleKey, msg);
-          eventBuilder.setErrorMessage(msg);
-          return CacheResult.error(name, msg);
-        }
-
-        // Now form the checksum on the file we got and compare it to the checksum form the
-        // the HTTP header.  If it's incorrect, log this and return a miss.
-        if (!fetchedData.getExpectedHashCode().equals(fetchedData.getActualHashCode())) {
-          String msg = "artifact had invalid checksum";
-          reportFailure("fetch(%s, %s): %s", response.requestUrl(), ruleKey, msg);
-          projectFilesystem.deleteFileAtPath(temp);
-          eventBuilder.setErrorMessage(msg);
-          return CacheResult.error(name, msg);
+        Optional<CacheResult> invalidResult =
+            getResultForInvalidFetchedData(response, ruleKey, fetchedData, eventBuilder);
+        if (invalidResult.isPresent()) {
+          projectFilesystem.deleteFileAtPathIfExists(temp);
+          return invalidResult.get();
         }
 
         // Finally, move the temp file into it's final place.
@@ -128,6 +111,99 @@ public class HttpArtifactCache extends AbstractNetworkCache {
     }
   }
 
+  @Override
+  protected CacheResult fetchStreamingImpl(
+      RuleKey ruleKey,
+      ArtifactStreamConsumer consumer,
+      final Finished.Builder eventBuilder) throws IOException {
+
+    Request.Builder requestBuilder =
+        new Request.Builder()
+            .get();
+    try (HttpResponse response = fetchCall(
+        "/artifacts/key/" + ruleKey.toString(),
+        requestBuilder)) {
+      eventBuilder.setResponseSizeBytes(response.contentLength());
+
+      try (DataInputStream input =
+               new DataInputStream(new FullyReadOnCloseInputStream(response.getBody()))) {
+
+        Optional<CacheResult> unsuccessfulResult =
+            getResultForUnsuccessfulResponse(response, ruleKey, eventBuilder);
+        if (unsuccessfulResult.isPresent()) {
+          return unsuccessfulResult.get();
+        }
+
+        // The payload is handed to the consumer as it arrives, but only if the artifact was stored
+        // under our rule key.  The checksum can only be verified once it has been fully read.
+        FetchResponseReadResult fetchedData =
+            HttpArtifactCacheBinaryProtocol.readFetchResponse(input, ruleKey, consumer);
+
+        Optional<CacheResult> invalidResult =
+            getResultForInvalidFetchedData(response, ruleKey, fetchedData, eventBuilder);
+        if (invalidResult.isPresent()) {
+          return invalidResult.get();
+        }
+
+        LOG.info("fetch(%s, %s): cache hit", response.requestUrl(), ruleKey);
+        return CacheResult.hit(name, fetchedData.getMetadata(), fetchedData.getResponseSizeBytes());
+      }
+    }
+  }
+
+  private Optional<CacheResult> getResultForUnsuccessfulResponse(
+      HttpResponse response,
+      RuleKey ruleKey,
+      Finished.Builder eventBuilder) throws IOException {
+    if (response.code() == HttpURLConnection.HTTP_NOT_FOUND) {
+      LOG.info("fetch(%s, %s): cache miss", response.requestUrl(), ruleKey);
+      return Optional.of(CacheResult.miss());
+    }
+
+    if (response.code() != HttpURLConnection.HTTP_OK) {
+      String msg = String.format("unexpected response: %d", response.code());
+      reportFailure("fetch(%s, %s): %s", response.requestUrl(), ruleKey, msg);
+      eventBuilder.setErrorMessage(msg);
+      return Optional.of(CacheResult.error(name, msg));
+    }
+
+    return Optional.absent();
+  }
+
+  private Optional<CacheResult> getResultForInvalidFetchedData(
+      HttpResponse response,
+      RuleKey ruleKey,
+      FetchResponseReadResult fetchedData,
+      Finished.Builder eventBuilder) throws IOException {
+    eventBuilder.setResponseSizeBytes(fetchedData.getResponseSizeBytes());
+    eventBuilder.setArtifactContentHash(fetchedData.getArtifactOnlyHashCode().toString());
+
+    // Verify that we were one of the rule keys that stored this artifact.
+    if (!fetchedData.getRuleKeys().contains(ruleKey)) {
+      String msg = "incorrect key name";
+      reportFailure("fetch(%s, %s): %s", response.requestUrl(), ruleKey, msg);
+      eventBuilder.setErrorMessage(msg);
+      return Optional.of(CacheResult.error(name, msg));
+    }
+
+    // Now form the checksum on the file we got and compare it to the checksum form the
+    // the HTTP header.  If it's incorrect, log this and return a miss.
+    if (!fetchedData.getExpectedHashCode().equals(fetchedData.getActualHashCode())) {
+      String msg = "artifact had invalid checksum";
+      reportFailure("fetch(%s, %s): %s", response.requestUrl(), ruleKey, msg);
+      eventBuilder.setErrorMessage(msg);
+      return Optional.of(CacheResult.error(name, msg));
+    }
+
+    return Optional.absent();
+  }
+
+  @Override
+  protected ImmutableMap<RuleKey, Boolean> multiContainsImpl(ImmutableSet<RuleKey> ruleKeys) {
+    // The HTTP protocol has no batched lookups, so leave it to the individual fetches.
+    return ImmutableMap.of();
+  }
+
   @Override
   protected void storeImpl(
       ArtifactInfo info,
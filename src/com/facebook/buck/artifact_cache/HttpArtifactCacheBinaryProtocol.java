@@ -22,14 +22,17 @@ import com.facebook.buck.util.hash.HasherOutputStream;
 import com.facebook.buck.util.immutables.BuckStyleImmutable;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 import com.google.common.io.ByteSource;
 import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
 
 import org.immutables.value.Value;
 
@@ -41,6 +44,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Implements the binary protocol used by Buck to talk to the cache server.
@@ -67,6 +71,25 @@ public class HttpArtifactCacheBinaryProtocol {
     return result.build();
   }
 
+  /**
+   * Like {@link #readFetchResponse(DataInputStream, OutputStream)}, but hands the payload to
+   * {@code payloadConsumer} while it is being read. The payload is only handed over if the artifact
+   * was stored under {@code ruleKey}, and is otherwise discarded.
+   */
+  public static FetchResponseReadResult readFetchResponse(
+      DataInputStream input,
+      RuleKey ruleKey,
+      ArtifactStreamConsumer payloadConsumer) throws IOException {
+
+    MetadataAndPayloadReadResultInternal resultInternal = readMetadataAndPayload(
+        input,
+        Optional.of(ruleKey),
+        payloadConsumer);
+
+    FetchResponseReadResult.Builder result = FetchResponseReadResult.builder().from(resultInternal);
+    return result.build();
+  }
+
   public static StoreResponseReadResult readStoreRequest(
       DataInputStream input,
       OutputStream payloadSink) throws IOException {
@@ -88,7 +111,22 @@ public class HttpArtifactCacheBinaryProtocol {
 
   public static MetadataAndPayloadReadResultInternal readMetadataAndPayload(
       DataInputStream input,
-      OutputStream payloadSink) throws IOException {
+      final OutputStream payloadSink) throws IOException {
+    return readMetadataAndPayload(
+        input,
+        Optional.<RuleKey>absent(),
+        new ArtifactStreamConsumer() {
+          @Override
+          public void consume(InputStream artifact) throws IOException {
+            ByteStreams.copy(artifact, payloadSink);
+          }
+        });
+  }
+
+  private static MetadataAndPayloadReadResultInternal readMetadataAndPayload(
+      DataInputStream input,
+      Optional<RuleKey> requiredRuleKey,
+      ArtifactStreamConsumer payloadConsumer) throws IOException {
     // Read the size of a the metadata, and use that to build a input stream to read and
     // process the rest of it.
     int metadataSize = input.readInt();
@@ -101,6 +139,7 @@ public class HttpArtifactCacheBinaryProtocol {
     // Create a hasher to be used to generate a hash of the metadata and input.  We'll use
     // this to compare against the embedded checksum.
     Hasher hasher = HASH_FUNCTION.newHasher();
+    Set<RuleKey> ruleKeys = Sets.newLinkedHashSet();
     byte[] rawMetadata = new byte[metadataSize];
     ByteStreams.readFully(input, rawMetadata);
     try (InputStream rawMetadataIn = new ByteArrayInputStream(rawMetadata)) {
@@ -113,8 +152,9 @@ public class HttpArtifactCacheBinaryProtocol {
         // building up.
         int size = metadataIn.readInt();
         for (int i = 0; i < size; i++) {
-          result.addRuleKeys(new RuleKey(metadataIn.readUTF()));
+          ruleKeys.add(new RuleKey(metadataIn.readUTF()));
         }
+        result.addAllRuleKeys(ruleKeys);
 
         // Read in the actual metadata map, and add it the hash.
         size = metadataIn.readInt();
@@ -134,12 +174,16 @@ public class HttpArtifactCacheBinaryProtocol {
       result.setExpectedHashCode(HashCode.fromBytes(hashCodeBytes));
     }
 
-    // The remaining data is the payload, which we write to the created file, and also include
-    // in our verification checksum.
+    // The remaining data is the payload, which we hand to the consumer, and also include in our
+    // verification checksum.  Whatever the consumer leaves unread still needs to be checksummed.
     Hasher artifactOnlyHasher = HASH_FUNCTION.newHasher();
-    try (InputStream payload = new HasherInputStream(artifactOnlyHasher,
-        new HasherInputStream(hasher, input))) {
-      result.setResponseSizeBytes(ByteStreams.copy(payload, payloadSink));
+    try (CountingInputStream payload = new CountingInputStream(
+        new HasherInputStream(artifactOnlyHasher, new HasherInputStream(hasher, input)))) {
+      if (!requiredRuleKey.isPresent() || ruleKeys.contains(requiredRuleKey.get())) {
+        payloadConsumer.consume(payload);
+      }
+      ByteStreams.copy(payload, ByteStreams.nullOutputStream());
+      result.setResponseSizeBytes(payload.getCount());
       result.setArtifactOnlyHashCode(artifactOnlyHasher.hash());
     }
 
@@ -271,11 +315,19 @@ public class HttpArtifactCacheBinaryProtocol {
 
     public void write(OutputStream responseSink) throws IOException {
       try (DataOutputStream dataOutputStream = new DataOutputStream(responseSink)) {
-        dataOutputStream.writeInt(rawMetadata.length);
-        dataOutputStream.write(rawMetadata);
+        writeMetadata(dataOutputStream);
         ByteStreams.copy(payloadSource.openStream(), responseSink);
       }
     }
+
+    /**
+     * Writes the response up to the payload, for callers which send the payload themselves.
+     */
+    public void writeMetadata(OutputStream responseSink) throws IOException {
+      DataOutputStream dataOutputStream = new DataOutputStream(responseSink);
+      dataOutputStream.writeInt(rawMetadata.length);
+      dataOutputStream.write(rawMetadata);
+    }
   }
 
   abstract static class MetadataAndPayloadReadResult {
@@ -20,6 +20,7 @@ import com.facebook.buck.io.BorrowablePath;
 import com.facebook.buck.io.LazyPath;
 import com.facebook.buck.rules.RuleKey;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.ListenableFuture;
 
@@ -54,6 +55,23 @@ public class LoggingArtifactCacheDecorator implements ArtifactCache {
     return fetchResult;
   }
 
+  @Override
+  public CacheResult fetchStreaming(RuleKey ruleKey, ArtifactStreamConsumer consumer) {
+    ArtifactCacheEvent.Started started =
+        eventFactory.newFetchStartedEvent(ImmutableSet.of(ruleKey));
+    eventBus.post(started);
+    CacheResult fetchResult = delegate.fetchStreaming(ruleKey, consumer);
+    eventBus.post(eventFactory.newFetchFinishedEvent(
+            started,
+            fetchResult));
+    return fetchResult;
+  }
+
+  @Override
+  public ImmutableMap<RuleKey, Boolean> multiContains(ImmutableSet<RuleKey> ruleKeys) {
+    return delegate.multiContains(ruleKeys);
+  }
+
   @Override
   public ListenableFuture<Void> store(
       ArtifactInfo info,
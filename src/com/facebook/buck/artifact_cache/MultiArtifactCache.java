@@ -18,17 +18,33 @@ package com.facebook.buck.artifact_cache;
 
 import com.facebook.buck.io.BorrowablePath;
 import com.facebook.buck.io.LazyPath;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.io.TeeInputStream;
+import com.facebook.buck.log.Logger;
 import com.facebook.buck.rules.RuleKey;
 import com.google.common.base.Functions;
 import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * MultiArtifactCache encapsulates a set of ArtifactCache instances such that fetch() succeeds if
@@ -37,7 +53,10 @@ import java.util.List;
  */
 public class MultiArtifactCache implements ArtifactCache {
 
+  private static final Logger LOG = Logger.get(MultiArtifactCache.class);
+
   private final ImmutableList<ArtifactCache> artifactCaches;
+  private final ProjectFilesystem projectFilesystem;
   private final ImmutableList<ArtifactCache> writableArtifactCaches;
   private final boolean isStoreSupported;
   private static final Predicate<ArtifactCache> WRITABLE_CACHES_ONLY =
@@ -48,8 +67,11 @@ public class MultiArtifactCache implements ArtifactCache {
         }
       };
 
-  public MultiArtifactCache(ImmutableList<ArtifactCache> artifactCaches) {
+  public MultiArtifactCache(
+      ImmutableList<ArtifactCache> artifactCaches,
+      ProjectFilesystem projectFilesystem) {
     this.artifactCaches = artifactCaches;
+    this.projectFilesystem = projectFilesystem;
     this.writableArtifactCaches = ImmutableList.copyOf(
         Iterables.filter(artifactCaches, WRITABLE_CACHES_ONLY));
     this.isStoreSupported = this.writableArtifactCaches.size() > 0;
@@ -93,6 +115,98 @@ public class MultiArtifactCache implements ArtifactCache {
     return cacheResult;
   }
 
+  /**
+   * Stream the artifact matching ruleKey to the consumer. As with {@link #fetch}, a hit from a
+   * later cache is propagated to the caches earlier in the search order; to do so, the artifact is
+   * copied to a temporary file while the consumer reads it.
+   */
+  @Override
+  public CacheResult fetchStreaming(RuleKey ruleKey, ArtifactStreamConsumer consumer) {
+    CacheResult cacheResult = CacheResult.miss();
+    for (int i = 0; i < artifactCaches.size(); i++) {
+      ArtifactCache artifactCache = artifactCaches.get(i);
+      ImmutableList<ArtifactCache> priorWritableCaches = ImmutableList.copyOf(
+          Iterables.filter(artifactCaches.subList(0, i), WRITABLE_CACHES_ONLY));
+      if (priorWritableCaches.isEmpty()) {
+        cacheResult = artifactCache.fetchStreaming(ruleKey, consumer);
+        if (cacheResult.getType().isSuccess()) {
+          return cacheResult;
+        }
+        continue;
+      }
+
+      Path copy;
+      try {
+        Path tmpDir = projectFilesystem.getBuckPaths().getTmpDir();
+        projectFilesystem.mkdirs(tmpDir);
+        copy = Files.createTempFile(projectFilesystem.resolve(tmpDir), "buck-artifact-", ".tmp");
+      } catch (IOException e) {
+        cacheResult = artifactCache.fetchStreaming(ruleKey, consumer);
+        if (cacheResult.getType().isSuccess()) {
+          return cacheResult;
+        }
+        continue;
+      }
+      try {
+        cacheResult = artifactCache.fetchStreaming(ruleKey, new TeeingConsumer(consumer, copy));
+        if (cacheResult.getType().isSuccess()) {
+          for (ArtifactCache priorArtifactCache : priorWritableCaches) {
+            // The temporary file is deleted below, so none of the caches may borrow it.
+            Futures.getUnchecked(
+                priorArtifactCache.store(
+                    ArtifactInfo.builder()
+                        .addRuleKeys(ruleKey)
+                        .setMetadata(cacheResult.getMetadata())
+                        .build(),
+                    BorrowablePath.notBorrowablePath(copy)));
+          }
+          return cacheResult;
+        }
+      } catch (UncheckedExecutionException e) {
+        LOG.warn(e, "Failed to propagate artifact %s to earlier caches.", ruleKey);
+        return cacheResult;
+      } finally {
+        try {
+          Files.deleteIfExists(copy);
+        } catch (IOException e) {
+          LOG.debug(e, "Failed to delete temporary file %s.", copy);
+        }
+      }
+    }
+    return cacheResult;
+  }
+
+  /**
+   * A rule key is present if any of the encapsulated ArtifactCaches contain it, but is only known
+   * to be missing once all of them have said so.
+   */
+  @Override
+  public ImmutableMap<RuleKey, Boolean> multiContains(ImmutableSet<RuleKey> ruleKeys) {
+    Map<RuleKey, Boolean> results = Maps.newHashMap();
+    Set<RuleKey> remaining = Sets.newLinkedHashSet(ruleKeys);
+    Set<RuleKey> unknown = Sets.newHashSet();
+    for (ArtifactCache artifactCache : artifactCaches) {
+      if (remaining.isEmpty()) {
+        break;
+      }
+      ImmutableMap<RuleKey, Boolean> cacheResults =
+          artifactCache.multiContains(ImmutableSet.copyOf(remaining));
+      for (RuleKey ruleKey : ImmutableSet.copyOf(remaining)) {
+        Boolean contains = cacheResults.get(ruleKey);
+        if (contains == null) {
+          unknown.add(ruleKey);
+        } else if (contains) {
+          results.put(ruleKey, true);
+          remaining.remove(ruleKey);
+        }
+      }
+    }
+    for (RuleKey ruleKey : Sets.difference(remaining, unknown)) {
+      results.put(ruleKey, false);
+    }
+    return ImmutableMap.copyOf(results);
+  }
+
   /**
    * Store the artifact to all encapsulated ArtifactCaches.
    */
@@ -127,6 +241,28 @@ public class MultiArtifactCache implements ArtifactCache {
     return isStoreSupported;
   }
 
+  /**
+   * Copies everything the wrapped consumer reads, plus anything it leaves unread, to a file.
+   */
+  private static class TeeingConsumer implements ArtifactStreamConsumer {
+    private final ArtifactStreamConsumer delegate;
+    private final Path copy;
+
+    public TeeingConsumer(ArtifactStreamConsumer delegate, Path copy) {
+      this.delegate = delegate;
+      this.copy = copy;
+    }
+
+    @Override
+    public void consume(InputStream artifact) throws IOException {
+      try (OutputStream output = Files.newOutputStream(copy)) {
+        TeeInputStream tee = new TeeInputStream(artifact, output);
+        delegate.consume(tee);
+        ByteStreams.copy(tee, ByteStreams.nullOutputStream());
+      }
+    }
+  }
+
   @Override
   public void close() {
     Optional<RuntimeException> throwable = Optional.absent();
@@ -19,6 +19,8 @@ package com.facebook.buck.artifact_cache;
 import com.facebook.buck.io.BorrowablePath;
 import com.facebook.buck.io.LazyPath;
 import com.facebook.buck.rules.RuleKey;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 
@@ -30,6 +32,17 @@ public class NoopArtifactCache implements ArtifactCache {
     return CacheResult.miss();
   }
 
+  @Override
+  public CacheResult fetchStreaming(RuleKey ruleKey, ArtifactStreamConsumer consumer) {
+    // Do nothing.
+    return CacheResult.miss();
+  }
+
+  @Override
+  public ImmutableMap<RuleKey, Boolean> multiContains(ImmutableSet<RuleKey> ruleKeys) {
+    return ImmutableMap.of();
+  }
+
   @Override
   public ListenableFuture<Void> store(
       ArtifactInfo info,
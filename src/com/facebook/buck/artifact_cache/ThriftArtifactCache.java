@@ -18,6 +18,8 @@ package com.facebook.buck.artifact_cache;
 import com.facebook.buck.artifact_cache.thrift.ArtifactMetadata;
 import com.facebook.buck.artifact_cache.thrift.BuckCacheFetchRequest;
 import com.facebook.buck.artifact_cache.thrift.BuckCacheFetchResponse;
+import com.facebook.buck.artifact_cache.thrift.BuckCacheMultiContainsRequest;
+import com.facebook.buck.artifact_cache.thrift.BuckCacheMultiContainsResponse;
 import com.facebook.buck.artifact_cache.thrift.BuckCacheRequest;
 import com.facebook.buck.artifact_cache.thrift.BuckCacheRequestType;
 import com.facebook.buck.artifact_cache.thrift.BuckCacheResponse;
@@ -32,7 +34,9 @@ import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
 import com.google.common.io.ByteSource;
 import okhttp3.MediaType;
 import okhttp3.Request;
@@ -43,6 +47,9 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.Set;
+
+import javax.annotation.Nullable;
 
 import okio.BufferedSink;
 
@@ -73,9 +80,56 @@ public class ThriftArtifactCache extends AbstractNetworkCache {
   @Override
   public CacheResult fetchImpl(
       RuleKey ruleKey,
-      LazyPath output,
+      final LazyPath output,
+      HttpArtifactCacheEvent.Finished.Builder eventBuilder) throws IOException {
+    return fetchImpl(
+        ruleKey,
+        new PayloadReader() {
+          @Nullable
+          private Path tmp;
+
+          @Override
+          public ThriftArtifactCacheProtocol.Response.ReadPayloadInfo read(
+              ThriftArtifactCacheProtocol.Response response) throws IOException {
+            tmp = createTempFileForDownload();
+            try (OutputStream tmpFile = projectFilesystem.newFileOutputStream(tmp)) {
+              return response.readPayload(tmpFile);
+            }
+          }
+
+          @Override
+          public void onVerified() throws IOException {
+            // This makes sure we don't have 'half downloaded files' in the dir cache.
+            projectFilesystem.move(
+                Preconditions.checkNotNull(tmp),
+                output.get(),
+                StandardCopyOption.REPLACE_EXISTING);
+          }
+        });
+  }
+
+  @Override
+  protected CacheResult fetchStreamingImpl(
+      RuleKey ruleKey,
+      final ArtifactStreamConsumer consumer,
       HttpArtifactCacheEvent.Finished.Builder eventBuilder) throws IOException {
+    return fetchImpl(
+        ruleKey,
+        new PayloadReader() {
+          @Override
+          public ThriftArtifactCacheProtocol.Response.ReadPayloadInfo read(
+              ThriftArtifactCacheProtocol.Response response) throws IOException {
+            return response.readPayload(consumer);
+          }
 
+          @Override
+          public void onVerified() {
+            // The consumer has already seen the whole artifact.
+          }
+        });
+  }
+
+  private CacheResult fetchImpl(RuleKey ruleKey, PayloadReader payloadReader) throws IOException {
     BuckCacheFetchRequest fetchRequest = new BuckCacheFetchRequest();
     com.facebook.buck.artifact_cache.thrift.RuleKey thriftRuleKey =
         new com.facebook.buck.artifact_cache.thrift.RuleKey();
@@ -114,11 +168,8 @@ public class ThriftArtifactCache extends AbstractNetworkCache {
           return CacheResult.miss();
         }
 
-        Path tmp = createTempFileForDownload();
-        ThriftArtifactCacheProtocol.Response.ReadPayloadInfo readResult = null;
-        try (OutputStream tmpFile = projectFilesystem.newFileOutputStream(tmp)) {
-          readResult = response.readPayload(tmpFile);
-        }
+        ThriftArtifactCacheProtocol.Response.ReadPayloadInfo readResult =
+            payloadReader.read(response);
 
         ArtifactMetadata metadata = fetchResponse.getMetadata();
         if (!metadata.isSetArtifactPayloadCrc32()) {
@@ -137,8 +188,7 @@ public class ThriftArtifactCache extends AbstractNetworkCache {
           return CacheResult.error(name, msg);
         }
 
-        // This makes sure we don't have 'half downloaded files' in the dir cache.
-        projectFilesystem.move(tmp, output.get(), StandardCopyOption.REPLACE_EXISTING);
+        payloadReader.onVerified();
         return CacheResult.hit(
             name,
             ImmutableMap.copyOf(fetchResponse.getMetadata().getMetadata()),
@@ -147,6 +197,60 @@ public class ThriftArtifactCache extends AbstractNetworkCache {
     }
   }
 
+  @Override
+  protected ImmutableMap<RuleKey, Boolean> multiContainsImpl(ImmutableSet<RuleKey> ruleKeys)
+      throws IOException {
+    BuckCacheMultiContainsRequest containsRequest = new BuckCacheMultiContainsRequest();
+    containsRequest.setRuleKeys(toThriftRuleKeys(ruleKeys));
+
+    BuckCacheRequest cacheRequest = new BuckCacheRequest();
+    cacheRequest.setType(BuckCacheRequestType.MULTI_CONTAINS);
+    cacheRequest.setMultiContainsRequest(containsRequest);
+
+    final ThriftArtifactCacheProtocol.Request request =
+        ThriftArtifactCacheProtocol.createRequest(PROTOCOL, cacheRequest);
+    Request.Builder builder = toOkHttpRequest(request);
+    try (HttpResponse httpResponse = fetchClient.makeRequest(hybridThriftEndpoint, builder)) {
+      if (httpResponse.code() != 200) {
+        throw new IOException(String.format(
+            "Failed to look up [%d] rule keys with HTTP status code [%d] to url [%s].",
+            ruleKeys.size(),
+            httpResponse.code(),
+            httpResponse.requestUrl()));
+      }
+
+      try (ThriftArtifactCacheProtocol.Response response =
+               ThriftArtifactCacheProtocol.parseResponse(PROTOCOL, httpResponse.getBody())) {
+        BuckCacheResponse cacheResponse = response.getThriftData();
+        if (!cacheResponse.isWasSuccessful()) {
+          throw new IOException(String.format(
+              "Failed to look up [%d] rule keys with thriftErrorMessage=[%s].",
+              ruleKeys.size(),
+              cacheResponse.getErrorMessage()));
+        }
+
+        Set<String> foundHashes = Sets.newHashSet();
+        BuckCacheMultiContainsResponse containsResponse = cacheResponse.getMultiContainsResponse();
+        if (containsResponse != null && containsResponse.isSetRuleKeys()) {
+          for (com.facebook.buck.artifact_cache.thrift.RuleKey found :
+              containsResponse.getRuleKeys()) {
+            foundHashes.add(found.getHashString());
+          }
+        }
+
+        ImmutableMap.Builder<RuleKey, Boolean> result = ImmutableMap.builder();
+        for (RuleKey ruleKey : ruleKeys) {
+          result.put(ruleKey, foundHashes.contains(ruleKey.getHashCode().toString()));
+        }
+        LOG.debug(
+            "Looked up [%d] rule keys, [%d] of which are present.",
+            ruleKeys.size(),
+            foundHashes.size());
+        return result.build();
+      }
+    }
+  }
+
   @Override
   protected void storeImpl(
       final ArtifactInfo info,
@@ -206,6 +310,17 @@ public class ThriftArtifactCache extends AbstractNetworkCache {
         ".tmp");
   }
 
+  /**
+   * Reads the payload of a successful fetch response, either to a file or to a consumer.
+   */
+  private interface PayloadReader {
+    ThriftArtifactCacheProtocol.Response.ReadPayloadInfo read(
+        ThriftArtifactCacheProtocol.Response response) throws IOException;
+
+    /** Called once the payload has been checked against its expected hash. */
+    void onVerified() throws IOException;
+  }
+
   private static ArtifactMetadata infoToMetadata(ArtifactInfo info, ByteSource file)
       throws IOException {
     ArtifactMetadata metadata = new ArtifactMetadata();
@@ -217,8 +332,18 @@ public class ThriftArtifactCache extends AbstractNetworkCache {
       metadata.setRepository(info.getRepository().get());
     }
 
-    metadata.setRuleKeys(ImmutableList.copyOf(Iterables.transform(
-        info.getRuleKeys(),
+    metadata.setRuleKeys(toThriftRuleKeys(info.getRuleKeys()));
+
+    metadata.setMetadata(info.getMetadata());
+    metadata.setArtifactPayloadCrc32(ThriftArtifactCacheProtocol.computeCrc32(file));
+
+    return metadata;
+  }
+
+  private static ImmutableList<com.facebook.buck.artifact_cache.thrift.RuleKey> toThriftRuleKeys(
+      Iterable<RuleKey> ruleKeys) {
+    return ImmutableList.copyOf(Iterables.transform(
+        ruleKeys,
         new Function<RuleKey, com.facebook.buck.artifact_cache.thrift.RuleKey>() {
 
           @Override
@@ -229,12 +354,7 @@ public class ThriftArtifactCache extends AbstractNetworkCache {
             return ruleKey;
           }
 
-        })));
-
-    metadata.setMetadata(info.getMetadata());
-    metadata.setArtifactPayloadCrc32(ThriftArtifactCacheProtocol.computeCrc32(file));
-
-    return metadata;
+        }));
   }
 
   private static Request.Builder toOkHttpRequest(
@@ -26,9 +26,11 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
 import com.google.common.hash.HashingOutputStream;
 import com.google.common.io.ByteSource;
 import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
 
 import org.apache.thrift.TException;
 
@@ -187,6 +189,38 @@ public class ThriftArtifactCacheProtocol {
       }
     }
 
+    /**
+     * Hands the next payload to {@code consumer} while it is being read, instead of copying it to
+     * a stream.
+     */
+    public ReadPayloadInfo readPayload(ArtifactStreamConsumer consumer) throws IOException {
+      Preconditions.checkState(
+          nextPayloadToBeRead < thriftData.getPayloadsSize(),
+          "Trying to download payload index=[%d] but the thriftData only contains [%d] payloads.",
+          nextPayloadToBeRead,
+          thriftData.getPayloadsSize());
+
+      long payloadSizeBytes = thriftData.getPayloads().get(nextPayloadToBeRead).getSizeBytes();
+      CountingInputStream countingStream =
+          new CountingInputStream(ByteStreams.limit(responseStream, payloadSizeBytes));
+      HashingInputStream payloadStream = new HashingInputStream(HASH_FUNCTION, countingStream);
+      consumer.consume(payloadStream);
+
+      // Whatever the consumer left unread still needs to be hashed, and skipped to get to the
+      // next payload.
+      ByteStreams.copy(payloadStream, ByteStreams.nullOutputStream());
+      if (countingStream.getCount() != payloadSizeBytes) {
+        String msg = String.format(
+            "InputStream was missing [%d] bytes. Expected to read a total of [%d] bytes.",
+            payloadSizeBytes - countingStream.getCount(),
+            payloadSizeBytes);
+        LOG.error(msg);
+        throw new IOException(msg);
+      }
+      ++nextPayloadToBeRead;
+      return new ReadPayloadInfo(payloadSizeBytes, payloadStream.hash().toString());
+    }
+
     @Override
     public void close() throws IOException {
       responseStream.close();
@@ -38,6 +38,8 @@ import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
 import java.nio.file.Path;
 
 /**
@@ -150,6 +152,52 @@ public class TwoLevelArtifactCacheDecorator implements ArtifactCache {
     return fetchResult;
   }
 
+  @Override
+  public CacheResult fetchStreaming(RuleKey ruleKey, final ArtifactStreamConsumer consumer) {
+    // Two-level entries store an empty payload under the rule key, so only hand the first-level
+    // payload on when it has any contents. We can't check the metadata first, as it is only
+    // available once the fetch has finished.
+    CacheResult fetchResult = delegate.fetchStreaming(
+        ruleKey,
+        new ArtifactStreamConsumer() {
+          @Override
+          public void consume(InputStream artifact) throws IOException {
+            PushbackInputStream payload = new PushbackInputStream(artifact);
+            int firstByte = payload.read();
+            if (firstByte != -1) {
+              payload.unread(firstByte);
+              consumer.consume(payload);
+            }
+          }
+        });
+    if (!fetchResult.getType().isSuccess() ||
+        !fetchResult.getMetadata().containsKey(METADATA_KEY)) {
+      return fetchResult;
+    }
+    CacheResult outputFileFetchResult = delegate.fetchStreaming(
+        new RuleKey(fetchResult.getMetadata().get(METADATA_KEY)),
+        consumer);
+    if (!outputFileFetchResult.getType().isSuccess()) {
+      secondLevelCacheMisses.inc();
+      return outputFileFetchResult;
+    }
+
+    if (outputFileFetchResult.cacheSource().isPresent()) {
+      secondLevelCacheHitTypes.add(outputFileFetchResult.cacheSource().get());
+    }
+    if (outputFileFetchResult.artifactSizeBytes().isPresent()) {
+      secondLevelCacheHitBytes.addSample(outputFileFetchResult.artifactSizeBytes().get());
+    }
+
+    return fetchResult;
+  }
+
+  @Override
+  public ImmutableMap<RuleKey, Boolean> multiContains(ImmutableSet<RuleKey> ruleKeys) {
+    // The first level entry is stored under the rule key, so that is all we need to look for.
+    return delegate.multiContains(ruleKeys);
+  }
+
   @Override
   public ListenableFuture<Void> store(
       final ArtifactInfo info,
@@ -14,6 +14,7 @@ enum BuckCacheRequestType {
   UNKNOWN = 0,
   FETCH = 100,
   STORE = 101,
+  MULTI_CONTAINS = 102,
 }
 
 struct RuleKey {
@@ -53,6 +54,16 @@ struct BuckCacheFetchResponse {
   100: optional binary payload;
 }
 
+struct BuckCacheMultiContainsRequest {
+  1: optional list<RuleKey> ruleKeys;
+  2: optional string repository;
+}
+
+struct BuckCacheMultiContainsResponse {
+  // The subset of the requested rule keys which are present in the cache.
+  1: optional list<RuleKey> ruleKeys;
+}
+
 struct PayloadInfo {
   1: optional i64 sizeBytes;
 }
@@ -63,6 +74,7 @@ struct BuckCacheRequest {
   100: optional list<PayloadInfo> payloads;
   101: optional BuckCacheFetchRequest fetchRequest;
   102: optional BuckCacheStoreRequest storeRequest;
+  103: optional BuckCacheMultiContainsRequest multiContainsRequest;
 }
 
 struct BuckCacheResponse {
@@ -74,4 +86,5 @@ struct BuckCacheResponse {
   100: optional list<PayloadInfo> payloads;
   101: optional BuckCacheFetchResponse fetchResponse;
   102: optional BuckCacheStoreResponse storeResponse;
+  103: optional BuckCacheMultiContainsResponse multiContainsResponse;
 }
@@ -243,7 +243,11 @@ public abstract class AbstractCommand implements Command {
       loadLimit = (double) buckConfig.getLoadLimit();
     }
 
-    return new ConcurrencyLimit(buckConfig.getNumThreads(), loadLimit);
+    return new ConcurrencyLimit(
+        buckConfig.getNumThreads(),
+        loadLimit,
+        buckConfig.getResourceAllocationFairness(),
+        buckConfig.getMaximumResourceAmounts());
   }
 
   protected ImmutableList<String> getOptions() {
@@ -27,6 +27,7 @@ import com.facebook.buck.model.Pair;
 import com.facebook.buck.parser.BuildTargetParseException;
 import com.facebook.buck.parser.BuildTargetParser;
 import com.facebook.buck.parser.BuildTargetPatternParser;
+import com.facebook.buck.rules.ActionGraphCache;
 import com.facebook.buck.rules.BinaryBuildRuleToolProvider;
 import com.facebook.buck.rules.BuildRuleResolver;
 import com.facebook.buck.rules.BuildTargetSourcePath;
@@ -42,8 +43,11 @@ import com.facebook.buck.util.Ansi;
 import com.facebook.buck.util.AnsiEnvironmentChecking;
 import com.facebook.buck.util.BuckConstant;
 import com.facebook.buck.util.HumanReadableException;
+import com.facebook.buck.util.ListeningProcessExecutor;
 import com.facebook.buck.util.PatternAndMessage;
 import com.facebook.buck.util.SampleRate;
+import com.facebook.buck.util.concurrent.ListeningMultiSemaphore;
+import com.facebook.buck.util.concurrent.ResourceAmounts;
 import com.facebook.buck.util.environment.Architecture;
 import com.facebook.buck.util.environment.EnvironmentFilter;
 import com.facebook.buck.util.environment.Platform;
@@ -725,6 +729,13 @@ public class BuckConfig {
     return getLong("build", "max_depfile_cache_entries").or(256L);
   }
 
+  /**
+   * @return how many action graphs the daemon keeps between builds.
+   */
+  public int getActionGraphCacheSize() {
+    return getInteger("build", "action_graph_cache_size").or(ActionGraphCache.DEFAULT_MAX_ENTRIES);
+  }
+
   /**
    * @return the maximum size an artifact can be for the build engine to cache it.
    */
@@ -732,6 +743,21 @@ public class BuckConfig {
     return getLong("build", "artifact_cache_size_limit");
   }
 
+  /**
+   * @return whether the hashes of files in the root cell should be kept on disk between runs.
+   */
+  public boolean isPersistentFileHashCacheEnabled() {
+    return getBooleanValue("build", "persistent_file_hash_cache", false);
+  }
+
+  /**
+   * @return whether steps which support it should run their processes through a
+   *     {@link ListeningProcessExecutor}, rather than start threads to read each one's output.
+   */
+  public boolean isAsyncProcessIoEnabled() {
+    return getBooleanValue("build", "async_process_io", false);
+  }
+
   /**
    * @return the local cache directory
    */
@@ -890,6 +916,62 @@ public class BuckConfig {
         .or(Float.POSITIVE_INFINITY);
   }
 
+  /**
+   * @return whether jobs which need less of the resources in use can go ahead of jobs which were
+   *     waiting for more of them.
+   */
+  public ListeningMultiSemaphore.Fairness getResourceAllocationFairness() {
+    return getEnum(
+        "resources",
+        "resource_allocation_fairness",
+        ListeningMultiSemaphore.Fairness.class)
+        .or(ListeningMultiSemaphore.Fairness.FAIR);
+  }
+
+  /**
+   * @return the amounts of each resource which jobs may use between them. The amount of CPU is the
+   *     number of threads, and by default there are as many units of each other resource.
+   */
+  public ResourceAmounts getMaximumResourceAmounts() {
+    int numThreads = getNumThreads();
+    return ResourceAmounts.of(
+        numThreads,
+        getInteger("resources", "memory").or(numThreads),
+        getInteger("resources", "disk_io").or(numThreads),
+        getInteger("resources", "network_io").or(numThreads));
+  }
+
+  /**
+   * @return the amounts of each resource which rules of the given types need while they build,
+   *     as {@code rule_type = cpu, memory, disk_io, network_io} entries in the
+   *     {@code [resources_per_rule]} section.
+   */
+  public ImmutableMap<String, ResourceAmounts> getResourceAmountsPerRuleType() {
+    ImmutableMap.Builder<String, ResourceAmounts> result = ImmutableMap.builder();
+    for (String ruleType : getEntriesForSection("resources_per_rule").keySet()) {
+      ImmutableList<String> amounts = getListWithoutComments("resources_per_rule", ruleType);
+      try {
+        if (amounts.size() != 4) {
+          throw new NumberFormatException();
+        }
+        result.put(
+            ruleType,
+            ResourceAmounts.of(
+                Integer.parseInt(amounts.get(0)),
+                Integer.parseInt(amounts.get(1)),
+                Integer.parseInt(amounts.get(2)),
+                Integer.parseInt(amounts.get(3))));
+      } catch (IllegalArgumentException e) {
+        throw new HumanReadableException(
+            "resources_per_rule.%s must be four amounts, of CPU, memory, disk IO and network IO, " +
+                "not %s.",
+            ruleType,
+            amounts);
+      }
+    }
+    return result.build();
+  }
+
   public long getCountersFirstFlushIntervalMillis() {
     return config.getLong("counters", "first_flush_interval_millis").or(5000L);
   }
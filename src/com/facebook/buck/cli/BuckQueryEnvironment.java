@@ -17,6 +17,7 @@
 package com.facebook.buck.cli;
 
 
+import com.facebook.buck.graph.CompactDirectedGraph;
 import com.facebook.buck.io.MorePaths;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.json.BuildFileParseException;
@@ -55,6 +56,11 @@ import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+
+import javax.annotation.Nullable;
 
 /**
  * The environment of a Buck query that can evaluate queries to produce a result.
@@ -67,12 +73,25 @@ public class BuckQueryEnvironment implements QueryEnvironment<QueryTarget> {
 
   private final CommandRunnerParams params;
   private Map<Cell, BuildFileTree> buildFileTrees =  new HashMap<>();
-  private TargetGraph graph = TargetGraph.EMPTY;
+  // Operands of a query are evaluated in parallel, so the graph is only replaced while holding
+  // this environment's lock, and only by a graph with more nodes.
+  private volatile TargetGraph graph = TargetGraph.EMPTY;
+  // The graph in compact form, built when first needed after the graph changes.
+  @Nullable
+  private CompactDirectedGraph<QueryTarget> compactGraph;
+
+  // The results of subexpressions and the executor to evaluate operands on, for the query being
+  // evaluated.
+  @Nullable
+  private volatile ConcurrentMap<QueryExpression, Set<QueryTarget>> resultCache;
+  @Nullable
+  private volatile ListeningExecutorService operandExecutor;
 
   @VisibleForTesting
   protected TargetPatternEvaluator targetPatternEvaluator;
 
-  private Map<BuildTarget, QueryTarget> buildTargetToQueryTarget = new HashMap<>();
+  private ConcurrentMap<BuildTarget, QueryTarget> buildTargetToQueryTarget =
+      new ConcurrentHashMap<>();
 
   private boolean enableProfiling;
 
@@ -114,7 +133,21 @@ public class BuckQueryEnvironment implements QueryEnvironment<QueryTarget> {
     } catch (BuildTargetException | BuildFileParseException e) {
       throw new QueryException("Error in preloading targets. %s", e.getMessage());
     }
-    return expr.eval(this, executor);
+    // Operands may wait on tasks of the query executor, which is bounded, so they get their own
+    // executor, whose threads are only alive while the query is evaluated.
+    ListeningExecutorService queryOperandExecutor =
+        com.google.common.util.concurrent.MoreExecutors.listeningDecorator(
+            Executors.newCachedThreadPool(
+                new MostExecutors.NamedThreadFactory("buck query operand")));
+    resultCache = new ConcurrentHashMap<>();
+    operandExecutor = queryOperandExecutor;
+    try {
+      return expr.eval(this, executor);
+    } finally {
+      operandExecutor = null;
+      resultCache = null;
+      queryOperandExecutor.shutdownNow();
+    }
   }
 
   public Set<QueryTarget> evaluateQuery(String query, ListeningExecutorService executor)
@@ -123,7 +156,7 @@ public class BuckQueryEnvironment implements QueryEnvironment<QueryTarget> {
   }
 
   @Override
-  public ImmutableSet<QueryTarget> getTargetsMatchingPattern(
+  public synchronized ImmutableSet<QueryTarget> getTargetsMatchingPattern(
       String pattern,
       ListeningExecutorService executor) throws QueryException, InterruptedException {
     try {
@@ -156,12 +189,15 @@ public class BuckQueryEnvironment implements QueryEnvironment<QueryTarget> {
   }
 
   private QueryTarget getOrCreateQueryBuildTarget(BuildTarget buildTarget) {
-    if (buildTargetToQueryTarget.containsKey(buildTarget)) {
-      return buildTargetToQueryTarget.get(buildTarget);
+    QueryTarget queryTarget = buildTargetToQueryTarget.get(buildTarget);
+    if (queryTarget == null) {
+      queryTarget = QueryBuildTarget.of(buildTarget);
+      QueryTarget previous = buildTargetToQueryTarget.putIfAbsent(buildTarget, queryTarget);
+      if (previous != null) {
+        queryTarget = previous;
+      }
     }
-    QueryBuildTarget queryBuildTarget = QueryBuildTarget.of(buildTarget);
-    buildTargetToQueryTarget.put(buildTarget, queryBuildTarget);
-    return queryBuildTarget;
+    return queryTarget;
   }
 
   public ImmutableSet<QueryTarget> getTargetsFromBuildTargetsContainer(
@@ -235,13 +271,14 @@ public class BuckQueryEnvironment implements QueryEnvironment<QueryTarget> {
           enableProfiling,
           executor,
           targets);
+      compactGraph = null;
     } catch (BuildFileParseException | BuildTargetException | IOException e) {
       throw new QueryException("Error in building dependency graph");
     }
   }
 
   @Override
-  public void buildTransitiveClosure(
+  public synchronized void buildTransitiveClosure(
       Set<QueryTarget> targets,
       int maxDepth,
       ListeningExecutorService executor) throws QueryException, InterruptedException {
@@ -259,11 +296,39 @@ public class BuckQueryEnvironment implements QueryEnvironment<QueryTarget> {
     if (!newBuildTargets.isEmpty()) {
       buildGraphForBuildTargets(Sets.union(newBuildTargets, graphTargets), executor);
       for (BuildTarget buildTarget : getTargetsFromNodes(graph.getNodes())) {
-        if (!buildTargetToQueryTarget.containsKey(buildTarget)) {
-          buildTargetToQueryTarget.put(buildTarget, QueryBuildTarget.of(buildTarget));
+        getOrCreateQueryBuildTarget(buildTarget);
+      }
+    }
+  }
+
+  @Override
+  public synchronized Optional<CompactDirectedGraph<QueryTarget>> getCompactGraph() {
+    if (compactGraph == null) {
+      // Add the nodes in the order of their query targets, so traversals visit them in the same
+      // order as getFwdDeps and getReverseDeps return them.
+      CompactDirectedGraph.Builder<QueryTarget> builder = CompactDirectedGraph.builder();
+      for (QueryTarget target : getTargetsFromBuildTargetsContainer(graph.getNodes())) {
+        builder.addNode(target);
+      }
+      for (TargetNode<?> node : graph.getNodes()) {
+        QueryTarget source = getOrCreateQueryBuildTarget(node.getBuildTarget());
+        for (TargetNode<?> dep : graph.getOutgoingNodesFor(node)) {
+          builder.addEdge(source, getOrCreateQueryBuildTarget(dep.getBuildTarget()));
         }
       }
+      compactGraph = builder.build();
     }
+    return Optional.of(compactGraph);
+  }
+
+  @Override
+  public Optional<ConcurrentMap<QueryExpression, Set<QueryTarget>>> getResultCache() {
+    return Optional.fromNullable(resultCache);
+  }
+
+  @Override
+  public Optional<ListeningExecutorService> getOperandExecutor() {
+    return Optional.fromNullable(operandExecutor);
   }
 
   @Override
@@ -273,7 +338,7 @@ public class BuckQueryEnvironment implements QueryEnvironment<QueryTarget> {
   }
 
   @Override
-  public ImmutableSet<QueryTarget> getBuildFiles(Set<QueryTarget> targets)
+  public synchronized ImmutableSet<QueryTarget> getBuildFiles(Set<QueryTarget> targets)
       throws InterruptedException, QueryException {
     final Cell rootCell = params.getCell();
     final ProjectFilesystem cellFilesystem = params.getCell().getFilesystem();
@@ -311,7 +376,7 @@ public class BuckQueryEnvironment implements QueryEnvironment<QueryTarget> {
   }
 
   @Override
-  public ImmutableSet<QueryTarget> getFileOwners(ImmutableList<String> files)
+  public synchronized ImmutableSet<QueryTarget> getFileOwners(ImmutableList<String> files)
       throws InterruptedException, QueryException {
     try {
       BuildFileTree buildFileTree = Preconditions.checkNotNull(
@@ -45,7 +45,9 @@ import com.facebook.buck.rules.BuildEvent;
 import com.facebook.buck.rules.BuildRule;
 import com.facebook.buck.rules.BuildRuleResolver;
 import com.facebook.buck.rules.CachingBuildEngine;
+import com.facebook.buck.rules.RuleDurationHistory;
 import com.facebook.buck.rules.TargetGraphAndBuildTargets;
+import com.facebook.buck.shell.WorkerProcessPool;
 import com.facebook.buck.slb.ClientSideSlb;
 import com.facebook.buck.slb.HttpService;
 import com.facebook.buck.slb.LoadBalancedService;
@@ -59,6 +61,7 @@ import com.facebook.buck.step.TargetDeviceOptions;
 import com.facebook.buck.timing.Clock;
 import com.facebook.buck.util.Console;
 import com.facebook.buck.util.HumanReadableException;
+import com.facebook.buck.util.ListeningProcessExecutor;
 import com.facebook.buck.util.MoreExceptions;
 import com.facebook.buck.util.Verbosity;
 import com.facebook.buck.util.concurrent.WeightedListeningExecutorService;
@@ -93,6 +96,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.annotation.Nullable;
 
@@ -261,7 +265,8 @@ public class BuildCommand extends AbstractCommand {
       Clock clock,
       Optional<AdbOptions> adbOptions,
       Optional<TargetDeviceOptions> targetDeviceOptions,
-      Map<ExecutionContext.ExecutorPool, ListeningExecutorService> executors) {
+      Map<ExecutionContext.ExecutorPool, ListeningExecutorService> executors,
+      Optional<ConcurrentMap<String, WorkerProcessPool>> persistentWorkerPools) {
     if (console.getVerbosity() == Verbosity.ALL) {
       console.getStdErr().printf("Creating a build with %d threads.\n", buckConfig.getNumThreads());
     }
@@ -286,7 +291,11 @@ public class BuildCommand extends AbstractCommand {
         getConcurrencyLimit(buckConfig),
         adbOptions,
         targetDeviceOptions,
-        executors);
+        executors,
+        persistentWorkerPools,
+        buckConfig.isAsyncProcessIoEnabled() ?
+            Optional.of(new ListeningProcessExecutor()) :
+            Optional.<ListeningProcessExecutor>absent());
   }
 
   @Nullable private Build lastBuild;
@@ -528,7 +537,9 @@ public class BuildCommand extends AbstractCommand {
             params.getBuckConfig().getBuildArtifactCacheSizeLimit(),
             params.getObjectMapper(),
             actionGraphAndResolver.getResolver(),
-            params.getBuckConfig().getKeySeed()),
+            params.getBuckConfig().getKeySeed(),
+            params.getBuckConfig().getResourceAmountsPerRuleType(),
+            getRuleDurationHistory(params)),
         artifactCache,
         params.getConsole(),
         params.getBuckEventBus(),
@@ -539,7 +550,8 @@ public class BuildCommand extends AbstractCommand {
         params.getClock(),
         Optional.<AdbOptions>absent(),
         Optional.<TargetDeviceOptions>absent(),
-        params.getExecutors())) {
+        params.getExecutors(),
+        params.getPersistentWorkerPools())) {
       lastBuild = build;
       return build.executeAndPrintFailuresToEventBus(
           buildTargets,
@@ -550,6 +562,25 @@ public class BuildCommand extends AbstractCommand {
     }
   }
 
+  /**
+   * @return how long rules took in previous builds, registered to record how long they take in
+   *     this one, if the build engine schedules rules by their critical path.
+   */
+  protected static Optional<RuleDurationHistory> getRuleDurationHistory(
+      CommandRunnerParams params) {
+    if (params.getBuckConfig().getDependencySchedulingOrder() !=
+        CachingBuildEngine.DependencySchedulingOrder.CRITICAL_PATH) {
+      return Optional.absent();
+    }
+    ProjectFilesystem filesystem = params.getCell().getFilesystem();
+    RuleDurationHistory history = RuleDurationHistory.load(
+        filesystem.resolve(filesystem.getBuckPaths().getBuckOut())
+            .resolve(RuleDurationHistory.RULE_DURATIONS_JSON),
+        params.getObjectMapper());
+    params.getBuckEventBus().register(history);
+    return Optional.of(history);
+  }
+
   @Override
   public boolean isReadOnly() {
     return false;
@@ -24,6 +24,8 @@ import com.facebook.buck.jvm.core.JavaPackageFinder;
 import com.facebook.buck.parser.Parser;
 import com.facebook.buck.rules.ActionGraphCache;
 import com.facebook.buck.rules.Cell;
+import com.facebook.buck.rules.TargetNodeHashCache;
+import com.facebook.buck.shell.WorkerProcessPool;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.timing.Clock;
 import com.facebook.buck.util.Console;
@@ -39,6 +41,7 @@ import com.google.common.util.concurrent.ListeningExecutorService;
 
 import java.io.InputStream;
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * {@link CommandRunnerParams} is the collection of parameters needed to run a {@link Command}.
@@ -64,6 +67,8 @@ class CommandRunnerParams {
   private final Map<ExecutionContext.ExecutorPool, ListeningExecutorService> executors;
   private final BuildEnvironmentDescription buildEnvironmentDescription;
   private final ActionGraphCache actionGraphCache;
+  private final TargetNodeHashCache targetNodeHashCache;
+  private final Optional<ConcurrentMap<String, WorkerProcessPool>> persistentWorkerPools;
 
   public CommandRunnerParams(
       Console console,
@@ -84,7 +89,9 @@ class CommandRunnerParams {
       FileHashCache fileHashCache,
       Map<ExecutionContext.ExecutorPool, ListeningExecutorService> executors,
       BuildEnvironmentDescription buildEnvironmentDescription,
-      ActionGraphCache actionGraphCache) {
+      ActionGraphCache actionGraphCache,
+      TargetNodeHashCache targetNodeHashCache,
+      Optional<ConcurrentMap<String, WorkerProcessPool>> persistentWorkerPools) {
     this.console = console;
     this.stdIn = stdIn;
     this.cell = cell;
@@ -104,6 +111,8 @@ class CommandRunnerParams {
     this.executors = executors;
     this.buildEnvironmentDescription = buildEnvironmentDescription;
     this.actionGraphCache = actionGraphCache;
+    this.targetNodeHashCache = targetNodeHashCache;
+    this.persistentWorkerPools = persistentWorkerPools;
   }
 
   public Console getConsole() {
@@ -182,4 +191,12 @@ class CommandRunnerParams {
     return actionGraphCache;
   }
 
+  public TargetNodeHashCache getTargetNodeHashCache() {
+    return targetNodeHashCache;
+  }
+
+  public Optional<ConcurrentMap<String, WorkerProcessPool>> getPersistentWorkerPools() {
+    return persistentWorkerPools;
+  }
+
 }
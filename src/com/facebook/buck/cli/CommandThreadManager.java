@@ -19,7 +19,8 @@ package com.facebook.buck.cli;
 import static com.google.common.util.concurrent.MoreExecutors.listeningDecorator;
 
 import com.facebook.buck.log.CommandThreadFactory;
-import com.facebook.buck.util.concurrent.ListeningSemaphore;
+import com.facebook.buck.util.concurrent.ListeningMultiSemaphore;
+import com.facebook.buck.util.concurrent.ResourceAmounts;
 import com.facebook.buck.util.concurrent.WeightedListeningExecutorService;
 import com.facebook.buck.util.concurrent.ConcurrencyLimit;
 import com.facebook.buck.util.concurrent.LimitedThreadPoolExecutor;
@@ -48,6 +49,9 @@ public class CommandThreadManager implements AutoCloseable {
   private static final long DEFAULT_SHUTDOWN_TIMEOUT = 30;
   private static final TimeUnit DEFAULT_SHUTDOWN_TIMEOUT_UNIT = TimeUnit.MINUTES;
 
+  // Tasks which don't say what they need only need a thread.
+  private static final ResourceAmounts DEFAULT_TASK_AMOUNTS = ResourceAmounts.of(1, 0, 0, 0);
+
   // Use a thread group purely as a debugging aid to help enumerate the threads we should
   // print an error message for.
   private final ThreadGroup threadGroup;
@@ -67,11 +71,10 @@ public class CommandThreadManager implements AutoCloseable {
     this.threadGroup = new ThreadGroup(name);
     this.executor =
         new WeightedListeningExecutorService(
-            new ListeningSemaphore(
-                concurrencyLimit.threadLimit,
-                ListeningSemaphore.Cap.SOFT,
-                ListeningSemaphore.Fairness.FAIR),
-            /* defaultPermits */ 1,
+            new ListeningMultiSemaphore(
+                concurrencyLimit.maximumAmounts,
+                concurrencyLimit.resourceAllocationFairness),
+            DEFAULT_TASK_AMOUNTS,
             listeningDecorator(
                 new LimitedThreadPoolExecutor(
                     new ThreadFactoryBuilder()
@@ -66,8 +66,10 @@ import com.facebook.buck.rules.Cell;
 import com.facebook.buck.rules.ConstructorArgMarshaller;
 import com.facebook.buck.rules.KnownBuildRuleTypes;
 import com.facebook.buck.rules.KnownBuildRuleTypesFactory;
+import com.facebook.buck.rules.TargetNodeHashCache;
 import com.facebook.buck.rules.coercer.DefaultTypeCoercerFactory;
 import com.facebook.buck.rules.coercer.TypeCoercerFactory;
+import com.facebook.buck.shell.WorkerProcessPool;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.test.TestConfig;
 import com.facebook.buck.test.TestResultSummaryVerbosity;
@@ -96,6 +98,7 @@ import com.facebook.buck.util.WatchmanWatcher;
 import com.facebook.buck.util.WatchmanWatcherException;
 import com.facebook.buck.util.cache.DefaultFileHashCache;
 import com.facebook.buck.util.cache.FileHashCache;
+import com.facebook.buck.util.cache.PersistentFileHashStore;
 import com.facebook.buck.util.cache.ProjectFileHashCache;
 import com.facebook.buck.util.cache.StackedFileHashCache;
 import com.facebook.buck.util.cache.WatchedFileHashCache;
@@ -157,6 +160,8 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.TimeZone;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
@@ -254,10 +259,13 @@ public final class Main {
     private final Parser parser;
     private final DefaultFileHashCache hashCache;
     private final DefaultFileHashCache buckOutHashCache;
+    private final Optional<PersistentFileHashStore> persistentFileHashStore;
     private final EventBus fileEventBus;
     private final Optional<WebServer> webServer;
     private final UUID watchmanQueryUUID;
     private final ActionGraphCache actionGraphCache;
+    private final TargetNodeHashCache targetNodeHashCache;
+    private final ConcurrentMap<String, WorkerProcessPool> persistentWorkerPools;
 
     public Daemon(
         Cell cell,
@@ -265,7 +273,8 @@ public final class Main {
         Optional<WebServer> webServerToReuse)
         throws IOException, InterruptedException {
       this.cell = cell;
-      this.hashCache = new WatchedFileHashCache(cell.getFilesystem());
+      this.persistentFileHashStore = createPersistentFileHashStore(cell);
+      this.hashCache = new WatchedFileHashCache(cell.getFilesystem(), persistentFileHashStore);
       this.buckOutHashCache =
           new DefaultFileHashCache(
               new ProjectFilesystem(
@@ -274,7 +283,9 @@ public final class Main {
                   ImmutableSet.<ProjectFilesystem.PathOrGlobMatcher>of()));
       this.fileEventBus = new EventBus("file-change-events");
 
-      actionGraphCache = new ActionGraphCache();
+      actionGraphCache = new ActionGraphCache(cell.getBuckConfig().getActionGraphCacheSize());
+      targetNodeHashCache = new TargetNodeHashCache();
+      persistentWorkerPools = new ConcurrentHashMap<>();
 
       TypeCoercerFactory typeCoercerFactory = new DefaultTypeCoercerFactory(objectMapper);
       this.parser = new Parser(
@@ -283,6 +294,7 @@ public final class Main {
           new ConstructorArgMarshaller(typeCoercerFactory));
       fileEventBus.register(parser);
       fileEventBus.register(actionGraphCache);
+      fileEventBus.register(targetNodeHashCache);
       fileEventBus.register(hashCache);
 
       if (webServerToReuse.isPresent()) {
@@ -356,6 +368,14 @@ public final class Main {
       return actionGraphCache;
     }
 
+    private TargetNodeHashCache getTargetNodeHashCache() {
+      return targetNodeHashCache;
+    }
+
+    private ConcurrentMap<String, WorkerProcessPool> getPersistentWorkerPools() {
+      return persistentWorkerPools;
+    }
+
     private DefaultFileHashCache getFileHashCache() {
       return hashCache;
     }
@@ -364,6 +384,10 @@ public final class Main {
       return buckOutHashCache;
     }
 
+    private Optional<PersistentFileHashStore> getPersistentFileHashStore() {
+      return persistentFileHashStore;
+    }
+
     private void watchClient(final NGContext context) {
       context.addClientListener(new NGClientListener() {
         @Override
@@ -437,6 +461,18 @@ public final class Main {
     @Override
     public void close() throws IOException {
       shutdownWebServer();
+      closePersistentWorkerPools();
+    }
+
+    private void closePersistentWorkerPools() {
+      for (WorkerProcessPool pool : persistentWorkerPools.values()) {
+        try {
+          pool.close();
+        } catch (RuntimeException | IOException e) {
+          LOG.error(e);
+        }
+      }
+      persistentWorkerPools.clear();
     }
 
     private void shutdownWebServer() {
@@ -817,11 +853,15 @@ public final class Main {
 
         ProjectFileHashCache cellHashCache;
         ProjectFileHashCache buckOutHashCache;
+        Optional<PersistentFileHashStore> persistentFileHashStore;
         if (isDaemon) {
           cellHashCache = getFileHashCacheFromDaemon(rootCell);
           buckOutHashCache = getBuckOutFileHashCacheFromDaemon(rootCell);
+          persistentFileHashStore = getDaemon(rootCell, objectMapper).getPersistentFileHashStore();
         } else {
-          cellHashCache = new DefaultFileHashCache(rootCell.getFilesystem());
+          persistentFileHashStore = createPersistentFileHashStore(rootCell);
+          cellHashCache =
+              new DefaultFileHashCache(rootCell.getFilesystem(), persistentFileHashStore);
           buckOutHashCache =
               new DefaultFileHashCache(
                   new ProjectFilesystem(
@@ -1077,7 +1117,9 @@ public final class Main {
                   fileHashCache,
                   executors,
                   buildEnvironmentDescription,
-                  actionGraphCache));
+                  actionGraphCache,
+                  getTargetNodeHashCacheFromDaemon(context, rootCell),
+                  getPersistentWorkerPoolsFromDaemon(context, rootCell)));
           // Wait for HTTP writes to complete.
           closeHttpExecutorService(
               cacheBuckConfig, Optional.of(buildEventBus), httpWriteExecutorService);
@@ -1119,6 +1161,7 @@ public final class Main {
 
         closeDiskIoExecutorService(diskIoExecutorService);
         flushEventListeners(console, buildId, eventListeners);
+        savePersistentFileHashStore(persistentFileHashStore);
         return exitCode;
       }
     } finally {
@@ -1286,6 +1329,29 @@ public final class Main {
     return daemon.getBuckOutHashCache();
   }
 
+  private static Optional<PersistentFileHashStore> createPersistentFileHashStore(Cell cell) {
+    if (!cell.getBuckConfig().isPersistentFileHashCacheEnabled()) {
+      return Optional.absent();
+    }
+    ProjectFilesystem filesystem = cell.getFilesystem();
+    return Optional.of(
+        PersistentFileHashStore.load(
+            filesystem.resolve(filesystem.getBuckPaths().getFileHashStorePath())));
+  }
+
+  private static void savePersistentFileHashStore(
+      Optional<PersistentFileHashStore> persistentFileHashStore) {
+    if (!persistentFileHashStore.isPresent()) {
+      return;
+    }
+    try {
+      persistentFileHashStore.get().save();
+    } catch (IOException e) {
+      // The store is only an optimization, so losing it shouldn't fail the command.
+      LOG.warn(e, "Failed to save the file hash store.");
+    }
+  }
+
   private Optional<WebServer> getWebServerIfDaemon(
       Optional<NGContext> context,
       Cell cell)
@@ -1307,6 +1373,26 @@ public final class Main {
     return new ActionGraphCache();
   }
 
+  private TargetNodeHashCache getTargetNodeHashCacheFromDaemon(
+      Optional<NGContext> context,
+      Cell cell)
+      throws IOException, InterruptedException {
+    if (context.isPresent()) {
+      return getDaemon(cell, objectMapper).getTargetNodeHashCache();
+    }
+    return new TargetNodeHashCache();
+  }
+
+  private Optional<ConcurrentMap<String, WorkerProcessPool>> getPersistentWorkerPoolsFromDaemon(
+      Optional<NGContext> context,
+      Cell cell)
+      throws IOException, InterruptedException {
+    if (context.isPresent()) {
+      return Optional.of(getDaemon(cell, objectMapper).getPersistentWorkerPools());
+    }
+    return Optional.absent();
+  }
+
   private void loadListenersFromBuckConfig(
       ImmutableList.Builder<BuckEventListener> eventListeners,
       ProjectFilesystem projectFilesystem,
@@ -51,6 +51,7 @@ import com.facebook.buck.rules.TargetGraphAndTargetNodes;
 import com.facebook.buck.rules.TargetGraphAndTargets;
 import com.facebook.buck.rules.TargetGraphHashing;
 import com.facebook.buck.rules.TargetNode;
+import com.facebook.buck.rules.TargetNodeHashCache;
 import com.facebook.buck.rules.TargetNodes;
 import com.facebook.buck.rules.keys.DefaultRuleKeyBuilderFactory;
 import com.facebook.buck.util.HumanReadableException;
@@ -867,13 +868,21 @@ public class TargetsCommand extends AbstractCommand {
 
     FileHashLoader fileHashLoader = createOrGetFileHashLoader(params);
 
+    // Hashes computed from the paths alone can't be shared with those of other commands.
+    Optional<TargetNodeHashCache> nodeHashCache =
+        getTargetHashFileMode() == TargetHashFileMode.PATHS_AND_CONTENTS ?
+            Optional.of(params.getTargetNodeHashCache()) :
+            Optional.<TargetNodeHashCache>absent();
+
     // Hash each target's rule description and contents of any files.
     ImmutableMap<BuildTarget, HashCode> buildTargetHashes =
         TargetGraphHashing.hashTargetGraph(
             params.getCell(),
             targetGraphWithTests,
             fileHashLoader,
-            targetGraphAndNodesWithTests.getTargetNodes());
+            targetGraphAndNodesWithTests.getTargetNodes(),
+            executor,
+            nodeHashCache);
 
     ImmutableMap<BuildTarget, HashCode> finalHashes = rehashWithTestsIfNeeded(
         targetGraphWithTests,
@@ -18,6 +18,7 @@ package com.facebook.buck.cli;
 
 import com.facebook.buck.command.Build;
 import com.facebook.buck.event.ConsoleEvent;
+import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.json.BuildFileParseException;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.BuildTarget;
@@ -36,6 +37,7 @@ import com.facebook.buck.rules.TargetGraph;
 import com.facebook.buck.rules.TargetGraphAndBuildTargets;
 import com.facebook.buck.rules.TargetNode;
 import com.facebook.buck.rules.TargetNodes;
+import com.facebook.buck.rules.TestDurationHistory;
 import com.facebook.buck.rules.TestRule;
 import com.facebook.buck.step.AdbOptions;
 import com.facebook.buck.step.DefaultStepRunner;
@@ -81,6 +83,8 @@ import javax.annotation.Nullable;
 public class TestCommand extends BuildCommand {
 
   public static final String USE_RESULTS_CACHE = "use_results_cache";
+  public static final String JUNIT_RUNNER_POOL_SIZE = "junit_runner_pool_size";
+  public static final String JAVA_TEST_MAX_SHARDS = "java_test_max_shards";
 
   private static final Logger LOG = Logger.get(TestCommand.class);
 
@@ -186,6 +190,9 @@ public class TestCommand extends BuildCommand {
   @Option(name = "--", handler = ConsumeAllOptionsHandler.class)
   private List<String> withDashArguments = Lists.newArrayList();
 
+  @Nullable
+  private TestDurationHistory testDurationHistory = null;
+
   public boolean isRunAllTests() {
     return all || getArguments().isEmpty();
   }
@@ -250,7 +257,25 @@ public class TestCommand extends BuildCommand {
     return buckConfig.getNumThreads();
   }
 
+  /**
+   * @return how long tests took in previous runs, registered to record how long they take in this
+   *     one.
+   */
+  private TestDurationHistory getTestDurationHistory(CommandRunnerParams params) {
+    if (testDurationHistory == null) {
+      ProjectFilesystem filesystem = params.getCell().getFilesystem();
+      Path buckOut = filesystem.resolve(filesystem.getBuckPaths().getBuckOut());
+      testDurationHistory = TestDurationHistory.load(
+          buckOut.resolve(TestDurationHistory.TEST_DURATIONS_JSON),
+          buckOut.resolve(TestDurationHistory.TEST_CASE_DURATIONS_JSON),
+          params.getObjectMapper());
+      params.getBuckEventBus().register(testDurationHistory);
+    }
+    return testDurationHistory;
+  }
+
   private TestRunningOptions getTestRunningOptions(CommandRunnerParams params) {
+    TestDurationHistory history = getTestDurationHistory(params);
     return TestRunningOptions.builder()
         .setUsingOneTimeOutputDirectories(isUsingOneTimeOutput)
         .setCodeCoverageEnabled(isCodeCoverageEnabled)
@@ -260,6 +285,12 @@ public class TestCommand extends BuildCommand {
         .setResultsCacheEnabled(isResultsCacheEnabled(params.getBuckConfig()))
         .setDryRun(isDryRun)
         .setShufflingTests(isShufflingTests)
+        .setJUnitRunnerPoolSize(
+            params.getBuckConfig().getInteger("test", JUNIT_RUNNER_POOL_SIZE).or(0))
+        .setMaxJavaTestShards(
+            params.getBuckConfig().getInteger("test", JAVA_TEST_MAX_SHARDS).or(1))
+        .setTestRuleDurations(history.getRuleDurations())
+        .setTestCaseDurations(history.getTestCaseDurations())
         .setPathToXmlTestOutput(Optional.fromNullable(pathToXmlTestOutput))
         .setPathToJavaAgent(Optional.fromNullable(pathToJavaAgent))
         .setCoverageReportFormat(coverageReportFormat)
@@ -491,7 +522,9 @@ public class TestCommand extends BuildCommand {
               params.getBuckConfig().getBuildArtifactCacheSizeLimit(),
               params.getObjectMapper(),
               actionGraphAndResolver.getResolver(),
-              params.getBuckConfig().getKeySeed());
+              params.getBuckConfig().getKeySeed(),
+              params.getBuckConfig().getResourceAmountsPerRuleType(),
+              getRuleDurationHistory(params));
       try (Build build = createBuild(
           params.getBuckConfig(),
           actionGraphAndResolver.getActionGraph(),
@@ -508,7 +541,8 @@ public class TestCommand extends BuildCommand {
           params.getClock(),
           Optional.of(getAdbOptions(params.getBuckConfig())),
           Optional.of(getTargetDeviceOptions()),
-          params.getExecutors())) {
+          params.getExecutors(),
+          params.getPersistentWorkerPools())) {
 
         // Build all of the test rules.
         int exitCode = build.executeAndPrintFailuresToEventBus(
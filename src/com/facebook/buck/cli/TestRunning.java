@@ -86,6 +86,8 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -333,6 +335,9 @@ public class TestRunning {
           }
         };
 
+    // Start the longest running tests first, so that they don't hold up the end of the run.
+    sortLongestFirst(parallelTestRuns, options.getTestRuleDurations());
+
     for (TestRun testRun : parallelTestRuns) {
       ListenableFuture<TestResults> testResults =
           stepRunner.runStepsAndYieldResult(
@@ -472,6 +477,37 @@ public class TestRunning {
     return failures ? TEST_FAILURES_EXIT_CODE : 0;
   }
 
+  /**
+   * Sorts test runs by how long their tests took last time, longest first. Tests which haven't
+   * run before are assumed to take the average time.
+   */
+  @VisibleForTesting
+  static void sortLongestFirst(List<TestRun> testRuns, final Map<String, Long> ruleDurations) {
+    if (ruleDurations.isEmpty()) {
+      return;
+    }
+    long totalDuration = 0;
+    for (long duration : ruleDurations.values()) {
+      totalDuration += duration;
+    }
+    final long averageDuration = totalDuration / ruleDurations.size();
+    // The sort is stable, so tests with the same duration keep the order they were given in.
+    Collections.sort(
+        testRuns,
+        new Comparator<TestRun>() {
+          @Override
+          public int compare(TestRun a, TestRun b) {
+            return Long.compare(getDuration(b), getDuration(a));
+          }
+
+          private long getDuration(TestRun testRun) {
+            Long duration =
+                ruleDurations.get(testRun.getTest().getBuildTarget().getFullyQualifiedName());
+            return duration == null ? averageDuration : duration;
+          }
+        });
+  }
+
   private static ListenableFuture<TestResults> transformTestResults(
       final CommandRunnerParams params,
       ListenableFuture<TestResults> originalTestResults,
@@ -35,6 +35,7 @@ import com.facebook.buck.rules.BuildResult;
 import com.facebook.buck.rules.BuildRule;
 import com.facebook.buck.rules.BuildRuleResolver;
 import com.facebook.buck.rules.ImmutableBuildContext;
+import com.facebook.buck.shell.WorkerProcessPool;
 import com.facebook.buck.step.AdbOptions;
 import com.facebook.buck.step.DefaultStepRunner;
 import com.facebook.buck.step.ExecutionContext;
@@ -45,6 +46,7 @@ import com.facebook.buck.timing.Clock;
 import com.facebook.buck.util.Console;
 import com.facebook.buck.util.ExceptionWithHumanReadableMessage;
 import com.facebook.buck.util.HumanReadableException;
+import com.facebook.buck.util.ListeningProcessExecutor;
 import com.facebook.buck.util.concurrent.ConcurrencyLimit;
 import com.facebook.buck.util.environment.Platform;
 import com.facebook.buck.util.immutables.BuckStyleImmutable;
@@ -73,6 +75,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 
 import javax.annotation.Nullable;
@@ -124,7 +127,9 @@ public class Build implements Closeable {
       ConcurrencyLimit concurrencyLimit,
       Optional<AdbOptions> adbOptions,
       Optional<TargetDeviceOptions> targetDeviceOptions,
-      Map<ExecutionContext.ExecutorPool, ListeningExecutorService> executors) {
+      Map<ExecutionContext.ExecutorPool, ListeningExecutorService> executors,
+      Optional<ConcurrentMap<String, WorkerProcessPool>> persistentWorkerPools,
+      Optional<ListeningProcessExecutor> listeningProcessExecutor) {
     this.actionGraph = actionGraph;
     this.ruleResolver = ruleResolver;
     this.executionContext = ExecutionContext.builder()
@@ -144,6 +149,8 @@ public class Build implements Closeable {
         .setAdbOptions(adbOptions)
         .setTargetDeviceOptions(targetDeviceOptions)
         .setExecutors(executors)
+        .setPersistentWorkerPools(persistentWorkerPools)
+        .setListeningProcessExecutor(listeningProcessExecutor)
         .build();
     this.artifactCache = artifactCache;
     this.buildEngine = buildEngine;
@@ -226,6 +233,8 @@ public class Build implements Closeable {
                        })
             .toSet());
 
+    buildEngine.prepareSchedule(rulesToBuild);
+
     // Calculate and post the number of rules that need to built.
     int numRules = buildEngine.getNumRulesToBuild(rulesToBuild);
     getExecutionContext().getBuckEventBus().post(
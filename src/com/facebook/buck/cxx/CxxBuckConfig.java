@@ -299,12 +299,14 @@ public class CxxBuckConfig {
 
   public Optional<RuleScheduleInfo> getLinkScheduleInfo() {
     Optional<Long> linkWeight = delegate.getLong(cxxSection, "link_weight");
-    if (!linkWeight.isPresent()) {
+    Optional<Long> linkMemory = delegate.getLong(cxxSection, "link_memory");
+    if (!linkWeight.isPresent() && !linkMemory.isPresent()) {
       return Optional.absent();
     }
     return Optional.of(
         RuleScheduleInfo.builder()
-            .setJobsMultiplier(linkWeight.get().intValue())
+            .setJobsMultiplier(linkWeight.or(1L).intValue())
+            .setMemory(linkMemory.or(0L).intValue())
             .build());
   }
 
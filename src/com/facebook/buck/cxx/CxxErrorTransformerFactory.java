@@ -25,8 +25,11 @@ import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 
+import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.StringReader;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.regex.Matcher;
@@ -79,6 +82,29 @@ class CxxErrorTransformerFactory {
     };
   }
 
+  /**
+   * Transform each line of output which has already been read in full.  The output ends with a
+   * line separator only if it did before.
+   */
+  public String transformLines(String output) {
+    StringBuilder transformed = new StringBuilder();
+    try (BufferedReader reader = new BufferedReader(new StringReader(output))) {
+      String line;
+      String separator = "";
+      while ((line = reader.readLine()) != null) {
+        transformed.append(separator).append(transformLine(line));
+        separator = System.lineSeparator();
+      }
+      if (output.endsWith("\n") || output.endsWith("\r")) {
+        transformed.append(separator);
+      }
+    } catch (IOException e) {
+      // Reading a string can't fail.
+      throw new IllegalStateException(e);
+    }
+    return transformed.toString();
+  }
+
   private static final ImmutableList<Pattern> PATH_PATTERNS =
       ImmutableList.of(
           Pattern.compile(
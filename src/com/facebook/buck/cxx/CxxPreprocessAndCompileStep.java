@@ -19,14 +19,17 @@ package com.facebook.buck.cxx;
 import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.log.Logger;
+import com.facebook.buck.step.AsyncStep;
 import com.facebook.buck.step.ExecutionContext;
-import com.facebook.buck.step.Step;
 import com.facebook.buck.step.StepExecutionResult;
+import com.facebook.buck.util.AbstractCharsetProcessListener;
 import com.facebook.buck.util.BgProcessKiller;
 import com.facebook.buck.util.Escaper;
 import com.facebook.buck.util.LineProcessorRunnable;
+import com.facebook.buck.util.ListeningProcessExecutor;
 import com.facebook.buck.util.ManagedRunnable;
 import com.facebook.buck.util.MoreThrowables;
+import com.facebook.buck.util.ProcessExecutorParams;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
@@ -36,11 +39,18 @@ import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.CharBuffer;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 
 import javax.annotation.Nullable;
@@ -48,7 +58,7 @@ import javax.annotation.Nullable;
 /**
  * A step that preprocesses and/or compiles C/C++ sources in a single step.
  */
-public class CxxPreprocessAndCompileStep implements Step {
+public class CxxPreprocessAndCompileStep implements AsyncStep {
 
   private static final Logger LOG = Logger.get(CxxPreprocessAndCompileStep.class);
 
@@ -69,6 +79,12 @@ public class CxxPreprocessAndCompileStep implements Step {
    */
   private final Path scratchDir;
 
+  // The compiler started by launchCompiler(), if any.
+  @Nullable
+  private ListeningProcessExecutor.LaunchedProcess compilerProcess;
+  @Nullable
+  private CompilerProcessListener compilerListener;
+
   public CxxPreprocessAndCompileStep(
       ProjectFilesystem filesystem,
       Operation operation,
@@ -389,8 +405,76 @@ public class CxxPreprocessAndCompileStep implements Step {
       process.waitFor();
     }
 
+    postErrorOutput(context, exitCode, new String(error.toByteArray()));
+
+    return exitCode;
+  }
+
+  /**
+   * Starts the compiler using a {@link ListeningProcessExecutor}, which collects its error output
+   * as it arrives on threads shared between processes, rather than on a thread of the CPU pool.
+   * The executor starts the compiler through {@link BgProcessKiller} too.
+   *
+   * @return a future which completes once the compiler has exited.
+   */
+  private ListenableFuture<Integer> launchCompiler(
+      ExecutionContext context,
+      ListeningProcessExecutor executor) throws IOException {
+    ProcessBuilder builder = makeSubprocessBuilder(context);
+    builder.command(getCommand(context.getAnsi().isAnsiTerminal()));
+
+    LOG.debug(
+        "Running command (pwd=%s): %s",
+        builder.directory(),
+        getDescription(context));
+
+    compilerListener = new CompilerProcessListener();
+    compilerProcess = executor.launchProcess(
+        ProcessExecutorParams.builder()
+            .setCommand(builder.command())
+            .setEnvironment(builder.environment())
+            .setDirectory(builder.directory())
+            .build(),
+        compilerListener);
+    return compilerListener.exitCode;
+  }
+
+  /**
+   * Compiles using {@link #launchCompiler}, with the calling build thread waiting for the compiler
+   * to exit.
+   */
+  private int executeCompileWithListeningProcessExecutor(
+      ExecutionContext context,
+      ListeningProcessExecutor executor) throws IOException, InterruptedException {
+    launchCompiler(context, executor);
+    ListeningProcessExecutor.LaunchedProcess process = Preconditions.checkNotNull(compilerProcess);
+    try {
+      executor.waitForProcess(process, Long.MAX_VALUE, TimeUnit.SECONDS);
+    } finally {
+      if (process.isRunning()) {
+        executor.destroyProcess(process, /* force */ true);
+      }
+    }
+    return collectCompilerOutput(context);
+  }
+
+  /**
+   * Posts the error output of the compiler started by {@link #launchCompiler}, which has exited.
+   *
+   * @return the compiler's exit code.
+   */
+  private int collectCompilerOutput(ExecutionContext context) {
+    CompilerProcessListener listener = Preconditions.checkNotNull(compilerListener);
+    int exitCode = Futures.getUnchecked(listener.exitCode);
+    postErrorOutput(
+        context,
+        exitCode,
+        createErrorTransformerFactory(context).transformLines(listener.stderr.toString()));
+    return exitCode;
+  }
+
+  private void postErrorOutput(ExecutionContext context, int exitCode, String err) {
     // If we generated any error output, print that to the console.
-    String err = new String(error.toByteArray());
     if (!err.isEmpty()) {
       context.getBuckEventBus().post(
           createConsoleEvent(
@@ -399,8 +483,6 @@ public class CxxPreprocessAndCompileStep implements Step {
               exitCode == 0 ? Level.WARNING : Level.SEVERE,
               err));
     }
-
-    return exitCode;
   }
 
   private ConsoleEvent createConsoleEvent(
@@ -445,44 +527,41 @@ public class CxxPreprocessAndCompileStep implements Step {
       int exitCode;
       if (operation == Operation.PIPED_PREPROCESS_AND_COMPILE) {
         exitCode = executePiped(context);
+      } else if (operation == Operation.COMPILE &&
+          context.getListeningProcessExecutor().isPresent()) {
+        exitCode = executeCompileWithListeningProcessExecutor(
+            context,
+            context.getListeningProcessExecutor().get());
       } else {
         exitCode = executeOther(context);
       }
+      return finishExecution(context, exitCode);
 
-      if (operation.isPreprocess() && exitCode == 0) {
-        exitCode =
-            Depfiles.parseAndWriteBuckCompatibleDepfile(
-                context,
-                filesystem,
-                headerPathNormalizer,
-                headerVerification,
-                getDepTemp(),
-                depFile,
-                input,
-                output);
-      }
-
-      // If the compilation completed successfully and we didn't effect debug-info normalization
-      // through #line directive modification, perform the in-place update of the compilation per
-      // above.  This locates the relevant debug section and swaps out the expanded actual
-      // compilation directory with the one we really want.
-      if (exitCode == 0 && shouldSanitizeOutputBinary()) {
-        try {
-          sanitizer.restoreCompilationDirectory(
-              filesystem.getRootPath().toAbsolutePath().resolve(output),
-              filesystem.getRootPath().toAbsolutePath());
-        } catch (IOException e) {
-          context.logError(e, "error updating compilation directory");
-          return StepExecutionResult.ERROR;
-        }
-      }
-
-      if (exitCode != 0) {
-        LOG.warn("error %d %s %s", exitCode, operation.toString().toLowerCase(), input);
-      }
+    } catch (Exception e) {
+      MoreThrowables.propagateIfInterrupt(e);
+      context.logError(e, "Build error caused by exception");
+      return StepExecutionResult.ERROR;
+    }
+  }
 
-      return StepExecutionResult.of(exitCode);
+  /**
+   * Starts plain compiles without waiting for them when there's a {@link ListeningProcessExecutor}
+   * to wait for the compiler with.
+   */
+  @Override
+  public Optional<ListenableFuture<?>> start(ExecutionContext context) throws IOException {
+    if (operation != Operation.COMPILE || !context.getListeningProcessExecutor().isPresent()) {
+      return Optional.absent();
+    }
+    LOG.debug("%s %s -> %s", operation.toString().toLowerCase(), input, output);
+    return Optional.<ListenableFuture<?>>of(
+        launchCompiler(context, context.getListeningProcessExecutor().get()));
+  }
 
+  @Override
+  public StepExecutionResult finish(ExecutionContext context) throws InterruptedException {
+    try {
+      return finishExecution(context, collectCompilerOutput(context));
     } catch (Exception e) {
       MoreThrowables.propagateIfInterrupt(e);
       context.logError(e, "Build error caused by exception");
@@ -490,6 +569,43 @@ public class CxxPreprocessAndCompileStep implements Step {
     }
   }
 
+  private StepExecutionResult finishExecution(ExecutionContext context, int exitCode)
+      throws IOException, InterruptedException {
+    if (operation.isPreprocess() && exitCode == 0) {
+      exitCode =
+          Depfiles.parseAndWriteBuckCompatibleDepfile(
+              context,
+              filesystem,
+              headerPathNormalizer,
+              headerVerification,
+              getDepTemp(),
+              depFile,
+              input,
+              output);
+    }
+
+    // If the compilation completed successfully and we didn't effect debug-info normalization
+    // through #line directive modification, perform the in-place update of the compilation per
+    // above.  This locates the relevant debug section and swaps out the expanded actual
+    // compilation directory with the one we really want.
+    if (exitCode == 0 && shouldSanitizeOutputBinary()) {
+      try {
+        sanitizer.restoreCompilationDirectory(
+            filesystem.getRootPath().toAbsolutePath().resolve(output),
+            filesystem.getRootPath().toAbsolutePath());
+      } catch (IOException e) {
+        context.logError(e, "error updating compilation directory");
+        return StepExecutionResult.ERROR;
+      }
+    }
+
+    if (exitCode != 0) {
+      LOG.warn("error %d %s %s", exitCode, operation.toString().toLowerCase(), input);
+    }
+
+    return StepExecutionResult.of(exitCode);
+  }
+
   public ImmutableList<String> getCommand() {
     // We set allowColorsInDiagnostics to false here because this function is only used by the
     // compilation database (its contents should not depend on how Buck was invoked) and in the
@@ -643,4 +759,34 @@ public class CxxPreprocessAndCompileStep implements Step {
     }
   }
 
+  /**
+   * Collects the compiler's error output, and completes a future with its exit code once it has
+   * exited, after the last of that output.
+   */
+  private static class CompilerProcessListener extends AbstractCharsetProcessListener {
+    private final StringBuffer stderr = new StringBuffer();
+    private final SettableFuture<Integer> exitCode = SettableFuture.create();
+
+    public CompilerProcessListener() {
+      super(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void onStart(ListeningProcessExecutor.LaunchedProcess process) {
+      process.closeStdin(/* force */ true);
+    }
+
+    @Override
+    public void onExit(int exitCode) {
+      this.exitCode.set(exitCode);
+    }
+
+    @Override
+    protected void onStderrChars(CharBuffer buffer, boolean closed, CoderResult coderResult) {
+      stderr.append(buffer);
+      // Consume the entire buffer.
+      buffer.position(buffer.limit());
+    }
+  }
+
 }
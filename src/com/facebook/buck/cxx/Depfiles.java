@@ -29,16 +29,18 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterables;
 
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Objects;
 import java.util.logging.Level;
 
@@ -70,108 +72,197 @@ public class Depfiles {
    * and returns the (target, [dep, dep2, ...]) inside.
    */
   public static Depfile parseDepfile(Readable readable) throws IOException {
-    String target = null;
-    ImmutableList.Builder<String> prereqsBuilder = ImmutableList.builder();
-    State state = State.LOOKING_FOR_TARGET;
-    StringBuilder identifierBuilder = new StringBuilder();
-
+    CharParser parser = new CharParser();
     CharBuffer buffer = CharBuffer.allocate(4096);
-    int numBackslashes = 0;
-
     while (readable.read(buffer) != -1) {
       buffer.flip();
-
       while (buffer.hasRemaining()) {
-        char c = buffer.get();
-        Action action = Action.NONE;
-        boolean isBackslash = c == '\\';
-        boolean isCarriageReturn = c == '\r';
-        boolean isNewline = c == '\n';
-        boolean isWhitespace = WHITESPACE_CHARS.indexOf(c) != -1;
-        boolean inIdentifier = identifierBuilder.length() > 0;
-        boolean isEscaped;
-        if (state == State.LOOKING_FOR_TARGET) {
-          isEscaped = ESCAPED_TARGET_CHARS.indexOf(c) != -1;
-        } else {
-          isEscaped = ESCAPED_PREREQ_CHARS.indexOf(c) != -1;
-        }
+        parser.accept(buffer.get());
+      }
+      buffer.clear();
+    }
+    return parser.getDepfile();
+  }
 
-        if (isBackslash) {
-          // We need to count the number of backslashes in case the
-          // first non-backslash is an escaped character.
-          numBackslashes++;
-        } else if (numBackslashes > 0 && isEscaped) {
-          // Consume one backslash to escape the special char.
-          numBackslashes--;
-          if (inIdentifier) {
-            action = Action.APPEND_TO_IDENTIFIER;
+  /**
+   * Like {@link #parseDepfile(Readable)}, but parses the UTF-8 encoded bytes of the depfile
+   * directly, e.g. from a mapped file, without decoding the whole of it first.
+   */
+  public static Depfile parseDepfile(ByteBuffer buffer) throws IOException {
+    ByteParser parser = new ByteParser();
+    while (buffer.hasRemaining()) {
+      parser.accept(buffer.get());
+    }
+    return parser.getDepfile();
+  }
+
+  /**
+   * The state machine of the parser, which is fed one character at a time. Subclasses hold the
+   * characters of the identifier being parsed.
+   */
+  private abstract static class Parser {
+    private String target = null;
+    private final ImmutableList.Builder<String> prereqsBuilder = ImmutableList.builder();
+    private State state = State.LOOKING_FOR_TARGET;
+    private int numBackslashes = 0;
+
+    protected abstract void appendToIdentifier(char c);
+
+    protected abstract int getIdentifierLength();
+
+    /**
+     * @return the identifier parsed so far, and starts a new one.
+     */
+    protected abstract String takeIdentifier();
+
+    protected void accept(char c) {
+      if (numBackslashes == 0 && c > ' ' && c != '\\' && c != ':' && c != '#') {
+        // Most characters of a depfile are plain characters of a path, which are appended as-is.
+        appendToIdentifier(c);
+        return;
+      }
+
+      Action action = Action.NONE;
+      boolean isBackslash = c == '\\';
+      boolean isCarriageReturn = c == '\r';
+      boolean isNewline = c == '\n';
+      boolean isWhitespace = WHITESPACE_CHARS.indexOf(c) != -1;
+      boolean inIdentifier = getIdentifierLength() > 0;
+      boolean isEscaped;
+      if (state == State.LOOKING_FOR_TARGET) {
+        isEscaped = ESCAPED_TARGET_CHARS.indexOf(c) != -1;
+      } else {
+        isEscaped = ESCAPED_PREREQ_CHARS.indexOf(c) != -1;
+      }
+
+      if (isBackslash) {
+        // We need to count the number of backslashes in case the
+        // first non-backslash is an escaped character.
+        numBackslashes++;
+      } else if (numBackslashes > 0 && isEscaped) {
+        // Consume one backslash to escape the special char.
+        numBackslashes--;
+        if (inIdentifier) {
+          action = Action.APPEND_TO_IDENTIFIER;
+        }
+      } else if (isWhitespace) {
+        if (numBackslashes == 0) {
+          if (state == State.FOUND_TARGET && inIdentifier) {
+            action = Action.ADD_PREREQ;
           }
-        } else if (isWhitespace) {
-          if (numBackslashes == 0) {
-            if (state == State.FOUND_TARGET && inIdentifier) {
-              action = Action.ADD_PREREQ;
-            }
-            if (state == State.FOUND_TARGET && (isNewline || isCarriageReturn)) {
-              state = State.LOOKING_FOR_TARGET;
-            }
-          } else if (isNewline) {
-            // Consume one backslash to escape \n or \r\n.
-            numBackslashes--;
-          } else if (!isCarriageReturn) {
-            action = Action.APPEND_TO_IDENTIFIER;
+          if (state == State.FOUND_TARGET && (isNewline || isCarriageReturn)) {
+            state = State.LOOKING_FOR_TARGET;
           }
-        } else if (c == ':' && state == State.LOOKING_FOR_TARGET) {
-          state = State.FOUND_TARGET;
-          action = Action.SET_TARGET;
-        } else {
+        } else if (isNewline) {
+          // Consume one backslash to escape \n or \r\n.
+          numBackslashes--;
+        } else if (!isCarriageReturn) {
           action = Action.APPEND_TO_IDENTIFIER;
         }
+      } else if (c == ':' && state == State.LOOKING_FOR_TARGET) {
+        state = State.FOUND_TARGET;
+        action = Action.SET_TARGET;
+      } else {
+        action = Action.APPEND_TO_IDENTIFIER;
+      }
 
-        if (!isBackslash && numBackslashes > 0 && !isCarriageReturn) {
-          int numBackslashesToAppend;
-          if (isEscaped || isWhitespace) {
-            // Backslashes escape themselves before an escaped character or whitespace.
-            numBackslashesToAppend = numBackslashes / 2;
-          } else {
-            // Backslashes are literal before a non-escaped character.
-            numBackslashesToAppend = numBackslashes;
-          }
-
-          for (int i = 0; i < numBackslashesToAppend; i++) {
-            identifierBuilder.append('\\');
-          }
-          numBackslashes = 0;
+      if (!isBackslash && numBackslashes > 0 && !isCarriageReturn) {
+        int numBackslashesToAppend;
+        if (isEscaped || isWhitespace) {
+          // Backslashes escape themselves before an escaped character or whitespace.
+          numBackslashesToAppend = numBackslashes / 2;
+        } else {
+          // Backslashes are literal before a non-escaped character.
+          numBackslashesToAppend = numBackslashes;
         }
 
-        switch (action) {
-          case NONE:
-            break;
-          case APPEND_TO_IDENTIFIER:
-            identifierBuilder.append(c);
-            break;
-          case SET_TARGET:
-            if (target != null) {
-              throw new HumanReadableException(
-                  "Depfile parser cannot handle .d file with multiple targets");
-            }
-            target = identifierBuilder.toString();
-            identifierBuilder.setLength(0);
-            break;
-          case ADD_PREREQ:
-            prereqsBuilder.add(identifierBuilder.toString());
-            identifierBuilder.setLength(0);
-            break;
+        for (int i = 0; i < numBackslashesToAppend; i++) {
+          appendToIdentifier('\\');
         }
+        numBackslashes = 0;
       }
 
-      buffer.clear();
+      switch (action) {
+        case NONE:
+          break;
+        case APPEND_TO_IDENTIFIER:
+          appendToIdentifier(c);
+          break;
+        case SET_TARGET:
+          if (target != null) {
+            throw new HumanReadableException(
+                "Depfile parser cannot handle .d file with multiple targets");
+          }
+          target = takeIdentifier();
+          break;
+        case ADD_PREREQ:
+          prereqsBuilder.add(takeIdentifier());
+          break;
+      }
     }
 
-    ImmutableList<String> prereqs = prereqsBuilder.build();
-    if (target == null || prereqs.isEmpty()) {
-      throw new IOException("Could not find target or prereqs parsing depfile");
-    } else {
-      return new Depfile(target, prereqs);
+    public Depfile getDepfile() throws IOException {
+      ImmutableList<String> prereqs = prereqsBuilder.build();
+      if (target == null || prereqs.isEmpty()) {
+        throw new IOException("Could not find target or prereqs parsing depfile");
+      } else {
+        return new Depfile(target, prereqs);
+      }
+    }
+  }
+
+  private static class CharParser extends Parser {
+    private final StringBuilder identifierBuilder = new StringBuilder();
+
+    @Override
+    protected void appendToIdentifier(char c) {
+      identifierBuilder.append(c);
+    }
+
+    @Override
+    protected int getIdentifierLength() {
+      return identifierBuilder.length();
+    }
+
+    @Override
+    protected String takeIdentifier() {
+      String identifier = identifierBuilder.toString();
+      identifierBuilder.setLength(0);
+      return identifier;
+    }
+  }
+
+  /**
+   * Parses UTF-8 bytes. The characters the parser looks for are all ASCII, and no byte of a
+   * multi-byte UTF-8 sequence is ASCII, so each byte can be fed to the parser as a character, and
+   * the identifiers decoded once they are complete.
+   */
+  private static class ByteParser extends Parser {
+    private byte[] identifier = new byte[256];
+    private int identifierLength = 0;
+
+    public void accept(byte b) {
+      accept((char) (b & 0xff));
+    }
+
+    @Override
+    protected void appendToIdentifier(char c) {
+      if (identifierLength == identifier.length) {
+        identifier = Arrays.copyOf(identifier, 2 * identifier.length);
+      }
+      identifier[identifierLength++] = (byte) c;
+    }
+
+    @Override
+    protected int getIdentifierLength() {
+      return identifierLength;
+    }
+
+    @Override
+    protected String takeIdentifier() {
+      String result = new String(identifier, 0, identifierLength, StandardCharsets.UTF_8);
+      identifierLength = 0;
+      return result;
     }
   }
 
@@ -194,15 +285,16 @@ public class Depfiles {
     Logger.get(Depfiles.class).debug("Processing dependency file %s as Makefile", sourceDepFile);
     ImmutableMap<String, Object> params = ImmutableMap.<String, Object>of(
         "input", inputPath, "output", outputPath);
-    try (InputStream input = filesystem.newFileInputStream(sourceDepFile);
-         BufferedReader reader = new BufferedReader(new InputStreamReader(input));
+    try (FileChannel input = FileChannel.open(filesystem.resolve(sourceDepFile));
          OutputStream output = filesystem.newFileOutputStream(destDepFile);
          BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(output));
          SimplePerfEvent.Scope perfEvent = SimplePerfEvent.scope(
              context.getBuckEventBus(),
              PerfEventId.of("depfile-parse"),
              params)) {
-      ImmutableList<String> prereqs = Depfiles.parseDepfile(reader).getPrereqs();
+      ImmutableList<String> prereqs =
+          Depfiles.parseDepfile(input.map(FileChannel.MapMode.READ_ONLY, 0, input.size()))
+              .getPrereqs();
 
       // Additional files passed in via command-line flags (e.g. `-fsanitize-blacklist=<file>`)
       // appear first in the dep file, followed by the input source file.  So, just skip over
@@ -221,7 +313,7 @@ public class Depfiles {
       Iterable<String> headers = Iterables.skip(prereqs, inputIndex + 1);
 
       for (String rawHeader : headers) {
-        Path header = Paths.get(rawHeader).normalize();
+        String header = normalize(rawHeader);
         Optional<Path> absolutePath =
             headerPathNormalizer.getAbsolutePathForUnnormalizedPath(header);
         if (absolutePath.isPresent()) {
@@ -230,7 +322,7 @@ public class Depfiles {
           writer.newLine();
         } else if (
             headerVerification.getMode() != HeaderVerification.Mode.IGNORE &&
-                !headerVerification.isWhitelisted(header.toString())) {
+                !headerVerification.isWhitelisted(header)) {
           context.getBuckEventBus().post(
               ConsoleEvent.create(
                   headerVerification.getMode() == HeaderVerification.Mode.ERROR ?
@@ -248,6 +340,42 @@ public class Depfiles {
     return 0;
   }
 
+  /**
+   * @return {@code path} normalized as by {@link Path#normalize()}, without creating a
+   *     {@link Path} when it is already normalized, as the paths compilers write out usually are.
+   */
+  private static String normalize(String path) {
+    if (File.separatorChar == '/' && isNormalized(path)) {
+      return path;
+    }
+    return Paths.get(path).normalize().toString();
+  }
+
+  private static boolean isNormalized(String path) {
+    int length = path.length();
+    if (length == 0 || (length > 1 && path.charAt(length - 1) == '/')) {
+      return false;
+    }
+    int nameStart = 0;
+    for (int i = 0; i <= length; i++) {
+      char c = i < length ? path.charAt(i) : '/';
+      if (c == '\0') {
+        return false;
+      }
+      if (c != '/') {
+        continue;
+      }
+      int nameLength = i - nameStart;
+      if ((nameLength == 0 && i > 0) ||
+          (nameLength == 1 && path.charAt(nameStart) == '.') ||
+          (nameLength == 2 && path.charAt(nameStart) == '.' && path.charAt(nameStart + 1) == '.')) {
+        return false;
+      }
+      nameStart = i + 1;
+    }
+    return true;
+  }
+
   public static class Depfile {
 
     private final String target;
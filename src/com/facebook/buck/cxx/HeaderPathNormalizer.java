@@ -23,8 +23,8 @@ import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
 
+import java.io.File;
 import java.nio.file.Path;
-import java.util.AbstractMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -36,21 +36,31 @@ public class HeaderPathNormalizer {
    * A mapping from absolute path of a header path (file or directory) to it's corresponding source
    * path.
    */
-  private final ImmutableMap<Path, SourcePath> headers;
+  private final PathPrefixTrie<SourcePath> headers;
 
   /**
    * A mapping of unnormalized header paths that are used by the tooling to the absolute path
    * representation of the corresponding source path.
    */
-  private final ImmutableMap<Path, SourcePath> normalized;
+  private final PathPrefixTrie<SourcePath> normalized;
+
+  /**
+   * The same mapping as {@link #normalized}, to the resolved absolute paths of the source paths,
+   * so they're only resolved once rather than for every header of every depfile.
+   */
+  private final PathPrefixTrie<Path> normalizedAbsolutePaths;
 
   protected HeaderPathNormalizer(
       SourcePathResolver pathResolver,
       ImmutableMap<Path, SourcePath> headers,
       ImmutableMap<Path, SourcePath> normalized) {
     this.pathResolver = pathResolver;
-    this.headers = headers;
-    this.normalized = normalized;
+    this.headers = newTrie(headers);
+    this.normalized = newTrie(normalized);
+    this.normalizedAbsolutePaths = new PathPrefixTrie<>(File.separatorChar);
+    for (Map.Entry<Path, SourcePath> entry : normalized.entrySet()) {
+      normalizedAbsolutePaths.put(entry.getKey(), pathResolver.getAbsolutePath(entry.getValue()));
+    }
   }
 
   public static HeaderPathNormalizer empty(SourcePathResolver pathResolver) {
@@ -60,25 +70,30 @@ public class HeaderPathNormalizer {
         ImmutableMap.<Path, SourcePath>of());
   }
 
-  private static <T> Optional<Map.Entry<Path, T>> pathLookup(Path path, Map<Path, T> map) {
-    while (path != null) {
-      T res = map.get(path);
-      if (res != null) {
-        return Optional.<Map.Entry<Path, T>>of(new AbstractMap.SimpleEntry<>(path, res));
-      }
-      path = path.getParent();
+  private static <T> PathPrefixTrie<T> newTrie(Map<Path, T> map) {
+    PathPrefixTrie<T> trie = new PathPrefixTrie<>(File.separatorChar);
+    for (Map.Entry<Path, T> entry : map.entrySet()) {
+      trie.put(entry.getKey(), entry.getValue());
     }
-    return Optional.absent();
+    return trie;
   }
 
   public Optional<Path> getAbsolutePathForUnnormalizedPath(Path unnormalizedPath) {
-    Optional<Map.Entry<Path, SourcePath>> result = pathLookup(unnormalizedPath, normalized);
-    if (!result.isPresent()) {
+    return getAbsolutePathForUnnormalizedPath(unnormalizedPath.toString());
+  }
+
+  /**
+   * Like {@link #getAbsolutePathForUnnormalizedPath(Path)}, for the string form of a normalized
+   * path, which saves creating a {@link Path} for paths which aren't found.
+   */
+  public Optional<Path> getAbsolutePathForUnnormalizedPath(String unnormalizedPath) {
+    Map.Entry<Path, Path> result = normalizedAbsolutePaths.getClosest(unnormalizedPath);
+    if (result == null) {
       return Optional.absent();
     }
+    String remainder = getRemainder(result.getKey(), unnormalizedPath);
     return Optional.of(
-        pathResolver.getAbsolutePath(result.get().getValue())
-            .resolve(result.get().getKey().relativize(unnormalizedPath)));
+        remainder.isEmpty() ? result.getValue() : result.getValue().resolve(remainder));
   }
 
   /**
@@ -86,13 +101,29 @@ public class HeaderPathNormalizer {
    *    that can cached.
    */
   public Optional<Path> getRelativePathForUnnormalizedPath(Path unnormalizedPath) {
-    Optional<Map.Entry<Path, SourcePath>> result = pathLookup(unnormalizedPath, normalized);
-    if (!result.isPresent()) {
+    String path = unnormalizedPath.toString();
+    Map.Entry<Path, SourcePath> result = normalized.getClosest(path);
+    if (result == null) {
       return Optional.absent();
     }
     return Optional.of(
-        pathResolver.getRelativePath(result.get().getValue())
-            .resolve(result.get().getKey().relativize(unnormalizedPath)));
+        pathResolver.getRelativePath(result.getValue())
+            .resolve(getRemainder(result.getKey(), path)));
+  }
+
+  /**
+   * @return the part of {@code path} under {@code ancestor}, i.e. {@code ancestor.relativize(path)}
+   *     as a string.
+   */
+  private static String getRemainder(Path ancestor, String path) {
+    int ancestorLength = ancestor.toString().length();
+    if (path.length() <= ancestorLength) {
+      return "";
+    }
+    // Skip the separator after the ancestor, unless the ancestor is the root and ends with one.
+    return path.charAt(ancestorLength) == File.separatorChar ?
+        path.substring(ancestorLength + 1) :
+        path.substring(ancestorLength);
   }
 
   /**
@@ -100,12 +131,12 @@ public class HeaderPathNormalizer {
    */
   public SourcePath getSourcePathForAbsolutePath(Path absolutePath) {
     Preconditions.checkArgument(absolutePath.isAbsolute());
-    Optional<Map.Entry<Path, SourcePath>> path = pathLookup(absolutePath, headers);
+    Map.Entry<Path, SourcePath> path = headers.getClosest(absolutePath.toString());
     Preconditions.checkState(
-        path.isPresent(),
+        path != null,
         "no headers mapped to %s",
         absolutePath);
-    return path.get().getValue();
+    return path.getValue();
   }
 
   public static class Builder {
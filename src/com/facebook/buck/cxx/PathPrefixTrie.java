@@ -0,0 +1,215 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cxx;
+
+import com.google.common.base.Preconditions;
+
+import java.nio.file.Path;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Maps paths to values, and finds the value of a path or of its closest ancestor which has one.
+ * <p>
+ * Each level of the trie matches a name of the path. Lookups work on the string form of the path,
+ * comparing names in place, so finding a path doesn't create any intermediate paths or strings.
+ */
+class PathPrefixTrie<T> {
+
+  private final char separator;
+  private final Node<T> root = new Node<>("");
+
+  public PathPrefixTrie(char separator) {
+    this.separator = separator;
+  }
+
+  /**
+   * Maps {@code path}, which must be normalized, to {@code value}.
+   *
+   * @return the value previously mapped to {@code path}, or null if there was none.
+   */
+  @Nullable
+  public T put(Path path, T value) {
+    Preconditions.checkNotNull(value);
+    String string = path.toString();
+    Node<T> node = root;
+    int start = 0;
+    if (isAbsolute(string)) {
+      node = node.getOrAddChild(string.substring(0, 1));
+      start = 1;
+    }
+    while (start < string.length()) {
+      int end = getEndOfName(string, start);
+      if (end > start) {
+        node = node.getOrAddChild(string.substring(start, end));
+      }
+      start = end + 1;
+    }
+    T previous = node.value;
+    node.key = path;
+    node.value = value;
+    return previous;
+  }
+
+  /**
+   * @return the entry of {@code path}, or of its closest ancestor with one, or null if neither it
+   *     nor any of its ancestors have been added. {@code path} must be normalized.
+   */
+  @Nullable
+  public Map.Entry<Path, T> getClosest(CharSequence path) {
+    if (path.length() == 0) {
+      return root.value == null ? null : root;
+    }
+
+    Node<T> node = root;
+    Node<T> closest = null;
+    int start = 0;
+    if (isAbsolute(path)) {
+      node = node.getChild(path, 0, 1);
+      start = 1;
+      if (node != null && node.value != null) {
+        closest = node;
+      }
+    }
+    while (node != null && start < path.length()) {
+      int end = getEndOfName(path, start);
+      if (end > start) {
+        node = node.getChild(path, start, end);
+        if (node != null && node.value != null) {
+          closest = node;
+        }
+      }
+      start = end + 1;
+    }
+    return closest;
+  }
+
+  private boolean isAbsolute(CharSequence path) {
+    return path.length() > 0 && path.charAt(0) == separator;
+  }
+
+  private int getEndOfName(CharSequence path, int start) {
+    int end = start;
+    while (end < path.length() && path.charAt(end) != separator) {
+      end++;
+    }
+    return end;
+  }
+
+  private static int hash(CharSequence string, int start, int end) {
+    // The same as String#hashCode, so names added as strings can use their cached hash codes.
+    int hash = 0;
+    for (int i = start; i < end; i++) {
+      hash = 31 * hash + string.charAt(i);
+    }
+    return hash;
+  }
+
+  private static boolean regionEquals(String name, CharSequence string, int start, int end) {
+    if (name.length() != end - start) {
+      return false;
+    }
+    for (int i = 0; i < name.length(); i++) {
+      if (name.charAt(i) != string.charAt(start + i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static class Node<T> implements Map.Entry<Path, T> {
+    private static final int INITIAL_CHILD_TABLE_SIZE = 4;
+
+    private final String name;
+    @Nullable private Path key;
+    @Nullable private T value;
+
+    // An open addressing hash table of the children, by name, which is at most half full.
+    @Nullable private Node<T>[] children;
+    private int childCount;
+
+    private Node(String name) {
+      this.name = name;
+    }
+
+    @Nullable
+    Node<T> getChild(CharSequence string, int start, int end) {
+      if (children == null) {
+        return null;
+      }
+      int mask = children.length - 1;
+      for (int i = hash(string, start, end) & mask; children[i] != null; i = (i + 1) & mask) {
+        if (regionEquals(children[i].name, string, start, end)) {
+          return children[i];
+        }
+      }
+      return null;
+    }
+
+    Node<T> getOrAddChild(String childName) {
+      Node<T> child = getChild(childName, 0, childName.length());
+      if (child != null) {
+        return child;
+      }
+      child = new Node<>(childName);
+      if (children == null) {
+        children = newTable(INITIAL_CHILD_TABLE_SIZE);
+      } else if (2 * (childCount + 1) > children.length) {
+        Node<T>[] oldChildren = children;
+        children = newTable(2 * oldChildren.length);
+        for (Node<T> oldChild : oldChildren) {
+          if (oldChild != null) {
+            insert(children, oldChild);
+          }
+        }
+      }
+      insert(children, child);
+      childCount++;
+      return child;
+    }
+
+    private static <T> void insert(Node<T>[] table, Node<T> node) {
+      int mask = table.length - 1;
+      int i = node.name.hashCode() & mask;
+      while (table[i] != null) {
+        i = (i + 1) & mask;
+      }
+      table[i] = node;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Node<T>[] newTable(int size) {
+      return (Node<T>[]) new Node<?>[size];
+    }
+
+    @Override
+    public Path getKey() {
+      return Preconditions.checkNotNull(key);
+    }
+
+    @Override
+    public T getValue() {
+      return Preconditions.checkNotNull(value);
+    }
+
+    @Override
+    public T setValue(T value) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -50,8 +50,6 @@ import com.facebook.buck.util.BestCompressionGZIPOutputStream;
 import com.facebook.buck.util.BuckConstant;
 import com.facebook.buck.util.HumanReadableException;
 import com.facebook.buck.util.Optionals;
-import com.facebook.buck.util.concurrent.MostExecutors;
-import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.CaseFormat;
@@ -69,8 +67,6 @@ import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
 import java.util.TimeZone;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -79,19 +75,17 @@ import java.util.concurrent.TimeUnit;
 public class ChromeTraceBuildListener implements BuckEventListener {
   private static final Logger LOG = Logger.get(ChromeTraceBuildListener.class);
   private static final int TIMEOUT_SECONDS = 30;
+  // Enough to ride out bursts of events while the trace is written, without holding on to more
+  // than a few MB of events when the writer falls behind.
+  private static final int MAX_QUEUED_EVENTS = 16 * 1024;
 
   private final ProjectFilesystem projectFilesystem;
   private final Clock clock;
   private final int tracesToKeep;
   private final boolean compressTraces;
-  private final ObjectMapper mapper;
   private final ThreadLocal<SimpleDateFormat> dateFormat;
   private final Path tracePath;
-  private final OutputStream traceStream;
-  private final JsonGenerator jsonGenerator;
-
-  private final ExecutorService outputExecutor;
-
+  private final ChromeTraceWriter traceWriter;
 
   public ChromeTraceBuildListener(
       ProjectFilesystem projectFilesystem,
@@ -123,7 +117,6 @@ public class ChromeTraceBuildListener implements BuckEventListener {
       boolean compressTraces) throws IOException {
     this.projectFilesystem = projectFilesystem;
     this.clock = clock;
-    this.mapper = objectMapper;
     this.dateFormat = new ThreadLocal<SimpleDateFormat>() {
       @Override
       protected SimpleDateFormat initialValue() {
@@ -134,14 +127,14 @@ public class ChromeTraceBuildListener implements BuckEventListener {
     };
     this.tracesToKeep = tracesToKeep;
     this.compressTraces = compressTraces;
-    this.outputExecutor = MostExecutors.newSingleThreadExecutor(
-        new CommandThreadFactory(getClass().getName()));
     TracePathAndStream tracePathAndStream = createPathAndStream(buildId);
     this.tracePath = tracePathAndStream.getPath();
-    this.traceStream = tracePathAndStream.getStream();
-    this.jsonGenerator = objectMapper.getFactory().createGenerator(this.traceStream);
+    this.traceWriter = new ChromeTraceWriter(
+        objectMapper,
+        tracePathAndStream.getStream(),
+        MAX_QUEUED_EVENTS,
+        new CommandThreadFactory(getClass().getName()));
 
-    this.jsonGenerator.writeStartArray();
     addProcessMetadataEvent();
   }
 
@@ -151,7 +144,7 @@ public class ChromeTraceBuildListener implements BuckEventListener {
   }
 
   private void addProcessMetadataEvent() {
-    submitTraceEvent(
+    traceWriter.writeEvent(
         new ChromeTraceEvent(
             "buck",
             "process_name",
@@ -208,18 +201,9 @@ public class ChromeTraceBuildListener implements BuckEventListener {
   public void outputTrace(BuildId buildId) {
     try {
       LOG.debug("Writing Chrome trace to %s", tracePath);
-      outputExecutor.shutdown();
-      try {
-        if (!outputExecutor.awaitTermination(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
-          LOG.warn("Failed to log buck trace %s.  Trace might be corrupt", tracePath);
-        }
-      } catch (InterruptedException e) {
-        Thread.currentThread().interrupt();
+      if (!traceWriter.close(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        LOG.warn("Failed to log buck trace %s.  Trace might be corrupt", tracePath);
       }
-
-      jsonGenerator.writeEndArray();
-      jsonGenerator.close();
-      traceStream.close();
       String symlinkName = compressTraces ? "build.trace.gz" : "build.trace";
       Path symlinkPath = BuckConstant.getBuckTraceDir().resolve(symlinkName);
       projectFilesystem.createSymLink(
@@ -341,7 +325,7 @@ public class ChromeTraceBuildListener implements BuckEventListener {
 
   @Subscribe
   public void stepStarted(StepEvent.Started started) {
-    writeChromeTraceEvent("buck",
+    writeDroppableChromeTraceEvent("buck",
         started.getShortStepName(),
         ChromeTraceEvent.Phase.BEGIN,
         ImmutableMap.<String, String>of(),
@@ -350,7 +334,7 @@ public class ChromeTraceBuildListener implements BuckEventListener {
 
   @Subscribe
   public void stepFinished(StepEvent.Finished finished) {
-    writeChromeTraceEvent("buck",
+    writeDroppableChromeTraceEvent("buck",
         finished.getShortStepName(),
         ChromeTraceEvent.Phase.END,
         ImmutableMap.of(
@@ -398,7 +382,7 @@ public class ChromeTraceBuildListener implements BuckEventListener {
           "Unsupported perf event type: " + perfEvent.getEventType());
     }
 
-    writeChromeTraceEvent(
+    writeDroppableChromeTraceEvent(
         "buck",
         CaseFormat.UPPER_CAMEL.converterTo(CaseFormat.LOWER_UNDERSCORE).convert(
             perfEvent.getEventId().getValue()),
@@ -555,7 +539,7 @@ public class ChromeTraceBuildListener implements BuckEventListener {
 
   public void writeArtifactCompressionEvent(
       ArtifactCompressionEvent event, ChromeTraceEvent.Phase phase) {
-    writeChromeTraceEvent(
+    writeDroppableChromeTraceEvent(
         "buck",
         event.getCategory(),
         phase,
@@ -583,7 +567,7 @@ public class ChromeTraceBuildListener implements BuckEventListener {
 
   @Subscribe
   public void javacPhaseStarted(JavacPhaseEvent.Started started) {
-    writeChromeTraceEvent(
+    writeDroppableChromeTraceEvent(
         "javac",
         started.getPhase().toString(),
         ChromeTraceEvent.Phase.BEGIN,
@@ -593,7 +577,7 @@ public class ChromeTraceBuildListener implements BuckEventListener {
 
   @Subscribe
   public void javacPhaseFinished(JavacPhaseEvent.Finished finished) {
-    writeChromeTraceEvent(
+    writeDroppableChromeTraceEvent(
         "javac",
         finished.getPhase().toString(),
         ChromeTraceEvent.Phase.END,
@@ -603,7 +587,7 @@ public class ChromeTraceBuildListener implements BuckEventListener {
 
   @Subscribe
   public void annotationProcessingStarted(AnnotationProcessingEvent.Started started) {
-    writeChromeTraceEvent(
+    writeDroppableChromeTraceEvent(
         started.getAnnotationProcessorName(),
         started.getCategory(),
         ChromeTraceEvent.Phase.BEGIN,
@@ -613,7 +597,7 @@ public class ChromeTraceBuildListener implements BuckEventListener {
 
   @Subscribe
   public void annotationProcessingFinished(AnnotationProcessingEvent.Finished finished) {
-    writeChromeTraceEvent(
+    writeDroppableChromeTraceEvent(
         finished.getAnnotationProcessorName(),
         finished.getCategory(),
         ChromeTraceEvent.Phase.END,
@@ -623,7 +607,7 @@ public class ChromeTraceBuildListener implements BuckEventListener {
 
   @Subscribe
   public void compilerPluginDurationEventStarted(CompilerPluginDurationEvent.Started started) {
-    writeChromeTraceEvent(
+    writeDroppableChromeTraceEvent(
         started.getPluginName(),
         started.getDurationName(),
         ChromeTraceEvent.Phase.BEGIN,
@@ -633,7 +617,7 @@ public class ChromeTraceBuildListener implements BuckEventListener {
 
   @Subscribe
   public void compilerPluginDurationEventFinished(CompilerPluginDurationEvent.Finished finished) {
-    writeChromeTraceEvent(
+    writeDroppableChromeTraceEvent(
         finished.getPluginName(),
         finished.getDurationName(),
         ChromeTraceEvent.Phase.END,
@@ -676,30 +660,34 @@ public class ChromeTraceBuildListener implements BuckEventListener {
       String name,
       ChromeTraceEvent.Phase phase,
       ImmutableMap<String, String> arguments,
-      final BuckEvent event) {
-    final ChromeTraceEvent chromeTraceEvent = new ChromeTraceEvent(category,
+      BuckEvent event) {
+    traceWriter.writeEvent(newChromeTraceEvent(category, name, phase, arguments, event));
+  }
+
+  /**
+   * Like {@link #writeChromeTraceEvent}, for events which can be left out of the trace when it
+   * can't be written as fast as events come in.
+   */
+  private void writeDroppableChromeTraceEvent(String category,
+      String name,
+      ChromeTraceEvent.Phase phase,
+      ImmutableMap<String, String> arguments,
+      BuckEvent event) {
+    traceWriter.writeDroppableEvent(newChromeTraceEvent(category, name, phase, arguments, event));
+  }
+
+  private static ChromeTraceEvent newChromeTraceEvent(String category,
+      String name,
+      ChromeTraceEvent.Phase phase,
+      ImmutableMap<String, String> arguments,
+      BuckEvent event) {
+    return new ChromeTraceEvent(category,
         name,
         phase,
         0,
         event.getThreadId(),
         TimeUnit.NANOSECONDS.toMicros(event.getNanoTime()),
         arguments);
-    submitTraceEvent(chromeTraceEvent);
-  }
-
-  @SuppressWarnings("PMD.EmptyCatchBlock")
-  private void submitTraceEvent(final ChromeTraceEvent chromeTraceEvent) {
-    outputExecutor.submit(new Callable<Void>() {
-      @Override
-      public Void call() throws Exception {
-        try {
-          mapper.writeValue(jsonGenerator, chromeTraceEvent);
-        } catch (IOException e) {
-          // Swallow any failures to write.
-        }
-        return null;
-      }
-    });
   }
 
   private class TracePathAndStream {
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event.listener;
+
+import com.facebook.buck.event.ChromeTraceEvent;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.util.concurrent.MostExecutors;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Multiset;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Writes {@link ChromeTraceEvent}s as a JSON array on a thread of its own, holding at most a fixed
+ * number of events in memory while they wait to be written.
+ * <p>
+ * When the writer can't keep up, {@link #writeEvent(ChromeTraceEvent)} waits for it, while
+ * {@link #writeDroppableEvent(ChromeTraceEvent)} drops the event instead. A dropped begin event
+ * has its matching end event dropped as well, so the trace stays well formed. The number of
+ * dropped events is recorded at the end of the trace.
+ */
+class ChromeTraceWriter implements Closeable {
+  private static final Logger LOG = Logger.get(ChromeTraceWriter.class);
+
+  private static final int MAX_EVENTS_PER_BATCH = 1024;
+  private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+  // Queued to tell the writing thread that there will be no more events.
+  private static final ChromeTraceEvent END_OF_TRACE = new ChromeTraceEvent(
+      "buck",
+      "end_of_trace",
+      ChromeTraceEvent.Phase.METADATA,
+      0,
+      0,
+      0,
+      ImmutableMap.<String, String>of());
+
+  private final ObjectWriter writer;
+  private final OutputStream stream;
+  private final JsonGenerator jsonGenerator;
+  private final BlockingQueue<ChromeTraceEvent> queue;
+  private final ExecutorService writerExecutor;
+
+  private volatile boolean closed = false;
+  // Set by the writing thread if it couldn't end the trace or close the stream.
+  @Nullable
+  private volatile IOException finishFailure;
+
+  // Begin events which were dropped, by thread, category and name, whose end events haven't been.
+  @GuardedBy("this")
+  private final Multiset<String> droppedBeginEvents = HashMultiset.create();
+  @GuardedBy("this")
+  private long droppedEventCount = 0;
+
+  public ChromeTraceWriter(
+      ObjectMapper mapper,
+      OutputStream stream,
+      int maxQueuedEvents,
+      ThreadFactory threadFactory) throws IOException {
+    // Flushing after each event would make a compressing stream flush its compressor each time.
+    this.writer = mapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    this.stream = stream;
+    this.jsonGenerator = mapper.getFactory().createGenerator(stream);
+    this.queue = new ArrayBlockingQueue<>(maxQueuedEvents);
+    this.writerExecutor = MostExecutors.newSingleThreadExecutor(threadFactory);
+
+    jsonGenerator.writeStartArray();
+    writerExecutor.submit(
+        new Runnable() {
+          @Override
+          public void run() {
+            writeQueuedEvents();
+          }
+        });
+  }
+
+  /**
+   * Queues {@code event} to be written, waiting for room in the queue if it is full.
+   */
+  public void writeEvent(ChromeTraceEvent event) {
+    enqueue(event);
+  }
+
+  /**
+   * Queues {@code event} to be written if there is room for it, or drops it if the writer is
+   * behind. Use for events which are nice to have but numerous, e.g. steps.
+   */
+  public synchronized void writeDroppableEvent(ChromeTraceEvent event) {
+    if (closed) {
+      return;
+    }
+
+    String key = getEventKey(event);
+    if (event.getPhase() == ChromeTraceEvent.Phase.END) {
+      if (droppedBeginEvents.remove(key)) {
+        droppedEventCount++;
+      } else {
+        // The begin event was written, so the end event must be too.
+        enqueue(event);
+      }
+      return;
+    }
+
+    if (!queue.offer(event)) {
+      droppedEventCount++;
+      if (event.getPhase() == ChromeTraceEvent.Phase.BEGIN) {
+        droppedBeginEvents.add(key);
+      }
+    }
+  }
+
+  public synchronized long getDroppedEventCount() {
+    return droppedEventCount;
+  }
+
+  /**
+   * Writes out the events in the queue, waiting at most {@code timeout} for them to be written,
+   * and closes the stream. If they aren't written in time, the writing thread is interrupted, and
+   * ends the trace and closes the stream itself once it stops, as only it uses them.
+   *
+   * @return true if all events were written in time.
+   */
+  public boolean close(long timeout, TimeUnit unit) throws IOException {
+    enqueue(END_OF_TRACE);
+    closed = true;
+    writerExecutor.shutdown();
+    boolean finished;
+    try {
+      finished = writerExecutor.awaitTermination(timeout, unit);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      finished = false;
+    }
+    if (!finished) {
+      writerExecutor.shutdownNow();
+      return false;
+    }
+
+    IOException failure = finishFailure;
+    if (failure != null) {
+      throw failure;
+    }
+    return true;
+  }
+
+  @Override
+  public void close() throws IOException {
+    close(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+  }
+
+  private void enqueue(ChromeTraceEvent event) {
+    try {
+      // Once closed, the writing thread may have stopped, and nothing would make room in the queue.
+      while (!closed && !queue.offer(event, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+        LOG.verbose("Waiting to queue trace event %s.", event.getName());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void writeQueuedEvents() {
+    List<ChromeTraceEvent> batch = new ArrayList<>(MAX_EVENTS_PER_BATCH);
+    try {
+      while (true) {
+        batch.add(queue.take());
+        queue.drainTo(batch, MAX_EVENTS_PER_BATCH - 1);
+        for (ChromeTraceEvent event : batch) {
+          if (event == END_OF_TRACE) {
+            return;
+          }
+          writeQuietly(event);
+        }
+        batch.clear();
+      }
+    } catch (InterruptedException e) {
+      // close() gave up waiting, so end the trace after the events written so far.
+      Thread.currentThread().interrupt();
+    } finally {
+      finishTrace();
+    }
+  }
+
+  private void finishTrace() {
+    long droppedEvents = getDroppedEventCount();
+    if (droppedEvents > 0) {
+      LOG.debug("Dropped %d events from the trace to keep up.", droppedEvents);
+      writeQuietly(
+          new ChromeTraceEvent(
+              "buck",
+              "trace_stats",
+              ChromeTraceEvent.Phase.METADATA,
+              /* processId */ 0,
+              /* threadId */ 0,
+              /* microTime */ 0,
+              ImmutableMap.of("dropped_events", Long.toString(droppedEvents))));
+    }
+
+    try {
+      try {
+        jsonGenerator.writeEndArray();
+        jsonGenerator.close();
+      } finally {
+        stream.close();
+      }
+    } catch (IOException e) {
+      LOG.debug(e, "Unable to finish the trace.");
+      finishFailure = e;
+    }
+  }
+
+  @SuppressWarnings("PMD.EmptyCatchBlock")
+  private void writeQuietly(ChromeTraceEvent event) {
+    try {
+      writer.writeValue(jsonGenerator, event);
+    } catch (IOException e) {
+      // Swallow any failures to write.
+    }
+  }
+
+  private static String getEventKey(ChromeTraceEvent event) {
+    return event.getThreadId() + "\0" + event.getCategory() + "\0" + event.getName();
+  }
+}
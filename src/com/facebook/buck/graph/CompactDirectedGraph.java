@@ -0,0 +1,398 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.graph;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.UnmodifiableIterator;
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nullable;
+
+/**
+ * An immutable directed graph which stores its nodes in an array and its edges as arrays of node
+ * indices, in compressed sparse row form, in both directions.
+ * <p>
+ * Traversals work on the indices, keeping track of the nodes they have visited in {@link BitSet}s,
+ * and return their results as {@link NodeSet}s, which are views of those, so large traversals
+ * don't hash or allocate anything per node or edge.
+ * <p>
+ * The edges of each node are kept in the order in which the nodes were added to the graph, so
+ * traversals visit nodes in that order too.
+ */
+public final class CompactDirectedGraph<T> {
+
+  public enum Direction {
+    /** From nodes to the nodes they have edges to, e.g. from targets to their deps. */
+    OUTGOING,
+    /** From nodes to the nodes which have edges to them, e.g. from targets to their rdeps. */
+    INCOMING,
+  }
+
+  // Levels of a search are split into chunks of at least this many nodes to search in parallel.
+  private static final int MIN_NODES_PER_CHUNK = 512;
+  private static final int MAX_CHUNKS_PER_LEVEL = 4 * Runtime.getRuntime().availableProcessors();
+
+  private final ImmutableList<T> nodes;
+  private final ImmutableMap<T, Integer> indices;
+
+  // The edges of node i are edges[offsets[i]] to edges[offsets[i + 1] - 1].
+  private final int[] outgoingOffsets;
+  private final int[] outgoingEdges;
+  private final int[] incomingOffsets;
+  private final int[] incomingEdges;
+
+  private CompactDirectedGraph(
+      ImmutableList<T> nodes,
+      ImmutableMap<T, Integer> indices,
+      int[] edgeSources,
+      int[] edgeSinks,
+      int edgeCount) {
+    this.nodes = nodes;
+    this.indices = indices;
+    this.outgoingOffsets = new int[nodes.size() + 1];
+    this.outgoingEdges = new int[edgeCount];
+    this.incomingOffsets = new int[nodes.size() + 1];
+    this.incomingEdges = new int[edgeCount];
+    fillRows(edgeSources, edgeSinks, edgeCount, outgoingOffsets, outgoingEdges);
+    fillRows(edgeSinks, edgeSources, edgeCount, incomingOffsets, incomingEdges);
+  }
+
+  /**
+   * Buckets the edges by their {@code from} node, with a counting sort, and sorts each bucket.
+   */
+  private static void fillRows(int[] from, int[] to, int edgeCount, int[] offsets, int[] rows) {
+    for (int i = 0; i < edgeCount; i++) {
+      offsets[from[i] + 1]++;
+    }
+    for (int i = 1; i < offsets.length; i++) {
+      offsets[i] += offsets[i - 1];
+    }
+    int[] next = Arrays.copyOf(offsets, offsets.length - 1);
+    for (int i = 0; i < edgeCount; i++) {
+      rows[next[from[i]]++] = to[i];
+    }
+    for (int i = 0; i < offsets.length - 1; i++) {
+      Arrays.sort(rows, offsets[i], offsets[i + 1]);
+    }
+  }
+
+  public static <T> Builder<T> builder() {
+    return new Builder<>();
+  }
+
+  public int getNodeCount() {
+    return nodes.size();
+  }
+
+  public int getEdgeCount() {
+    return outgoingEdges.length;
+  }
+
+  /** @return the nodes, in the order in which they were added. */
+  public ImmutableList<T> getNodes() {
+    return nodes;
+  }
+
+  public boolean containsNode(T node) {
+    return indices.containsKey(node);
+  }
+
+  /**
+   * @return the nodes reachable from {@code roots} by following outgoing edges, including the
+   *     roots themselves, in the order of the graph's nodes. Roots which aren't in the graph are
+   *     ignored.
+   */
+  public NodeSet getTransitiveClosure(
+      Iterable<? extends T> roots,
+      ListeningExecutorService executor) throws InterruptedException {
+    BitSet visited =
+        search(roots, Direction.OUTGOING, Integer.MAX_VALUE, /* within */ null, executor).members;
+    return new NodeSet(visited, null, visited.cardinality());
+  }
+
+  /**
+   * Searches breadth first from {@code roots}, following edges in {@code direction}. Large levels
+   * of the search are searched in parallel on {@code executor}, with the calling thread helping,
+   * so the executor may be a bounded one which is busy with other work.
+   *
+   * @param maxDepth the number of edges to follow away from the roots at most.
+   * @param within if present, the search is restricted to these nodes, which must be a set of this
+   *     graph's.
+   * @return the nodes found, in the order in which they were found: the roots, in their order,
+   *     then the nodes one edge away from them, and so on. Roots which aren't in the graph, or
+   *     aren't {@code within} the given nodes, are ignored.
+   */
+  public NodeSet breadthFirstSearch(
+      Iterable<? extends T> roots,
+      Direction direction,
+      int maxDepth,
+      @Nullable NodeSet within,
+      ListeningExecutorService executor) throws InterruptedException {
+    Preconditions.checkArgument(within == null || within.getGraph() == this);
+    return search(roots, direction, maxDepth, within, executor);
+  }
+
+  private NodeSet search(
+      Iterable<? extends T> roots,
+      Direction direction,
+      int maxDepth,
+      @Nullable NodeSet within,
+      ListeningExecutorService executor) throws InterruptedException {
+    int[] offsets = direction == Direction.OUTGOING ? outgoingOffsets : incomingOffsets;
+    int[] edges = direction == Direction.OUTGOING ? outgoingEdges : incomingEdges;
+    @Nullable BitSet allowed = within == null ? null : within.members;
+
+    BitSet visited = new BitSet(nodes.size());
+    int[] queue = new int[nodes.size()];
+    int queueSize = 0;
+    for (T root : roots) {
+      Integer index = indices.get(root);
+      if (index != null && (allowed == null || allowed.get(index)) && !visited.get(index)) {
+        visited.set(index);
+        queue[queueSize++] = index;
+      }
+    }
+
+    // Each level is searched as a whole before the next, in chunks which may be searched in
+    // parallel. The nodes each chunk finds are then added in order, so the order in which nodes
+    // are found doesn't depend on how the work was split up.
+    int levelStart = 0;
+    for (int depth = 0; depth < maxDepth && levelStart < queueSize; depth++) {
+      int levelEnd = queueSize;
+      int[][] found = levelEnd - levelStart < 2 * MIN_NODES_PER_CHUNK ?
+          new int[][] {findNext(queue, levelStart, levelEnd, offsets, edges, allowed, visited)} :
+          findNextInParallel(queue, levelStart, levelEnd, offsets, edges, allowed, visited,
+              executor);
+      for (int[] chunk : found) {
+        for (int next : chunk) {
+          if (!visited.get(next)) {
+            visited.set(next);
+            queue[queueSize++] = next;
+          }
+        }
+      }
+      levelStart = levelEnd;
+    }
+    return new NodeSet(visited, Arrays.copyOf(queue, queueSize), queueSize);
+  }
+
+  /**
+   * @return the unvisited nodes which {@code level[start]} to {@code level[end - 1]} have edges
+   *     to, in order, possibly more than once.
+   */
+  private static int[] findNext(
+      int[] level,
+      int start,
+      int end,
+      int[] offsets,
+      int[] edges,
+      @Nullable BitSet allowed,
+      BitSet visited) {
+    int[] found = new int[16];
+    int foundCount = 0;
+    for (int q = start; q < end; q++) {
+      int node = level[q];
+      for (int i = offsets[node]; i < offsets[node + 1]; i++) {
+        int next = edges[i];
+        if ((allowed == null || allowed.get(next)) && !visited.get(next)) {
+          if (foundCount == found.length) {
+            found = Arrays.copyOf(found, 2 * foundCount);
+          }
+          found[foundCount++] = next;
+        }
+      }
+    }
+    return Arrays.copyOf(found, foundCount);
+  }
+
+  private static int[][] findNextInParallel(
+      final int[] level,
+      final int start,
+      int end,
+      final int[] offsets,
+      final int[] edges,
+      @Nullable final BitSet allowed,
+      final BitSet visited,
+      ListeningExecutorService executor) throws InterruptedException {
+    final int chunkCount = Math.min(MAX_CHUNKS_PER_LEVEL, (end - start) / MIN_NODES_PER_CHUNK);
+    final int chunkSize = (end - start + chunkCount - 1) / chunkCount;
+    final int levelEnd = end;
+    final int[][] found = new int[chunkCount][];
+    final AtomicInteger nextChunk = new AtomicInteger();
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    final CountDownLatch chunksDone = new CountDownLatch(chunkCount);
+
+    // Chunks are claimed by whichever thread gets to them first, so the search finishes even if
+    // none of the tasks get to run.
+    Runnable searchChunks = new Runnable() {
+      @Override
+      public void run() {
+        for (int chunk = nextChunk.getAndIncrement();
+             chunk < chunkCount;
+             chunk = nextChunk.getAndIncrement()) {
+          try {
+            int chunkStart = start + chunk * chunkSize;
+            found[chunk] = findNext(
+                level,
+                chunkStart,
+                Math.min(levelEnd, chunkStart + chunkSize),
+                offsets,
+                edges,
+                allowed,
+                visited);
+          } catch (Throwable t) {
+            failure.compareAndSet(null, t);
+          } finally {
+            chunksDone.countDown();
+          }
+        }
+      }
+    };
+    for (int i = 1; i < chunkCount; i++) {
+      executor.execute(searchChunks);
+    }
+    searchChunks.run();
+    chunksDone.await();
+
+    if (failure.get() != null) {
+      throw Throwables.propagate(failure.get());
+    }
+    return found;
+  }
+
+  /**
+   * An unmodifiable set of the nodes of a {@link CompactDirectedGraph}.
+   */
+  public final class NodeSet extends AbstractSet<T> {
+    private final BitSet members;
+    // The order to iterate the members in, or null for the order of the graph's nodes.
+    @Nullable private final int[] order;
+    private final int size;
+
+    private NodeSet(BitSet members, @Nullable int[] order, int size) {
+      this.members = members;
+      this.order = order;
+      this.size = size;
+    }
+
+    private CompactDirectedGraph<T> getGraph() {
+      return CompactDirectedGraph.this;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+      Integer index = indices.get(o);
+      return index != null && members.get(index);
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+      return new UnmodifiableIterator<T>() {
+        private int position = 0;
+        private int nextMember = order == null ? members.nextSetBit(0) : -1;
+
+        @Override
+        public boolean hasNext() {
+          return order == null ? nextMember >= 0 : position < order.length;
+        }
+
+        @Override
+        public T next() {
+          if (!hasNext()) {
+            throw new NoSuchElementException();
+          }
+          if (order != null) {
+            return nodes.get(order[position++]);
+          }
+          T node = nodes.get(nextMember);
+          nextMember = members.nextSetBit(nextMember + 1);
+          return node;
+        }
+      };
+    }
+  }
+
+  public static class Builder<T> {
+    private final Map<T, Integer> indices = new LinkedHashMap<>();
+    private int[] edgeSources = new int[16];
+    private int[] edgeSinks = new int[16];
+    private int edgeCount = 0;
+
+    private Builder() {}
+
+    /**
+     * Adds {@code node}, if it hasn't been added already. Nodes are kept in the order in which
+     * they are first added.
+     */
+    public Builder<T> addNode(T node) {
+      if (!indices.containsKey(node)) {
+        indices.put(node, indices.size());
+      }
+      return this;
+    }
+
+    /**
+     * Adds an edge between two nodes which have already been added.
+     */
+    public Builder<T> addEdge(T source, T sink) {
+      int sourceIndex = getIndex(source);
+      int sinkIndex = getIndex(sink);
+      if (edgeCount == edgeSources.length) {
+        edgeSources = Arrays.copyOf(edgeSources, 2 * edgeCount);
+        edgeSinks = Arrays.copyOf(edgeSinks, 2 * edgeCount);
+      }
+      edgeSources[edgeCount] = sourceIndex;
+      edgeSinks[edgeCount] = sinkIndex;
+      edgeCount++;
+      return this;
+    }
+
+    private int getIndex(T node) {
+      Integer index = indices.get(node);
+      Preconditions.checkArgument(index != null, "%s is not in the graph", node);
+      return index;
+    }
+
+    public CompactDirectedGraph<T> build() {
+      return new CompactDirectedGraph<>(
+          ImmutableList.copyOf(indices.keySet()),
+          ImmutableMap.copyOf(indices),
+          edgeSources,
+          edgeSinks,
+          edgeCount);
+    }
+  }
+}
@@ -17,28 +17,39 @@
 package com.facebook.buck.httpserver;
 
 import com.facebook.buck.artifact_cache.ArtifactCache;
+import com.facebook.buck.artifact_cache.ArtifactFileConsumer;
 import com.facebook.buck.artifact_cache.ArtifactInfo;
 import com.facebook.buck.artifact_cache.CacheResult;
+import com.facebook.buck.artifact_cache.CacheResultType;
 import com.facebook.buck.artifact_cache.HttpArtifactCacheBinaryProtocol;
 import com.facebook.buck.artifact_cache.StoreResponseReadResult;
 import com.facebook.buck.io.BorrowablePath;
-import com.facebook.buck.io.LazyPath;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.rules.RuleKey;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
 
+import org.eclipse.jetty.server.HttpOutput;
 import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 
+import java.io.Closeable;
 import java.io.DataInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
+import javax.annotation.Nullable;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -48,6 +59,8 @@ import javax.servlet.http.HttpServletResponse;
  */
 public class ArtifactCacheHandler extends AbstractHandler {
   private static final Logger LOG = Logger.get(ArtifactCacheHandler.class);
+  // The most of an artifact which is mapped into memory at once while it's being sent.
+  private static final long MAX_MAPPED_BYTES = 64 * 1024 * 1024;
 
   private final ProjectFilesystem projectFilesystem;
   private Optional<ArtifactCache> artifactCache;
@@ -68,6 +81,7 @@ public class ArtifactCacheHandler extends AbstractHandler {
       HttpServletRequest request,
       HttpServletResponse response)
       throws IOException, ServletException {
+    boolean aborted = false;
     try {
       int status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
       String method = baseRequest.getMethod();
@@ -79,10 +93,20 @@ public class ArtifactCacheHandler extends AbstractHandler {
       response.setStatus(status);
     } catch (Exception e) {
       LOG.error(e, "Exception when handling request %s", target);
-      e.printStackTrace(response.getWriter());
-      response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+      if (baseRequest.getResponse().getHttpOutput().isWritten()) {
+        // Part of the response may already have been sent, so it can't report the error, and
+        // finishing it would pass off what was written as the whole response. Closing the
+        // connection tells the client that the response is incomplete.
+        baseRequest.getHttpChannel().abort();
+        aborted = true;
+      } else {
+        e.printStackTrace(response.getWriter());
+        response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+      }
     } finally {
-      response.flushBuffer();
+      if (!aborted) {
+        response.flushBuffer();
+      }
       baseRequest.setHandled(true);
     }
   }
@@ -102,36 +126,23 @@ public class ArtifactCacheHandler extends AbstractHandler {
 
     RuleKey ruleKey = RuleKey.TO_RULE_KEY.apply(pathElements[3]);
 
-    Path temp = null;
-    try {
-      projectFilesystem.mkdirs(projectFilesystem.getBuckPaths().getScratchDir());
-      temp = projectFilesystem.createTempFile(
-          projectFilesystem.getBuckPaths().getScratchDir(),
-          "outgoing_rulekey",
-          ".tmp");
-      CacheResult fetchResult = artifactCache.get().fetch(ruleKey, LazyPath.ofInstance(temp));
+    try (FetchResponseWriter responseWriter =
+             new FetchResponseWriter(ruleKey, baseRequest.getResponse())) {
+      CacheResult fetchResult = artifactCache.get().fetchStreaming(ruleKey, responseWriter);
       if (!fetchResult.getType().isSuccess()) {
+        if (baseRequest.getResponse().getHttpOutput().isWritten()) {
+          throw new IOException(
+              String.format(
+                  "Failed part way through sending the artifact for %s: %s",
+                  ruleKey,
+                  fetchResult.getType() == CacheResultType.ERROR ?
+                      fetchResult.getCacheError() :
+                      fetchResult.getType()));
+        }
         return HttpServletResponse.SC_NOT_FOUND;
       }
-
-      final Path tempFinal = temp;
-      HttpArtifactCacheBinaryProtocol.FetchResponse fetchResponse =
-          new HttpArtifactCacheBinaryProtocol.FetchResponse(
-              ImmutableSet.of(ruleKey),
-              fetchResult.getMetadata(),
-              new ByteSource() {
-                @Override
-                public InputStream openStream() throws IOException {
-                  return projectFilesystem.newFileInputStream(tempFinal);
-                }
-              });
-      fetchResponse.write(response.getOutputStream());
-      response.setContentLengthLong(fetchResponse.getContentLength());
+      responseWriter.writeCopyIfNotSent(fetchResult.getMetadata());
       return HttpServletResponse.SC_OK;
-    } finally {
-      if (temp != null) {
-        projectFilesystem.deleteFileAtPathIfExists(temp);
-      }
     }
   }
 
@@ -162,12 +173,13 @@ public class ArtifactCacheHandler extends AbstractHandler {
         return HttpServletResponse.SC_NOT_ACCEPTABLE;
       }
 
+      // The upload is ours alone, so the cache may move it instead of copying it.
       artifactCache.get().store(
           ArtifactInfo.builder()
               .setRuleKeys(storeRequest.getRuleKeys())
               .setMetadata(storeRequest.getMetadata())
               .build(),
-          BorrowablePath.notBorrowablePath(temp));
+          BorrowablePath.borrowablePath(temp));
       return HttpServletResponse.SC_ACCEPTED;
     } finally {
       if (temp != null) {
@@ -176,4 +188,127 @@ public class ArtifactCacheHandler extends AbstractHandler {
     }
 
   }
+
+  /**
+   * Writes a fetched artifact to the response. The response starts with a checksum of the
+   * artifact, so it has to be read twice: artifacts which the cache keeps in local files are read
+   * in place, and any others are copied to a scratch file first.
+   */
+  private class FetchResponseWriter implements ArtifactFileConsumer, Closeable {
+    private final RuleKey ruleKey;
+    private final Response response;
+    @Nullable
+    private Path copy;
+    private boolean sent;
+
+    public FetchResponseWriter(RuleKey ruleKey, Response response) {
+      this.ruleKey = ruleKey;
+      this.response = response;
+    }
+
+    @Override
+    public void consume(ImmutableMap<String, String> metadata, FileChannel artifact)
+        throws IOException {
+      write(metadata, new ChannelByteSource(artifact), artifact);
+      sent = true;
+    }
+
+    @Override
+    public void consume(InputStream artifact) throws IOException {
+      projectFilesystem.mkdirs(projectFilesystem.getBuckPaths().getScratchDir());
+      copy = projectFilesystem.createTempFile(
+          projectFilesystem.getBuckPaths().getScratchDir(),
+          "outgoing_rulekey",
+          ".tmp");
+      try (OutputStream out = projectFilesystem.newFileOutputStream(copy)) {
+        ByteStreams.copy(artifact, out);
+      }
+    }
+
+    public void writeCopyIfNotSent(ImmutableMap<String, String> metadata) throws IOException {
+      if (sent) {
+        return;
+      }
+      if (copy == null) {
+        throw new IOException(String.format("No artifact was fetched for %s.", ruleKey));
+      }
+      final Path copyFinal = copy;
+      try (FileChannel channel =
+               FileChannel.open(projectFilesystem.resolve(copy), StandardOpenOption.READ)) {
+        write(
+            metadata,
+            new ByteSource() {
+              @Override
+              public InputStream openStream() throws IOException {
+                return projectFilesystem.newFileInputStream(copyFinal);
+              }
+
+              @Override
+              public long size() throws IOException {
+                return projectFilesystem.getFileSize(copyFinal);
+              }
+            },
+            channel);
+      }
+    }
+
+    private void write(
+        ImmutableMap<String, String> metadata,
+        ByteSource payloadSource,
+        FileChannel payload) throws IOException {
+      HttpArtifactCacheBinaryProtocol.FetchResponse fetchResponse =
+          new HttpArtifactCacheBinaryProtocol.FetchResponse(
+              ImmutableSet.of(ruleKey),
+              metadata,
+              payloadSource);
+      response.setContentLengthLong(fetchResponse.getContentLength());
+      HttpOutput output = response.getHttpOutput();
+      fetchResponse.writeMetadata(output);
+
+      // Jetty writes memory mapped buffers straight to the socket, without copying them through
+      // the heap.
+      long size = payload.size();
+      for (long position = 0; position < size; position += MAX_MAPPED_BYTES) {
+        output.write(
+            payload.map(
+                FileChannel.MapMode.READ_ONLY,
+                position,
+                Math.min(MAX_MAPPED_BYTES, size - position)));
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (copy != null) {
+        projectFilesystem.deleteFileAtPathIfExists(copy);
+      }
+    }
+  }
+
+  /**
+   * Reads a channel owned by someone else from the start, leaving it open.
+   */
+  private static class ChannelByteSource extends ByteSource {
+    private final FileChannel channel;
+
+    public ChannelByteSource(FileChannel channel) {
+      this.channel = channel;
+    }
+
+    @Override
+    public InputStream openStream() throws IOException {
+      channel.position(0);
+      return new FilterInputStream(Channels.newInputStream(channel)) {
+        @Override
+        public void close() {
+          // Closing the stream would close the channel.
+        }
+      };
+    }
+
+    @Override
+    public long size() throws IOException {
+      return channel.size();
+    }
+  }
 }
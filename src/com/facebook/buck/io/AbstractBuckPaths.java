@@ -75,6 +75,16 @@ abstract class AbstractBuckPaths {
     return getBuckOut().resolve("cache");
   }
 
+  @Value.Derived
+  public Path getFileHashStorePath() {
+    return getBuckOut().resolve(".filehashes");
+  }
+
+  @Value.Derived
+  public Path getParserCacheDir() {
+    return getBuckOut().resolve(".parsercache");
+  }
+
   @Value.Derived
   public Path getTmpDir() {
     return getBuckOut().resolve("tmp");
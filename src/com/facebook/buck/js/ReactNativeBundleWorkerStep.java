@@ -58,7 +58,9 @@ public class ReactNativeBundleWorkerStep extends WorkerShellStep {
                     isDevMode ? "true" : "false",
                     outputFile.toString(),
                     resourcePath.toString(),
-                    sourceMapFile.toString()))),
+                    sourceMapFile.toString()),
+                /* maxWorkers */ 1,
+                /* persistent */ false)),
         Optional.<WorkerJobParams>absent(),
         Optional.<WorkerJobParams>absent());
   }
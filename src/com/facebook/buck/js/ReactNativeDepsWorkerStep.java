@@ -49,7 +49,9 @@ public class ReactNativeDepsWorkerStep extends WorkerShellStep {
                     "--command dependencies --platform %s --entry-file %s --output %s",
                     platform.toString(),
                     entryFile.toString(),
-                    outputFile.toString()))),
+                    outputFile.toString()),
+                /* maxWorkers */ 1,
+                /* persistent */ false)),
         Optional.<WorkerJobParams>absent(),
         Optional.<WorkerJobParams>absent());
   }
@@ -62,6 +62,12 @@ abstract class AbstractJUnitJvmArgs {
    */
   abstract Path getClasspathFile();
 
+  /**
+   * @return Path to newline-separated file containing the entries of the classpath file which are
+   * third-party jars, which a pooled test runner JVM may keep loaded from one test to the next.
+   */
+  abstract Optional<Path> getSharedClasspathFile();
+
   /**
    * @return The type of test runner to use.
    */
@@ -236,6 +242,69 @@ abstract class AbstractJUnitJvmArgs {
     // responsible for running the tests.
     args.add(getTestType().getDefaultTestRunner());
 
+    formatTestRunnerArgsToList(args, defaultTestTimeoutMillis, /* oneSelectorPerArg */ false);
+  }
+
+  /**
+   * @return Whether the tests can be sent to a pooled test runner JVM rather than to one started
+   * just for them, which they can't be if anything about how the JVM is started is specific to
+   * them.
+   */
+  boolean canRunInPooledJvm(Verbosity verbosity) {
+    return getTestType() == TestType.JUNIT &&
+        getDirectoryForTestResults().isPresent() &&
+        getSharedClasspathFile().isPresent() &&
+        !isDebugEnabled() &&
+        !isCodeCoverageEnabled() &&
+        !getPathToJavaAgent().isPresent() &&
+        (!getExtraJvmArgs().isPresent() || getExtraJvmArgs().get().isEmpty()) &&
+        !verbosity.shouldUseVerbosityFlagIfAvailable();
+  }
+
+  /**
+   * Formats the arguments for a job sent to a pooled test runner JVM, one per line, as read by
+   * {@code JUnitWorkerMain}. The system properties that would otherwise be passed to the JVM are
+   * set for the length of the job instead, apart from {@code java.io.tmpdir}, which the JDK only
+   * reads once, so the pooled JVM is started with a temporary directory of its own.
+   */
+  public void formatPooledJobArgsToList(
+      ImmutableList.Builder<String> args,
+      ProjectFilesystem filesystem,
+      long defaultTestTimeoutMillis) {
+    args.add("--classpath-file", filesystem.resolve(getClasspathFile()).toString());
+    if (getSharedClasspathFile().isPresent()) {
+      args.add(
+          "--shared-classpath-file",
+          filesystem.resolve(getSharedClasspathFile().get()).toString());
+    }
+
+    addSystemProperty(args, "buck.testrunner_classes", getTestRunnerClasspath());
+    addSystemProperty(args, BUILD_ID_PROPERTY, getBuildId());
+    addSystemProperty(args, MODULE_BASE_PATH_PROPERTY, getBuckModuleBaseSourceCodePath());
+    if (getStdOutLogLevel().isPresent()) {
+      addSystemProperty(args, STD_OUT_LOG_LEVEL_PROPERTY, getStdOutLogLevel().get());
+    }
+    if (getStdErrLogLevel().isPresent()) {
+      addSystemProperty(args, STD_ERR_LOG_LEVEL_PROPERTY, getStdErrLogLevel().get());
+    }
+    if (getRobolectricLogPath().isPresent()) {
+      addSystemProperty(args, "robolectric.logging", getRobolectricLogPath().get());
+    }
+
+    formatTestRunnerArgsToList(args, defaultTestTimeoutMillis, /* oneSelectorPerArg */ true);
+  }
+
+  private static void addSystemProperty(
+      ImmutableList.Builder<String> args,
+      String name,
+      Object value) {
+    args.add("--system-property", String.format("%s=%s", name, value));
+  }
+
+  private void formatTestRunnerArgsToList(
+      ImmutableList.Builder<String> args,
+      long defaultTestTimeoutMillis,
+      boolean oneSelectorPerArg) {
     // The first argument to the test runner is where the test results should be written. It is not
     // reliable to write test results to stdout or stderr because there may be output from the unit
     // tests written to those file descriptors, as well.
@@ -247,14 +316,21 @@ abstract class AbstractJUnitJvmArgs {
     long timeout = isDebugEnabled() ? 0 : defaultTestTimeoutMillis;
     args.add("--default-test-timeout", String.valueOf(timeout));
 
-    // Add the test selectors, one per line, in a single argument.
-    StringBuilder selectorsArgBuilder = new StringBuilder();
+    // Add the test selectors, one per line, in a single argument, unless each argument has to fit
+    // on a line of its own.
     if (getTestSelectorList().isPresent() &&
         !getTestSelectorList().get().isEmpty()) {
-      for (String rawSelector : getTestSelectorList().get().getRawSelectors()) {
-        selectorsArgBuilder.append(rawSelector).append("\n");
+      if (oneSelectorPerArg) {
+        for (String rawSelector : getTestSelectorList().get().getRawSelectors()) {
+          args.add("--test-selectors", rawSelector);
+        }
+      } else {
+        StringBuilder selectorsArgBuilder = new StringBuilder();
+        for (String rawSelector : getTestSelectorList().get().getRawSelectors()) {
+          selectorsArgBuilder.append(rawSelector).append("\n");
+        }
+        args.add("--test-selectors", selectorsArgBuilder.toString());
       }
-      args.add("--test-selectors", selectorsArgBuilder.toString());
     }
 
     // Dry-run flag.
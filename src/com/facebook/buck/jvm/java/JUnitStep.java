@@ -20,16 +20,22 @@ import com.facebook.buck.io.ExecutableFinder;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.shell.ShellStep;
+import com.facebook.buck.shell.WorkerJobParams;
+import com.facebook.buck.shell.WorkerShellStep;
 import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.StepExecutionResult;
 import com.facebook.buck.util.ProcessExecutor;
 import com.facebook.buck.util.ProcessExecutorParams;
 import com.facebook.buck.util.environment.Platform;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
+import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 
+import java.io.IOException;
 import java.lang.reflect.Field;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -39,11 +45,14 @@ import java.util.concurrent.TimeUnit;
 public class JUnitStep extends ShellStep {
   private static final Logger LOG = Logger.get(JUnitStep.class);
 
+  private static final String JUNIT_WORKER_MAIN = "com.facebook.buck.testrunner.JUnitWorkerMain";
+
   private final ProjectFilesystem filesystem;
   private final JavaRuntimeLauncher javaRuntimeLauncher;
   private final ImmutableMap<String, String> nativeLibsEnvironment;
   private final Optional<Long> testRuleTimeoutMs;
   private final JUnitJvmArgs junitJvmArgs;
+  private final int runnerPoolSize;
 
   // Set when the junit command times out.
   private boolean hasTimedOut = false;
@@ -54,12 +63,33 @@ public class JUnitStep extends ShellStep {
       Optional<Long> testRuleTimeoutMs,
       JavaRuntimeLauncher javaRuntimeLauncher,
       JUnitJvmArgs junitJvmArgs) {
+    this(
+        filesystem,
+        nativeLibsEnvironment,
+        testRuleTimeoutMs,
+        javaRuntimeLauncher,
+        junitJvmArgs,
+        /* runnerPoolSize */ 0);
+  }
+
+  /**
+   * @param runnerPoolSize if greater than zero, the tests are sent to one of up to this many test
+   *     runner JVMs kept running for the purpose, when nothing about them needs a JVM of their own.
+   */
+  public JUnitStep(
+      ProjectFilesystem filesystem,
+      Map<String, String> nativeLibsEnvironment,
+      Optional<Long> testRuleTimeoutMs,
+      JavaRuntimeLauncher javaRuntimeLauncher,
+      JUnitJvmArgs junitJvmArgs,
+      int runnerPoolSize) {
     super(filesystem.getRootPath());
     this.filesystem = filesystem;
     this.javaRuntimeLauncher = javaRuntimeLauncher;
     this.nativeLibsEnvironment = ImmutableMap.copyOf(nativeLibsEnvironment);
     this.testRuleTimeoutMs = testRuleTimeoutMs;
     this.junitJvmArgs = junitJvmArgs;
+    this.runnerPoolSize = runnerPoolSize;
   }
 
   @Override
@@ -67,6 +97,72 @@ public class JUnitStep extends ShellStep {
     return "junit";
   }
 
+  @Override
+  public StepExecutionResult execute(ExecutionContext context) throws InterruptedException {
+    if (!canRunInPooledJvm(context)) {
+      return super.execute(context);
+    }
+    LOG.debug("Running %s in a pooled test runner JVM.", junitJvmArgs.getTestClasses());
+    try {
+      filesystem.mkdirs(getPooledJvmTmpDirectory());
+    } catch (IOException e) {
+      context.logError(e, "Failed to create the temporary directory of the test runner JVMs.");
+      return StepExecutionResult.ERROR;
+    }
+    return new WorkerShellStep(
+        filesystem,
+        filesystem.resolve(
+            junitJvmArgs.getTmpDirectory().or(filesystem.getBuckPaths().getTmpDir())),
+        filesystem.getRootPath(),
+        Optional.of(getPooledJvmJobParams(context)),
+        Optional.<WorkerJobParams>absent(),
+        Optional.<WorkerJobParams>absent())
+        .execute(context);
+  }
+
+  /**
+   * Whether the tests can go to a pooled JVM. Pooled JVMs are all started the same way, so tests
+   * which need anything of the JVM beyond system properties that can be set for the length of a
+   * job, or which need to be timed out by killing the JVM, get one of their own.
+   */
+  @VisibleForTesting
+  boolean canRunInPooledJvm(ExecutionContext context) {
+    return runnerPoolSize > 0 &&
+        !testRuleTimeoutMs.isPresent() &&
+        nativeLibsEnvironment.isEmpty() &&
+        !context.isDebugEnabled() &&
+        junitJvmArgs.canRunInPooledJvm(context.getVerbosity());
+  }
+
+  @VisibleForTesting
+  WorkerJobParams getPooledJvmJobParams(ExecutionContext context) {
+    ImmutableList.Builder<String> jobArgs = ImmutableList.builder();
+    junitJvmArgs.formatPooledJobArgsToList(
+        jobArgs,
+        filesystem,
+        context.getDefaultTestTimeoutMillis());
+    return WorkerJobParams.of(
+        ImmutableList.of(
+            javaRuntimeLauncher.getCommand(),
+            "-Djava.io.tmpdir=" + filesystem.resolve(getPooledJvmTmpDirectory()),
+            "-classpath",
+            junitJvmArgs.getTestRunnerClasspath().toString(),
+            JUNIT_WORKER_MAIN),
+        /* startupArgs */ "",
+        Joiner.on('\n').join(jobArgs.build()),
+        runnerPoolSize,
+        /* persistent */ true);
+  }
+
+  /**
+   * The JDK reads {@code java.io.tmpdir} once, so the pooled JVMs can't use each rule's temporary
+   * directory, and are started with this one instead. {@link java.io.File#createTempFile} gives
+   * each file a name of its own, so the JVMs can share it.
+   */
+  private Path getPooledJvmTmpDirectory() {
+    return filesystem.getBuckPaths().getTmpDir().resolve("junit-runner");
+  }
+
   @Override
   protected ImmutableList<String> getShellCommandInternal(ExecutionContext context) {
     ImmutableList.Builder<String> args = ImmutableList.builder();
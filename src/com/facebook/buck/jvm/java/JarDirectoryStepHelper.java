@@ -158,8 +158,10 @@ public class JarDirectoryStepHelper {
       ExecutionContext context) throws IOException {
 
     Path absoluteOutputPath = filesystem.getPathForRelativePath(pathToOutputFile);
-    try (CustomZipOutputStream outputFile = ZipOutputStreams.newOutputStream(
-        absoluteOutputPath, APPEND_TO_ZIP)) {
+    try (CustomZipOutputStream outputFile = ZipOutputStreams.newParallelOutputStream(
+        absoluteOutputPath,
+        APPEND_TO_ZIP,
+        context.getExecutorService(ExecutionContext.ExecutorPool.CPU))) {
       return createJarFile(filesystem,
           pathToOutputFile,
           outputFile,
@@ -253,27 +255,8 @@ public class JarDirectoryStepHelper {
           }
         }
 
-        ZipEntry newEntry = new ZipEntry(entry);
-
-        // For deflated entries, the act of re-"putting" this entry means we're re-compressing
-        // the data that we've just uncompressed.  Due to various environmental issues (e.g. a
-        // newer version of zlib, changed compression settings), we may end up with a different
-        // compressed size.  This causes an issue in java's `java.util.zip.ZipOutputStream`
-        // implementation, as it only updates the compressed size field if one of `crc`,
-        // `compressedSize`, or `size` is -1.  When we copy the entry as-is, none of these are
-        // -1, and we may end up with an incorrect compressed size, in which case, we'll get an
-        // exception.  So, for deflated entries, reset the compressed size to -1 (as the
-        // ZipEntry(String) would).
-        // See https://github.com/spearce/buck/commit/8338c1c3d4a546f577eed0c9941d9f1c2ba0a1b7.
-        if (entry.getMethod() == ZipEntry.DEFLATED) {
-          newEntry.setCompressedSize(-1);
-        }
-
-        jar.putNextEntry(newEntry);
-        try (InputStream inputStream = zip.getInputStream(entry)) {
-          ByteStreams.copy(inputStream, jar);
-        }
-        jar.closeEntry();
+        // Streams which can copy the compressed entry as-is will do so.
+        jar.copyEntry(zip, entry);
       }
     } catch (ZipException e) {
       throw new IOException(
@@ -38,6 +38,7 @@ import com.facebook.buck.rules.SourcePathResolver;
 import com.facebook.buck.rules.TestRule;
 import com.facebook.buck.step.AbstractExecutionStep;
 import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.ParallelStep;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.StepExecutionResult;
 import com.facebook.buck.step.TargetDevice;
@@ -71,12 +72,16 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
@@ -128,10 +133,17 @@ public class JavaTest
 
   private static final int TEST_CLASSES_SHUFFLE_SEED = 0xFACEB00C;
 
+  /**
+   * The least time, by the durations of its tests last time, worth giving a JVM of its own when
+   * splitting a rule's tests into shards. Each shard pays for starting a JVM and loading classes.
+   */
+  private static final long MIN_SHARD_DURATION_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
   private static final Logger LOG = Logger.get(JavaTest.class);
 
+  // The steps which ran the tests, one for each shard they were split into.
   @Nullable
-  private JUnitStep junit;
+  private ImmutableList<JUnitStep> junitSteps;
 
   @AddToRuleKey
   private final boolean runTestSeparately;
@@ -225,17 +237,21 @@ public class JavaTest
     return BuildTargets.getGenPath(getProjectFilesystem(), getBuildTarget(), "%s/classpath-file");
   }
 
+  private Path getSharedClassPathFile() {
+    return BuildTargets.getGenPath(
+        getProjectFilesystem(),
+        getBuildTarget(),
+        "%s/shared-classpath-file");
+  }
+
   private JUnitStep getJUnitStep(
       ExecutionContext executionContext,
       TestRunningOptions options,
+      Iterable<String> testClassNames,
       Optional<Path> outDir,
       Optional<Path> tempDir,
       Optional<Path> robolectricLogPath) {
 
-    Set<String> testClassNames = getClassNamesForSources();
-    Iterable<String> reorderedTestClasses =
-        reorderClasses(testClassNames, options.isShufflingTests());
-
     ImmutableList<String> properVmArgs = amendVmArgs(
         this.vmArgs,
         executionContext.getTargetDevice());
@@ -248,6 +264,7 @@ public class JavaTest
         .setDirectoryForTestResults(outDir)
         .setTmpDirectory(tempDir)
         .setClasspathFile(getClassPathFile())
+        .setSharedClasspathFile(getSharedClassPathFile())
         .setTestRunnerClasspath(TESTRUNNER_CLASSES)
         .setCodeCoverageEnabled(executionContext.isCodeCoverageEnabled())
         .setDebugEnabled(executionContext.isDebugEnabled())
@@ -258,7 +275,7 @@ public class JavaTest
         .setStdErrLogLevel(stdErrLogLevel)
         .setRobolectricLogPath(robolectricLogPath)
         .setExtraJvmArgs(properVmArgs)
-        .addAllTestClasses(reorderedTestClasses)
+        .addAllTestClasses(testClassNames)
         .setDryRun(options.isDryRun())
         .setTestSelectorList(testSelectorList)
         .build();
@@ -268,7 +285,8 @@ public class JavaTest
         nativeLibsEnvironment,
         testRuleTimeoutMs,
         javaRuntimeLauncher,
-        args);
+        args,
+        options.getJUnitRunnerPoolSize());
   }
 
   /**
@@ -295,17 +313,138 @@ public class JavaTest
     Path tmpDirectory = getPathToTmpDirectory();
     steps.add(new MakeCleanDirectoryStep(getProjectFilesystem(), pathToTestOutput));
     steps.add(new MakeCleanDirectoryStep(getProjectFilesystem(), tmpDirectory));
-    junit =
-        getJUnitStep(
-            executionContext,
-            options,
-            Optional.of(pathToTestOutput),
-            Optional.of(tmpDirectory),
-            Optional.of(pathToTestLogs));
-    steps.add(junit);
+
+    Iterable<String> reorderedTestClasses =
+        reorderClasses(testClassNames, options.isShufflingTests());
+    ImmutableList<ImmutableList<String>> shards = ImmutableList.of(
+        ImmutableList.copyOf(reorderedTestClasses));
+    // Shards run at the same time, so they can't share a debugger port or coverage data file, and
+    // a rule that has to run by itself presumably can't run alongside itself either.
+    if (!executionContext.isDebugEnabled() &&
+        !executionContext.isCodeCoverageEnabled() &&
+        !options.isDryRun() &&
+        !runTestSeparately) {
+      shards = splitIntoShards(
+          reorderedTestClasses,
+          options.getTestCaseDurations(),
+          options.getMaxJavaTestShards());
+    }
+
+    if (shards.size() == 1) {
+      junitSteps = ImmutableList.of(
+          getJUnitStep(
+              executionContext,
+              options,
+              shards.get(0),
+              Optional.of(pathToTestOutput),
+              Optional.of(tmpDirectory),
+              Optional.of(getPathToTestLogs(0))));
+      steps.addAll(junitSteps);
+      return steps.build();
+    }
+
+    // Every shard writes its results to the same directory, one file per test class, but gets a
+    // temporary directory and log of its own.
+    LOG.debug("Splitting the tests of %s into %d shards", getBuildTarget(), shards.size());
+    ImmutableList.Builder<JUnitStep> shardSteps = ImmutableList.builder();
+    for (int i = 0; i < shards.size(); i++) {
+      Path shardTmpDirectory = tmpDirectory.resolve("shard-" + i);
+      steps.add(new MkdirStep(getProjectFilesystem(), shardTmpDirectory));
+      shardSteps.add(
+          getJUnitStep(
+              executionContext,
+              options,
+              shards.get(i),
+              Optional.of(pathToTestOutput),
+              Optional.of(shardTmpDirectory),
+              Optional.of(getPathToTestLogs(i))));
+    }
+    junitSteps = shardSteps.build();
+    steps.add(new ParallelStep(junitSteps));
     return steps.build();
   }
 
+  private Path getPathToTestLogs(int shard) {
+    return shard == 0 ? pathToTestLogs : pathToTestLogs.resolveSibling("logs-" + shard + ".txt");
+  }
+
+  /**
+   * Splits test classes into up to {@code maxShards} shards, balanced by how long each class took
+   * to run last time, with classes that haven't run before assumed to take the average time. The
+   * longest classes are placed first, each in the shard with the least time so far. Only as many
+   * shards are made as each get at least {@link #MIN_SHARD_DURATION_MILLIS} of tests.
+   *
+   * @return the shards, each listing its classes in the order they were given.
+   */
+  @VisibleForTesting
+  static ImmutableList<ImmutableList<String>> splitIntoShards(
+      Iterable<String> testClassNames,
+      Map<String, Long> testCaseDurations,
+      int maxShards) {
+    ImmutableList<String> classes = ImmutableList.copyOf(testClassNames);
+    long knownDuration = 0;
+    int knownCount = 0;
+    for (String testClass : classes) {
+      Long duration = testCaseDurations.get(testClass);
+      if (duration != null) {
+        knownDuration += duration;
+        knownCount++;
+      }
+    }
+    if (maxShards <= 1 || classes.size() <= 1 || knownCount == 0) {
+      return ImmutableList.of(classes);
+    }
+
+    long averageDuration = knownDuration / knownCount;
+    final Map<String, Long> durations = new HashMap<>();
+    long totalDuration = 0;
+    for (String testClass : classes) {
+      Long duration = testCaseDurations.get(testClass);
+      durations.put(testClass, duration == null ? averageDuration : duration);
+      totalDuration += durations.get(testClass);
+    }
+    int shardCount = (int) Math.min(
+        Math.min(maxShards, classes.size()),
+        totalDuration / MIN_SHARD_DURATION_MILLIS);
+    if (shardCount <= 1) {
+      return ImmutableList.of(classes);
+    }
+
+    List<String> longestFirst = new ArrayList<>(classes);
+    Collections.sort(
+        longestFirst,
+        new Comparator<String>() {
+          @Override
+          public int compare(String a, String b) {
+            return Long.compare(durations.get(b), durations.get(a));
+          }
+        });
+    long[] shardDurations = new long[shardCount];
+    final Map<String, Integer> shardOfClass = new HashMap<>();
+    for (String testClass : longestFirst) {
+      int shortest = 0;
+      for (int i = 1; i < shardCount; i++) {
+        if (shardDurations[i] < shardDurations[shortest]) {
+          shortest = i;
+        }
+      }
+      shardDurations[shortest] += durations.get(testClass);
+      shardOfClass.put(testClass, shortest);
+    }
+
+    ImmutableList.Builder<ImmutableList<String>> shards = ImmutableList.builder();
+    for (int i = 0; i < shardCount; i++) {
+      ImmutableList.Builder<String> shard = ImmutableList.builder();
+      for (String testClass : classes) {
+        if (shardOfClass.get(testClass) == i) {
+          shard.add(testClass);
+        }
+      }
+      shards.add(shard.build());
+    }
+    return shards.build();
+  }
+
   private static Iterable<String> reorderClasses(Set<String> testClassNames, boolean shuffle) {
     Random rng;
     if (shuffle) {
@@ -475,7 +614,7 @@ public class JavaTest
               getPathToTestOutputDirectory().resolve(path));
           if (!isUsingTestSelectors && !Files.isRegularFile(testResultFile)) {
             String message;
-            if (Preconditions.checkNotNull(junit).hasTimedOut()) {
+            if (hasTimedOut()) {
               message = "test timed out before generating results file";
             } else {
               message = "test exited before generating results file";
@@ -495,18 +634,34 @@ public class JavaTest
           }
         }
 
+        // The tests may not have run in this process, if their results are cached.
+        int shardCount = junitSteps == null ? 1 : junitSteps.size();
+        ImmutableList.Builder<Path> testLogPaths = ImmutableList.builder();
+        for (int i = 0; i < shardCount; i++) {
+          testLogPaths.add(getProjectFilesystem().resolve(getPathToTestLogs(i)));
+        }
+
         return TestResults.builder()
             .setBuildTarget(getBuildTarget())
             .setTestCases(summaries)
             .setContacts(contacts)
             .setLabels(FluentIterable.from(labels).transform(Functions.toStringFunction()).toSet())
-            .addTestLogPaths(getProjectFilesystem().resolve(pathToTestLogs))
+            .addAllTestLogPaths(testLogPaths.build())
             .build();
       }
 
     };
   }
 
+  private boolean hasTimedOut() {
+    for (JUnitStep step : Preconditions.checkNotNull(junitSteps)) {
+      if (step.hasTimedOut()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   private Set<String> getClassNamesForSources() {
     if (compiledClassFileFinder == null) {
       compiledClassFileFinder = new CompiledClassFileFinder(this);
@@ -645,6 +800,7 @@ public class JavaTest
         getJUnitStep(
             executionContext,
             options,
+            reorderClasses(getClassNamesForSources(), options.isShufflingTests()),
             Optional.<Path>absent(),
             Optional.<Path>absent(),
             Optional.<Path>absent());
@@ -676,6 +832,21 @@ public class JavaTest
                 getProjectFilesystem().writeLinesToPath(
                     Iterables.transform(classpathEntries, Functions.toStringFunction()),
                     getClassPathFile());
+
+                // Third-party jars are the same from one test to the next, so a pooled test runner
+                // JVM may keep them loaded rather than loading them again for each test.
+                ImmutableSet.Builder<Path> sharedClasspathEntries = ImmutableSet.builder();
+                for (Map.Entry<JavaLibrary, Path> entry :
+                    getTransitiveClasspathEntries().entries()) {
+                  if (entry.getKey() instanceof PrebuiltJar) {
+                    sharedClasspathEntries.add(entry.getValue());
+                  }
+                }
+                getProjectFilesystem().writeLinesToPath(
+                    Iterables.transform(
+                        sharedClasspathEntries.build(),
+                        Functions.toStringFunction()),
+                    getSharedClassPathFile());
                 return StepExecutionResult.SUCCESS;
               }
             })
@@ -105,9 +105,10 @@ public class JavacDirectToJarStep implements Step {
 
     try {
 
-      jarOutputStream = ZipOutputStreams.newOutputStream(
+      jarOutputStream = ZipOutputStreams.newParallelOutputStream(
           filesystem.getPathForRelativePath(outputJar),
-          ZipOutputStreams.HandleDuplicates.APPEND_TO_ZIP);
+          ZipOutputStreams.HandleDuplicates.APPEND_TO_ZIP,
+          context.getExecutorService(ExecutionContext.ExecutorPool.CPU));
 
       JavacStep javacStep = createJavacStep(jarOutputStream);
 
@@ -26,6 +26,8 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ComparisonChain;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import com.google.common.collect.Ordering;
 
 import org.immutables.value.Value;
@@ -34,6 +36,9 @@ import java.nio.file.Path;
 import java.util.Set;
 import java.util.SortedSet;
 
+/**
+ * Instances, and their sets of flavors, are interned like those of {@link UnflavoredBuildTarget}.
+ */
 @JsonAutoDetect(
     fieldVisibility = JsonAutoDetect.Visibility.NONE,
     getterVisibility = JsonAutoDetect.Visibility.NONE,
@@ -48,6 +53,11 @@ abstract class AbstractBuildTarget
   private static final Ordering<Iterable<Flavor>> LEXICOGRAPHICAL_ORDERING =
       Ordering.<Flavor>natural().lexicographical();
 
+  private static final Interner<BuildTarget> INTERNER = Interners.newWeakInterner();
+
+  private static final Interner<SortedSet<Flavor>> FLAVORS_INTERNER =
+      Interners.newWeakInterner();
+
   @Value.Parameter
   public abstract UnflavoredBuildTarget getUnflavoredBuildTarget();
 
@@ -56,10 +66,16 @@ abstract class AbstractBuildTarget
   public abstract SortedSet<Flavor> getFlavors();
 
   @Value.Check
-  protected void check() {
+  protected AbstractBuildTarget check() {
     Preconditions.checkArgument(
         getFlavors().comparator() == Ordering.natural(),
         "Flavors must be ordered using natural ordering.");
+
+    SortedSet<Flavor> flavors = FLAVORS_INTERNER.intern(getFlavors());
+    if (flavors != getFlavors()) {
+      return BuildTarget.of(getUnflavoredBuildTarget(), flavors);
+    }
+    return INTERNER.intern(BuildTarget.copyOf(this));
   }
 
   @JsonProperty("cell")
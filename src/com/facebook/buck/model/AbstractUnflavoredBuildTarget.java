@@ -21,19 +21,31 @@ import com.facebook.buck.util.immutables.BuckStyleImmutable;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ComparisonChain;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 
 import org.immutables.value.Value;
 
 import java.nio.file.Path;
 
+/**
+ * Instances are interned: every way of creating one returns the single instance equal to it that's
+ * still in use, if there is one. The parser creates a new instance of a target each time it reads
+ * its name, and the daemon keeps millions of them, most of them duplicates.
+ */
 @BuckStyleImmutable
-@Value.Immutable
+@Value.Immutable(prehash = true)
 abstract class AbstractUnflavoredBuildTarget implements Comparable<AbstractUnflavoredBuildTarget> {
 
   public static final String BUILD_TARGET_PREFIX = "//";
 
+  private static final Interner<UnflavoredBuildTarget> INTERNER = Interners.newWeakInterner();
+
+  // Targets in the same package share one copy of its base name.
+  private static final Interner<String> BASE_NAME_INTERNER = Interners.newWeakInterner();
+
   @Value.Check
-  protected void check() {
+  protected AbstractUnflavoredBuildTarget check() {
     Preconditions.checkArgument(
         getBaseName().startsWith(BUILD_TARGET_PREFIX),
         "baseName must start with %s but was %s",
@@ -54,6 +66,12 @@ abstract class AbstractUnflavoredBuildTarget implements Comparable<AbstractUnfla
         !getShortName().contains("#"),
         "Build target name cannot contain '#' but was: %s.",
         getShortName());
+
+    String baseName = BASE_NAME_INTERNER.intern(getBaseName());
+    if (baseName != getBaseName()) {
+      return UnflavoredBuildTarget.of(getCellPath(), getCell(), baseName, getShortName());
+    }
+    return INTERNER.intern(UnflavoredBuildTarget.copyOf(this));
   }
 
   @Value.Parameter
@@ -18,16 +18,23 @@ package com.facebook.buck.model;
 
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 
 import org.immutables.value.Value;
 
 import java.util.regex.Pattern;
 
+/**
+ * Instances are interned, like those of {@link BuildTarget}.
+ */
 @Value.Immutable
 public abstract class Flavor implements Comparable<Flavor> {
 
   private static final Pattern INVALID_FLAVOR_CHARACTERS = Pattern.compile("[^-a-zA-Z0-9_\\.]");
 
+  private static final Interner<Flavor> INTERNER = Interners.newWeakInterner();
+
   public static final Function<String, Flavor> TO_FLAVOR =
       new Function<String, Flavor>() {
         @Override
@@ -44,13 +51,14 @@ public abstract class Flavor implements Comparable<Flavor> {
   public abstract String getName();
 
   @Value.Check
-  protected void check() {
+  protected Flavor check() {
     Preconditions.checkArgument(
         !getName().isEmpty(),
         "Empty flavor name");
     Preconditions.checkArgument(
         !INVALID_FLAVOR_CHARACTERS.matcher(getName()).find(),
         "Invalid characters in flavor name: " + getName());
+    return INTERNER.intern(this);
   }
 
   @Override
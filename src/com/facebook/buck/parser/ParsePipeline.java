@@ -47,6 +47,7 @@ import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -82,6 +83,7 @@ public class ParsePipeline implements AutoCloseable {
   private final ListeningExecutorService executorService;
   private final BuckEventBus buckEventBus;
   private final ProjectBuildFileParserPool projectBuildFileParserPool;
+  private final Optional<PersistentRawNodeCache> persistentRawNodeCache;
   private final boolean speculativeDepsTraversal;
   private final AtomicBoolean shuttingDown;
 
@@ -93,6 +95,8 @@ public class ParsePipeline implements AutoCloseable {
    * @param executorService executor
    * @param buckEventBus bus to use for parse start/stop events
    * @param projectBuildFileParserPool where to get parsers from
+   * @param persistentRawNodeCache where to look for raw nodes from previous runs before invoking
+   *                               the parser.
    * @param speculativeDepsTraversal whether to automatically schedule parsing of nodes' deps in the
    *                                 background.
    */
@@ -102,6 +106,7 @@ public class ParsePipeline implements AutoCloseable {
       ListeningExecutorService executorService,
       BuckEventBus buckEventBus,
       ProjectBuildFileParserPool projectBuildFileParserPool,
+      Optional<PersistentRawNodeCache> persistentRawNodeCache,
       boolean speculativeDepsTraversal) {
     this.cache = cache;
     this.delegate = delegate;
@@ -110,6 +115,7 @@ public class ParsePipeline implements AutoCloseable {
     this.executorService = executorService;
     this.buckEventBus = buckEventBus;
     this.projectBuildFileParserPool = projectBuildFileParserPool;
+    this.persistentRawNodeCache = persistentRawNodeCache;
     this.speculativeDepsTraversal = speculativeDepsTraversal;
     this.shuttingDown = new AtomicBoolean(false);
   }
@@ -515,8 +521,36 @@ public class ParsePipeline implements AutoCloseable {
   private ListenableFuture<ImmutableList<Map<String, Object>>> computeRawNodes(
       final Cell cell,
       final Path buildFile) {
+    ListenableFuture<ImmutableList<Map<String, Object>>> rawNodes;
+    if (persistentRawNodeCache.isPresent()) {
+      rawNodes = Futures.transformAsync(
+          executorService.submit(
+              new Callable<Optional<ImmutableList<Map<String, Object>>>>() {
+                @Override
+                public Optional<ImmutableList<Map<String, Object>>> call() {
+                  return persistentRawNodeCache.get().lookup(cell, buildFile);
+                }
+              }),
+          new AsyncFunction<
+              Optional<ImmutableList<Map<String, Object>>>,
+              ImmutableList<Map<String, Object>>>() {
+            @Override
+            public ListenableFuture<ImmutableList<Map<String, Object>>> apply(
+                Optional<ImmutableList<Map<String, Object>>> storedRawNodes) {
+              if (storedRawNodes.isPresent()) {
+                LOG.verbose("Using stored raw nodes of %s", buildFile);
+                return Futures.immediateFuture(storedRawNodes.get());
+              }
+              return parseAndStoreRawNodes(cell, buildFile);
+            }
+          },
+          executorService);
+    } else {
+      rawNodes =
+          projectBuildFileParserPool.getAllRulesAndMetaRules(cell, buildFile, executorService);
+    }
     return Futures.transformAsync(
-        projectBuildFileParserPool.getAllRulesAndMetaRules(cell, buildFile, executorService),
+        rawNodes,
         new AsyncFunction<
             ImmutableList<Map<String, Object>>,
             ImmutableList<Map<String, Object>>>() {
@@ -533,6 +567,22 @@ public class ParsePipeline implements AutoCloseable {
         executorService);
   }
 
+  private ListenableFuture<ImmutableList<Map<String, Object>>> parseAndStoreRawNodes(
+      final Cell cell,
+      final Path buildFile) {
+    return Futures.transform(
+        projectBuildFileParserPool.getAllRulesAndMetaRules(cell, buildFile, executorService),
+        new Function<ImmutableList<Map<String, Object>>, ImmutableList<Map<String, Object>>>() {
+          @Override
+          public ImmutableList<Map<String, Object>> apply(
+              ImmutableList<Map<String, Object>> rawNodes) {
+            persistentRawNodeCache.get().store(cell, buildFile, rawNodes);
+            return rawNodes;
+          }
+        },
+        executorService);
+  }
+
   /**
    * @param cellRoot root path to the cell the rule is defined in.
    * @param map the map of values that define the rule.
@@ -149,6 +149,13 @@ public class ParserConfig {
     return delegate.getBooleanValue("project", "parallel_parsing", true);
   }
 
+  /**
+   * @return whether the raw nodes of build files should be kept on disk between runs.
+   */
+  public boolean getEnablePersistentCache() {
+    return delegate.getBooleanValue("project", "persistent_parser_cache", false);
+  }
+
   public int getNumParsingThreads() {
     if (!getEnableParallelParsing()) {
       return 1;
@@ -150,6 +150,10 @@ class PerBuildState implements AutoCloseable {
             MoreExecutors.newDirectExecutorService(),
         eventBus,
         projectBuildFileParserPool,
+        // Running buck autodeps changes the output of every build file.
+        parserConfig.getEnablePersistentCache() && !ignoreBuckAutodepsFiles ?
+            Optional.of(new PersistentRawNodeCache()) :
+            Optional.<PersistentRawNodeCache>absent(),
         parserConfig.getEnableParallelParsing() && speculativeParsing.value()
     );
 
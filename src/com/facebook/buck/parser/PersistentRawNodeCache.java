@@ -0,0 +1,307 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.facebook.buck.bser.BserDeserializer;
+import com.facebook.buck.bser.BserSerializer;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuckVersion;
+import com.facebook.buck.rules.Cell;
+import com.facebook.buck.rules.Description;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps the raw nodes of build files on disk, so that a new buck process doesn't have to run
+ * buck.py over the build files which haven't changed since they were last parsed.
+ * <p>
+ * An entry records everything that the output of buck.py depends on: the contents of the build
+ * file and of the files it included, the values of the config options it read, the files
+ * anywhere in its package (which its globs are matched against), and the state of the parser
+ * itself. An entry is only used while all of those are unchanged.
+ * <p>
+ * The hashes of files are memoized, so an instance must not outlive a single parse.
+ */
+class PersistentRawNodeCache {
+  private static final Logger LOG = Logger.get(PersistentRawNodeCache.class);
+
+  private static final int FORMAT_VERSION = 3;
+
+  private static final String INCLUDES_META_RULE = "__includes";
+  private static final String CONFIGS_META_RULE = "__configs";
+
+  private static final String PARSER_KEY = "parser";
+  private static final String FILES_KEY = "files";
+  private static final String CONFIGS_KEY = "configs";
+  private static final String PACKAGE_KEY = "package";
+  private static final String NODES_KEY = "nodes";
+
+  private final ConcurrentMap<Path, String> parserStateHashes = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Path, String> fileHashes = new ConcurrentHashMap<>();
+
+  /**
+   * @param buildFile absolute path to the build file.
+   * @return the raw nodes, including meta rules, stored for {@code buildFile} if they are still up
+   *     to date.
+   */
+  @SuppressWarnings("unchecked")
+  public Optional<ImmutableList<Map<String, Object>>> lookup(Cell cell, Path buildFile) {
+    Path entryPath = getEntryPath(cell, buildFile);
+    Object entry;
+    try (InputStream in = new BufferedInputStream(Files.newInputStream(entryPath))) {
+      entry = new BserDeserializer(BserDeserializer.KeyOrdering.SORTED).deserializeBserValue(in);
+    } catch (NoSuchFileException e) {
+      return Optional.absent();
+    } catch (IOException e) {
+      LOG.debug(e, "Ignoring unreadable raw node cache entry %s.", entryPath);
+      return Optional.absent();
+    }
+
+    try {
+      Map<String, Object> entryMap = (Map<String, Object>) entry;
+      if (!getParserStateHash(cell).equals(entryMap.get(PARSER_KEY)) ||
+          !configsMatch(cell, (Map<String, Map<String, String>>) entryMap.get(CONFIGS_KEY)) ||
+          !filesMatch((Map<String, String>) entryMap.get(FILES_KEY)) ||
+          !getPackageHash(cell, buildFile).equals(entryMap.get(PACKAGE_KEY))) {
+        LOG.verbose("Cached raw nodes of %s are out of date.", buildFile);
+        return Optional.absent();
+      }
+      return Optional.of(
+          ImmutableList.copyOf((List<Map<String, Object>>) entryMap.get(NODES_KEY)));
+    } catch (ClassCastException | NullPointerException e) {
+      LOG.debug(e, "Ignoring malformed raw node cache entry %s.", entryPath);
+      return Optional.absent();
+    } catch (IOException e) {
+      LOG.debug(e, "Failed to validate raw node cache entry %s.", entryPath);
+      return Optional.absent();
+    }
+  }
+
+  /**
+   * Stores the raw nodes parsed from {@code buildFile}. These must include the meta rules
+   * produced by buck.py, as they list the files and config options the nodes depend on.
+   */
+  @SuppressWarnings("unchecked")
+  public void store(Cell cell, Path buildFile, ImmutableList<Map<String, Object>> rawNodes) {
+    Path entryPath = getEntryPath(cell, buildFile);
+    try {
+      Map<String, String> files = new TreeMap<>();
+      Map<String, Map<String, String>> configs = ImmutableMap.of();
+      for (Map<String, Object> rawNode : rawNodes) {
+        if (rawNode.containsKey(INCLUDES_META_RULE)) {
+          for (String include : (List<String>) rawNode.get(INCLUDES_META_RULE)) {
+            Path path = cell.getFilesystem().resolve(include);
+            files.put(path.toString(), getFileHash(path));
+          }
+        } else if (rawNode.containsKey(CONFIGS_META_RULE)) {
+          configs = (Map<String, Map<String, String>>) rawNode.get(CONFIGS_META_RULE);
+        }
+      }
+      files.put(buildFile.toString(), getFileHash(buildFile));
+      for (Path include : getDefaultIncludes(cell)) {
+        files.put(include.toString(), getFileHash(include));
+      }
+
+      Map<String, Object> entry = new TreeMap<>();
+      entry.put(PARSER_KEY, getParserStateHash(cell));
+      entry.put(FILES_KEY, files);
+      entry.put(CONFIGS_KEY, configs);
+      entry.put(PACKAGE_KEY, getPackageHash(cell, buildFile));
+      entry.put(NODES_KEY, rawNodes);
+
+      Files.createDirectories(entryPath.getParent());
+      Path tempPath = Files.createTempFile(entryPath.getParent(), "entry", ".tmp");
+      try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tempPath))) {
+        new BserSerializer().serializeToStream(entry, out);
+      }
+      Files.move(
+          tempPath,
+          entryPath,
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException | RuntimeException e) {
+      // This cache is only an optimization, so failing to update it shouldn't fail the parse.
+      LOG.warn(e, "Failed to store the raw nodes of %s.", buildFile);
+    }
+  }
+
+  private static Path getEntryPath(Cell cell, Path buildFile) {
+    ProjectFilesystem filesystem = cell.getFilesystem();
+    String name = Hashing.sha1()
+        .hashString(filesystem.getRootPath().relativize(buildFile).toString(), UTF_8)
+        .toString();
+    return filesystem.resolve(filesystem.getBuckPaths().getParserCacheDir()).resolve(name);
+  }
+
+  private boolean configsMatch(Cell cell, Map<String, Map<String, String>> configs) {
+    for (Map.Entry<String, Map<String, String>> section : configs.entrySet()) {
+      for (Map.Entry<String, String> option : section.getValue().entrySet()) {
+        Optional<String> value = cell.getBuckConfig().getValue(section.getKey(), option.getKey());
+        if (!value.equals(Optional.fromNullable(option.getValue()))) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private boolean filesMatch(Map<String, String> files) throws IOException {
+    for (Map.Entry<String, String> file : files.entrySet()) {
+      Path path = Paths.get(file.getKey());
+      if (!Files.isRegularFile(path) || !getFileHash(path).equals(file.getValue())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private String getFileHash(Path path) throws IOException {
+    String hash = fileHashes.get(path);
+    if (hash == null) {
+      hash = Hashing.sha1().hashBytes(Files.readAllBytes(path)).toString();
+      fileHashes.put(path, hash);
+    }
+    return hash;
+  }
+
+  private static ImmutableList<Path> getDefaultIncludes(Cell cell) {
+    ImmutableList.Builder<Path> includes = ImmutableList.builder();
+    for (String include : new ParserConfig(cell.getBuckConfig()).getDefaultIncludes()) {
+      // Default includes are given as "//path/to/file".
+      includes.add(cell.getFilesystem().resolve(include.substring(2)));
+    }
+    return includes.build();
+  }
+
+  /**
+   * @return a hash of the state of the parser of {@code cell}, which affects the output of every
+   *     build file.
+   */
+  private String getParserStateHash(Cell cell) {
+    String hash = parserStateHashes.get(cell.getRoot());
+    if (hash != null) {
+      return hash;
+    }
+
+    ParserConfig parserConfig = new ParserConfig(cell.getBuckConfig());
+    Hasher hasher = Hashing.sha1().newHasher();
+    hasher.putInt(FORMAT_VERSION);
+    putString(hasher, BuckVersion.getVersion());
+    putString(hasher, cell.getRoot().toString());
+    putString(hasher, cell.getBuildFileName());
+    hasher.putBoolean(parserConfig.getAllowEmptyGlobs());
+    for (String include : parserConfig.getDefaultIncludes()) {
+      putString(hasher, include);
+    }
+    hasher.putByte((byte) 0);
+    for (Map.Entry<String, String> variable :
+        ImmutableSortedMap.copyOf(cell.getBuckConfig().getFilteredEnvironment()).entrySet()) {
+      putString(hasher, variable.getKey());
+      putString(hasher, variable.getValue());
+    }
+    hasher.putByte((byte) 0);
+    SortedSet<String> ruleTypes = new TreeSet<>();
+    for (Description<?> description : cell.getAllDescriptions()) {
+      ruleTypes.add(description.getBuildRuleType().getName());
+    }
+    for (String ruleType : ruleTypes) {
+      putString(hasher, ruleType);
+    }
+    hash = hasher.hash().toString();
+    parserStateHashes.put(cell.getRoot(), hash);
+    return hash;
+  }
+
+  /**
+   * @return a hash of the names of the files in the package of {@code buildFile}, which are what
+   *     its globs, including recursive ones, are evaluated against. Like the daemon's invalidation
+   *     of build files when files are added or removed, this stops at nested packages only when
+   *     package boundaries are enforced.
+   */
+  private static String getPackageHash(Cell cell, final Path buildFile) throws IOException {
+    final ProjectFilesystem filesystem = cell.getFilesystem();
+    final String buildFileName = cell.getBuildFileName();
+    final boolean stopAtNestedPackages = cell.isEnforcingBuckPackageBoundaries();
+    final Path packageDir = filesystem.getRootPath().relativize(buildFile.getParent());
+    final SortedSet<String> paths = new TreeSet<>();
+    filesystem.walkRelativeFileTree(
+        packageDir,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+            if (!dir.equals(packageDir) &&
+                stopAtNestedPackages &&
+                Files.isRegularFile(filesystem.resolve(dir).resolve(buildFileName))) {
+              return FileVisitResult.SKIP_SUBTREE;
+            }
+            paths.add(dir.toString() + "/");
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+            paths.add(file.toString());
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFileFailed(Path file, IOException exc) {
+            // Such as a broken symlink, which is still matched by globs.
+            paths.add(file.toString());
+            return FileVisitResult.CONTINUE;
+          }
+        });
+    Hasher hasher = Hashing.sha1().newHasher();
+    for (String path : paths) {
+      putString(hasher, path);
+    }
+    return hasher.hash().toString();
+  }
+
+  private static void putString(Hasher hasher, String value) {
+    hasher.putInt(value.length());
+    hasher.putUnencodedChars(value);
+  }
+}
@@ -32,8 +32,10 @@ package com.facebook.buck.query;
 
 import com.facebook.buck.query.QueryEnvironment.Argument;
 import com.facebook.buck.query.QueryEnvironment.ArgumentType;
+import com.facebook.buck.graph.CompactDirectedGraph;
 import com.facebook.buck.query.QueryEnvironment.QueryFunction;
 import com.facebook.buck.util.MoreSets;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.ListeningExecutorService;
@@ -90,6 +92,18 @@ public class AllPathsFunction implements QueryFunction {
 
     env.buildTransitiveClosure(fromSet, Integer.MAX_VALUE, executor);
 
+    Optional<CompactDirectedGraph<T>> graph = env.getCompactGraph();
+    if (graph.isPresent()) {
+      CompactDirectedGraph<T>.NodeSet reachable =
+          graph.get().getTransitiveClosure(fromSet, executor);
+      return graph.get().breadthFirstSearch(
+          MoreSets.intersection(reachable, toSet),
+          CompactDirectedGraph.Direction.INCOMING,
+          Integer.MAX_VALUE,
+          reachable,
+          executor);
+    }
+
     Set<T> reachableFromX = env.getTransitiveClosure(fromSet);
     Set<T> result = MoreSets.intersection(reachableFromX, toSet);
     Collection<T> worklist = result;
@@ -31,14 +31,20 @@ package com.facebook.buck.query;
 
 import static com.facebook.buck.query.Lexer.TokenKind;
 
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 /**
  * A binary algebraic set operation.
@@ -64,12 +70,45 @@ class BinaryOperatorExpression extends QueryExpression {
   }
 
   @Override
-  public <T> Set<T> eval(QueryEnvironment<T> env, ListeningExecutorService executor)
-      throws QueryException, InterruptedException {
+  protected <T> Set<T> evaluate(
+      final QueryEnvironment<T> env,
+      final ListeningExecutorService executor) throws QueryException, InterruptedException {
+    // The operands don't depend on each other, so evaluate the right hand ones in parallel with
+    // the left hand one, and then combine them in order.
+    Optional<ListeningExecutorService> operandExecutor = env.getOperandExecutor();
+    List<ListenableFuture<Set<T>>> rhsFutures = new ArrayList<>();
+    if (operandExecutor.isPresent()) {
+      for (final QueryExpression operand : operands.subList(1, operands.size())) {
+        rhsFutures.add(
+            operandExecutor.get().submit(
+                new Callable<Set<T>>() {
+                  @Override
+                  public Set<T> call() throws QueryException, InterruptedException {
+                    return operand.eval(env, executor);
+                  }
+                }));
+      }
+    }
+
+    try {
+      return combine(env, executor, rhsFutures);
+    } finally {
+      for (ListenableFuture<Set<T>> rhsFuture : rhsFutures) {
+        rhsFuture.cancel(/* mayInterruptIfRunning */ true);
+      }
+    }
+  }
+
+  private <T> Set<T> combine(
+      QueryEnvironment<T> env,
+      ListeningExecutorService executor,
+      List<ListenableFuture<Set<T>>> rhsFutures) throws QueryException, InterruptedException {
     Set<T> lhsValue = new LinkedHashSet<>(operands.get(0).eval(env, executor));
 
     for (int i = 1; i < operands.size(); i++) {
-      Set<T> rhsValue = operands.get(i).eval(env, executor);
+      Set<T> rhsValue = rhsFutures.isEmpty() ?
+          operands.get(i).eval(env, executor) :
+          getOperandValue(rhsFutures.get(i - 1));
       switch (operator) {
         case INTERSECT:
         case CARET:
@@ -91,6 +130,17 @@ class BinaryOperatorExpression extends QueryExpression {
     return lhsValue;
   }
 
+  private static <T> Set<T> getOperandValue(ListenableFuture<Set<T>> future)
+      throws QueryException, InterruptedException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      Throwables.propagateIfInstanceOf(e.getCause(), QueryException.class);
+      Throwables.propagateIfInstanceOf(e.getCause(), InterruptedException.class);
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+
   @Override
   public void collectTargetPatterns(Collection<String> literals) {
     for (QueryExpression subExpression : operands) {
@@ -98,6 +148,24 @@ class BinaryOperatorExpression extends QueryExpression {
     }
   }
 
+  @Override
+  public boolean equals(Object other) {
+    return (other instanceof BinaryOperatorExpression) &&
+        equalTo((BinaryOperatorExpression) other);
+  }
+
+  private boolean equalTo(BinaryOperatorExpression other) {
+    return operator.equals(other.operator) && operands.equals(other.operands);
+  }
+
+  @Override
+  public int hashCode() {
+    int h = 31;
+    h = h * 17 + operator.hashCode();
+    h = h * 17 + operands.hashCode();
+    return h;
+  }
+
   @Override
   public String toString() {
     StringBuilder result = new StringBuilder();
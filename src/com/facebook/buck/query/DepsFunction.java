@@ -32,7 +32,9 @@ package com.facebook.buck.query;
 
 import com.facebook.buck.query.QueryEnvironment.Argument;
 import com.facebook.buck.query.QueryEnvironment.ArgumentType;
+import com.facebook.buck.graph.CompactDirectedGraph;
 import com.facebook.buck.query.QueryEnvironment.QueryFunction;
+import com.google.common.base.Optional;
 import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
@@ -87,6 +89,16 @@ public class DepsFunction implements QueryFunction {
     int depthBound = args.size() > 1 ? args.get(1).getInteger() : Integer.MAX_VALUE;
     env.buildTransitiveClosure(argumentSet, depthBound, executor);
 
+    Optional<CompactDirectedGraph<T>> graph = env.getCompactGraph();
+    if (graph.isPresent()) {
+      return graph.get().breadthFirstSearch(
+          argumentSet,
+          CompactDirectedGraph.Direction.OUTGOING,
+          depthBound,
+          /* within */ null,
+          executor);
+    }
+
     // LinkedHashSet preserves the order of insertion when iterating over the values.
     // The order by which we traverse the result is meaningful because the dependencies are
     // traversed level-by-level.
@@ -55,7 +55,7 @@ public class FunctionExpression extends QueryExpression {
   }
 
   @Override
-  public <T> Set<T> eval(QueryEnvironment<T> env, ListeningExecutorService executor)
+  protected <T> Set<T> evaluate(QueryEnvironment<T> env, ListeningExecutorService executor)
       throws QueryException, InterruptedException {
     return function.<T>eval(env, args, executor);
   }
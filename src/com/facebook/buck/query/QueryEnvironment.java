@@ -30,6 +30,8 @@
 
 package com.facebook.buck.query;
 
+import com.facebook.buck.graph.CompactDirectedGraph;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
@@ -40,6 +42,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.annotation.Nullable;
 
@@ -211,6 +214,27 @@ public interface QueryEnvironment<T> {
   void buildTransitiveClosure(Set<T> targetNodes, int maxDepth, ListeningExecutorService executor)
       throws InterruptedException, QueryException;
 
+  /**
+   * Returns the dependency graph built by {@link #buildTransitiveClosure}, in a compact form which
+   * graph traversing functions can run on rather than on {@link #getFwdDeps} and
+   * {@link #getReverseDeps}, if the environment has one.
+   */
+  Optional<CompactDirectedGraph<T>> getCompactGraph() throws QueryException, InterruptedException;
+
+  /**
+   * Returns the results of the expressions evaluated so far by the query being evaluated, for
+   * equal expressions to reuse, or absent if results shouldn't be reused.
+   */
+  Optional<ConcurrentMap<QueryExpression, Set<T>>> getResultCache();
+
+  /**
+   * Returns an executor to evaluate independent operands of an expression on in parallel, or
+   * absent to evaluate them one after another. Evaluating an operand may wait for tasks on the
+   * executor the query is evaluated with, so this must be another executor, which starts every
+   * task it is given without waiting for earlier ones to finish.
+   */
+  Optional<ListeningExecutorService> getOperandExecutor();
+
   String getTargetKind(T target) throws InterruptedException, QueryException;
 
   /** Returns the tests associated with the given target. */
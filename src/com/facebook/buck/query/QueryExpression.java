@@ -30,10 +30,13 @@
 
 package com.facebook.buck.query;
 
+import com.google.common.base.Optional;
 import com.google.common.util.concurrent.ListeningExecutorService;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Base class for expressions in the Buck query language.
@@ -70,12 +73,37 @@ public abstract class QueryExpression {
 
   /**
    * Evaluates this query in the specified environment, and returns a
-   * (possibly-immutable) set of targets.
+   * (possibly-immutable) set of targets. If the environment has a result cache, the result of an
+   * equal expression evaluated earlier in the same query is reused.
    *
    * Failures resulting from evaluation of an ill-formed query cause QueryException to be thrown.
    */
-  public abstract <T> Set<T> eval(QueryEnvironment<T> env, ListeningExecutorService executor)
-      throws QueryException, InterruptedException;
+  public final <T> Set<T> eval(QueryEnvironment<T> env, ListeningExecutorService executor)
+      throws QueryException, InterruptedException {
+    Optional<ConcurrentMap<QueryExpression, Set<T>>> cache = env.getResultCache();
+    if (!cache.isPresent()) {
+      return evaluate(env, executor);
+    }
+    Set<T> result = cache.get().get(this);
+    if (result == null) {
+      // Equal expressions evaluated at the same time are evaluated twice, and both get the result
+      // of whichever finishes first.
+      result = Collections.unmodifiableSet(evaluate(env, executor));
+      Set<T> previous = cache.get().putIfAbsent(this, result);
+      if (previous != null) {
+        result = previous;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Evaluates this query in the specified environment, as {@link #eval} does, without reusing
+   * earlier results.
+   */
+  protected abstract <T> Set<T> evaluate(
+      QueryEnvironment<T> env,
+      ListeningExecutorService executor) throws QueryException, InterruptedException;
 
   /**
    * Collects all target patterns that are referenced anywhere within this
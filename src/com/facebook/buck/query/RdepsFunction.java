@@ -32,7 +32,9 @@ package com.facebook.buck.query;
 
 import com.facebook.buck.query.QueryEnvironment.Argument;
 import com.facebook.buck.query.QueryEnvironment.ArgumentType;
+import com.facebook.buck.graph.CompactDirectedGraph;
 import com.facebook.buck.query.QueryEnvironment.QueryFunction;
+import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableList;
@@ -87,16 +89,28 @@ public class RdepsFunction implements QueryFunction {
       ListeningExecutorService executor) throws QueryException, InterruptedException {
     Set<T> universeSet = args.get(0).getExpression().eval(env, executor);
     env.buildTransitiveClosure(universeSet, Integer.MAX_VALUE, executor);
+    Set<T> argumentSet = args.get(1).getExpression().eval(env, executor);
+    int depthBound = args.size() > 2 ? args.get(2).getInteger() : Integer.MAX_VALUE;
+
+    // Evaluating the argument may have grown the graph, but not the universe's closure in it.
+    Optional<CompactDirectedGraph<T>> graph = env.getCompactGraph();
+    if (graph.isPresent()) {
+      return graph.get().breadthFirstSearch(
+          argumentSet,
+          CompactDirectedGraph.Direction.INCOMING,
+          depthBound,
+          graph.get().getTransitiveClosure(universeSet, executor),
+          executor);
+    }
+
     final Predicate<T> inUniversePredicate = Predicates.in(env.getTransitiveClosure(universeSet));
 
     // LinkedHashSet preserves the order of insertion when iterating over the values.
     // The order by which we traverse the result is meaningful because the dependencies are
     // traversed level-by-level.
     Set<T> visited = new LinkedHashSet<>();
-    Set<T> argumentSet = args.get(1).getExpression().eval(env, executor);
     Collection<T> current = argumentSet;
 
-    int depthBound = args.size() > 2 ? args.get(2).getInteger() : Integer.MAX_VALUE;
     // Iterating depthBound+1 times because the first one processes the given argument set.
     for (int i = 0; i <= depthBound; i++) {
       // Restrict the search to nodes in the transitive closure of the universe set.
@@ -66,7 +66,7 @@ class SetExpression extends QueryExpression {
   }
 
   @Override
-  public <T> Set<T> eval(QueryEnvironment<T> env, ListeningExecutorService executor)
+  protected <T> Set<T> evaluate(QueryEnvironment<T> env, ListeningExecutorService executor)
       throws QueryException, InterruptedException {
     Set<T> result = new LinkedHashSet<>();
     for (TargetLiteral expr : words) {
@@ -38,4 +38,31 @@ abstract class AbstractRuleScheduleInfo {
     return 1;
   }
 
+  /**
+   * @return the amount of memory the rule's steps need, in the units of the
+   *     {@code resources.memory} config setting.
+   */
+  @Value.Default
+  public int getMemory() {
+    return 0;
+  }
+
+  /**
+   * @return the amount of disk IO the rule's steps need, in the units of the
+   *     {@code resources.disk_io} config setting.
+   */
+  @Value.Default
+  public int getDiskIO() {
+    return 0;
+  }
+
+  /**
+   * @return the amount of network IO the rule's steps need, in the units of the
+   *     {@code resources.network_io} config setting.
+   */
+  @Value.Default
+  public int getNetworkIO() {
+    return 0;
+  }
+
 }
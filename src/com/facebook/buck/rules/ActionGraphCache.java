@@ -16,12 +16,15 @@
 
 package com.facebook.buck.rules;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 import com.facebook.buck.counters.Counter;
 import com.facebook.buck.counters.IntegerCounter;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.PerfEventId;
 import com.facebook.buck.event.SimplePerfEvent;
 import com.facebook.buck.graph.AbstractBottomUpTraversal;
+import com.facebook.buck.io.WatchEvents;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.Pair;
 import com.facebook.buck.parser.NoSuchBuildTargetException;
@@ -29,15 +32,24 @@ import com.facebook.buck.rules.keys.ContentAgnosticRuleKeyBuilderFactory;
 import com.facebook.buck.util.HumanReadableException;
 import com.facebook.buck.util.concurrent.MostExecutors;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.MapDifference;
 import com.google.common.collect.Maps;
 import com.google.common.eventbus.Subscribe;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 
+import java.nio.file.Path;
 import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -46,11 +58,10 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
-import javax.annotation.Nullable;
-
 /**
- * Class that transforms {@link TargetGraph} to {@link ActionGraph}. It also holds a cache for the
- * last ActionGraph it generated.
+ * Class that transforms {@link TargetGraph} to {@link ActionGraph}. It also holds a cache of the
+ * last few ActionGraphs it generated, so that switching between a few sets of targets does not
+ * create the ActionGraph from scratch each time.
  */
 public class ActionGraphCache {
   private static final Logger LOG = Logger.get(ActionGraphCache.class);
@@ -60,19 +71,36 @@ public class ActionGraphCache {
   private static final String CACHE_MISS_COUNTER_NAME = "cache_miss";
   private static final String NEW_AND_CACHED_ACTIONGRAPHS_MISMATCH_NAME =
       "new_and_cached_actiongraphs_mismatch";
+  private static final String CACHE_HIT_AT_POSITION_COUNTER_NAME = "cache_hit_at_position";
+  private static final String CACHE_EVICTION_COUNTER_NAME = "cache_eviction";
+  private static final String CACHE_POSITION_TAG = "position";
+
+  /**
+   * How many action graphs are kept by default. Each one can take a lot of memory, so only the most
+   * recent is kept unless {@code [build] action_graph_cache_size} says otherwise.
+   */
+  public static final int DEFAULT_MAX_ENTRIES = 1;
 
   private final IntegerCounter cacheHitCounter;
   private final IntegerCounter cacheMissCounter;
   private final IntegerCounter actionGraphsMismatch;
+  private final IntegerCounter cacheEvictionCounter;
+  // The hits of the entry at each position in the cache, the most recently used being first.
+  private final ImmutableList<IntegerCounter> cacheHitAtPositionCounters;
 
   private static final int MAX_MISMATCH_RULES_TO_PRINT = 10;
 
-  @Nullable
-  private Pair<TargetGraph, ActionGraphAndResolver> lastActionGraph;
+  private final int maxEntries;
+  // The cached ActionGraphs keyed by the fingerprint of their TargetGraph, in access order.
+  private final LinkedHashMap<HashCode, Entry> entries;
   // RuleKey checking is done in a separate thread so it doesn't slow down critical path by much.
   private ExecutorService checkExecutor;
   private AtomicBoolean checkAlreadyRunning;
   public ActionGraphCache() {
+    this(DEFAULT_MAX_ENTRIES);
+  }
+
+  public ActionGraphCache(int maxEntries) {
     // Setting corePoolSize to 0 kills the thread every time the checking task is finished.
     // Setting thread priority to minimum so it doesn't content with buck's main work.
     this(new ThreadPoolExecutor(
@@ -83,10 +111,16 @@ public class ActionGraphCache {
         /* threadFactory */ new MostExecutors.NamedAndPriorityThreadFactory(
             "ActionGraphCache-RuleCheck",
             Thread.MIN_PRIORITY),
-        /* handler */ new ThreadPoolExecutor.DiscardPolicy()));
+        /* handler */ new ThreadPoolExecutor.DiscardPolicy()),
+        maxEntries);
   }
 
   public ActionGraphCache(ExecutorService checkExecutor) {
+    this(checkExecutor, DEFAULT_MAX_ENTRIES);
+  }
+
+  public ActionGraphCache(ExecutorService checkExecutor, int maxEntries) {
+    Preconditions.checkArgument(maxEntries > 0);
     this.cacheHitCounter = new IntegerCounter(
         COUNTER_CATEGORY,
         CACHE_HIT_COUNTER_NAME,
@@ -99,6 +133,24 @@ public class ActionGraphCache {
         COUNTER_CATEGORY,
         NEW_AND_CACHED_ACTIONGRAPHS_MISMATCH_NAME,
         ImmutableMap.<String, String>of());
+    this.cacheEvictionCounter = new IntegerCounter(
+        COUNTER_CATEGORY,
+        CACHE_EVICTION_COUNTER_NAME,
+        ImmutableMap.<String, String>of());
+    ImmutableList.Builder<IntegerCounter> cacheHitAtPositionCounters = ImmutableList.builder();
+    for (int i = 0; i < maxEntries; i++) {
+      cacheHitAtPositionCounters.add(
+          new IntegerCounter(
+              COUNTER_CATEGORY,
+              CACHE_HIT_AT_POSITION_COUNTER_NAME,
+              ImmutableMap.of(CACHE_POSITION_TAG, String.valueOf(i))));
+    }
+    this.cacheHitAtPositionCounters = cacheHitAtPositionCounters.build();
+    this.maxEntries = maxEntries;
+    this.entries = new LinkedHashMap<>(
+        /* initialCapacity */ maxEntries + 1,
+        /* loadFactor */ 0.75f,
+        /* accessOrder */ true);
     this.checkExecutor = checkExecutor;
     this.checkAlreadyRunning = new AtomicBoolean(false);
   }
@@ -111,7 +163,7 @@ public class ActionGraphCache {
    * @param targetGraph the target graph that the action graph will be based on.
    * @return a {@link ActionGraphAndResolver}
    */
-  public ActionGraphAndResolver getActionGraph(
+  public synchronized ActionGraphAndResolver getActionGraph(
       final BuckEventBus eventBus,
       final boolean checkActionGraphs,
       final TargetGraph targetGraph,
@@ -119,34 +171,92 @@ public class ActionGraphCache {
     ActionGraphEvent.Started started = ActionGraphEvent.started();
     eventBus.post(started);
     try {
-      if (lastActionGraph != null && lastActionGraph.getFirst().equals(targetGraph)) {
+      HashCode fingerprint = getFingerprint(targetGraph);
+      int position = getPosition(fingerprint);
+      Entry entry = entries.get(fingerprint);
+      if (entry != null) {
         cacheHitCounter.inc();
-        LOG.info("ActionGraph cache hit.");
+        cacheHitAtPositionCounters.get(position).inc();
+        LOG.info("ActionGraph cache hit at position %d.", position);
         if (checkActionGraphs) {
           spawnThreadToCompareActionGraphs(
               eventBus,
-              lastActionGraph.getSecond(),
+              fingerprint,
+              entry.actionGraphAndResolver,
               targetGraph,
               keySeed);
         }
       } else {
         cacheMissCounter.inc();
-        if (lastActionGraph == null) {
+        if (entries.isEmpty()) {
           LOG.info("ActionGraph cache miss. Cache was empty.");
         } else {
           LOG.info("ActionGraph cache miss. TargetGraphs mismatched.");
         }
-        lastActionGraph = new Pair<TargetGraph, ActionGraphAndResolver>(
-            targetGraph,
+        entry = new Entry(
+            getPackagePaths(targetGraph),
             createActionGraph(
                 eventBus,
                 new DefaultTargetNodeToBuildRuleTransformer(),
                 targetGraph));
+        entries.put(fingerprint, entry);
+        if (entries.size() > maxEntries) {
+          Iterator<HashCode> eldest = entries.keySet().iterator();
+          eldest.next();
+          eldest.remove();
+          cacheEvictionCounter.inc();
+        }
       }
+      return entry.actionGraphAndResolver;
     } finally {
       eventBus.post(ActionGraphEvent.finished(started));
     }
-    return lastActionGraph.getSecond();
+  }
+
+  /**
+   * @return the position of the entry with the given fingerprint, the most recently used entry
+   *     being at position 0, or -1 if there is no such entry.
+   */
+  private int getPosition(HashCode fingerprint) {
+    // The entries iterate from the least to the most recently used.
+    int position = entries.size() - 1;
+    for (HashCode key : entries.keySet()) {
+      if (key.equals(fingerprint)) {
+        return position;
+      }
+      position--;
+    }
+    return -1;
+  }
+
+  /**
+   * A cheap substitute for comparing {@link TargetGraph}s. The parser hashes the raw attributes of
+   * each node, so two graphs with the same targets whose raw attributes all hash the same create
+   * the same ActionGraph.
+   */
+  @VisibleForTesting
+  static HashCode getFingerprint(TargetGraph targetGraph) {
+    if (targetGraph.getNodes().isEmpty()) {
+      return HashCode.fromInt(0);
+    }
+    List<HashCode> nodeHashes = new ArrayList<>(targetGraph.getNodes().size());
+    for (TargetNode<?> node : targetGraph.getNodes()) {
+      nodeHashes.add(
+          Hashing.sha1().newHasher()
+              .putString(node.getBuildTarget().getFullyQualifiedName(), UTF_8)
+              .putBytes(node.getRawInputsHashCode().asBytes())
+              .hash());
+    }
+    return Hashing.combineUnordered(nodeHashes);
+  }
+
+  // The packages of the nodes of the graph, relative to the root of their cell.
+  private static ImmutableSet<Path> getPackagePaths(TargetGraph targetGraph) {
+    ImmutableSet.Builder<Path> packagePaths = ImmutableSet.builder();
+    for (TargetNode<?> node : targetGraph.getNodes()) {
+      packagePaths.add(node.getBuildTarget().getBasePath());
+    }
+    return packagePaths.build();
   }
 
   /**
@@ -243,6 +353,7 @@ public class ActionGraphCache {
    */
   private void spawnThreadToCompareActionGraphs(
       final BuckEventBus eventBus,
+      final HashCode fingerprint,
       final ActionGraphAndResolver lastActionGraphAndResolver,
       final TargetGraph targetGraph,
       final int keySeed) {
@@ -257,8 +368,6 @@ public class ActionGraphCache {
         try (SimplePerfEvent.Scope scope = SimplePerfEvent.scope(
             eventBus,
             PerfEventId.of("ActionGraphCacheCheck"))) {
-          // We check that the lastActionGraph is not null because it's possible we had a
-          // invalidateCache() between the scheduling and the execution of this task.
           LOG.info("ActionGraph integrity check spawned.");
           Pair<TargetGraph, ActionGraphAndResolver> newActionGraph =
               new Pair<TargetGraph, ActionGraphAndResolver>(
@@ -279,7 +388,7 @@ public class ActionGraphCache {
 
           if (!lastActionGraphRuleKeys.equals(newActionGraphRuleKeys)) {
             actionGraphsMismatch.inc();
-            invalidateCache();
+            invalidateEntry(fingerprint);
             String mismatchInfo = "RuleKeys of cached and new ActionGraph don't match:\n";
             MapDifference<BuildRule, RuleKey> mismatchedRules =
                 Maps.difference(lastActionGraphRuleKeys, newActionGraphRuleKeys);
@@ -308,31 +417,87 @@ public class ActionGraphCache {
     });
   }
 
-  public void invalidateBasedOn(WatchEvent<?> event) throws InterruptedException {
-    if (!isFileContentModificationEvent(event)) {
+  /**
+   * Invalidates the cached ActionGraphs which may depend on the path of the event. Creating the
+   * ActionGraph may look at which files exist, so adding or removing files invalidates the
+   * ActionGraphs with a node in a package containing the file. Changes to the contents of files
+   * are handled by the parser, as are changes to build files.
+   */
+  @Subscribe
+  public synchronized void invalidateBasedOn(WatchEvent<?> event) {
+    if (isFileContentModificationEvent(event)) {
+      return;
+    }
+    if (!WatchEvents.isPathCreateOrDeleteEvent(event)) {
+      LOG.info("ActionGraph cache invalidation due to Watchman event %s.", event);
+      invalidateCache();
+      return;
+    }
+
+    Path path = ((Path) event.context()).normalize();
+    if (path.isAbsolute() || path.startsWith("..")) {
+      // We can't tell which package this is in.
       LOG.info("ActionGraph cache invalidation due to Watchman event %s.", event);
       invalidateCache();
+      return;
+    }
+    Iterator<Entry> iterator = entries.values().iterator();
+    while (iterator.hasNext()) {
+      if (containsPackageOf(iterator.next().packagePaths, path)) {
+        LOG.info("ActionGraph cache entry invalidation due to Watchman event %s.", event);
+        iterator.remove();
+      }
     }
   }
 
-  @Subscribe
+  private static boolean containsPackageOf(ImmutableSet<Path> packagePaths, Path path) {
+    for (Path parent = path.getParent(); parent != null; parent = parent.getParent()) {
+      if (packagePaths.contains(parent)) {
+        return true;
+      }
+    }
+    return packagePaths.contains(path.getFileSystem().getPath(""));
+  }
+
   private static boolean isFileContentModificationEvent(WatchEvent<?> event) {
     return event.kind() == StandardWatchEventKinds.ENTRY_MODIFY;
   }
 
-  private void invalidateCache() {
-    lastActionGraph = null;
+  private synchronized void invalidateEntry(HashCode fingerprint) {
+    entries.remove(fingerprint);
+  }
+
+  private synchronized void invalidateCache() {
+    entries.clear();
   }
 
   public ImmutableList<Counter> getCounters() {
-    return ImmutableList.<Counter>of(
-        cacheHitCounter,
-        cacheMissCounter,
-        actionGraphsMismatch);
+    return ImmutableList.<Counter>builder()
+        .add(cacheHitCounter)
+        .add(cacheMissCounter)
+        .add(actionGraphsMismatch)
+        .add(cacheEvictionCounter)
+        .addAll(cacheHitAtPositionCounters)
+        .build();
   }
 
   @VisibleForTesting
-  boolean isEmpty() {
-    return lastActionGraph == null;
+  synchronized boolean isEmpty() {
+    return entries.isEmpty();
+  }
+
+  @VisibleForTesting
+  synchronized int getNumberOfEntries() {
+    return entries.size();
+  }
+
+  private static class Entry {
+    private final ImmutableSet<Path> packagePaths;
+    private final ActionGraphAndResolver actionGraphAndResolver;
+
+    public Entry(ImmutableSet<Path> packagePaths, ActionGraphAndResolver actionGraphAndResolver) {
+      this.packagePaths = packagePaths;
+      this.actionGraphAndResolver = actionGraphAndResolver;
+    }
   }
 }
@@ -32,6 +32,12 @@ public interface BuildEngine {
    */
   int getNumRulesToBuild(Iterable<BuildRule> rule);
 
+  /**
+   * Works out the order in which to build the given rules and their transitive dependencies.
+   * Call this before building any of them.
+   */
+  void prepareSchedule(Iterable<BuildRule> rules);
+
   /**
    * Build the given build rule and return a future to the build rule success.
    */
@@ -18,6 +18,7 @@ package com.facebook.buck.rules;
 
 import com.facebook.buck.artifact_cache.ArtifactCache;
 import com.facebook.buck.artifact_cache.ArtifactInfo;
+import com.facebook.buck.artifact_cache.ArtifactStreamConsumer;
 import com.facebook.buck.artifact_cache.CacheResult;
 import com.facebook.buck.event.ArtifactCompressionEvent;
 import com.facebook.buck.event.BuckEventBus;
@@ -370,11 +371,21 @@ public class BuildInfoRecorder {
   public CacheResult fetchArtifactForBuildable(
       RuleKey ruleKey,
       LazyPath outputFile,
-      ArtifactCache artifactCache)
-      throws InterruptedException {
+      ArtifactCache artifactCache) {
     return artifactCache.fetch(ruleKey, outputFile);
   }
 
+  /**
+   * Fetches the artifact associated with the {@link #buildTarget} for this class and passes its
+   * contents to {@code consumer} as they are downloaded.
+   */
+  public CacheResult fetchArtifactForBuildable(
+      RuleKey ruleKey,
+      ArtifactStreamConsumer consumer,
+      ArtifactCache artifactCache) {
+    return artifactCache.fetchStreaming(ruleKey, consumer);
+  }
+
   /**
    * @param pathToArtifact Relative path to the project root.
    */
@@ -18,6 +18,7 @@ package com.facebook.buck.rules;
 
 import com.facebook.buck.artifact_cache.ArtifactCache;
 import com.facebook.buck.artifact_cache.ArtifactInfo;
+import com.facebook.buck.artifact_cache.ArtifactStreamConsumer;
 import com.facebook.buck.artifact_cache.CacheResult;
 import com.facebook.buck.artifact_cache.CacheResultType;
 import com.facebook.buck.event.ArtifactCompressionEvent;
@@ -49,7 +50,9 @@ import com.facebook.buck.util.ObjectMappers;
 import com.facebook.buck.util.cache.DefaultFileHashCache;
 import com.facebook.buck.util.cache.FileHashCache;
 import com.facebook.buck.util.cache.StackedFileHashCache;
+import com.facebook.buck.util.concurrent.ListeningMultiSemaphore;
 import com.facebook.buck.util.concurrent.MoreFutures;
+import com.facebook.buck.util.concurrent.ResourceAmounts;
 import com.facebook.buck.util.concurrent.WeightedListeningExecutorService;
 import com.facebook.buck.zip.Unzip;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -66,8 +69,10 @@ import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSetMultimap;
 import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
@@ -81,6 +86,7 @@ import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
@@ -91,8 +97,13 @@ import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -114,8 +125,17 @@ import javax.annotation.Nullable;
  */
 public class CachingBuildEngine implements BuildEngine {
 
-  // The default weight to use in the executor when building a rule locally.
+  // The default amount of CPU to use in the executor when building a rule locally.
   private static final int DEFAULT_BUILD_WEIGHT = 1;
+
+  // What a batched lookup of rule keys in the artifact cache needs from the executor: it waits on
+  // the network, so it shouldn't hold up rules waiting for a CPU.
+  private static final ResourceAmounts CACHE_PROBE_RESOURCE_AMOUNTS =
+      ResourceAmounts.of(0, 0, 0, 1);
+
+  // The most rule keys looked up in a single request by a speculative cache probe.
+  private static final int MAX_SPECULATIVE_CACHE_PROBE_SIZE = 1000;
+
   @VisibleForTesting
   static final int MAX_TEST_NETWORK_THREADS = 5;
 
@@ -131,6 +151,15 @@ public class CachingBuildEngine implements BuildEngine {
   private final ConcurrentMap<BuildTarget, ListenableFuture<RuleKey>> ruleKeys =
       Maps.newConcurrentMap();
 
+  /**
+   * Rule keys which a batched lookup found to be missing from the artifact cache, so that fetching
+   * them can be skipped.
+   */
+  private final Set<RuleKey> knownCacheMisses = Sets.newConcurrentHashSet();
+
+  // The rules whose rule keys a speculative cache probe has already had an answer for.
+  private final Set<BuildTarget> probedTargets = Sets.newConcurrentHashSet();
+
   private final RuleDepsCache ruleDeps;
   private final Optional<UnskippedRulesTracker> unskippedRulesTracker;
 
@@ -147,6 +176,15 @@ public class CachingBuildEngine implements BuildEngine {
   private final Optional<Long> artifactCacheSizeLimit;
   private final LoadingCache<ProjectFilesystem, FileHashCache> fileHashCaches;
   private final LoadingCache<ProjectFilesystem, RuleKeyFactories> ruleKeyFactories;
+  private final ImmutableMap<String, ResourceAmounts> resourceAmountsPerRuleType;
+  private final Optional<RuleDurationHistory> ruleDurationHistory;
+
+  /**
+   * How long it's expected to take to build each rule and then the longest chain of rules
+   * depending on it, found by {@link #prepareSchedule} when scheduling by critical path.
+   */
+  private final ConcurrentMap<BuildTarget, Long> remainingCriticalPaths =
+      Maps.newConcurrentMap();
 
   public CachingBuildEngine(
       WeightedListeningExecutorService service,
@@ -159,6 +197,41 @@ public class CachingBuildEngine implements BuildEngine {
       ObjectMapper objectMapper,
       final BuildRuleResolver resolver,
       final int keySeed) {
+    this(
+        service,
+        fileHashCache,
+        buildMode,
+        dependencySchedulingOrder,
+        depFiles,
+        maxDepFileCacheEntries,
+        artifactCacheSizeLimit,
+        objectMapper,
+        resolver,
+        keySeed,
+        ImmutableMap.<String, ResourceAmounts>of(),
+        Optional.<RuleDurationHistory>absent());
+  }
+
+  /**
+   * @param resourceAmountsPerRuleType the resources rules of each type need while they build
+   *     locally, which override those their {@link RuleScheduleInfo} asks for.
+   * @param ruleDurationHistory how long rules took to build before, used to find the critical
+   *     path when scheduling by {@link DependencySchedulingOrder#CRITICAL_PATH}.  If absent, all
+   *     rules are assumed to take equally long.
+   */
+  public CachingBuildEngine(
+      WeightedListeningExecutorService service,
+      final FileHashCache fileHashCache,
+      BuildMode buildMode,
+      DependencySchedulingOrder dependencySchedulingOrder,
+      DepFiles depFiles,
+      long maxDepFileCacheEntries,
+      Optional<Long> artifactCacheSizeLimit,
+      ObjectMapper objectMapper,
+      final BuildRuleResolver resolver,
+      final int keySeed,
+      ImmutableMap<String, ResourceAmounts> resourceAmountsPerRuleType,
+      Optional<RuleDurationHistory> ruleDurationHistory) {
     this.ruleDeps = new RuleDepsCache(service);
     this.unskippedRulesTracker = createUnskippedRulesTracker(buildMode, ruleDeps, service);
 
@@ -179,6 +252,8 @@ public class CachingBuildEngine implements BuildEngine {
             return RuleKeyFactories.build(keySeed, fileHashCaches.get(filesystem), resolver);
           }
         });
+    this.resourceAmountsPerRuleType = resourceAmountsPerRuleType;
+    this.ruleDurationHistory = ruleDurationHistory;
   }
 
   /**
@@ -215,6 +290,8 @@ public class CachingBuildEngine implements BuildEngine {
             return ruleKeyFactoriesFunction.apply(filesystem);
           }
         });
+    this.resourceAmountsPerRuleType = ImmutableMap.of();
+    this.ruleDurationHistory = Optional.absent();
   }
 
   private static Optional<UnskippedRulesTracker> createUnskippedRulesTracker(
@@ -283,6 +360,9 @@ public class CachingBuildEngine implements BuildEngine {
       case RANDOM:
         deps = shuffled(deps);
         break;
+      case CRITICAL_PATH:
+        deps = longestRemainingCriticalPathFirst(deps);
+        break;
     }
     for (BuildRule dep : deps) {
       depResults.add(getBuildRuleResultWithRuntimeDeps(dep, context, asyncCallbacks));
@@ -296,6 +376,36 @@ public class CachingBuildEngine implements BuildEngine {
     return rulesList;
   }
 
+  private List<BuildRule> longestRemainingCriticalPathFirst(Iterable<BuildRule> rules) {
+    List<BuildRule> rulesList = Lists.newArrayList(ImmutableSortedSet.copyOf(rules));
+    Collections.sort(
+        rulesList,
+        new Comparator<BuildRule>() {
+          @Override
+          public int compare(BuildRule a, BuildRule b) {
+            return Long.compare(getRemainingCriticalPath(b), getRemainingCriticalPath(a));
+          }
+        });
+    return rulesList;
+  }
+
+  @VisibleForTesting
+  long getRemainingCriticalPath(BuildRule rule) {
+    Long remainingCriticalPath = remainingCriticalPaths.get(rule.getBuildTarget());
+    return remainingCriticalPath == null ? 0 : remainingCriticalPath;
+  }
+
+  /**
+   * @return the priority with which to build the rule locally, which when scheduling by critical
+   *     path is how long the longest chain of rules starting with it is expected to take.
+   */
+  private long getBuildPriority(BuildRule rule) {
+    if (dependencySchedulingOrder != DependencySchedulingOrder.CRITICAL_PATH) {
+      return ListeningMultiSemaphore.DEFAULT_PRIORITY;
+    }
+    return getRemainingCriticalPath(rule);
+  }
+
   private AsyncFunction<Optional<BuildResult>, BuildResult> buildLocally(
       final BuildRule rule,
       final BuildContext context,
@@ -313,28 +423,30 @@ public class CachingBuildEngine implements BuildEngine {
         }
 
         // Otherwise, build the rule.  We re-submit via the service so that we schedule
-        // it with the custom weight assigned to this rules steps.
-        RuleScheduleInfo ruleScheduleInfo = getRuleScheduleInfo(rule);
-        return service.submit(
-            new Callable<BuildResult>() {
+        // it with the resources this rule's steps need.  They stay acquired until the steps are
+        // done, even while a step waits for a process without holding a thread.
+        return service.submitAsync(
+            new Callable<ListenableFuture<BuildResult>>() {
               @Override
-              public BuildResult call() throws Exception {
+              public ListenableFuture<BuildResult> call() throws Exception {
                 if (!context.isKeepGoing() && firstFailure != null) {
-                  return BuildResult.canceled(rule, firstFailure);
-                }
-                try (BuildRuleEvent.Scope scope = BuildRuleEvent.resumeSuspendScope(
-                    context.getEventBus(),
-                    rule,
-                    ruleKeyFactory.defaultRuleKeyBuilderFactory)) {
-                  executeCommandsNowThatDepsAreBuilt(rule, context, buildableContext);
-                  return BuildResult.success(
-                      rule,
-                      BuildRuleSuccessType.BUILT_LOCALLY,
-                      cacheResult);
+                  return Futures.immediateFuture(BuildResult.canceled(rule, firstFailure));
                 }
+                return Futures.transform(
+                    executeCommandsNowThatDepsAreBuilt(
+                        rule,
+                        context,
+                        ruleKeyFactory,
+                        buildableContext),
+                    Functions.constant(
+                        BuildResult.success(
+                            rule,
+                            BuildRuleSuccessType.BUILT_LOCALLY,
+                            cacheResult)));
               }
             },
-            DEFAULT_BUILD_WEIGHT * ruleScheduleInfo.getJobsMultiplier());
+            getResourceAmounts(rule),
+            getBuildPriority(rule));
       }
     };
   }
@@ -497,10 +609,21 @@ public class CachingBuildEngine implements BuildEngine {
                     cacheResult)));
       }
 
-      // 3. Build deps.
+      // 3. Build deps, after looking up all of their rule keys in the cache at once.
+      ListenableFuture<Void> prefetchCacheMisses =
+          buildMode == BuildMode.SPECULATIVE ?
+              prefetchCacheMissesOfTransitiveDeps(rule, context) :
+              prefetchCacheMissesOfDeps(rule, context);
       ListenableFuture<List<BuildResult>> getDepResults =
           Futures.transformAsync(
-              getDepResults(rule, context, asyncCallbacks),
+              Futures.transformAsync(
+                  prefetchCacheMisses,
+                  new AsyncFunction<Void, List<BuildResult>>() {
+                    @Override
+                    public ListenableFuture<List<BuildResult>> apply(Void input) {
+                      return getDepResults(rule, context, asyncCallbacks);
+                    }
+                  }),
               new AsyncFunction<List<BuildResult>, List<BuildResult>>() {
                 @Override
                 public ListenableFuture<List<BuildResult>> apply(List<BuildResult> input) {
@@ -528,6 +651,122 @@ public class CachingBuildEngine implements BuildEngine {
     }
   }
 
+  /**
+   * Looks up the rule keys of all of the deps of {@code rule} in the artifact cache with a single
+   * request, before they are scheduled. Otherwise, each dep would make its own round trip to the
+   * cache, and on high-latency links most of the time spent on the cache goes to finding out that
+   * an artifact is missing. The request runs on the executor against the network budget, rather
+   * than on the calling build thread, and the returned future completes once it has been answered.
+   */
+  private ListenableFuture<Void> prefetchCacheMissesOfDeps(BuildRule rule, BuildContext context) {
+    ImmutableSet.Builder<RuleKey> depRuleKeys = ImmutableSet.builder();
+    for (BuildRule dep : rule.getDeps()) {
+      if (!dep.isCacheable() || results.containsKey(dep.getBuildTarget())) {
+        continue;
+      }
+      // The rule key of this rule depends on those of its deps, so they have been computed.
+      ListenableFuture<RuleKey> depRuleKey = ruleKeys.get(dep.getBuildTarget());
+      if (depRuleKey != null && depRuleKey.isDone() && !depRuleKey.isCancelled()) {
+        try {
+          depRuleKeys.add(Futures.getUnchecked(depRuleKey));
+        } catch (UncheckedExecutionException e) {
+          // The dep will report this when it gets built.
+        }
+      }
+    }
+
+    ImmutableSet<RuleKey> ruleKeysToCheck = depRuleKeys.build();
+    if (ruleKeysToCheck.size() < 2) {
+      // A single lookup saves nothing over fetching the artifact straight away.
+      return Futures.immediateFuture(null);
+    }
+    return recordCacheMisses(
+        context,
+        ImmutableList.of(ruleKeysToCheck),
+        ImmutableSetMultimap.<RuleKey, BuildTarget>of());
+  }
+
+  /**
+   * Used by {@link BuildMode#SPECULATIVE}: once a rule misses in the cache, looks up the rule keys
+   * of its entire transitive closure in the cache, rather than just those of its deps. Each level
+   * of the graph we have to descend through then no longer costs a round trip to the cache.
+   * Rules are only looked up once per build, so once a top-level rule has been probed, the misses
+   * below it make no further requests. A rule only counts as looked up once the cache has answered
+   * for it, so rules whose probe failed are tried again by the next miss above them.
+   */
+  private ListenableFuture<Void> prefetchCacheMissesOfTransitiveDeps(
+      BuildRule rule,
+      BuildContext context) {
+    ImmutableSetMultimap.Builder<RuleKey, BuildTarget> targetsByRuleKey =
+        ImmutableSetMultimap.builder();
+    Set<BuildTarget> visited = new HashSet<>();
+    Deque<BuildRule> toVisit = new ArrayDeque<>(rule.getDeps());
+    while (!toVisit.isEmpty()) {
+      BuildRule dep = toVisit.remove();
+      if (results.containsKey(dep.getBuildTarget()) ||
+          probedTargets.contains(dep.getBuildTarget()) ||
+          !visited.add(dep.getBuildTarget())) {
+        continue;
+      }
+      // The rule key of this rule depends on those of all of its transitive deps, so they, and the
+      // deps they were computed from, are all available.
+      ListenableFuture<RuleKey> depRuleKey = ruleKeys.get(dep.getBuildTarget());
+      ListenableFuture<ImmutableSortedSet<BuildRule>> depDeps = ruleDeps.get(dep);
+      if (depRuleKey == null || !depRuleKey.isDone() || !depDeps.isDone()) {
+        continue;
+      }
+      try {
+        if (dep.isCacheable()) {
+          targetsByRuleKey.put(Futures.getUnchecked(depRuleKey), dep.getBuildTarget());
+        } else {
+          probedTargets.add(dep.getBuildTarget());
+        }
+        toVisit.addAll(Futures.getUnchecked(depDeps));
+      } catch (UncheckedExecutionException e) {
+        // The dep will report this when it gets built.
+      }
+    }
+
+    ImmutableSetMultimap<RuleKey, BuildTarget> probedTargetsByRuleKey = targetsByRuleKey.build();
+    if (probedTargetsByRuleKey.isEmpty()) {
+      return Futures.immediateFuture(null);
+    }
+    ImmutableList.Builder<ImmutableSet<RuleKey>> batches = ImmutableList.builder();
+    for (List<RuleKey> batch :
+         Iterables.partition(probedTargetsByRuleKey.keySet(), MAX_SPECULATIVE_CACHE_PROBE_SIZE)) {
+      batches.add(ImmutableSet.copyOf(batch));
+    }
+    return recordCacheMisses(context, batches.build(), probedTargetsByRuleKey);
+  }
+
+  /**
+   * Looks up the given batches of rule keys in the artifact cache, remembering which are missing,
+   * and marks the targets of each rule key the cache answered for as probed.
+   */
+  private ListenableFuture<Void> recordCacheMisses(
+      final BuildContext context,
+      final ImmutableList<ImmutableSet<RuleKey>> batches,
+      final ImmutableSetMultimap<RuleKey, BuildTarget> targetsByRuleKey) {
+    return service.submit(
+        new Runnable() {
+          @Override
+          public void run() {
+            for (ImmutableSet<RuleKey> batch : batches) {
+              ImmutableMap<RuleKey, Boolean> contained =
+                  context.getArtifactCache().multiContains(batch);
+              for (Map.Entry<RuleKey, Boolean> entry : contained.entrySet()) {
+                if (!entry.getValue()) {
+                  knownCacheMisses.add(entry.getKey());
+                }
+                probedTargets.addAll(targetsByRuleKey.get(entry.getKey()));
+              }
+            }
+          }
+        },
+        /* result */ null,
+        CACHE_PROBE_RESOURCE_AMOUNTS);
+  }
+
   private ListenableFuture<BuildResult> processBuildRule(
       final BuildRule rule,
       final BuildContext context,
@@ -924,7 +1163,7 @@ public class CachingBuildEngine implements BuildEngine {
 
   // Provide a future that resolve to the result of executing this rule and its runtime
   // dependencies.
-  private ListenableFuture<BuildResult> getBuildRuleResultWithRuntimeDepsUnlocked(
+  private ListenableFuture<BuildResult> getBuildRuleResultWithRuntimeDeps(
       final BuildRule rule,
       final BuildContext context,
       final ConcurrentLinkedQueue<ListenableFuture<Void>> asyncCallbacks) {
@@ -935,6 +1174,28 @@ public class CachingBuildEngine implements BuildEngine {
       return existingResult;
     }
 
+    // Otherwise claim the rule with a placeholder future, so that racing callers share the
+    // result we set up below instead of serializing on a lock.
+    SettableFuture<BuildResult> placeholder = SettableFuture.create();
+    existingResult = results.putIfAbsent(rule.getBuildTarget(), placeholder);
+    if (existingResult != null) {
+      return existingResult;
+    }
+
+    try {
+      placeholder.setFuture(createBuildRuleResultWithRuntimeDeps(rule, context, asyncCallbacks));
+    } catch (RuntimeException e) {
+      placeholder.setException(e);
+      throw e;
+    }
+    return placeholder;
+  }
+
+  private ListenableFuture<BuildResult> createBuildRuleResultWithRuntimeDeps(
+      final BuildRule rule,
+      final BuildContext context,
+      final ConcurrentLinkedQueue<ListenableFuture<Void>> asyncCallbacks) {
+
     // Get the future holding the result for this rule and, if we have no additional runtime deps
     // to attach, return it.
     ListenableFuture<RuleKey> ruleKey = calculateRuleKey(rule, context);
@@ -949,7 +1210,6 @@ public class CachingBuildEngine implements BuildEngine {
             },
             service);
     if (!(rule instanceof HasRuntimeDeps)) {
-      results.put(rule.getBuildTarget(), result);
       return result;
     }
 
@@ -958,36 +1218,14 @@ public class CachingBuildEngine implements BuildEngine {
     List<ListenableFuture<BuildResult>> runtimeDepResults =
         Lists.newArrayListWithExpectedSize(runtimeDeps.size());
     for (BuildRule dep : runtimeDeps) {
-      runtimeDepResults.add(
-          getBuildRuleResultWithRuntimeDepsUnlocked(dep, context, asyncCallbacks));
+      runtimeDepResults.add(getBuildRuleResultWithRuntimeDeps(dep, context, asyncCallbacks));
     }
 
     // Create a new combined future, which runs the original rule and all the runtime deps in
     // parallel, but which propagates an error if any one of them fails.
-    result =
-        MoreFutures.chainExceptions(
-            Futures.allAsList(runtimeDepResults),
-            result);
-    results.put(rule.getBuildTarget(), result);
-    return result;
-  }
-
-  private ListenableFuture<BuildResult> getBuildRuleResultWithRuntimeDeps(
-      final BuildRule rule,
-      final BuildContext context,
-      final ConcurrentLinkedQueue<ListenableFuture<Void>> asyncCallbacks) {
-
-    // If the rule is already executing, return it's result future from the cache without acquiring
-    // the lock.
-    ListenableFuture<BuildResult> existingResult = results.get(rule.getBuildTarget());
-    if (existingResult != null) {
-      return existingResult;
-    }
-
-    // Otherwise, grab the lock and delegate to the real method,
-    synchronized (results) {
-      return getBuildRuleResultWithRuntimeDepsUnlocked(rule, context, asyncCallbacks);
-    }
+    return MoreFutures.chainExceptions(
+        Futures.allAsList(runtimeDepResults),
+        result);
   }
 
   public ListenableFuture<?> walkRule(
@@ -1011,8 +1249,22 @@ public class CachingBuildEngine implements BuildEngine {
         service);
   }
 
+  @Override
+  public void prepareSchedule(Iterable<BuildRule> rules) {
+    if (dependencySchedulingOrder == DependencySchedulingOrder.CRITICAL_PATH) {
+      computeRemainingCriticalPaths(walkRules(rules));
+    }
+  }
+
   @Override
   public int getNumRulesToBuild(Iterable<BuildRule> rules) {
+    return walkRules(rules).size();
+  }
+
+  /**
+   * @return the given rules and all of their transitive deps.
+   */
+  private Set<BuildRule> walkRules(Iterable<BuildRule> rules) {
     Set<BuildRule> seen = Sets.newConcurrentHashSet();
     ImmutableList.Builder<ListenableFuture<?>> results = ImmutableList.builder();
     for (final BuildRule rule : rules) {
@@ -1021,58 +1273,126 @@ public class CachingBuildEngine implements BuildEngine {
       }
     }
     Futures.getUnchecked(Futures.allAsList(results.build()));
-    return seen.size();
+    return seen;
+  }
+
+  /**
+   * Finds how long building each of the given rules, whose deps have all been walked, and then the
+   * rules which depend on it, is expected to take, by visiting rules after all of their dependents.
+   */
+  private void computeRemainingCriticalPaths(Set<BuildRule> rules) {
+    Map<BuildRule, Integer> unvisitedDependents = new HashMap<>();
+    for (BuildRule rule : rules) {
+      for (BuildRule dep : Futures.getUnchecked(ruleDeps.get(rule))) {
+        Integer count = unvisitedDependents.get(dep);
+        unvisitedDependents.put(dep, count == null ? 1 : count + 1);
+      }
+    }
+
+    Deque<BuildRule> toVisit = new ArrayDeque<>();
+    for (BuildRule rule : rules) {
+      if (!unvisitedDependents.containsKey(rule)) {
+        toVisit.add(rule);
+      }
+    }
+
+    Map<BuildRule, Long> longestDependentPaths = new HashMap<>();
+    while (!toVisit.isEmpty()) {
+      BuildRule rule = toVisit.pop();
+      Long longestDependentPath = longestDependentPaths.remove(rule);
+      long remainingCriticalPath =
+          getEstimatedDurationMillis(rule) +
+              (longestDependentPath == null ? 0 : longestDependentPath);
+      remainingCriticalPaths.put(rule.getBuildTarget(), remainingCriticalPath);
+
+      for (BuildRule dep : Futures.getUnchecked(ruleDeps.get(rule))) {
+        Long path = longestDependentPaths.get(dep);
+        if (path == null || path < remainingCriticalPath) {
+          longestDependentPaths.put(dep, remainingCriticalPath);
+        }
+        int count = unvisitedDependents.get(dep) - 1;
+        unvisitedDependents.put(dep, count);
+        if (count == 0) {
+          toVisit.add(dep);
+        }
+      }
+    }
+  }
+
+  private long getEstimatedDurationMillis(BuildRule rule) {
+    if (!ruleDurationHistory.isPresent()) {
+      return 1;
+    }
+    return ruleDurationHistory.get().getEstimatedDurationMillis(rule.getBuildTarget());
   }
 
-  private synchronized ListenableFuture<RuleKey> calculateRuleKey(
+  @VisibleForTesting
+  ListenableFuture<RuleKey> calculateRuleKey(
       final BuildRule rule,
       final BuildContext context) {
-    ListenableFuture<RuleKey> ruleKey = ruleKeys.get(rule.getBuildTarget());
-    if (ruleKey == null) {
+    ListenableFuture<RuleKey> existingRuleKey = ruleKeys.get(rule.getBuildTarget());
+    if (existingRuleKey != null) {
+      return existingRuleKey;
+    }
 
-      // Grab all the dependency rule key futures.  Since our rule key calculation depends on this
-      // one, we need to wait for them to complete.
-      ListenableFuture<List<RuleKey>> depKeys =
-          Futures.transformAsync(
-              ruleDeps.get(rule),
-              new AsyncFunction<ImmutableSortedSet<BuildRule>, List<RuleKey>>() {
-                @Override
-                public ListenableFuture<List<RuleKey>> apply(ImmutableSortedSet<BuildRule> deps) {
-                  List<ListenableFuture<RuleKey>> depKeys =
-                      Lists.newArrayListWithExpectedSize(rule.getDeps().size());
-                  for (BuildRule dep : deps) {
-                    depKeys.add(calculateRuleKey(dep, context));
-                  }
-                  return Futures.allAsList(depKeys);
+    // Claim the rule key with a placeholder future, so that racing callers share our calculation
+    // and rule keys of independent rules can be set up concurrently.
+    SettableFuture<RuleKey> ruleKey = SettableFuture.create();
+    existingRuleKey = ruleKeys.putIfAbsent(rule.getBuildTarget(), ruleKey);
+    if (existingRuleKey != null) {
+      return existingRuleKey;
+    }
+
+    try {
+      ruleKey.setFuture(createRuleKey(rule, context));
+    } catch (RuntimeException e) {
+      ruleKey.setException(e);
+      throw e;
+    }
+    return ruleKey;
+  }
+
+  private ListenableFuture<RuleKey> createRuleKey(
+      final BuildRule rule,
+      final BuildContext context) {
+
+    // Grab all the dependency rule key futures.  Since our rule key calculation depends on this
+    // one, we need to wait for them to complete.
+    ListenableFuture<List<RuleKey>> depKeys =
+        Futures.transformAsync(
+            ruleDeps.get(rule),
+            new AsyncFunction<ImmutableSortedSet<BuildRule>, List<RuleKey>>() {
+              @Override
+              public ListenableFuture<List<RuleKey>> apply(ImmutableSortedSet<BuildRule> deps) {
+                List<ListenableFuture<RuleKey>> depKeys =
+                    Lists.newArrayListWithExpectedSize(rule.getDeps().size());
+                for (BuildRule dep : deps) {
+                  depKeys.add(calculateRuleKey(dep, context));
                 }
-              },
-              service);
-
-      final RuleKeyFactories keyFactories =
-          ruleKeyFactories.getUnchecked(rule.getProjectFilesystem());
-
-      // Setup a future to calculate this rule key once the dependencies have been calculated.
-      ruleKey = Futures.transform(
-          depKeys,
-          new Function<List<RuleKey>, RuleKey>() {
-            @Override
-            public RuleKey apply(List<RuleKey> input) {
-              try (BuildRuleEvent.Scope scope =
-                       BuildRuleEvent.startSuspendScope(
-                           context.getEventBus(),
-                           rule,
-                           keyFactories.defaultRuleKeyBuilderFactory)) {
-                return keyFactories.defaultRuleKeyBuilderFactory.build(rule);
+                return Futures.allAsList(depKeys);
               }
-            }
-          },
-          service);
+            },
+            service);
 
-      // Record the rule key future.
-      ruleKeys.put(rule.getBuildTarget(), ruleKey);
-    }
+    final RuleKeyFactories keyFactories =
+        ruleKeyFactories.getUnchecked(rule.getProjectFilesystem());
 
-    return ruleKey;
+    // Setup a future to calculate this rule key once the dependencies have been calculated.
+    return Futures.transform(
+        depKeys,
+        new Function<List<RuleKey>, RuleKey>() {
+          @Override
+          public RuleKey apply(List<RuleKey> input) {
+            try (BuildRuleEvent.Scope scope =
+                     BuildRuleEvent.startSuspendScope(
+                         context.getEventBus(),
+                         rule,
+                         keyFactories.defaultRuleKeyBuilderFactory)) {
+              return keyFactories.defaultRuleKeyBuilderFactory.build(rule);
+            }
+          }
+        },
+        service);
   }
 
   @Override
@@ -1111,111 +1431,122 @@ public class CachingBuildEngine implements BuildEngine {
       return CacheResult.ignored();
     }
 
-    // Create a temp file whose extension must be ".zip" for Filesystems.newFileSystem() to infer
-    // that we are creating a zip-based FileSystem.
-    final LazyPath lazyZipPath = new LazyPath() {
-      @Override
-      protected Path create() throws IOException {
-        return Files.createTempFile(
-            "buck_artifact_" + MoreFiles.sanitize(rule.getBuildTarget().getShortName()),
-            ".zip");
-      }
-    };
+    if (knownCacheMisses.remove(ruleKey)) {
+      LOG.debug("Cache miss for '%s' with rulekey '%s' found by prefetch", rule, ruleKey);
+      return CacheResult.miss();
+    }
 
-    // TODO(bolinfest): Change ArtifactCache.fetch() so that it returns a File instead of takes one.
-    // Then we could download directly from the remote cache into the on-disk cache and unzip it
-    // from there.
-    CacheResult cacheResult =
-        fetchArtifactForBuildable(ruleKey, lazyZipPath, artifactCache, buildInfoRecorder);
+    // The artifact is unzipped as it is downloaded, rather than being written to a temporary zip
+    // file first.  Caches only verify an artifact once it has been read to the end, so it is
+    // unpacked into a staging directory, and only moved into the project once the fetch succeeds.
+    final AtomicReference<Unzip.StagedZip> stagedArtifact = new AtomicReference<>();
+    final AtomicReference<IOException> unzipFailure = new AtomicReference<>();
+    CacheResult cacheResult = buildInfoRecorder.fetchArtifactForBuildable(
+        ruleKey,
+        new ArtifactStreamConsumer() {
+          @Override
+          public void consume(InputStream artifact) throws IOException {
+            // A cache that failed to deliver the artifact may be followed by one that delivers it.
+            deleteStagedArtifact(stagedArtifact.getAndSet(null));
+            unzipFailure.set(null);
+
+            ArtifactCompressionEvent.Started started = ArtifactCompressionEvent.started(
+                ArtifactCompressionEvent.Operation.DECOMPRESS,
+                ImmutableSet.of(ruleKey));
+            buildContext.getEventBus().post(started);
+            try {
+              // Only one fetch of a rule key is in flight at a time, so the rule key makes the
+              // staging directory unique.  Clear out anything left behind by an earlier Buck.
+              Path stagingDir = filesystem.getBuckPaths().getTmpDir().resolve(
+                  "buck_artifact_" + MoreFiles.sanitize(rule.getBuildTarget().getShortName()) +
+                      "_" + ruleKey);
+              filesystem.deleteRecursivelyIfExists(stagingDir);
+              filesystem.mkdirs(stagingDir);
+              stagedArtifact.set(Unzip.stageZipStream(artifact, filesystem, stagingDir));
+            } catch (IOException e) {
+              unzipFailure.set(e);
+              throw e;
+            } finally {
+              buildContext.getEventBus().post(ArtifactCompressionEvent.finished(started));
+            }
+          }
+        },
+        artifactCache);
+
+    if (cacheResult.getType().isSuccess() && stagedArtifact.get() != null) {
+      try {
+        stagedArtifact.get().moveIntoPlace(
+            Unzip.ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES);
+      } catch (IOException e) {
+        unzipFailure.set(e);
+      }
+    }
+    // Drop anything left in the staging directory: either the fetch failed, so the artifact may be
+    // corrupt, or it was only partly moved into place.
+    deleteStagedArtifact(stagedArtifact.get());
 
-    return unzipArtifactFromCacheResult(
-                    rule,
-                    ruleKey,
-                    lazyZipPath,
-                    buildContext,
-                    filesystem,
-                    cacheResult);
-  }
+    if (unzipFailure.get() != null) {
+      // In the wild, we have seen some inexplicable failures during this step. For now, we try to
+      // give the user as much information as we can to debug the issue, but return CacheResult.MISS
+      // so that Buck will fall back on doing a local build.
+      buildContext.getEventBus().post(ConsoleEvent.warning(
+              "Failed to unzip the artifact for %s with rulekey %s.\n" +
+                  "The rule will be built locally, " +
+                  "but here is the stacktrace of the failed unzip call:\n%s",
+              rule.getBuildTarget(),
+              ruleKey,
+              Throwables.getStackTraceAsString(unzipFailure.get())));
+      return CacheResult.miss();
+    }
 
-  private CacheResult unzipArtifactFromCacheResult(
-      BuildRule rule,
-      RuleKey ruleKey,
-      LazyPath lazyZipPath,
-      BuildContext buildContext,
-      ProjectFilesystem filesystem,
-      CacheResult cacheResult) {
     if (!cacheResult.getType().isSuccess()) {
       LOG.debug("Cache miss for '%s' with rulekey '%s'", rule, ruleKey);
       return cacheResult;
     }
     LOG.debug("Fetched '%s' from cache with rulekey '%s'", rule, ruleKey);
 
-    // It should be fine to get the path straight away, since cache already did it's job.
-    Path zipPath = lazyZipPath.getUnchecked();
-
-    // We unzip the file in the root of the project directory.
-    // Ideally, the following would work:
-    //
-    // Path pathToZip = Paths.get(zipPath.getAbsolutePath());
-    // FileSystem fs = FileSystems.newFileSystem(pathToZip, /* loader */ null);
-    // Path root = Iterables.getOnlyElement(fs.getRootDirectories());
-    // MoreFiles.copyRecursively(root, projectRoot);
-    //
-    // Unfortunately, this does not appear to work, in practice, because MoreFiles fails when trying
-    // to resolve a Path for a zip entry against a file Path on disk.
-    ArtifactCompressionEvent.Started started = ArtifactCompressionEvent.started(
-        ArtifactCompressionEvent.Operation.DECOMPRESS,
-        ImmutableSet.of(ruleKey));
-    buildContext.getEventBus().post(started);
-    try {
-      Unzip.extractZipFile(
-          zipPath.toAbsolutePath(),
-          filesystem,
-          Unzip.ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES);
-
-      // We only delete the ZIP file when it has been unzipped successfully. Otherwise, we leave it
-      // around for debugging purposes.
-      Files.delete(zipPath);
-
-      if (cacheResult.getType() == CacheResultType.HIT) {
-
-        // If we have a hit, also write out the build metadata.
-        Path metadataDir =
-            BuildInfo.getPathToMetadataDirectory(
-                rule.getBuildTarget(),
-                rule.getProjectFilesystem());
+    if (cacheResult.getType() == CacheResultType.HIT) {
+      // If we have a hit, also write out the build metadata.
+      Path metadataDir =
+          BuildInfo.getPathToMetadataDirectory(
+              rule.getBuildTarget(),
+              rule.getProjectFilesystem());
+      try {
         for (Map.Entry<String, String> ent : cacheResult.getMetadata().entrySet()) {
           Path dest = metadataDir.resolve(ent.getKey());
           filesystem.createParentDirs(dest);
           filesystem.writeContentsToPath(ent.getValue(), dest);
         }
+      } catch (IOException e) {
+        buildContext.getEventBus().post(ConsoleEvent.warning(
+                "Failed to write the build metadata for %s from the cache.\n" +
+                    "The rule will be built locally:\n%s",
+                rule.getBuildTarget(),
+                Throwables.getStackTraceAsString(e)));
+        return CacheResult.miss();
       }
-
-    } catch (IOException e) {
-      // In the wild, we have seen some inexplicable failures during this step. For now, we try to
-      // give the user as much information as we can to debug the issue, but return CacheResult.MISS
-      // so that Buck will fall back on doing a local build.
-      buildContext.getEventBus().post(ConsoleEvent.warning(
-              "Failed to unzip the artifact for %s at %s.\n" +
-                  "The rule will be built locally, " +
-                  "but here is the stacktrace of the failed unzip call:\n" +
-                  rule.getBuildTarget(),
-              zipPath.toAbsolutePath(),
-              Throwables.getStackTraceAsString(e)));
-      return CacheResult.miss();
-    } finally {
-      buildContext.getEventBus().post(ArtifactCompressionEvent.finished(started));
     }
 
     return cacheResult;
   }
 
+  private static void deleteStagedArtifact(@Nullable Unzip.StagedZip stagedArtifact) {
+    if (stagedArtifact == null) {
+      return;
+    }
+    try {
+      stagedArtifact.delete();
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to delete a staged cache artifact.");
+    }
+  }
+
   private CacheResult fetchArtifactForBuildable(
       final RuleKey ruleKey,
       final LazyPath lazyZipPath,
       final ArtifactCache artifactCache,
       final BuildInfoRecorder buildInfoRecorder
-  ) throws InterruptedException {
+  ) {
     return buildInfoRecorder.fetchArtifactForBuildable(ruleKey, lazyZipPath, artifactCache);
   }
 
@@ -1223,10 +1554,14 @@ public class CachingBuildEngine implements BuildEngine {
   /**
    * Execute the commands for this build rule. Requires all dependent rules are already built
    * successfully.
+   *
+   * @return a future which completes once the commands have finished, as steps which wait for a
+   *     process without holding a thread may still be running when this returns.
    */
-  private void executeCommandsNowThatDepsAreBuilt(
+  private ListenableFuture<Void> executeCommandsNowThatDepsAreBuilt(
       BuildRule rule,
       BuildContext context,
+      RuleKeyFactories ruleKeyFactory,
       BuildableContext buildableContext)
       throws InterruptedException, StepFailedException {
 
@@ -1235,19 +1570,64 @@ public class CachingBuildEngine implements BuildEngine {
     @SuppressWarnings("PMD.PrematureDeclaration")
     long start = System.nanoTime();
 
-    // Get and run all of the commands.
-    List<Step> steps = rule.getBuildSteps(context, buildableContext);
+    try (BuildRuleEvent.Scope scope = BuildRuleEvent.resumeSuspendScope(
+        context.getEventBus(),
+        rule,
+        ruleKeyFactory.defaultRuleKeyBuilderFactory)) {
+      // Get and run all of the commands.
+      List<Step> steps = rule.getBuildSteps(context, buildableContext);
+      return executeCommandsFrom(rule, context, ruleKeyFactory, steps, 0, start);
+    }
+  }
 
+  /**
+   * Runs the given steps, from the given index, on this thread until one of them is waiting for
+   * its work without a thread, and then the rest once it has finished.  The caller has resumed the
+   * rule's event scope.
+   */
+  private ListenableFuture<Void> executeCommandsFrom(
+      final BuildRule rule,
+      final BuildContext context,
+      final RuleKeyFactories ruleKeyFactory,
+      final List<Step> steps,
+      int index,
+      final long start)
+      throws InterruptedException, StepFailedException {
     StepRunner stepRunner = context.getStepRunner();
     Optional<BuildTarget> optionalTarget = Optional.of(rule.getBuildTarget());
-    for (Step step : steps) {
-      stepRunner.runStepForBuildTarget(step, optionalTarget);
+    for (int i = index; i < steps.size(); i++) {
+      ListenableFuture<Void> step =
+          stepRunner.startStepForBuildTarget(steps.get(i), optionalTarget, service.getDelegate());
 
       // Check for interruptions that may have been ignored by step.
       if (Thread.interrupted()) {
         Thread.currentThread().interrupt();
         throw new InterruptedException();
       }
+
+      if (!step.isDone()) {
+        final int next = i + 1;
+        return Futures.transformAsync(
+            step,
+            new AsyncFunction<Void, Void>() {
+              @Override
+              public ListenableFuture<Void> apply(Void input) throws Exception {
+                try (BuildRuleEvent.Scope scope = BuildRuleEvent.resumeSuspendScope(
+                    context.getEventBus(),
+                    rule,
+                    ruleKeyFactory.defaultRuleKeyBuilderFactory)) {
+                  return executeCommandsFrom(rule, context, ruleKeyFactory, steps, next, start);
+                }
+              }
+            },
+            service.getDelegate());
+      }
+      try {
+        step.get();
+      } catch (ExecutionException e) {
+        Throwables.propagateIfInstanceOf(e.getCause(), StepFailedException.class);
+        throw Throwables.propagate(e.getCause());
+      }
     }
 
     long end = System.nanoTime();
@@ -1255,6 +1635,7 @@ public class CachingBuildEngine implements BuildEngine {
         rule.getType(),
         rule.getFullyQualifiedName(),
         end - start);
+    return Futures.immediateFuture(null);
   }
 
   private void executePostBuildSteps(
@@ -1654,6 +2035,19 @@ public class CachingBuildEngine implements BuildEngine {
     return RuleScheduleInfo.DEFAULT;
   }
 
+  private ResourceAmounts getResourceAmounts(BuildRule rule) {
+    ResourceAmounts amounts = resourceAmountsPerRuleType.get(rule.getType());
+    if (amounts != null) {
+      return amounts;
+    }
+    RuleScheduleInfo ruleScheduleInfo = getRuleScheduleInfo(rule);
+    return ResourceAmounts.of(
+        DEFAULT_BUILD_WEIGHT * ruleScheduleInfo.getJobsMultiplier(),
+        ruleScheduleInfo.getMemory(),
+        ruleScheduleInfo.getDiskIO(),
+        ruleScheduleInfo.getNetworkIO());
+  }
+
   /**
    * The mode in which to build rules.
    */
@@ -1671,6 +2065,11 @@ public class CachingBuildEngine implements BuildEngine {
     // the top-level build targets from the remote cache, without building missing or changed
     // dependencies locally.
     POPULATE_FROM_REMOTE_CACHE,
+
+    // Perform a shallow build, but when a rule misses in the cache, speculatively look up all of
+    // its transitive dependencies in the cache with a single request, so that finding the cached
+    // subtrees of the build does not take a round trip to the cache for each level of the graph.
+    SPECULATIVE,
   }
 
   /**
@@ -1683,6 +2082,11 @@ public class CachingBuildEngine implements BuildEngine {
 
     // Schedule dependencies in random order.
     RANDOM,
+
+    // Schedule dependencies, and build rules, in order of how long it's expected to take to build
+    // them and everything waiting on them, based on how long rules took in previous builds, so that
+    // the longest chains of rules start first.
+    CRITICAL_PATH,
   }
 
   /**
@@ -542,6 +542,7 @@ public class KnownBuildRuleTypes {
             proGuardConfig,
             ndkCxxPlatforms,
             dxExecutorService,
+            androidConfig.shouldDexInProcess(),
             cxxBuckConfig));
     builder.register(new AndroidBuildConfigDescription(defaultJavacOptions));
     builder.register(
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.log.Logger;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Durations by name, such as a build target's fully qualified name, kept in a JSON file across
+ * runs of buck. Names which haven't been used for {@link #MAX_UNUSED_RUNS} runs, such as those of
+ * targets which no longer exist, are forgotten, so the file doesn't grow without bound.
+ * <p>
+ * Not thread safe: callers synchronize access.
+ */
+class PersistedDurations {
+
+  private static final Logger LOG = Logger.get(PersistedDurations.class);
+
+  @VisibleForTesting
+  static final int MAX_UNUSED_RUNS = 20;
+
+  private static final String RUN = "run";
+  private static final String DURATIONS = "durations";
+  private static final String LAST_USED_RUNS = "lastUsedRuns";
+
+  private final Path storageFile;
+  private final ObjectMapper objectMapper;
+
+  // The durations, and the last run in which each name was used.
+  private final Map<String, Long> durations;
+  private final Map<String, Long> lastUsedRuns;
+  private final long run;
+  private long totalDurationMillis;
+
+  private PersistedDurations(
+      Path storageFile,
+      ObjectMapper objectMapper,
+      Map<String, Long> durations,
+      Map<String, Long> lastUsedRuns,
+      long run) {
+    this.storageFile = storageFile;
+    this.objectMapper = objectMapper;
+    this.durations = durations;
+    this.lastUsedRuns = lastUsedRuns;
+    this.run = run;
+    for (long duration : durations.values()) {
+      totalDurationMillis += duration;
+    }
+  }
+
+  /**
+   * Reads the durations saved by previous runs, if any, from the given file.
+   */
+  public static PersistedDurations load(Path storageFile, ObjectMapper objectMapper) {
+    Map<String, Long> durations = null;
+    Map<String, Long> lastUsedRuns = null;
+    long lastRun = 0;
+    if (Files.exists(storageFile)) {
+      try {
+        JsonNode stored = objectMapper.readTree(Files.readAllBytes(storageFile));
+        TypeReference<HashMap<String, Long>> mapType =
+            new TypeReference<HashMap<String, Long>>() {};
+        durations = objectMapper.convertValue(stored.get(DURATIONS), mapType);
+        lastUsedRuns = objectMapper.convertValue(stored.get(LAST_USED_RUNS), mapType);
+        lastRun = stored.path(RUN).asLong();
+      } catch (IOException | IllegalArgumentException e) {
+        LOG.warn("Unable to load durations from %s: %s", storageFile, e.getMessage());
+        durations = null;
+      }
+    }
+    if (durations == null || lastUsedRuns == null) {
+      durations = new HashMap<>();
+      lastUsedRuns = new HashMap<>();
+    }
+    return new PersistedDurations(storageFile, objectMapper, durations, lastUsedRuns, lastRun + 1);
+  }
+
+  public Optional<Long> get(String name) {
+    return Optional.fromNullable(durations.get(name));
+  }
+
+  public ImmutableMap<String, Long> getAll() {
+    return ImmutableMap.copyOf(durations);
+  }
+
+  public boolean isEmpty() {
+    return durations.isEmpty();
+  }
+
+  /**
+   * @return the average of all the durations, which must not be empty.
+   */
+  public long getAverageDurationMillis() {
+    return totalDurationMillis / durations.size();
+  }
+
+  /**
+   * Records the duration for the given name, which also counts as using it.
+   */
+  public void put(String name, long durationMillis) {
+    markUsed(name);
+    Long previous = durations.put(name, durationMillis);
+    totalDurationMillis += durationMillis - (previous == null ? 0 : previous);
+  }
+
+  /**
+   * Keeps the duration for the given name, if there is one, for another
+   * {@link #MAX_UNUSED_RUNS} runs.
+   */
+  public void markUsed(String name) {
+    lastUsedRuns.put(name, run);
+  }
+
+  /**
+   * Writes the durations, less those which haven't been used for {@link #MAX_UNUSED_RUNS} runs, to
+   * the storage file.
+   */
+  public void save() {
+    Iterator<Map.Entry<String, Long>> iterator = durations.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<String, Long> entry = iterator.next();
+      Long lastUsedRun = lastUsedRuns.get(entry.getKey());
+      if (lastUsedRun == null || run - lastUsedRun >= MAX_UNUSED_RUNS) {
+        iterator.remove();
+        totalDurationMillis -= entry.getValue();
+      }
+    }
+    lastUsedRuns.keySet().retainAll(durations.keySet());
+
+    Path tempFile = null;
+    try {
+      Files.createDirectories(storageFile.getParent());
+      // Write the whole file next to the old one and then swap it in, so that buck being killed
+      // part way through saving leaves the previous durations behind rather than half of the new
+      // ones.
+      tempFile = Files.createTempFile(
+          storageFile.getParent(),
+          storageFile.getFileName().toString(),
+          ".tmp");
+      objectMapper.writeValue(
+          tempFile.toFile(),
+          ImmutableMap.<String, Object>of(
+              RUN, run,
+              DURATIONS, durations,
+              LAST_USED_RUNS, lastUsedRuns));
+      Files.move(
+          tempFile,
+          storageFile,
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      LOG.warn("Unable to save durations to %s: %s", storageFile, e.getMessage());
+      if (tempFile != null) {
+        try {
+          Files.deleteIfExists(tempFile);
+        } catch (IOException deleteException) {
+          LOG.warn(deleteException, "Unable to delete %s", tempFile);
+        }
+      }
+    }
+  }
+
+}
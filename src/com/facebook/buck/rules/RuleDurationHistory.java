@@ -0,0 +1,159 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.model.BuildTarget;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Optional;
+import com.google.common.eventbus.Subscribe;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers how long each rule took to build locally, across builds, so that the build engine can
+ * estimate which chains of rules will take longest and start them first.
+ * <p>
+ * Register an instance on the event bus: it times rules from their {@link BuildRuleEvent}s and
+ * writes the durations back to its storage file when the build finishes. Rules which haven't been
+ * part of a build for {@link PersistedDurations#MAX_UNUSED_RUNS} builds, such as those which no
+ * longer exist, are forgotten.
+ */
+public class RuleDurationHistory {
+
+  public static final String RULE_DURATIONS_JSON = ".ruledurations.json";
+
+  /**
+   * The duration assumed for rules when there's no history at all, so that the longest chains are
+   * the ones with the most rules.
+   */
+  private static final long DEFAULT_DURATION_MILLIS = 1;
+
+  // Durations by fully qualified build target name.
+  private final PersistedDurations durations;
+
+  // The time each running rule was last started or resumed, and how long it has run before that.
+  // Resume and suspend events may nest, so only the outermost ones start and stop the clock.
+  private final Map<BuildTarget, Long> runningSince = new HashMap<>();
+  private final Map<BuildTarget, Integer> openScopes = new HashMap<>();
+  private final Map<BuildTarget, Long> elapsed = new HashMap<>();
+
+  private RuleDurationHistory(PersistedDurations durations) {
+    this.durations = durations;
+  }
+
+  /**
+   * Reads the durations recorded by previous builds, if any, from the given file.
+   */
+  public static RuleDurationHistory load(Path storageFile, ObjectMapper objectMapper) {
+    return new RuleDurationHistory(PersistedDurations.load(storageFile, objectMapper));
+  }
+
+  /**
+   * @return how long the rule took the last time it was built locally, if it ever was.
+   */
+  public synchronized Optional<Long> getDurationMillis(BuildTarget target) {
+    return durations.get(target.getFullyQualifiedName());
+  }
+
+  /**
+   * @return how long the rule is expected to take to build locally, which for rules that have never
+   *     been built is the average duration of those that have.
+   */
+  public synchronized long getEstimatedDurationMillis(BuildTarget target) {
+    Optional<Long> duration = durations.get(target.getFullyQualifiedName());
+    if (duration.isPresent()) {
+      return duration.get();
+    }
+    if (durations.isEmpty()) {
+      return DEFAULT_DURATION_MILLIS;
+    }
+    return Math.max(DEFAULT_DURATION_MILLIS, durations.getAverageDurationMillis());
+  }
+
+  /**
+   * Writes the durations recorded so far to the storage file.
+   */
+  public synchronized void save() {
+    durations.save();
+  }
+
+  @Subscribe
+  public synchronized void ruleStarted(BuildRuleEvent.Started event) {
+    // Every rule in the build starts, whether or not it's then built locally, so the history of
+    // those which exist is kept.
+    durations.markUsed(event.getBuildRule().getBuildTarget().getFullyQualifiedName());
+    startRunning(event);
+  }
+
+  @Subscribe
+  public synchronized void ruleResumed(BuildRuleEvent.Resumed event) {
+    startRunning(event);
+  }
+
+  @Subscribe
+  public synchronized void ruleSuspended(BuildRuleEvent.Suspended event) {
+    BuildTarget target = event.getBuildRule().getBuildTarget();
+    Integer scopes = openScopes.get(target);
+    if (scopes == null) {
+      return;
+    }
+    if (scopes > 1) {
+      openScopes.put(target, scopes - 1);
+      return;
+    }
+    openScopes.remove(target);
+    long since = runningSince.remove(target);
+    Long before = elapsed.get(target);
+    elapsed.put(target, (before == null ? 0 : before) + event.getTimestamp() - since);
+  }
+
+  private void startRunning(BuildRuleEvent event) {
+    BuildTarget target = event.getBuildRule().getBuildTarget();
+    Integer scopes = openScopes.get(target);
+    if (scopes == null) {
+      openScopes.put(target, 1);
+      runningSince.put(target, event.getTimestamp());
+    } else {
+      openScopes.put(target, scopes + 1);
+    }
+  }
+
+  @Subscribe
+  public synchronized void ruleFinished(BuildRuleEvent.Finished event) {
+    BuildTarget target = event.getBuildRule().getBuildTarget();
+    openScopes.remove(target);
+    runningSince.remove(target);
+    Long duration = elapsed.remove(target);
+
+    // Only local builds say how long a rule takes to build: fetching from the cache or finding
+    // the rule unchanged doesn't.
+    if (duration != null &&
+        event.getStatus() == BuildRuleStatus.SUCCESS &&
+        event.getSuccessType().equals(Optional.of(BuildRuleSuccessType.BUILT_LOCALLY))) {
+      durations.put(target.getFullyQualifiedName(), duration);
+    }
+  }
+
+  @SuppressWarnings("unused")
+  @Subscribe
+  public void buildFinished(BuildEvent.Finished event) {
+    save();
+  }
+
+}
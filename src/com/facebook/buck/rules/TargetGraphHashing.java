@@ -26,17 +26,28 @@ import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.util.HumanReadableException;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Utility class to calculate hash codes for build targets in a {@link TargetGraph}.
@@ -58,49 +69,137 @@ public class TargetGraphHashing {
    */
   public static ImmutableMap<BuildTarget, HashCode> hashTargetGraph(
       Cell rootCell,
-      final TargetGraph targetGraph,
+      TargetGraph targetGraph,
       FileHashLoader fileHashLoader,
       Iterable<TargetNode<?>> roots) throws IOException {
     try {
-      Map<BuildTarget, HashCode> buildTargetHashes = new HashMap<>();
-      AcyclicDepthFirstPostOrderTraversal<TargetNode<?>> traversal =
-          new AcyclicDepthFirstPostOrderTraversal<>(
-              new GraphTraversable<TargetNode<?>>() {
-                @Override
-                public Iterator<TargetNode<?>> findChildren(TargetNode<?> node) {
-                  return targetGraph.getAll(node.getDeps()).iterator();
-                }
-              });
-      for (TargetNode<?> node : traversal.traverse(roots)) {
-        if (buildTargetHashes.containsKey(node.getBuildTarget())) {
+      return hashTargetGraph(
+          rootCell,
+          targetGraph,
+          fileHashLoader,
+          roots,
+          MoreExecutors.newDirectExecutorService(),
+          Optional.<TargetNodeHashCache>absent());
+    } catch (InterruptedException e) {
+      // Hashing on the calling thread never waits.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Like {@link #hashTargetGraph(Cell, TargetGraph, FileHashLoader, Iterable)}, but hashes nodes
+   * whose deps have all been hashed in parallel on {@code executor}. Hashes are reused from
+   * {@code nodeHashCache} where they are still valid, and any newly computed hashes of nodes in
+   * the root cell are added to it.
+   */
+  public static ImmutableMap<BuildTarget, HashCode> hashTargetGraph(
+      final Cell rootCell,
+      final TargetGraph targetGraph,
+      final FileHashLoader fileHashLoader,
+      Iterable<TargetNode<?>> roots,
+      ListeningExecutorService executor,
+      final Optional<TargetNodeHashCache> nodeHashCache)
+      throws IOException, InterruptedException {
+    AcyclicDepthFirstPostOrderTraversal<TargetNode<?>> traversal =
+        new AcyclicDepthFirstPostOrderTraversal<>(
+            new GraphTraversable<TargetNode<?>>() {
+              @Override
+              public Iterator<TargetNode<?>> findChildren(TargetNode<?> node) {
+                return targetGraph.getAll(node.getDeps()).iterator();
+              }
+            });
+
+    // The traversal visits the deps of each node before the node itself, so the futures of the
+    // deps always exist by the time the future of a node is created.
+    Map<BuildTarget, ListenableFuture<HashCode>> futures = new LinkedHashMap<>();
+    try {
+      for (final TargetNode<?> node : traversal.traverse(roots)) {
+        if (futures.containsKey(node.getBuildTarget())) {
           LOG.verbose("Already hashed node %s, not hashing again.", node);
           continue;
         }
-        Hasher hasher = Hashing.sha1().newHasher();
-        try {
-          hashNode(rootCell, fileHashLoader, hasher, buildTargetHashes, node);
-        } catch (IOException e) {
-          throw new HumanReadableException(
-              e,
-              "Exception while attempting to hash %s: %s",
-              node.getBuildTarget().getFullyQualifiedName(),
-              e.getMessage());
+        List<ListenableFuture<HashCode>> depFutures = new ArrayList<>();
+        for (BuildTarget dependency : node.getDeps()) {
+          depFutures.add(Preconditions.checkNotNull(futures.get(dependency)));
         }
-        HashCode result = hasher.hash();
-        LOG.debug("Hash for target %s: %s", node.getBuildTarget(), result);
-        buildTargetHashes.put(node.getBuildTarget(), result);
+        futures.put(
+            node.getBuildTarget(),
+            Futures.transform(
+                Futures.allAsList(depFutures),
+                new Function<List<HashCode>, HashCode>() {
+                  @Override
+                  public HashCode apply(List<HashCode> depHashes) {
+                    return hashNode(
+                        rootCell,
+                        fileHashLoader,
+                        nodeHashCache,
+                        node,
+                        ImmutableList.copyOf(depHashes));
+                  }
+                },
+                executor));
       }
-      return ImmutableMap.copyOf(buildTargetHashes);
     } catch (CycleException e) {
       throw new RuntimeException(e);
     }
+
+    ImmutableMap.Builder<BuildTarget, HashCode> buildTargetHashes = ImmutableMap.builder();
+    try {
+      for (Map.Entry<BuildTarget, ListenableFuture<HashCode>> entry : futures.entrySet()) {
+        buildTargetHashes.put(entry.getKey(), entry.getValue().get());
+      }
+    } catch (ExecutionException e) {
+      Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+      throw Throwables.propagate(e.getCause());
+    } finally {
+      for (ListenableFuture<HashCode> future : futures.values()) {
+        future.cancel(/* mayInterruptIfRunning */ true);
+      }
+    }
+    return buildTargetHashes.build();
   }
 
-  private static void hashNode(
+  private static HashCode hashNode(
       Cell rootCell,
       FileHashLoader fileHashLoader,
+      Optional<TargetNodeHashCache> nodeHashCache,
+      TargetNode<?> node,
+      ImmutableList<HashCode> depHashes) {
+    Cell cell = rootCell.getCell(node.getBuildTarget());
+    boolean isCacheable =
+        nodeHashCache.isPresent() &&
+        cell.getFilesystem().getRootPath().equals(rootCell.getFilesystem().getRootPath());
+    if (isCacheable) {
+      Optional<HashCode> cachedHash = nodeHashCache.get().get(node, depHashes);
+      if (cachedHash.isPresent()) {
+        LOG.verbose("Reusing hash for target %s: %s", node.getBuildTarget(), cachedHash.get());
+        return cachedHash.get();
+      }
+    }
+
+    Hasher hasher = Hashing.sha1().newHasher();
+    try {
+      hashNode(cell, fileHashLoader, hasher, depHashes, node);
+    } catch (IOException e) {
+      throw new HumanReadableException(
+          e,
+          "Exception while attempting to hash %s: %s",
+          node.getBuildTarget().getFullyQualifiedName(),
+          e.getMessage());
+    }
+    HashCode result = hasher.hash();
+    LOG.debug("Hash for target %s: %s", node.getBuildTarget(), result);
+    if (isCacheable) {
+      nodeHashCache.get().put(node, depHashes, result);
+    }
+    return result;
+  }
+
+  private static void hashNode(
+      Cell cell,
+      FileHashLoader fileHashLoader,
       Hasher hasher,
-      Map<BuildTarget, HashCode> buildTargetHashes,
+      ImmutableList<HashCode> depHashes,
       TargetNode<?> node) throws IOException {
     LOG.verbose("Hashing node %s", node);
     // Hash the node's build target and rules.
@@ -109,7 +208,7 @@ public class TargetGraphHashing {
     LOG.verbose("Got rules hash %s", targetRuleHashCode);
     hasher.putBytes(targetRuleHashCode.asBytes());
 
-    ProjectFilesystem cellFilesystem = rootCell.getCell(node.getBuildTarget()).getFilesystem();
+    ProjectFilesystem cellFilesystem = cell.getFilesystem();
 
     // Hash the contents of all input files and directories.
     PathHashing.hashPaths(
@@ -118,11 +217,11 @@ public class TargetGraphHashing {
         cellFilesystem,
         ImmutableSortedSet.copyOf(node.getInputs()));
 
-    // We've already visited the dependencies (this is a depth-first traversal), so
-    // hash each dependency's build target and that build target's own hash.
+    // The dependencies have already been hashed, in the order of node.getDeps(), so hash each
+    // dependency's build target and that build target's own hash.
+    int i = 0;
     for (BuildTarget dependency : node.getDeps()) {
-      HashCode dependencyHashCode = buildTargetHashes.get(dependency);
-      Preconditions.checkState(dependencyHashCode != null);
+      HashCode dependencyHashCode = depHashes.get(i++);
       LOG.verbose("Node %s: adding dependency %s (%s)", node, dependency, dependencyHashCode);
       StringHashing.hashStringAndLength(hasher, dependency.toString());
       hasher.putBytes(dependencyHashCode.asBytes());
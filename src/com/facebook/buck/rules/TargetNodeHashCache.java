@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.io.WatchEvents;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuildTarget;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.hash.HashCode;
+
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Memoizes the hashes computed by {@link TargetGraphHashing} between commands run by the daemon.
+ * <p>
+ * A node's hash is made of its raw inputs, the contents of its input files and the hashes of its
+ * deps. A memoized hash is reused only while the node's raw inputs and the hashes of its deps are
+ * unchanged, and until one of the node's input files changes on disk. So a changed node
+ * invalidates all of its ancestors, but nothing else.
+ * <p>
+ * Hashes must only be stored here if they were computed with the contents of the input files of
+ * the root cell, as only changes to files in the root cell are observed.
+ */
+public class TargetNodeHashCache {
+  private static final Logger LOG = Logger.get(TargetNodeHashCache.class);
+
+  private final ConcurrentMap<BuildTarget, Entry> entries = new ConcurrentHashMap<>();
+
+  // The targets which have an input at each path, relative to the root cell.
+  private final ConcurrentMap<Path, Set<BuildTarget>> targetsByInput = new ConcurrentHashMap<>();
+
+  public Optional<HashCode> get(TargetNode<?> node, ImmutableList<HashCode> depHashes) {
+    Entry entry = entries.get(node.getBuildTarget());
+    if (entry == null ||
+        !entry.rawInputsHashCode.equals(node.getRawInputsHashCode()) ||
+        !entry.depHashes.equals(depHashes)) {
+      return Optional.absent();
+    }
+    return Optional.of(entry.hashCode);
+  }
+
+  public void put(TargetNode<?> node, ImmutableList<HashCode> depHashes, HashCode hashCode) {
+    for (Path input : node.getInputs()) {
+      Set<BuildTarget> targets = targetsByInput.get(input);
+      if (targets == null) {
+        Set<BuildTarget> newTargets = Sets.newConcurrentHashSet();
+        targets = targetsByInput.putIfAbsent(input, newTargets);
+        if (targets == null) {
+          targets = newTargets;
+        }
+      }
+      targets.add(node.getBuildTarget());
+    }
+    entries.put(
+        node.getBuildTarget(),
+        new Entry(node.getRawInputsHashCode(), depHashes, hashCode));
+  }
+
+  /**
+   * Called when file change events are posted to the file change EventBus. Invalidates the
+   * targets with the changed path, or one of its parent directories, as an input. The ancestors of
+   * those targets are invalidated once they see the new hashes of their deps.
+   */
+  @Subscribe
+  public void invalidateBasedOn(WatchEvent<?> event) {
+    if (!WatchEvents.isPathChangeEvent(event)) {
+      // Non-path change event, likely an overflow due to many change events: invalidate everything.
+      LOG.debug("Invalidating all");
+      entries.clear();
+      targetsByInput.clear();
+      return;
+    }
+
+    for (Path path = ((Path) event.context()).normalize(); path != null; path = path.getParent()) {
+      Set<BuildTarget> targets = targetsByInput.remove(path);
+      if (targets != null) {
+        LOG.verbose("Invalidating %s as %s changed", targets, event.context());
+        entries.keySet().removeAll(targets);
+      }
+    }
+  }
+
+  private static class Entry {
+    private final HashCode rawInputsHashCode;
+    private final ImmutableList<HashCode> depHashes;
+    private final HashCode hashCode;
+
+    public Entry(
+        HashCode rawInputsHashCode,
+        ImmutableList<HashCode> depHashes,
+        HashCode hashCode) {
+      this.rawInputsHashCode = rawInputsHashCode;
+      this.depHashes = depHashes;
+      this.hashCode = hashCode;
+    }
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.test.TestCaseSummary;
+import com.facebook.buck.test.TestResults;
+import com.facebook.buck.test.TestRuleEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.eventbus.Subscribe;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers how long test rules, and each of their test cases, took to run, across test runs, so
+ * that the longest running tests can be started first and split between JVMs.
+ * <p>
+ * Register an instance on the event bus: it times each test rule's run from its
+ * {@link TestRuleEvent}s, records the test cases' durations from the results of each test run, and
+ * writes them back to the storage files once the run finishes.
+ */
+public class TestDurationHistory {
+
+  public static final String TEST_DURATIONS_JSON = ".testdurations.json";
+  public static final String TEST_CASE_DURATIONS_JSON = ".testcasedurations.json";
+
+  // Durations by fully qualified build target name, and by test case name.
+  private final PersistedDurations ruleDurations;
+  private final PersistedDurations testCaseDurations;
+
+  // When each running test rule started, and how long each test rule that has finished ran for.
+  private final Map<BuildTarget, Long> runningSince = new HashMap<>();
+  private final Map<BuildTarget, Long> wallTimes = new HashMap<>();
+
+  private boolean isUsingTestSelectors = false;
+
+  private TestDurationHistory(
+      PersistedDurations ruleDurations,
+      PersistedDurations testCaseDurations) {
+    this.ruleDurations = ruleDurations;
+    this.testCaseDurations = testCaseDurations;
+  }
+
+  /**
+   * Reads the durations recorded by previous test runs, if any, from the given files.
+   */
+  public static TestDurationHistory load(
+      Path ruleDurationsFile,
+      Path testCaseDurationsFile,
+      ObjectMapper objectMapper) {
+    return new TestDurationHistory(
+        PersistedDurations.load(ruleDurationsFile, objectMapper),
+        PersistedDurations.load(testCaseDurationsFile, objectMapper));
+  }
+
+  /**
+   * @return how long each test rule's tests took to run the last time they ran, by fully qualified
+   *     build target name.
+   */
+  public synchronized ImmutableMap<String, Long> getRuleDurations() {
+    return ruleDurations.getAll();
+  }
+
+  /**
+   * @return how long each test case took the last time it ran, by test case name.
+   */
+  public synchronized ImmutableMap<String, Long> getTestCaseDurations() {
+    return testCaseDurations.getAll();
+  }
+
+  /**
+   * Records how long the tests in the given results took, unless they didn't actually run.
+   * <p>
+   * A rule's duration is the wall time its tests took to run, rather than the sum of its test
+   * cases' durations, which is longer when the test cases run in parallel.
+   */
+  public synchronized void record(Iterable<TestResults> allResults) {
+    for (TestResults results : allResults) {
+      String target = results.getBuildTarget().getFullyQualifiedName();
+      boolean anyRan = false;
+      for (TestCaseSummary testCase : results.getTestCases()) {
+        if (testCase.isCached() || testCase.isDryRun()) {
+          testCaseDurations.markUsed(testCase.getTestCaseName());
+          continue;
+        }
+        anyRan = true;
+        testCaseDurations.put(testCase.getTestCaseName(), testCase.getTotalTime());
+      }
+      Long wallTime = wallTimes.get(results.getBuildTarget());
+      if (anyRan && wallTime != null) {
+        ruleDurations.put(target, wallTime);
+      } else {
+        ruleDurations.markUsed(target);
+      }
+    }
+  }
+
+  /**
+   * Writes the durations recorded so far to the storage files.
+   */
+  public synchronized void save() {
+    ruleDurations.save();
+    testCaseDurations.save();
+  }
+
+  @Subscribe
+  public synchronized void testRunStarted(TestRunEvent.Started event) {
+    isUsingTestSelectors = !event.getTestSelectorList().isEmpty();
+  }
+
+  @Subscribe
+  public synchronized void testRuleStarted(TestRuleEvent.Started event) {
+    runningSince.put(event.getBuildTarget(), event.getTimestamp());
+  }
+
+  @Subscribe
+  public synchronized void testRuleFinished(TestRuleEvent.Finished event) {
+    Long since = runningSince.remove(event.getBuildTarget());
+    if (since != null) {
+      wallTimes.put(event.getBuildTarget(), event.getTimestamp() - since);
+    }
+  }
+
+  @Subscribe
+  public void testRunFinished(TestRunEvent.Finished event) {
+    synchronized (this) {
+      // Only some of the tests ran, so the rules' durations would be too short.
+      if (isUsingTestSelectors) {
+        return;
+      }
+    }
+    record(event.getResults());
+    save();
+  }
+
+}
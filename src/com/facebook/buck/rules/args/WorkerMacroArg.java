@@ -89,4 +89,12 @@ public class WorkerMacroArg extends MacroArg {
   public String getJobArgs() {
     return jobArgs;
   }
+
+  public int getMaxWorkers() {
+    return workerTool.getMaxWorkers();
+  }
+
+  public boolean isPersistent() {
+    return workerTool.isPersistent();
+  }
 }
@@ -27,4 +27,15 @@ interface AbstractWorkerJobParams {
   ImmutableList<String> getStartupCommand();
   String getStartupArgs();
   String getJobArgs();
+
+  /**
+   * @return how many processes may be started to run jobs with this startup command at once, or a
+   *     number less than one for as many as there are build threads.
+   */
+  int getMaxWorkers();
+
+  /**
+   * @return whether the processes may be kept running between commands, when the daemon is.
+   */
+  boolean isPersistent();
 }
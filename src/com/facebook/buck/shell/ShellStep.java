@@ -22,9 +22,11 @@ import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.StepExecutionResult;
 import com.facebook.buck.util.Escaper;
+import com.facebook.buck.util.ListeningProcessExecutor;
 import com.facebook.buck.util.ProcessExecutor;
 import com.facebook.buck.util.ProcessExecutor.Option;
 import com.facebook.buck.util.ProcessExecutorParams;
+import com.facebook.buck.util.SimpleProcessListener;
 import com.facebook.buck.util.Verbosity;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
@@ -45,6 +47,7 @@ import java.lang.management.OperatingSystemMXBean;
 import java.nio.file.Path;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nullable;
 
@@ -158,17 +161,27 @@ public abstract class ShellStep implements Step {
   @VisibleForTesting
   int launchAndInteractWithProcess(ExecutionContext context, ProcessExecutorParams params)
       throws InterruptedException, IOException {
-    ImmutableSet.Builder<Option> options = ImmutableSet.builder();
-
-    addOptions(context, options);
-
-    ProcessExecutor executor = context.getProcessExecutor();
-    ProcessExecutor.Result result = executor.launchAndExecute(
-        params,
-        options.build(),
-        getStdin(context),
-        getTimeout(),
-        getTimeoutHandler(context));
+    ImmutableSet.Builder<Option> optionsBuilder = ImmutableSet.builder();
+
+    addOptions(context, optionsBuilder);
+
+    ImmutableSet<Option> options = optionsBuilder.build();
+    ProcessExecutor.Result result;
+    if (context.getListeningProcessExecutor().isPresent() &&
+        canUseListeningProcessExecutor(options)) {
+      result = launchAndWaitForListeningProcess(
+          context.getListeningProcessExecutor().get(),
+          params,
+          getStdin(context));
+    } else {
+      ProcessExecutor executor = context.getProcessExecutor();
+      result = executor.launchAndExecute(
+          params,
+          options,
+          getStdin(context),
+          getTimeout(),
+          getTimeoutHandler(context));
+    }
     stdout = result.getStdout();
     stderr = result.getStderr();
 
@@ -185,6 +198,50 @@ public abstract class ShellStep implements Step {
     return getExitCodeFromResult(context, result);
   }
 
+  /**
+   * Whether the process can be run by a {@link ListeningProcessExecutor}, which gives no
+   * {@link Process} for a timeout handler, only hands over output once the process exits, and
+   * doesn't implement any of the {@link Option}s. So steps which print their output as it arrives,
+   * or which override {@link #addOptions} to change how it's handled, keep using
+   * {@link ProcessExecutor}.
+   */
+  private boolean canUseListeningProcessExecutor(ImmutableSet<Option> options) {
+    return !getTimeout().isPresent() && options.equals(ImmutableSet.of(Option.IS_SILENT));
+  }
+
+  /**
+   * Like {@link ProcessExecutor}, the process is started through
+   * {@link com.facebook.buck.util.BgProcessKiller}, so it's still killed when the client exits.
+   * Only the threads reading its output are saved: {@link Step#execute} is synchronous, so the
+   * calling build thread still waits here until the process exits.
+   */
+  private static ProcessExecutor.Result launchAndWaitForListeningProcess(
+      ListeningProcessExecutor executor,
+      ProcessExecutorParams params,
+      Optional<String> stdin) throws InterruptedException, IOException {
+    SimpleProcessListener listener = stdin.isPresent() ?
+        new SimpleProcessListener(stdin.get()) :
+        new SimpleProcessListener();
+    ListeningProcessExecutor.LaunchedProcess process = executor.launchProcess(params, listener);
+    if (stdin.isPresent()) {
+      process.wantWrite();
+    }
+    int exitCode;
+    try {
+      exitCode = executor.waitForProcess(process, Long.MAX_VALUE, TimeUnit.SECONDS);
+    } finally {
+      // We were interrupted, so the build is being stopped.
+      if (process.isRunning()) {
+        executor.destroyProcess(process, /* force */ true);
+      }
+    }
+    return new ProcessExecutor.Result(
+        exitCode,
+        /* timedOut */ false,
+        Optional.of(listener.getStdout()),
+        Optional.of(listener.getStderr()));
+  }
+
   protected void addOptions(
       ExecutionContext context,
       ImmutableSet.Builder<Option> options) {
@@ -18,11 +18,14 @@ package com.facebook.buck.shell;
 
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.Pair;
 import com.facebook.buck.util.ProcessExecutor;
 import com.facebook.buck.util.ProcessExecutorParams;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonWriter;
 
@@ -33,6 +36,10 @@ import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nullable;
@@ -47,8 +54,17 @@ public class WorkerProcess {
   private final Path tmpPath;
   private final AtomicInteger currentMessageID = new AtomicInteger();
   private boolean handshakePerformed = false;
+  private ImmutableSet<String> capabilities = ImmutableSet.of();
   @Nullable
   private WorkerProcessProtocol protocol;
+
+  // For processes which run several jobs at once, one waiting thread at a time reads responses,
+  // handing over those for other jobs through receivedExitCodes.
+  private final Object responseLock = new Object();
+  private boolean readingResponse = false;
+  private final Map<Integer, Integer> receivedExitCodes = new HashMap<>();
+  // Jobs whose waiting threads were interrupted, whose responses are dropped when they arrive.
+  private final Set<Integer> abandonedMessageIDs = new HashSet<>();
   @Nullable
   private ProcessExecutor.LaunchedProcess launchedProcess;
 
@@ -85,24 +101,45 @@ public class WorkerProcess {
     LOG.debug("Sending handshake to process %d", this.hashCode());
     protocol.sendHandshake(messageID);
     LOG.debug("Receiving handshake from process %d", this.hashCode());
-    protocol.receiveHandshake(messageID);
+    capabilities = protocol.receiveHandshake(messageID);
     handshakePerformed = true;
   }
 
-  public synchronized WorkerJobResult submitAndWaitForJob(String jobArgs) throws IOException {
+  /**
+   * @return whether the process accepts further jobs while others are running, as announced in its
+   *     handshake.
+   */
+  public synchronized boolean supportsMultiplexedJobs() {
+    return capabilities.contains(WorkerProcessProtocolZero.CAPABILITY_MULTIPLEXED_JOBS);
+  }
+
+  public WorkerJobResult submitAndWaitForJob(String jobArgs)
+      throws IOException, InterruptedException {
+    if (!supportsMultiplexedJobs()) {
+      synchronized (this) {
+        int messageID = sendJob(jobArgs);
+        LOG.debug("Receiving response for job %d from process %d",
+            messageID,
+            this.hashCode());
+        return readJobResult(messageID, protocol.receiveCommandResponse(messageID));
+      }
+    }
+
+    int messageID;
+    synchronized (this) {
+      messageID = sendJob(jobArgs);
+    }
+    return readJobResult(messageID, waitForExitCode(messageID));
+  }
+
+  private int sendJob(String jobArgs) throws IOException {
     assert protocol != null :
         "Tried to submit a job to the worker process before the handshake was performed.";
 
     int messageID = currentMessageID.getAndAdd(1);
-    Path argsPath = Paths.get(
-        tmpPath.toString(),
-        String.format("%d.args", messageID));
-    Path stdoutPath = Paths.get(
-        tmpPath.toString(),
-        String.format("%d.out", messageID));
-    Path stderrPath = Paths.get(
-        tmpPath.toString(),
-        String.format("%d.err", messageID));
+    Path argsPath = getJobFilePath(messageID, "args");
+    Path stdoutPath = getJobFilePath(messageID, "out");
+    Path stderrPath = getJobFilePath(messageID, "err");
     filesystem.writeContentsToPath(jobArgs, argsPath);
 
     LOG.debug("Sending job %d to process %d \n" +
@@ -111,12 +148,72 @@ public class WorkerProcess {
         this.hashCode(),
         jobArgs);
     protocol.sendCommand(messageID, argsPath, stdoutPath, stderrPath);
-    LOG.debug("Receiving response for job %d from process %d",
+    return messageID;
+  }
+
+  /**
+   * Waits for the response to the given job, reading responses to any others running alongside it
+   * if no other thread is already doing so.
+   */
+  private int waitForExitCode(int messageID) throws IOException, InterruptedException {
+    synchronized (responseLock) {
+      try {
+        while (true) {
+          Integer exitCode = receivedExitCodes.remove(messageID);
+          if (exitCode != null) {
+            return exitCode;
+          }
+          if (!readingResponse) {
+            break;
+          }
+          responseLock.wait();
+        }
+      } catch (InterruptedException e) {
+        // Nobody will collect the response now, so have it dropped rather than kept for ever.
+        if (receivedExitCodes.remove(messageID) == null) {
+          abandonedMessageIDs.add(messageID);
+        }
+        throw e;
+      }
+      readingResponse = true;
+    }
+
+    assert protocol != null;
+    LOG.debug("Receiving responses for job %d and others from process %d",
         messageID,
         this.hashCode());
-    int exitCode = protocol.receiveCommandResponse(messageID);
+    try {
+      while (true) {
+        Pair<Integer, Integer> response = protocol.receiveNextCommandResponse();
+        if (response.getFirst() == messageID) {
+          return response.getSecond();
+        }
+        boolean abandoned;
+        synchronized (responseLock) {
+          abandoned = abandonedMessageIDs.remove(response.getFirst());
+          if (!abandoned) {
+            receivedExitCodes.put(response.getFirst(), response.getSecond());
+            responseLock.notifyAll();
+          }
+        }
+        if (abandoned) {
+          deleteJobFiles(response.getFirst());
+        }
+      }
+    } finally {
+      synchronized (responseLock) {
+        readingResponse = false;
+        responseLock.notifyAll();
+      }
+    }
+  }
+
+  private WorkerJobResult readJobResult(int messageID, int exitCode) throws IOException {
+    Path stdoutPath = getJobFilePath(messageID, "out");
+    Path stderrPath = getJobFilePath(messageID, "err");
     Optional<String> stdout = filesystem.readFileIfItExists(stdoutPath);
     Optional<String> stderr = filesystem.readFileIfItExists(stderrPath);
+    deleteJobFiles(messageID);
     LOG.debug("Job %d for process %d finished \n" +
         "  exit code: %d \n" +
         "  stdout: %s \n" +
@@ -130,6 +227,20 @@ public class WorkerProcess {
     return WorkerJobResult.of(exitCode, stdout, stderr);
   }
 
+  /**
+   * Deletes the files a job's arguments and output were passed in, so a long-lived process doesn't
+   * leave one set behind for every job it has run.
+   */
+  private void deleteJobFiles(int messageID) throws IOException {
+    for (String extension : ImmutableList.of("args", "out", "err")) {
+      filesystem.deleteFileAtPathIfExists(getJobFilePath(messageID, extension));
+    }
+  }
+
+  private Path getJobFilePath(int messageID, String extension) {
+    return Paths.get(tmpPath.toString(), String.format("%d.%s", messageID, extension));
+  }
+
   public void close() throws IOException {
     assert protocol != null :
         "Tried to close the worker process before the handshake was performed.";
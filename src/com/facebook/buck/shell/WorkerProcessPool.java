@@ -0,0 +1,175 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.shell;
+
+import com.facebook.buck.log.Logger;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * The processes started with one worker tool's startup command, which jobs for that tool are
+ * spread across.
+ * <p>
+ * Up to {@code maxWorkers} processes are started, as jobs need them. Jobs go to an idle process
+ * if there is one. Once the pool is full, jobs are sent to the least busy process which announced
+ * it can run several jobs at once, or wait for a process to become idle if none did.
+ */
+public abstract class WorkerProcessPool implements Closeable {
+
+  private static final Logger LOG = Logger.get(WorkerProcessPool.class);
+
+  private final int maxWorkers;
+  private final HashCode poolHash;
+
+  // The number of jobs each started process is running, in the order the processes were started.
+  private final Map<WorkerProcess, Integer> jobCounts = new LinkedHashMap<>();
+  private int startingWorkers = 0;
+  private boolean closed = false;
+
+  /**
+   * @param poolHash identifies what the processes were started from, so that pools kept between
+   *     commands can be replaced when that changes.
+   */
+  public WorkerProcessPool(int maxWorkers, HashCode poolHash) {
+    Preconditions.checkArgument(maxWorkers > 0);
+    this.maxWorkers = maxWorkers;
+    this.poolHash = poolHash;
+  }
+
+  /**
+   * Starts a new process and performs the handshake with it.
+   */
+  protected abstract WorkerProcess startWorkerProcess() throws IOException;
+
+  /**
+   * Gets a process to run a job on, starting one if need be. Processes must be given back with
+   * {@link #returnWorkerProcess} once the job is done, or {@link #destroyWorkerProcess} if
+   * talking to them failed.
+   */
+  public WorkerProcess borrowWorkerProcess() throws IOException, InterruptedException {
+    synchronized (this) {
+      while (true) {
+        Preconditions.checkState(!closed, "Tried to run a job in a closed worker pool.");
+        WorkerProcess process = findWorkerProcess();
+        if (process != null) {
+          jobCounts.put(process, jobCounts.get(process) + 1);
+          return process;
+        }
+        if (jobCounts.size() + startingWorkers < maxWorkers) {
+          startingWorkers++;
+          break;
+        }
+        wait();
+      }
+    }
+
+    // Start the new process without holding the lock, so that jobs can keep going to the others.
+    WorkerProcess process = null;
+    try {
+      process = startWorkerProcess();
+    } finally {
+      synchronized (this) {
+        startingWorkers--;
+        if (process != null) {
+          jobCounts.put(process, 1);
+        }
+        notifyAll();
+      }
+    }
+    return process;
+  }
+
+  @Nullable
+  private WorkerProcess findWorkerProcess() {
+    WorkerProcess leastBusy = null;
+    int leastJobs = Integer.MAX_VALUE;
+    for (Map.Entry<WorkerProcess, Integer> entry : jobCounts.entrySet()) {
+      if (entry.getValue() == 0) {
+        return entry.getKey();
+      }
+      if (entry.getValue() < leastJobs && entry.getKey().supportsMultiplexedJobs()) {
+        leastBusy = entry.getKey();
+        leastJobs = entry.getValue();
+      }
+    }
+
+    // Only share a process while the pool can't start any more.
+    if (jobCounts.size() + startingWorkers < maxWorkers) {
+      return null;
+    }
+    return leastBusy;
+  }
+
+  public synchronized void returnWorkerProcess(WorkerProcess process) {
+    Integer jobCount = jobCounts.get(process);
+    if (jobCount == null) {
+      // The process was destroyed, or the pool closed, while the job ran.
+      return;
+    }
+    Preconditions.checkState(jobCount > 0);
+    jobCounts.put(process, jobCount - 1);
+    notifyAll();
+  }
+
+  /**
+   * Removes a process which can no longer be talked to from the pool, so that later jobs start a
+   * new one in its place.
+   */
+  public void destroyWorkerProcess(WorkerProcess process) {
+    synchronized (this) {
+      if (jobCounts.remove(process) == null) {
+        return;
+      }
+      notifyAll();
+    }
+    try {
+      process.close();
+    } catch (RuntimeException | IOException e) {
+      LOG.debug(e, "Failed to close worker process %d", process.hashCode());
+    }
+  }
+
+  public int getMaxWorkers() {
+    return maxWorkers;
+  }
+
+  public HashCode getPoolHash() {
+    return poolHash;
+  }
+
+  @Override
+  public void close() throws IOException {
+    ImmutableList<WorkerProcess> processes;
+    synchronized (this) {
+      closed = true;
+      processes = ImmutableList.copyOf(jobCounts.keySet());
+      jobCounts.clear();
+      notifyAll();
+    }
+    for (WorkerProcess process : processes) {
+      process.close();
+    }
+  }
+}
@@ -15,15 +15,30 @@
  */
 package com.facebook.buck.shell;
 
+import com.facebook.buck.model.Pair;
+import com.google.common.collect.ImmutableSet;
+
 import java.io.IOException;
 import java.nio.file.Path;
 
 public interface WorkerProcessProtocol {
 
   void sendHandshake(int handshakeID) throws IOException;
-  void receiveHandshake(int handshakeID) throws IOException;
+
+  /**
+   * @return the optional capabilities the process announced in its handshake, such as
+   *     {@link WorkerProcessProtocolZero#CAPABILITY_MULTIPLEXED_JOBS}.
+   */
+  ImmutableSet<String> receiveHandshake(int handshakeID) throws IOException;
   void sendCommand(int messageID, Path argsPath, Path stdoutPath, Path stderrPath)
       throws IOException;
   int receiveCommandResponse(int messageID) throws IOException;
+
+  /**
+   * Reads the response to whichever job finishes next, for processes which run several at once.
+   *
+   * @return the id of the job and its exit code.
+   */
+  Pair<Integer, Integer> receiveNextCommandResponse() throws IOException;
   void close() throws IOException;
 }
@@ -15,8 +15,10 @@
  */
 package com.facebook.buck.shell;
 
+import com.facebook.buck.model.Pair;
 import com.facebook.buck.util.HumanReadableException;
 import com.facebook.buck.util.ProcessExecutor;
+import com.google.common.collect.ImmutableSet;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonWriter;
 
@@ -33,6 +35,12 @@ public class WorkerProcessProtocolZero implements WorkerProcessProtocol {
   private static final String TYPE_ERROR = "error";
   private static final String PROTOCOL_VERSION = "0";
 
+  /**
+   * Announced by processes which can be sent more jobs before they've responded to earlier ones,
+   * and respond to each as it finishes, in any order.
+   */
+  public static final String CAPABILITY_MULTIPLEXED_JOBS = "multiplexed_jobs";
+
   private final ProcessExecutor executor;
   private final ProcessExecutor.LaunchedProcess launchedProcess;
   private final JsonWriter processStdinWriter;
@@ -78,14 +86,17 @@ public class WorkerProcessProtocolZero implements WorkerProcessProtocol {
           id: <handshakeID>,
           type: 'handshake',
           protocol_version: '0',
-          capabilities: []
+          capabilities: [<capability>, ...]
         }
+
+    Capabilities the process announces which Buck doesn't know about are ignored.
    */
   @Override
-  public void receiveHandshake(int handshakeID) throws IOException {
+  public ImmutableSet<String> receiveHandshake(int handshakeID) throws IOException {
     int id = -1;
     String type = "";
     String protocolVersion = "";
+    ImmutableSet.Builder<String> capabilities = ImmutableSet.builder();
 
     try {
       processStdoutReader.beginArray();
@@ -101,11 +112,14 @@ public class WorkerProcessProtocolZero implements WorkerProcessProtocol {
         } else if (property.equals("capabilities")) {
           try {
             processStdoutReader.beginArray();
+            while (processStdoutReader.hasNext()) {
+              capabilities.add(processStdoutReader.nextString());
+            }
             processStdoutReader.endArray();
           } catch (IllegalStateException e) {
             throw new HumanReadableException(
                 "Expected handshake response's \"capabilities\" to " +
-                    "be an empty array.");
+                    "be an array of strings.");
           }
         } else {
           processStdoutReader.skipValue();
@@ -132,6 +146,7 @@ public class WorkerProcessProtocolZero implements WorkerProcessProtocol {
           "\"protocol_version\" to be \"%s\", got \"%s\" instead.",
           PROTOCOL_VERSION, protocolVersion));
     }
+    return capabilities.build();
   }
 
   /*
@@ -186,6 +201,17 @@ public class WorkerProcessProtocolZero implements WorkerProcessProtocol {
   */
   @Override
   public int receiveCommandResponse(int messageID) throws IOException {
+    Pair<Integer, Integer> response = receiveNextCommandResponse();
+    int id = response.getFirst();
+    if (id != messageID) {
+      throw new HumanReadableException(String.format("Expected response's \"id\" value to be " +
+          "\"%d\", got \"%d\" instead.", messageID, id));
+    }
+    return response.getSecond();
+  }
+
+  @Override
+  public Pair<Integer, Integer> receiveNextCommandResponse() throws IOException {
     int id = -1;
     int exitCode = -1;
     String type = "";
@@ -212,15 +238,11 @@ public class WorkerProcessProtocolZero implements WorkerProcessProtocol {
           getStdErrorOutput());
     }
 
-    if (id != messageID) {
-      throw new HumanReadableException(String.format("Expected response's \"id\" value to be " +
-          "\"%d\", got \"%d\" instead.", messageID, id));
-    }
     if (!type.equals(TYPE_RESULT) && !type.equals(TYPE_ERROR)) {
       throw new HumanReadableException(String.format("Expected response's \"type\" " +
           "to be one of [\"%s\",\"%s\"], got \"%s\" instead.", TYPE_RESULT, TYPE_ERROR, type));
     }
-    return exitCode;
+    return new Pair<>(id, exitCode);
   }
 
   /*
@@ -21,8 +21,11 @@ import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.StepExecutionResult;
+import com.facebook.buck.util.Ansi;
+import com.facebook.buck.util.Console;
 import com.facebook.buck.util.Escaper;
 import com.facebook.buck.util.HumanReadableException;
+import com.facebook.buck.util.ProcessExecutor;
 import com.facebook.buck.util.ProcessExecutorParams;
 import com.facebook.buck.util.Verbosity;
 import com.facebook.buck.util.environment.Platform;
@@ -34,14 +37,38 @@ import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
 
 import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentMap;
 
 public class WorkerShellStep implements Step {
 
+  /**
+   * Starts the processes of persistent pools, which outlive the command whose console the
+   * execution context's process executor writes to. Workers talk to buck over their stdin and
+   * stdout, so nothing needs to be written to a console anyway.
+   */
+  private static final ProcessExecutor PERSISTENT_WORKER_PROCESS_EXECUTOR = new ProcessExecutor(
+      new Console(
+          Verbosity.SILENT,
+          new PrintStream(ByteStreams.nullOutputStream()),
+          new PrintStream(ByteStreams.nullOutputStream()),
+          Ansi.withoutTty()));
+
   private ProjectFilesystem filesystem;
   private Path tmpPath;
   private Path workingDir;
@@ -69,9 +96,18 @@ public class WorkerShellStep implements Step {
     try {
       // Use the process's startup command as the key.
       String key = Joiner.on(' ').join(getCommand(context.getPlatform()));
-      WorkerProcess process = getWorkerProcessForKey(key, context);
-      process.ensureLaunchAndHandshake();
-      WorkerJobResult result = process.submitAndWaitForJob(getExpandedJobArgs(context));
+      WorkerProcessPool pool = getWorkerProcessPoolForKey(key, context);
+      WorkerProcess process = pool.borrowWorkerProcess();
+      WorkerJobResult result;
+      try {
+        result = process.submitAndWaitForJob(getExpandedJobArgs(context));
+      } catch (IOException | HumanReadableException e) {
+        // The process may be part way through a response, so don't send it any more jobs.
+        pool.destroyWorkerProcess(process);
+        throw e;
+      } finally {
+        pool.returnWorkerProcess(process);
+      }
       Verbosity verbosity = context.getVerbosity();
       if (result.getStdout().isPresent() && !result.getStdout().get().isEmpty() &&
           verbosity.shouldPrintOutput()) {
@@ -88,33 +124,123 @@ public class WorkerShellStep implements Step {
   }
 
   /**
-   * Returns an existing WorkerProcess for the given key if one exists, else creates a new one.
+   * Returns the pool of processes for the given key, creating it if there isn't one. Pools for
+   * persistent workers are kept between commands, unless the tool they were started from, the
+   * number of workers, or their environment has changed since.
    */
-  private WorkerProcess getWorkerProcessForKey(
+  private WorkerProcessPool getWorkerProcessPoolForKey(
       String key,
       ExecutionContext context) throws IOException {
-    ConcurrentMap<String, WorkerProcess> processMap = context.getWorkerProcesses();
-    WorkerProcess process = processMap.get(key);
-    if (process != null) {
-      return process;
+    WorkerJobParams paramsToUse = getWorkerJobParamsToUse(context.getPlatform());
+    ConcurrentMap<String, WorkerProcessPool> poolMap;
+    if (paramsToUse.isPersistent() && context.getPersistentWorkerPools().isPresent()) {
+      poolMap = context.getPersistentWorkerPools().get();
+    } else {
+      poolMap = context.getWorkerProcessPools();
+    }
+
+    int maxWorkers = paramsToUse.getMaxWorkers() > 0 ?
+        paramsToUse.getMaxWorkers() :
+        context.getConcurrencyLimit().threadLimit;
+    ImmutableMap<String, String> environment = getEnvironmentForProcess(context);
+    HashCode poolHash = getPoolHash(key, paramsToUse, maxWorkers, environment);
+    WorkerProcessPool pool = poolMap.get(key);
+    if (pool != null && pool.getPoolHash().equals(poolHash)) {
+      return pool;
+    }
+
+    WorkerProcessPool newPool = createWorkerProcessPool(
+        context,
+        paramsToUse,
+        maxWorkers,
+        environment,
+        poolHash);
+
+    WorkerProcessPool previousPool;
+    if (pool == null) {
+      previousPool = poolMap.putIfAbsent(key, newPool);
+    } else if (poolMap.replace(key, pool, newPool)) {
+      // The tool or its settings have changed since the existing pool's processes were started.
+      pool.close();
+      previousPool = null;
+    } else {
+      previousPool = poolMap.get(key);
     }
+    // If another thread beat this thread into putting a pool in the map for this key, use that one
+    // instead. No process has been started for newPool yet.
+    return previousPool == null ? newPool : previousPool;
+  }
 
-    ProcessExecutorParams processParams = ProcessExecutorParams.builder()
+  private WorkerProcessPool createWorkerProcessPool(
+      final ExecutionContext context,
+      WorkerJobParams paramsToUse,
+      int maxWorkers,
+      ImmutableMap<String, String> environment,
+      HashCode poolHash) {
+    final ProcessExecutorParams processParams = ProcessExecutorParams.builder()
         .setCommand(getCommand(context.getPlatform()))
-        .setEnvironment(getEnvironmentForProcess(context))
+        .setEnvironment(environment)
         .setDirectory(workingDir.toFile())
         .build();
-    WorkerProcess newProcess = new WorkerProcess(
-        context.getProcessExecutor(),
-        processParams,
-        filesystem,
-        tmpPath);
-
-    WorkerProcess previousValue = processMap.putIfAbsent(key, newProcess);
-    // If putIfAbsent does not return null, then that means another thread beat this thread
-    // into putting an WorkerProcess in the map for this key. If that's the case, then we should
-    // ignore newProcess and return the existing one.
-    return previousValue == null ? newProcess : previousValue;
+    // Processes kept between commands can't use the build rule's temporary directory, which the
+    // rule cleans out whenever it's built.
+    final Path workersTmpPath = paramsToUse.isPersistent() ?
+        filesystem.resolve(filesystem.getBuckPaths().getTmpDir()) :
+        tmpPath;
+    final ProcessExecutor processExecutor = paramsToUse.isPersistent() ?
+        PERSISTENT_WORKER_PROCESS_EXECUTOR :
+        context.getProcessExecutor();
+    return new WorkerProcessPool(maxWorkers, poolHash) {
+      @Override
+      protected WorkerProcess startWorkerProcess() throws IOException {
+        filesystem.mkdirs(workersTmpPath);
+        WorkerProcess process = new WorkerProcess(
+            processExecutor,
+            processParams,
+            filesystem,
+            Files.createTempDirectory(workersTmpPath, "worker"));
+        process.ensureLaunchAndHandshake();
+        return process;
+      }
+    };
+  }
+
+  /**
+   * Hashes the startup command along with the size and modification time of the files it names,
+   * the number of workers, and the environment the processes are started with, so that processes
+   * started from an old version of a tool, or with different settings, aren't reused.
+   */
+  @VisibleForTesting
+  static HashCode getPoolHash(
+      String key,
+      WorkerJobParams paramsToUse,
+      int maxWorkers,
+      ImmutableMap<String, String> environment) {
+    Hasher hasher = Hashing.sha1().newHasher()
+        .putString(key, StandardCharsets.UTF_8)
+        .putInt(maxWorkers);
+    SortedMap<String, String> sortedEnvironment = new TreeMap<>(environment);
+    for (Map.Entry<String, String> variable : sortedEnvironment.entrySet()) {
+      hasher
+          .putString(variable.getKey(), StandardCharsets.UTF_8)
+          .putByte((byte) 0)
+          .putString(variable.getValue(), StandardCharsets.UTF_8)
+          .putByte((byte) 0);
+    }
+    for (String argument : paramsToUse.getStartupCommand()) {
+      Path path = Paths.get(argument);
+      try {
+        if (path.isAbsolute() && Files.isRegularFile(path)) {
+          BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+          hasher
+              .putLong(attributes.size())
+              .putLong(attributes.lastModifiedTime().toMillis());
+        }
+      } catch (IOException | InvalidPathException e) {
+        // Not a file we can stamp, so only the command itself identifies the tool.
+      }
+    }
+    return hasher.hash();
   }
 
   @VisibleForTesting
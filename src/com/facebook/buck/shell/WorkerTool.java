@@ -29,17 +29,23 @@ public class WorkerTool extends NoopBuildRule implements HasRuntimeDeps {
   private final BinaryBuildRule exe;
   private final Iterable<BuildRule> depsFromStartupArgs;
   private final String args;
+  private final int maxWorkers;
+  private final boolean persistent;
 
   protected WorkerTool(
       BuildRuleParams ruleParams,
       SourcePathResolver resolver,
       BinaryBuildRule exe,
       Iterable<BuildRule> depsFromStartupArgs,
-      String args) {
+      String args,
+      int maxWorkers,
+      boolean persistent) {
     super(ruleParams, resolver);
     this.exe = exe;
     this.depsFromStartupArgs = depsFromStartupArgs;
     this.args = args;
+    this.maxWorkers = maxWorkers;
+    this.persistent = persistent;
   }
 
   public BinaryBuildRule getBinaryBuildRule() {
@@ -50,6 +56,18 @@ public class WorkerTool extends NoopBuildRule implements HasRuntimeDeps {
     return this.args;
   }
 
+  /**
+   * @return how many processes to start for this tool at most, where anything less than one means
+   *     as many as there are build threads.
+   */
+  public int getMaxWorkers() {
+    return maxWorkers;
+  }
+
+  public boolean isPersistent() {
+    return persistent;
+  }
+
   @Override
   public ImmutableSortedSet<BuildRule> getRuntimeDeps() {
     return ImmutableSortedSet.<BuildRule>naturalOrder()
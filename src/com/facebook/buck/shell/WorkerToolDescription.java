@@ -46,6 +46,11 @@ public class WorkerToolDescription implements Description<WorkerToolDescription.
 
   public static final BuildRuleType TYPE = BuildRuleType.of("worker_tool");
 
+  /**
+   * One process per tool, as worker tools had before they could be given more.
+   */
+  private static final int DEFAULT_MAX_WORKERS = 1;
+
   public static final MacroHandler MACRO_HANDLER = new MacroHandler(
       ImmutableMap.<String, MacroExpander>builder()
           .put("location", new LocationMacroExpander())
@@ -100,7 +105,9 @@ public class WorkerToolDescription implements Description<WorkerToolDescription.
         new SourcePathResolver(resolver),
         (BinaryBuildRule) rule,
         rulesReferencedInStartupArgs,
-        expandedStartupArgs);
+        expandedStartupArgs,
+        args.maxWorkers.or(DEFAULT_MAX_WORKERS),
+        args.persistent.or(false));
   }
 
   @Override
@@ -135,5 +142,7 @@ public class WorkerToolDescription implements Description<WorkerToolDescription.
   public static class Arg extends AbstractDescriptionArg {
     public Optional<String> args;
     public BuildTarget exe;
+    public Optional<Integer> maxWorkers;
+    public Optional<Boolean> persistent;
   }
 }
@@ -23,10 +23,11 @@ import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.ThrowableConsoleEvent;
 import com.facebook.buck.jvm.core.JavaPackageFinder;
 import com.facebook.buck.model.BuildId;
-import com.facebook.buck.shell.WorkerProcess;
+import com.facebook.buck.shell.WorkerProcessPool;
 import com.facebook.buck.util.Ansi;
 import com.facebook.buck.util.ClassLoaderCache;
 import com.facebook.buck.util.Console;
+import com.facebook.buck.util.ListeningProcessExecutor;
 import com.facebook.buck.util.ProcessExecutor;
 import com.facebook.buck.util.Verbosity;
 import com.facebook.buck.util.concurrent.ConcurrencyLimit;
@@ -116,11 +117,21 @@ abstract class AbstractExecutionContext implements Closeable {
     return false;
   }
 
+  /**
+   * The worker tool processes started by this command, by startup command, which are closed with
+   * the context.
+   */
   @Value.Default
-  public ConcurrentMap<String, WorkerProcess> getWorkerProcesses() {
+  public ConcurrentMap<String, WorkerProcessPool> getWorkerProcessPools() {
     return new ConcurrentHashMap<>();
   }
 
+  /**
+   * The worker tool processes which may be kept running for later commands, by startup command,
+   * when the daemon is running. These are closed by the daemon rather than the context.
+   */
+  public abstract Optional<ConcurrentMap<String, WorkerProcessPool>> getPersistentWorkerPools();
+
   @Value.Default
   public ConcurrencyLimit getConcurrencyLimit() {
     return new ConcurrencyLimit(
@@ -138,6 +149,13 @@ abstract class AbstractExecutionContext implements Closeable {
     return new ProcessExecutor(getConsole());
   }
 
+  /**
+   * If present, steps which support it run their processes through this executor, which handles
+   * their output as it arrives on a few shared threads, rather than start threads of their own to
+   * read each process's output streams.
+   */
+  public abstract Optional<ListeningProcessExecutor> getListeningProcessExecutor();
+
   @Value.Derived
   public Verbosity getVerbosity() {
     return getConsole().getVerbosity();
@@ -211,7 +229,7 @@ abstract class AbstractExecutionContext implements Closeable {
         .setConsole(console)
         .setProcessExecutor(new ProcessExecutor(console))
         .setClassLoaderCache(getClassLoaderCache().addRef())
-        .setWorkerProcesses(new ConcurrentHashMap<String, WorkerProcess>())
+        .setWorkerProcessPools(new ConcurrentHashMap<String, WorkerProcessPool>())
         .build();
   }
 
@@ -219,11 +237,11 @@ abstract class AbstractExecutionContext implements Closeable {
   public void close() throws IOException {
     getClassLoaderCache().close();
     try {
-      for (WorkerProcess process : getWorkerProcesses().values()) {
-        process.close();
+      for (WorkerProcessPool pool : getWorkerProcessPools().values()) {
+        pool.close();
       }
     } finally {
-      getWorkerProcesses().clear();
+      getWorkerProcessPools().clear();
     }
   }
 }
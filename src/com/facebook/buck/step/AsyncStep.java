@@ -0,0 +1,44 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.step;
+
+import com.google.common.base.Optional;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.io.IOException;
+
+/**
+ * A {@link Step} which can wait for its work, such as a process it starts, without holding a
+ * thread. {@link StepRunner#startStepForBuildTarget} starts it, and finishes it once the work is
+ * done; {@link #execute} still runs it all on the calling thread.
+ */
+public interface AsyncStep extends Step {
+
+  /**
+   * Starts the step's work, if it can be waited for without a thread in this context.
+   *
+   * @return a future which completes, without failing, once the work is done, or absent if the
+   *     step has to be run with {@link #execute} instead.
+   */
+  Optional<ListenableFuture<?>> start(ExecutionContext context)
+      throws IOException, InterruptedException;
+
+  /**
+   * Finishes the step once the future returned by {@link #start} has completed.
+   */
+  StepExecutionResult finish(ExecutionContext context) throws IOException, InterruptedException;
+}
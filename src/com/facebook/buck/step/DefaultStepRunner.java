@@ -24,7 +24,9 @@ import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.AsyncFunction;
 import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 
@@ -33,6 +35,7 @@ import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 
 public final class DefaultStepRunner implements StepRunner {
 
@@ -47,7 +50,71 @@ public final class DefaultStepRunner implements StepRunner {
   @Override
   public void runStepForBuildTarget(Step step, Optional<BuildTarget> buildTarget)
       throws StepFailedException, InterruptedException {
+    StepEvent.Started started = postStarted(step);
+    StepExecutionResult executionResult = StepExecutionResult.ERROR;
+    try {
+      executionResult = step.execute(context);
+    } catch (IOException | RuntimeException e) {
+      throw StepFailedException.createForFailingStepWithException(step, e, buildTarget);
+    } finally {
+      postFinished(started, executionResult);
+    }
+    checkSucceeded(step, executionResult, buildTarget);
+  }
+
+  @Override
+  public ListenableFuture<Void> startStepForBuildTarget(
+      final Step step,
+      final Optional<BuildTarget> buildTarget,
+      Executor finishExecutor)
+      throws StepFailedException, InterruptedException {
+    if (!(step instanceof AsyncStep)) {
+      runStepForBuildTarget(step, buildTarget);
+      return Futures.immediateFuture(null);
+    }
 
+    final AsyncStep asyncStep = (AsyncStep) step;
+    final StepEvent.Started started = postStarted(step);
+    Optional<ListenableFuture<?>> work = Optional.absent();
+    StepExecutionResult executionResult = StepExecutionResult.ERROR;
+    try {
+      work = asyncStep.start(context);
+      if (!work.isPresent()) {
+        executionResult = step.execute(context);
+      }
+    } catch (IOException | RuntimeException e) {
+      throw StepFailedException.createForFailingStepWithException(step, e, buildTarget);
+    } finally {
+      if (!work.isPresent()) {
+        postFinished(started, executionResult);
+      }
+    }
+    if (!work.isPresent()) {
+      checkSucceeded(step, executionResult, buildTarget);
+      return Futures.immediateFuture(null);
+    }
+
+    return Futures.transformAsync(
+        work.get(),
+        new AsyncFunction<Object, Void>() {
+          @Override
+          public ListenableFuture<Void> apply(Object input) throws Exception {
+            StepExecutionResult executionResult = StepExecutionResult.ERROR;
+            try {
+              executionResult = asyncStep.finish(context);
+            } catch (IOException | RuntimeException e) {
+              throw StepFailedException.createForFailingStepWithException(step, e, buildTarget);
+            } finally {
+              postFinished(started, executionResult);
+            }
+            checkSucceeded(step, executionResult, buildTarget);
+            return Futures.immediateFuture(null);
+          }
+        },
+        finishExecutor);
+  }
+
+  private StepEvent.Started postStarted(Step step) {
     if (context.getVerbosity().shouldPrintCommand()) {
       context.getStdErr().println(step.getDescription(context));
     }
@@ -58,15 +125,19 @@ public final class DefaultStepRunner implements StepRunner {
     StepEvent.Started started = StepEvent.started(stepShortName, stepDescription, stepUuid);
     context.getBuckEventBus().logDebugAndPost(
         LOG, started);
-    StepExecutionResult executionResult = StepExecutionResult.ERROR;
-    try {
-      executionResult = step.execute(context);
-    } catch (IOException | RuntimeException e) {
-      throw StepFailedException.createForFailingStepWithException(step, e, buildTarget);
-    } finally {
-      context.getBuckEventBus().logDebugAndPost(
-          LOG, StepEvent.finished(started, executionResult.getExitCode()));
-    }
+    return started;
+  }
+
+  private void postFinished(StepEvent.Started started, StepExecutionResult executionResult) {
+    context.getBuckEventBus().logDebugAndPost(
+        LOG, StepEvent.finished(started, executionResult.getExitCode()));
+  }
+
+  private void checkSucceeded(
+      Step step,
+      StepExecutionResult executionResult,
+      Optional<BuildTarget> buildTarget)
+      throws StepFailedException {
     if (!executionResult.isSuccess()) {
       throw StepFailedException.createForFailingStepWithExitCode(step,
           context,
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.step;
+
+import com.google.common.base.Function;
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nullable;
+
+/**
+ * Runs steps at the same time, using the threads of the {@link ExecutionContext.ExecutorPool#CPU}
+ * executor, and fails with the first of them to fail.
+ * <p>
+ * The thread running this step runs any steps that haven't been started by another thread yet
+ * itself, so it never waits on steps stuck in the executor's queue behind other work.
+ */
+public class ParallelStep implements Step {
+
+  private final ImmutableList<Step> steps;
+
+  public ParallelStep(List<? extends Step> steps) {
+    Preconditions.checkArgument(!steps.isEmpty(), "Must have at least one step");
+    this.steps = ImmutableList.copyOf(steps);
+  }
+
+  @Override
+  public StepExecutionResult execute(final ExecutionContext context)
+      throws IOException, InterruptedException {
+    final List<AtomicBoolean> started = new ArrayList<>();
+    for (int i = 0; i < steps.size(); i++) {
+      started.add(new AtomicBoolean(false));
+    }
+
+    // Offer every step but the first to the executor; this thread starts on the first.
+    ListeningExecutorService executor =
+        context.getExecutorService(ExecutionContext.ExecutorPool.CPU);
+    List<ListenableFuture<StepExecutionResult>> futures = new ArrayList<>();
+    for (int i = 1; i < steps.size(); i++) {
+      final Step step = steps.get(i);
+      final AtomicBoolean stepStarted = started.get(i);
+      futures.add(
+          executor.submit(
+              new Callable<StepExecutionResult>() {
+                @Override
+                @Nullable
+                public StepExecutionResult call() throws Exception {
+                  if (!stepStarted.compareAndSet(false, true)) {
+                    return null;
+                  }
+                  return step.execute(context);
+                }
+              }));
+    }
+
+    List<StepExecutionResult> results = new ArrayList<>();
+    boolean finished = false;
+    try {
+      List<ListenableFuture<StepExecutionResult>> startedFutures = new ArrayList<>();
+      for (int i = 0; i < steps.size(); i++) {
+        if (started.get(i).compareAndSet(false, true)) {
+          results.add(steps.get(i).execute(context));
+          // The executor would only find the step already started, so don't wait for it to.
+          if (i > 0) {
+            futures.get(i - 1).cancel(false);
+          }
+        } else {
+          startedFutures.add(futures.get(i - 1));
+        }
+      }
+      for (ListenableFuture<StepExecutionResult> future : startedFutures) {
+        StepExecutionResult result = getResult(future);
+        if (result != null) {
+          results.add(result);
+        }
+      }
+      finished = true;
+    } finally {
+      if (!finished) {
+        for (ListenableFuture<StepExecutionResult> future : futures) {
+          future.cancel(true);
+        }
+      }
+    }
+
+    for (StepExecutionResult result : results) {
+      if (!result.isSuccess()) {
+        return result;
+      }
+    }
+    return StepExecutionResult.SUCCESS;
+  }
+
+  @Nullable
+  private static StepExecutionResult getResult(ListenableFuture<StepExecutionResult> future)
+      throws IOException, InterruptedException {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      Throwables.propagateIfInstanceOf(cause, IOException.class);
+      Throwables.propagateIfInstanceOf(cause, InterruptedException.class);
+      throw Throwables.propagate(cause);
+    }
+  }
+
+  @Override
+  public String getShortName() {
+    return Joiner.on("_&_").join(
+        FluentIterable.from(steps)
+            .transform(
+                new Function<Step, String>() {
+                  @Override
+                  public String apply(Step step) {
+                    return step.getShortName();
+                  }
+                })
+            .toSet());
+  }
+
+  @Override
+  public String getDescription(final ExecutionContext context) {
+    return Joiner.on(" & ").join(
+        FluentIterable.from(steps)
+            .transform(
+                new Function<Step, String>() {
+                  @Override
+                  public String apply(Step step) {
+                    return step.getDescription(context);
+                  }
+                }));
+  }
+
+  public ImmutableList<Step> getSteps() {
+    return steps;
+  }
+}
@@ -24,6 +24,7 @@ import com.google.common.util.concurrent.ListeningExecutorService;
 
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 
 public interface StepRunner {
 
@@ -35,6 +36,20 @@ public interface StepRunner {
   public void runStepForBuildTarget(Step step, Optional<BuildTarget> buildTarget)
       throws StepFailedException, InterruptedException;
 
+  /**
+   * Runs a step for a given build target like {@link #runStepForBuildTarget}, except that an
+   * {@link AsyncStep} which can wait for its work without a thread is only started here, and is
+   * finished on {@code finishExecutor} once its work is done.
+   *
+   * @return a future which completes once the step has finished, and fails with a
+   *     {@link StepFailedException} if the step does.
+   */
+  public ListenableFuture<Void> startStepForBuildTarget(
+      Step step,
+      Optional<BuildTarget> buildTarget,
+      Executor finishExecutor)
+      throws StepFailedException, InterruptedException;
+
   public interface StepRunningCallback {
     void stepsWillRun(Optional<BuildTarget> buildTarget);
     void stepsDidRun(Optional<BuildTarget> buildTarget);
@@ -67,6 +67,35 @@ abstract class AbstractTestRunningOptions {
     return false;
   }
 
+  /**
+   * @return the number of JVMs to keep running java_test rules in, rather than starting one for
+   *     each rule, or 0 to start one for each rule.
+   */
+  @Value.Default
+  public int getJUnitRunnerPoolSize() {
+    return 0;
+  }
+
+  /**
+   * @return the most JVMs the tests of a single java_test rule may be split between, to run at the
+   *     same time.
+   */
+  @Value.Default
+  public int getMaxJavaTestShards() {
+    return 1;
+  }
+
+  /**
+   * @return how long each test rule's tests took the last time they ran, by fully qualified build
+   *     target name.
+   */
+  public abstract ImmutableMap<String, Long> getTestRuleDurations();
+
+  /**
+   * @return how long each test case took the last time it ran, by test case name.
+   */
+  public abstract ImmutableMap<String, Long> getTestCaseDurations();
+
   public abstract Optional<String> getPathToXmlTestOutput();
 
   public abstract Optional<String> getPathToJavaAgent();
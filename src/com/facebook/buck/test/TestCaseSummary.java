@@ -125,6 +125,15 @@ public class TestCaseSummary implements TestCaseSummaryExternalInterface<TestRes
     return testCaseName;
   }
 
+  public boolean isDryRun() {
+    return isDryRun;
+  }
+
+  /** @return whether these results were read back from a previous run rather than running */
+  public boolean isCached() {
+    return isCached;
+  }
+
   /** @return the total time to run all of the tests in this test case, in milliseconds */
   @Override
   public long getTotalTime() {
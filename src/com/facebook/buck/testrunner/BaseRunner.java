@@ -170,7 +170,7 @@ public abstract class BaseRunner {
   protected void parseArgs(String... args) throws Throwable {
     File outputDirectory = null;
     long defaultTestTimeoutMillis = Long.MAX_VALUE;
-    TestSelectorList testSelectorList = TestSelectorList.empty();
+    List<String> rawSelectors = new ArrayList<>();
     boolean isDryRun = false;
 
     List<String> testClassNames = new ArrayList<>();
@@ -181,10 +181,8 @@ public abstract class BaseRunner {
           defaultTestTimeoutMillis = Long.parseLong(args[++i]);
           break;
         case "--test-selectors":
-          List<String> rawSelectors = Arrays.asList(args[++i].split("\n"));
-          testSelectorList = TestSelectorList.builder()
-              .addRawSelectors(rawSelectors)
-              .build();
+          // May be given more than once, in which case the selectors are combined.
+          rawSelectors.addAll(Arrays.asList(args[++i].split("\n")));
           break;
         case "--dry-run":
           isDryRun = true;
@@ -206,6 +204,13 @@ public abstract class BaseRunner {
       System.exit(1);
     }
 
+    TestSelectorList testSelectorList = TestSelectorList.empty();
+    if (!rawSelectors.isEmpty()) {
+      testSelectorList = TestSelectorList.builder()
+          .addRawSelectors(rawSelectors)
+          .build();
+    }
+
     this.outputDirectory = outputDirectory;
     this.defaultTestTimeoutMillis = defaultTestTimeoutMillis;
     this.isDryRun = isDryRun;
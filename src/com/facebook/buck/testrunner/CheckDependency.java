@@ -23,12 +23,31 @@ class CheckDependency {
   }
 
   public static void isPresent(String name, String classToLoad) {
+    if (!canLoad(classToLoad)) {
+      System.err.println(getMissingMessage(name));
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Like {@link #isPresent}, but throws rather than exiting, for runners which share their JVM.
+   */
+  public static void requirePresent(String name, String classToLoad) {
+    if (!canLoad(classToLoad)) {
+      throw new IllegalStateException(getMissingMessage(name));
+    }
+  }
+
+  private static boolean canLoad(String classToLoad) {
     try {
       Class.forName(classToLoad);
+      return true;
     } catch (ClassNotFoundException e) {
-      System.err.println(
-          "Unable to locate " + name + " on the classpath. Please add as a test dependency.");
-      System.exit(1);
+      return false;
     }
   }
+
+  private static String getMissingMessage(String name) {
+    return "Unable to locate " + name + " on the classpath. Please add as a test dependency.";
+  }
 }
@@ -46,4 +46,24 @@ public class JUnitMain {
     runner.parseArgs(args);
     runner.runAndExit();
   }
+
+  /**
+   * Runs the tests given by the same arguments as {@link #main}, but returns once they're done
+   * rather than exiting, so that {@link JUnitWorkerMain} can run one test target after another.
+   *
+   * @throws IllegalStateException if the tests can't be run at all.
+   */
+  public static void runInProcess(String[] args) throws Throwable {
+    CheckDependency.requirePresent("junit", "org.junit.Test");
+    CheckDependency.requirePresent("hamcrest", "org.hamcrest.Description");
+
+    JUnitRunner runner = new JUnitRunner();
+    runner.parseArgs(args);
+    // As in runAndExit(), the test results report any failure once the tests have started.
+    try {
+      runner.run();
+    } catch (Throwable e) {
+      e.printStackTrace();
+    }
+  }
 }
@@ -0,0 +1,438 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.testrunner;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * A warm JVM which runs the tests of one test target after another, so that they don't each pay
+ * for starting a JVM and loading their third-party classes.
+ * <p>
+ * Buck talks to it with the worker tool protocol (see {@code WorkerProcessProtocolZero}). The
+ * arguments file of each job holds one argument per line:
+ * <ul>
+ *   <li>{@code --classpath-file <path>}: the test target's classpath, one entry per line
+ *   <li>{@code --shared-classpath-file <path>}: the entries of that classpath which are
+ *       third-party jars, which are loaded by a class loader kept for later targets with the same
+ *       jars
+ *   <li>{@code --system-property <name>=<value>}: set while the job runs. This doesn't work for
+ *       {@code java.io.tmpdir}, which the JDK reads only once, so the worker is started with it.
+ *   <li>any of the arguments to {@link JUnitMain}
+ * </ul>
+ * Everything else is loaded by a new class loader for each target, including the test runner
+ * itself, so that targets don't see each other's classes.
+ * <p>
+ * IMPORTANT! This class limits itself to types that are available in the JDK, as it is started
+ * with only the test runner's classes on its classpath.
+ */
+public class JUnitWorkerMain {
+
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final String JUNIT_MAIN = "com.facebook.buck.testrunner.JUnitMain";
+
+  // How many sets of third-party jars to keep loaded.
+  private static final int MAX_SHARED_CLASS_LOADERS = 4;
+
+  // The worker's own classpath, which holds the test runner.
+  private final String testRunnerClasspath;
+  private final Map<String, URLClassLoader> sharedClassLoaders = new SharedClassLoaders();
+
+  private JUnitWorkerMain(String testRunnerClasspath) {
+    this.testRunnerClasspath = testRunnerClasspath;
+  }
+
+  public static void main(String[] args) throws Throwable {
+    // Nothing but the protocol may be written to stdout, so point System.out at stderr whenever a
+    // job isn't running.
+    try (Writer protocolOut = new OutputStreamWriter(
+             new FileOutputStream(FileDescriptor.out),
+             UTF_8)) {
+      System.setOut(System.err);
+      new JUnitWorkerMain(System.getProperty("java.class.path")).serve(protocolOut);
+    }
+    // Tests may have left non-daemon threads behind.
+    System.exit(0);
+  }
+
+  private void serve(Writer protocolOut) throws IOException {
+    ProtocolReader reader = new ProtocolReader(
+        new BufferedReader(new InputStreamReader(System.in, UTF_8)));
+
+    Map<String, Object> handshake = reader.nextMessage();
+    if (handshake == null) {
+      return;
+    }
+    protocolOut.write(
+        String.format(
+            "[{\"id\":%d,\"type\":\"handshake\",\"protocol_version\":\"0\",\"capabilities\":[]}",
+            getId(handshake)));
+    protocolOut.flush();
+
+    Map<String, Object> message;
+    while ((message = reader.nextMessage()) != null) {
+      if (!"command".equals(message.get("type"))) {
+        protocolOut.write(String.format(",{\"id\":%d,\"type\":\"error\"}", getId(message)));
+        protocolOut.flush();
+        continue;
+      }
+      int exitCode = runJob(
+          new File((String) message.get("args_path")),
+          new File((String) message.get("stdout_path")),
+          new File((String) message.get("stderr_path")));
+      protocolOut.write(
+          String.format(
+              ",{\"id\":%d,\"type\":\"result\",\"exit_code\":%d}",
+              getId(message),
+              exitCode));
+      protocolOut.flush();
+    }
+
+    protocolOut.write("]");
+    protocolOut.flush();
+  }
+
+  private static int getId(Map<String, Object> message) {
+    Object id = message.get("id");
+    return id instanceof Number ? ((Number) id).intValue() : -1;
+  }
+
+  private int runJob(File argsFile, File stdoutFile, File stderrFile) throws IOException {
+    List<String> classpath = new ArrayList<>();
+    Set<String> sharedClasspath = new HashSet<>();
+    Map<String, String> systemProperties = new LinkedHashMap<>();
+    List<String> runnerArgs = new ArrayList<>();
+
+    List<String> args = readLines(argsFile);
+    for (int i = 0; i < args.size(); i++) {
+      String arg = args.get(i);
+      switch (arg) {
+        case "--classpath-file":
+          classpath.addAll(readLines(new File(args.get(++i))));
+          break;
+        case "--shared-classpath-file":
+          sharedClasspath.addAll(readLines(new File(args.get(++i))));
+          break;
+        case "--system-property":
+          String property = args.get(++i);
+          int equals = property.indexOf('=');
+          systemProperties.put(property.substring(0, equals), property.substring(equals + 1));
+          break;
+        default:
+          runnerArgs.add(arg);
+      }
+    }
+
+    List<URL> targetUrls = new ArrayList<>();
+    List<URL> sharedUrls = new ArrayList<>();
+    StringBuilder sharedKey = new StringBuilder();
+    StringBuilder fullClasspath = new StringBuilder();
+    for (String entry : classpath) {
+      if (entry.isEmpty()) {
+        continue;
+      }
+      File file = new File(entry);
+      if (sharedClasspath.contains(entry)) {
+        sharedUrls.add(file.toURI().toURL());
+        // Reload the jars if they've changed since they were loaded.
+        sharedKey.append(entry).append(':')
+            .append(file.length()).append(':')
+            .append(file.lastModified()).append('\n');
+      } else {
+        targetUrls.add(file.toURI().toURL());
+      }
+      fullClasspath.append(entry).append(File.pathSeparatorChar);
+    }
+    for (String entry : testRunnerClasspath.split(File.pathSeparator)) {
+      targetUrls.add(new File(entry).toURI().toURL());
+    }
+    fullClasspath.append(testRunnerClasspath);
+    systemProperties.put("java.class.path", fullClasspath.toString());
+
+    PrintStream originalOut = System.out;
+    PrintStream originalErr = System.err;
+    Properties originalProperties = (Properties) System.getProperties().clone();
+    Thread thread = Thread.currentThread();
+    ClassLoader originalContextClassLoader = thread.getContextClassLoader();
+
+    try (PrintStream stdout = new PrintStream(new FileOutputStream(stdoutFile), true, "UTF-8");
+         PrintStream stderr = new PrintStream(new FileOutputStream(stderrFile), true, "UTF-8");
+         URLClassLoader targetClassLoader = new URLClassLoader(
+             targetUrls.toArray(new URL[targetUrls.size()]),
+             getSharedClassLoader(sharedKey.toString(), sharedUrls))) {
+      System.setOut(stdout);
+      System.setErr(stderr);
+      for (Map.Entry<String, String> property : systemProperties.entrySet()) {
+        System.setProperty(property.getKey(), property.getValue());
+      }
+      thread.setContextClassLoader(targetClassLoader);
+
+      try {
+        Method runInProcess =
+            targetClassLoader.loadClass(JUNIT_MAIN).getMethod("runInProcess", String[].class);
+        runInProcess.invoke(null, new Object[] {runnerArgs.toArray(new String[runnerArgs.size()])});
+      } catch (InvocationTargetException e) {
+        // The tests couldn't be run at all, such as when JUnit isn't on their classpath.
+        stderr.println(e.getCause().getMessage());
+        return 1;
+      } catch (ReflectiveOperationException e) {
+        e.printStackTrace(stderr);
+        return 1;
+      }
+    } finally {
+      thread.setContextClassLoader(originalContextClassLoader);
+      System.setProperties(originalProperties);
+      System.setOut(originalOut);
+      System.setErr(originalErr);
+    }
+    // As when tests run in a JVM of their own, the results say which tests failed.
+    return 0;
+  }
+
+  private ClassLoader getSharedClassLoader(String key, List<URL> urls) {
+    URLClassLoader loader = sharedClassLoaders.get(key);
+    if (loader == null) {
+      // Parent the loader on the extension class loader, so that the test runner's own classes,
+      // which are on the system classpath, aren't seen by tests.
+      loader = new URLClassLoader(
+          urls.toArray(new URL[urls.size()]),
+          ClassLoader.getSystemClassLoader().getParent());
+      sharedClassLoaders.put(key, loader);
+    }
+    return loader;
+  }
+
+  private static List<String> readLines(File file) throws IOException {
+    List<String> lines = new ArrayList<>();
+    try (BufferedReader reader = new BufferedReader(
+        new InputStreamReader(new FileInputStream(file), UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        lines.add(line);
+      }
+    }
+    return lines;
+  }
+
+  /**
+   * The most recently used shared class loaders, which closes the loaders it drops.
+   */
+  private static class SharedClassLoaders extends LinkedHashMap<String, URLClassLoader> {
+
+    private static final long serialVersionUID = 1L;
+
+    SharedClassLoaders() {
+      super(16, 0.75f, /* accessOrder */ true);
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, URLClassLoader> eldest) {
+      if (size() <= MAX_SHARED_CLASS_LOADERS) {
+        return false;
+      }
+      try {
+        eldest.getValue().close();
+      } catch (IOException e) {
+        // The loader's jars are no longer needed either way.
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Reads the messages Buck sends: a JSON array of flat objects, read one object at a time as
+   * Buck writes them.
+   */
+  static class ProtocolReader {
+
+    private final Reader reader;
+    private int peeked = -2;
+
+    ProtocolReader(Reader reader) {
+      this.reader = reader;
+    }
+
+    /**
+     * @return the next message, or null once the array is closed or the input ends.
+     */
+    Map<String, Object> nextMessage() throws IOException {
+      int c = nextNonWhitespace();
+      if (c == '[' || c == ',') {
+        c = nextNonWhitespace();
+      }
+      if (c != '{') {
+        return null;
+      }
+
+      Map<String, Object> message = new HashMap<>();
+      c = nextNonWhitespace();
+      while (c != '}') {
+        if (c == ',') {
+          c = nextNonWhitespace();
+        }
+        expect(c, '"');
+        String name = readString();
+        expect(nextNonWhitespace(), ':');
+        message.put(name, readValue());
+        c = nextNonWhitespace();
+      }
+      return message;
+    }
+
+    private Object readValue() throws IOException {
+      int c = nextNonWhitespace();
+      if (c == '"') {
+        return readString();
+      }
+      if (c == '[') {
+        List<Object> values = new ArrayList<>();
+        c = nextNonWhitespace();
+        if (c == ']') {
+          return values;
+        }
+        unread(c);
+        do {
+          values.add(readValue());
+          c = nextNonWhitespace();
+        } while (c == ',');
+        expect(c, ']');
+        return values;
+      }
+
+      // A number or a literal.
+      StringBuilder token = new StringBuilder();
+      while (c != -1 && c != ',' && c != '}' && c != ']' && !Character.isWhitespace(c)) {
+        token.append((char) c);
+        c = read();
+      }
+      unread(c);
+      String value = token.toString();
+      switch (value) {
+        case "true":
+          return true;
+        case "false":
+          return false;
+        case "null":
+          return null;
+        default:
+          try {
+            return Long.parseLong(value);
+          } catch (NumberFormatException e) {
+            return Double.parseDouble(value);
+          }
+      }
+    }
+
+    private String readString() throws IOException {
+      StringBuilder result = new StringBuilder();
+      while (true) {
+        int c = read();
+        if (c == -1) {
+          throw new IOException("Unterminated string in message from Buck.");
+        }
+        if (c == '"') {
+          return result.toString();
+        }
+        if (c != '\\') {
+          result.append((char) c);
+          continue;
+        }
+        c = read();
+        switch (c) {
+          case 'b':
+            result.append('\b');
+            break;
+          case 'f':
+            result.append('\f');
+            break;
+          case 'n':
+            result.append('\n');
+            break;
+          case 'r':
+            result.append('\r');
+            break;
+          case 't':
+            result.append('\t');
+            break;
+          case 'u':
+            char[] hex = new char[4];
+            for (int i = 0; i < hex.length; i++) {
+              hex[i] = (char) read();
+            }
+            result.append((char) Integer.parseInt(new String(hex), 16));
+            break;
+          default:
+            // \" \\ and \/ stand for the character itself.
+            result.append((char) c);
+        }
+      }
+    }
+
+    private void expect(int actual, char expected) throws IOException {
+      if (actual != expected) {
+        throw new IOException(
+            String.format(
+                "Expected '%c' in message from Buck, got '%s'.",
+                expected,
+                actual == -1 ? "end of input" : String.valueOf((char) actual)));
+      }
+    }
+
+    private int nextNonWhitespace() throws IOException {
+      int c = read();
+      while (c != -1 && Character.isWhitespace(c)) {
+        c = read();
+      }
+      return c;
+    }
+
+    private int read() throws IOException {
+      if (peeked != -2) {
+        int c = peeked;
+        peeked = -2;
+        return c;
+      }
+      return reader.read();
+    }
+
+    private void unread(int c) {
+      peeked = c;
+    }
+  }
+}
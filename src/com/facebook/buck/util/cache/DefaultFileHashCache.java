@@ -39,6 +39,7 @@ import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.concurrent.ExecutionException;
 
 import javax.annotation.Nonnull;
@@ -46,12 +47,24 @@ import javax.annotation.Nonnull;
 public class DefaultFileHashCache implements ProjectFileHashCache {
 
   private final ProjectFilesystem projectFilesystem;
+  private final Optional<PersistentFileHashStore> persistentStore;
 
   @VisibleForTesting
   final LoadingCache<Path, HashCodeAndFileType> loadingCache;
 
   public DefaultFileHashCache(ProjectFilesystem projectFilesystem) {
+    this(projectFilesystem, Optional.<PersistentFileHashStore>absent());
+  }
+
+  /**
+   * @param persistentStore consulted before hashing the contents of a file, and updated with the
+   *     hashes of the files we do read. Its paths are relative to {@code projectFilesystem}.
+   */
+  public DefaultFileHashCache(
+      ProjectFilesystem projectFilesystem,
+      Optional<PersistentFileHashStore> persistentStore) {
     this.projectFilesystem = projectFilesystem;
+    this.persistentStore = persistentStore;
 
     this.loadingCache = CacheBuilder.newBuilder()
         .build(new CacheLoader<Path, HashCodeAndFileType>() {
@@ -76,6 +89,22 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
   }
 
   private HashCode getFileHashCode(final Path path) throws IOException {
+    if (persistentStore.isPresent() && !path.isAbsolute()) {
+      BasicFileAttributes attributes =
+          projectFilesystem.readAttributes(path, BasicFileAttributes.class);
+      Optional<HashCode> storedHashCode = persistentStore.get().get(path, attributes);
+      if (storedHashCode.isPresent()) {
+        return storedHashCode.get();
+      }
+      long hashStartMillis = System.currentTimeMillis();
+      HashCode hashCode = hashFileContents(path);
+      persistentStore.get().put(path, attributes, hashStartMillis, hashCode);
+      return hashCode;
+    }
+    return hashFileContents(path);
+  }
+
+  private HashCode hashFileContents(final Path path) throws IOException {
     ByteSource source =
         new ByteSource() {
           @Override
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache;
+
+import com.facebook.buck.log.Logger;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.hash.HashCode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Remembers the hashes of file contents across runs of buck, so that a fresh process doesn't have
+ * to read every input file again.
+ * <p>
+ * Each hash is recorded along with the size, modification time and file key (on most systems the
+ * device and inode) of the file it was computed from, and is only returned while all of those are
+ * unchanged. Checking these only takes a stat of the file.
+ * <p>
+ * To keep the store from growing without bound, entries which haven't been used by any of the last
+ * {@link #MAX_UNUSED_RUNS} runs that saved the store, such as those of deleted files, are dropped.
+ */
+public class PersistentFileHashStore {
+  private static final Logger LOG = Logger.get(PersistentFileHashStore.class);
+
+  private static final int MAGIC = 0xf11e4a54;
+  private static final int VERSION = 2;
+
+  // Files modified this recently may still be modified again within the granularity of their
+  // modification time, so we don't remember their hashes.
+  @VisibleForTesting
+  static final long MODIFICATION_TIME_GRANULARITY_MILLIS = 2000;
+
+  @VisibleForTesting
+  static final int MAX_UNUSED_RUNS = 20;
+
+  private final Path storePath;
+  private final ConcurrentMap<Path, Entry> entries;
+  private volatile boolean dirty = false;
+
+  // The number of times the store has been saved, which entries are marked with when used.
+  private volatile int run;
+
+  private PersistentFileHashStore(Path storePath, ConcurrentMap<Path, Entry> entries, int run) {
+    this.storePath = storePath;
+    this.entries = entries;
+    this.run = run;
+  }
+
+  /**
+   * Loads the store at {@code storePath}. A missing or unreadable store yields an empty one.
+   */
+  public static PersistentFileHashStore load(Path storePath) {
+    ConcurrentMap<Path, Entry> entries = new ConcurrentHashMap<>();
+    int run = 0;
+    try (DataInputStream in =
+             new DataInputStream(new BufferedInputStream(Files.newInputStream(storePath)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        LOG.debug("Ignoring file hash store %s with an unknown format.", storePath);
+        return new PersistentFileHashStore(storePath, entries, run);
+      }
+      run = in.readInt();
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        Path path = Paths.get(in.readUTF());
+        long size = in.readLong();
+        long lastModifiedMillis = in.readLong();
+        String fileKey = in.readUTF();
+        byte[] hash = new byte[in.readUnsignedByte()];
+        in.readFully(hash);
+        int lastUsedRun = in.readInt();
+        entries.put(
+            path,
+            new Entry(size, lastModifiedMillis, fileKey, HashCode.fromBytes(hash), lastUsedRun));
+      }
+      LOG.debug("Loaded %d file hashes from %s.", count, storePath);
+    } catch (NoSuchFileException e) {
+      LOG.debug("No file hash store at %s.", storePath);
+    } catch (IOException | IllegalArgumentException e) {
+      LOG.warn(e, "Ignoring unreadable file hash store %s.", storePath);
+      entries.clear();
+      run = 0;
+    }
+    return new PersistentFileHashStore(storePath, entries, run);
+  }
+
+  /**
+   * @return the hash recorded for {@code path}, if the file is unchanged since it was recorded.
+   */
+  public Optional<HashCode> get(Path path, BasicFileAttributes attributes) {
+    Entry entry = entries.get(path);
+    if (entry == null || !entry.matches(attributes)) {
+      return Optional.absent();
+    }
+    entry.lastUsedRun = run;
+    return Optional.of(entry.hashCode);
+  }
+
+  /**
+   * Records the hash of {@code path}, computed from the contents it had when
+   * {@code attributes} were read. {@code hashStartMillis} is when we started hashing.
+   */
+  public void put(
+      Path path,
+      BasicFileAttributes attributes,
+      long hashStartMillis,
+      HashCode hashCode) {
+    if (attributes.lastModifiedTime().toMillis() >
+        hashStartMillis - MODIFICATION_TIME_GRANULARITY_MILLIS) {
+      entries.remove(path);
+      return;
+    }
+    entries.put(
+        path,
+        new Entry(
+            attributes.size(),
+            attributes.lastModifiedTime().toMillis(),
+            getFileKey(attributes),
+            hashCode,
+            run));
+    dirty = true;
+  }
+
+  /**
+   * Writes the store back to disk if it has changed since it was last loaded or saved, dropping
+   * the entries which have gone unused for too long. The new contents are written to a temporary
+   * file which then replaces the store, so that a crash or another buck process never sees a
+   * partially written store.
+   */
+  public synchronized void save() throws IOException {
+    if (!dirty) {
+      return;
+    }
+    dirty = false;
+    int savedRun = run;
+    run = savedRun + 1;
+
+    // Other threads may still be adding hashes, so write out a copy.
+    Map<Path, Entry> snapshot = new HashMap<>();
+    for (Map.Entry<Path, Entry> mapEntry : entries.entrySet()) {
+      if (savedRun - mapEntry.getValue().lastUsedRun >= MAX_UNUSED_RUNS) {
+        entries.remove(mapEntry.getKey(), mapEntry.getValue());
+      } else {
+        snapshot.put(mapEntry.getKey(), mapEntry.getValue());
+      }
+    }
+
+    Files.createDirectories(storePath.getParent());
+    Path tempPath = Files.createTempFile(
+        storePath.getParent(),
+        storePath.getFileName().toString(),
+        ".tmp");
+    try (DataOutputStream out =
+             new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(run);
+      out.writeInt(snapshot.size());
+      for (Map.Entry<Path, Entry> mapEntry : snapshot.entrySet()) {
+        Entry entry = mapEntry.getValue();
+        byte[] hash = entry.hashCode.asBytes();
+        out.writeUTF(mapEntry.getKey().toString());
+        out.writeLong(entry.size);
+        out.writeLong(entry.lastModifiedMillis);
+        out.writeUTF(entry.fileKey);
+        out.writeByte(hash.length);
+        out.write(hash);
+        out.writeInt(entry.lastUsedRun);
+      }
+    } catch (IOException e) {
+      Files.deleteIfExists(tempPath);
+      throw e;
+    }
+    Files.move(
+        tempPath,
+        storePath,
+        StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static String getFileKey(BasicFileAttributes attributes) {
+    Object fileKey = attributes.fileKey();
+    return fileKey == null ? "" : fileKey.toString();
+  }
+
+  private static class Entry {
+    private final long size;
+    private final long lastModifiedMillis;
+    private final String fileKey;
+    private final HashCode hashCode;
+    private volatile int lastUsedRun;
+
+    public Entry(
+        long size,
+        long lastModifiedMillis,
+        String fileKey,
+        HashCode hashCode,
+        int lastUsedRun) {
+      this.size = size;
+      this.lastModifiedMillis = lastModifiedMillis;
+      this.fileKey = fileKey;
+      this.hashCode = hashCode;
+      this.lastUsedRun = lastUsedRun;
+    }
+
+    public boolean matches(BasicFileAttributes attributes) {
+      return size == attributes.size() &&
+          lastModifiedMillis == attributes.lastModifiedTime().toMillis() &&
+          fileKey.equals(getFileKey(attributes));
+    }
+  }
+}
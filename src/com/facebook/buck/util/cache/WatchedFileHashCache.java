@@ -19,14 +19,12 @@ package com.facebook.buck.util.cache;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.io.WatchEvents;
 import com.facebook.buck.log.Logger;
-import com.google.common.base.Predicate;
-import com.google.common.collect.Maps;
+import com.google.common.base.Optional;
 import com.google.common.eventbus.Subscribe;
 
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.WatchEvent;
-import java.util.Map;
 
 public class WatchedFileHashCache extends DefaultFileHashCache {
 
@@ -36,6 +34,12 @@ public class WatchedFileHashCache extends DefaultFileHashCache {
     super(projectFilesystem);
   }
 
+  public WatchedFileHashCache(
+      ProjectFilesystem projectFilesystem,
+      Optional<PersistentFileHashStore> persistentStore) {
+    super(projectFilesystem, persistentStore);
+  }
+
   /**
    * Called when file change events are posted to the file change EventBus to invalidate cached
    * build rules if required. {@link Path}s contained within events must all be relative to the
@@ -45,27 +49,14 @@ public class WatchedFileHashCache extends DefaultFileHashCache {
   public synchronized void onFileSystemChange(WatchEvent<?> event) throws IOException {
     if (WatchEvents.isPathChangeEvent(event)) {
       // Path event, remove the path from the cache as it has been changed, added or deleted.
+      // Only the entry for the path itself and those of the directories containing it can be
+      // affected, so look those up rather than scanning the whole cache.
       final Path path = ((Path) event.context()).normalize();
       LOG.verbose("Invalidating %s", path);
-      Iterable<Path> pathsToInvalidate =
-          Maps.filterEntries(
-              loadingCache.asMap(),
-              new Predicate<Map.Entry<Path, HashCodeAndFileType>>() {
-                  @Override
-                  public boolean apply(Map.Entry<Path, HashCodeAndFileType> entry) {
-                    switch (entry.getValue().getType()) {
-                      case ARCHIVE:
-                      case FILE:
-                        return path.equals(entry.getKey());
-                      case DIRECTORY:
-                        return path.startsWith(entry.getKey());
-                    }
-                    return false;
-                  }
-              }
-          ).keySet();
-      LOG.verbose("Paths to invalidate: %s", pathsToInvalidate);
-      loadingCache.invalidateAll(pathsToInvalidate);
+      for (Path candidate = path; candidate != null; candidate = candidate.getParent()) {
+        invalidateIfAffected(path, candidate);
+      }
+      invalidateIfAffected(path, path.getFileSystem().getPath(""));
     } else {
       // Non-path change event, likely an overflow due to many change events: invalidate everything.
       LOG.debug("Invalidating all");
@@ -73,4 +64,16 @@ public class WatchedFileHashCache extends DefaultFileHashCache {
     }
   }
 
+  private void invalidateIfAffected(Path changedPath, Path cachedPath) {
+    HashCodeAndFileType entry = loadingCache.getIfPresent(cachedPath);
+    if (entry == null) {
+      return;
+    }
+    // Files and archives are only affected by changes to themselves, directories by changes to
+    // anything under them.
+    if (entry.getType() == HashCodeAndFileType.Type.DIRECTORY || cachedPath.equals(changedPath)) {
+      LOG.verbose("Path to invalidate: %s", cachedPath);
+      loadingCache.invalidate(cachedPath);
+    }
+  }
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.concurrent;
+
+import com.facebook.buck.util.immutables.BuckStyleTuple;
+
+import org.immutables.value.Value;
+
+/**
+ * Amounts of each of the resources a job needs while it runs, or that jobs may use between them.
+ * Amounts are in abstract units, which are only meaningful relative to the amounts available, as
+ * set by the {@code [resources]} section of the config.
+ */
+@Value.Immutable
+@BuckStyleTuple
+abstract class AbstractResourceAmounts {
+
+  public static final ResourceAmounts ZERO = ResourceAmounts.of(0, 0, 0, 0);
+
+  /**
+   * @return the amount of CPU, which is usually the number of threads the job keeps busy.
+   */
+  public abstract int getCpu();
+
+  public abstract int getMemory();
+
+  public abstract int getDiskIO();
+
+  public abstract int getNetworkIO();
+
+  @Value.Check
+  protected void check() {
+    if (getCpu() < 0 || getMemory() < 0 || getDiskIO() < 0 || getNetworkIO() < 0) {
+      throw new IllegalArgumentException("Resource amounts can't be negative: " + this);
+    }
+  }
+
+  public ResourceAmounts append(ResourceAmounts other) {
+    return ResourceAmounts.of(
+        getCpu() + other.getCpu(),
+        getMemory() + other.getMemory(),
+        getDiskIO() + other.getDiskIO(),
+        getNetworkIO() + other.getNetworkIO());
+  }
+
+  public ResourceAmounts subtract(ResourceAmounts other) {
+    return ResourceAmounts.of(
+        getCpu() - other.getCpu(),
+        getMemory() - other.getMemory(),
+        getDiskIO() - other.getDiskIO(),
+        getNetworkIO() - other.getNetworkIO());
+  }
+
+  /**
+   * @return these amounts, reduced to at most the given amounts.
+   */
+  public ResourceAmounts capTo(ResourceAmounts maximum) {
+    return ResourceAmounts.of(
+        Math.min(getCpu(), maximum.getCpu()),
+        Math.min(getMemory(), maximum.getMemory()),
+        Math.min(getDiskIO(), maximum.getDiskIO()),
+        Math.min(getNetworkIO(), maximum.getNetworkIO()));
+  }
+
+  /**
+   * @return whether each of these amounts is at most the corresponding given amount.
+   */
+  public boolean allValuesLessThanOrEqual(ResourceAmounts other) {
+    return getCpu() <= other.getCpu() &&
+        getMemory() <= other.getMemory() &&
+        getDiskIO() <= other.getDiskIO() &&
+        getNetworkIO() <= other.getNetworkIO();
+  }
+
+}
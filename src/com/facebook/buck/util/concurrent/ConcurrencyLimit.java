@@ -23,9 +23,29 @@ public class ConcurrencyLimit {
 
   public final int threadLimit;
   public final double loadLimit;
+  public final ListeningMultiSemaphore.Fairness resourceAllocationFairness;
+  public final ResourceAmounts maximumAmounts;
 
-  public ConcurrencyLimit(int threadLimit, double loadLimit) {
+  public ConcurrencyLimit(
+      int threadLimit,
+      double loadLimit,
+      ListeningMultiSemaphore.Fairness resourceAllocationFairness,
+      ResourceAmounts maximumAmounts) {
     this.threadLimit = threadLimit;
     this.loadLimit = loadLimit;
+    this.resourceAllocationFairness = resourceAllocationFairness;
+    this.maximumAmounts = maximumAmounts;
+  }
+
+  /**
+   * A limit under which jobs are only limited by the number of threads, as there's as much of every
+   * other resource as there are threads.
+   */
+  public ConcurrencyLimit(int threadLimit, double loadLimit) {
+    this(
+        threadLimit,
+        loadLimit,
+        ListeningMultiSemaphore.Fairness.FAIR,
+        ResourceAmounts.of(threadLimit, threadLimit, threadLimit, threadLimit));
   }
 }
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.concurrent;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * A {@link java.util.concurrent.Semaphore}-like gate returning futures, which keeps separate
+ * counts of several resources, so that jobs which need a lot of one resource, e.g. memory, don't
+ * stop jobs which need little of it from using the others.
+ * <p>
+ * Acquisitions of more of a resource than there is are reduced to all of it, so that they can
+ * still go ahead once nothing else is using that resource.
+ * <p>
+ * Acquisitions may be given a priority: waiting acquisitions are admitted highest priority first,
+ * and in the order they were made among those of equal priority.
+ */
+public class ListeningMultiSemaphore {
+
+  /**
+   * The priority of acquisitions which aren't given one, which is ahead of all others.
+   */
+  public static final long DEFAULT_PRIORITY = Long.MAX_VALUE;
+
+  private final NavigableSet<PendingAcquisition> pending =
+      new TreeSet<>(PendingAcquisition.ORDER);
+  private long nextSequenceNumber = 0;
+  private ResourceAmounts used = ResourceAmounts.ZERO;
+
+  private final ResourceAmounts maximumAmounts;
+  private final Fairness fairness;
+
+  public ListeningMultiSemaphore(
+      ResourceAmounts maximumAmounts,
+      Fairness fairness) {
+    this.maximumAmounts = maximumAmounts;
+    this.fairness = fairness;
+  }
+
+  private synchronized boolean canFit(ResourceAmounts amounts) {
+    return used.append(amounts).allValuesLessThanOrEqual(maximumAmounts);
+  }
+
+  public ListenableFuture<Void> acquire(ResourceAmounts amounts) {
+    return acquire(amounts, DEFAULT_PRIORITY);
+  }
+
+  /**
+   * @param priority how soon to admit this acquisition, relative to others waiting with it. Higher
+   *     priorities are admitted first.
+   */
+  public synchronized ListenableFuture<Void> acquire(ResourceAmounts amounts, long priority) {
+    amounts = amounts.capTo(maximumAmounts);
+
+    // If there's enough of every resource, and nothing is waiting ahead of us, acquire it now.
+    if ((pending.isEmpty() ||
+            pending.first().priority < priority ||
+            fairness == Fairness.FAST) &&
+        canFit(amounts)) {
+      used = used.append(amounts);
+      return Futures.immediateFuture(null);
+    }
+
+    // Otherwise, queue it up for later.
+    PendingAcquisition acquisition =
+        new PendingAcquisition(amounts, priority, nextSequenceNumber++);
+    pending.add(acquisition);
+    return acquisition.future;
+  }
+
+  private synchronized ImmutableList<PendingAcquisition> releaseInternal(ResourceAmounts amounts) {
+    ImmutableList.Builder<PendingAcquisition> scheduled = ImmutableList.builder();
+
+    // Give back the released resources.
+    Preconditions.checkState(amounts.allValuesLessThanOrEqual(used));
+    used = used.subtract(amounts);
+
+    // Accept any pending requests that can fit.
+    Iterator<PendingAcquisition> itr = pending.iterator();
+    while (itr.hasNext()) {
+      PendingAcquisition acquisition = itr.next();
+      if (canFit(acquisition.amounts)) {
+        itr.remove();
+        used = used.append(acquisition.amounts);
+        scheduled.add(acquisition);
+      } else if (fairness == Fairness.FAIR) {
+        break;
+      }
+    }
+
+    return scheduled.build();
+  }
+
+  /**
+   * Releases resources acquired with {@link #acquire}. The amounts must be the ones acquired,
+   * reduced to {@link #getMaximumAmounts()}, as {@link #acquire} does.
+   */
+  public void release(ResourceAmounts amounts) {
+
+    // Release the given resources and get back the list of new jobs that can be scheduled.
+    ImmutableList<PendingAcquisition> ready = releaseInternal(amounts.capTo(maximumAmounts));
+
+    // Walk through the list of jobs ready to schedule and trigger them, keeping track of the
+    // resources of any that were cancelled, as we'll need to re-release them at the end.
+    ResourceAmounts failed = ResourceAmounts.ZERO;
+    for (PendingAcquisition acquisition : ready) {
+      if (!acquisition.future.set(null)) {
+        failed = failed.append(acquisition.amounts);
+      }
+    }
+
+    if (!failed.equals(ResourceAmounts.ZERO)) {
+      release(failed);
+    }
+  }
+
+  public ResourceAmounts getMaximumAmounts() {
+    return maximumAmounts;
+  }
+
+  public synchronized ResourceAmounts getAvailableAmounts() {
+    return maximumAmounts.subtract(used);
+  }
+
+  public synchronized int getQueueLength() {
+    return pending.size();
+  }
+
+  private static class PendingAcquisition {
+
+    // Highest priority first, then first come, first served.
+    private static final Comparator<PendingAcquisition> ORDER =
+        new Comparator<PendingAcquisition>() {
+          @Override
+          public int compare(PendingAcquisition a, PendingAcquisition b) {
+            int result = Long.compare(b.priority, a.priority);
+            if (result != 0) {
+              return result;
+            }
+            return Long.compare(a.sequenceNumber, b.sequenceNumber);
+          }
+        };
+
+    private final ResourceAmounts amounts;
+    private final long priority;
+    private final long sequenceNumber;
+    private final SettableFuture<Void> future = SettableFuture.create();
+
+    private PendingAcquisition(ResourceAmounts amounts, long priority, long sequenceNumber) {
+      this.amounts = amounts;
+      this.priority = priority;
+      this.sequenceNumber = sequenceNumber;
+    }
+  }
+
+  /**
+   * How to handle fairness when acquiring the semaphore.
+   */
+  public enum Fairness {
+
+    /**
+     * Make acquisitions happen in order.  This may mean a large acquisition can block smaller ones
+     * queued behind it that could otherwise acquire the semaphore.
+     */
+    FAIR,
+
+    /**
+     * Move smaller acquisitions that can acquire the semaphore ahead of large ones that are blocked
+     * due to size.
+     */
+    FAST,
+
+  }
+}
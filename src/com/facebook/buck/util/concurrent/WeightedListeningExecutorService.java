@@ -30,8 +30,8 @@ import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 /**
- * A {@link ListeningExecutorService} which gates execution using a {@link ListeningSemaphore} and
- * allows custom weights to be assigned to submitted tasks.
+ * A {@link ListeningExecutorService} which gates execution using a {@link ListeningMultiSemaphore}
+ * and allows the amounts of each resource tasks need to be assigned to submitted tasks.
  *
  * NOTE: If futures for submitted jobs are cancelled while they are running, it's possible that the
  * semaphore will be released for that cancelled job before it is finished, meaning more jobs may be
@@ -39,30 +39,31 @@ import javax.annotation.Nullable;
  */
 public class WeightedListeningExecutorService extends AbstractListeningExecutorService {
 
-  private final ListeningSemaphore semaphore;
-  private final int defaultWeight;
+  private final ListeningMultiSemaphore semaphore;
+  private final ResourceAmounts defaultAmounts;
   private final ListeningExecutorService delegate;
 
   public WeightedListeningExecutorService(
-      ListeningSemaphore semaphore,
-      int defaultWeight,
+      ListeningMultiSemaphore semaphore,
+      ResourceAmounts defaultAmounts,
       ListeningExecutorService delegate) {
     this.semaphore = semaphore;
-    this.defaultWeight = defaultWeight;
+    this.defaultAmounts = defaultAmounts;
     this.delegate = delegate;
   }
 
   private <T> ListenableFuture<T> withSemaphore(
-      final int weight,
-      final Callable<T> callable) {
+      final ResourceAmounts amounts,
+      long priority,
+      final Callable<ListenableFuture<T>> callable) {
     ListenableFuture<T> future =
         Futures.transformAsync(
-            semaphore.acquire(weight),
+            semaphore.acquire(amounts, priority),
             new AsyncFunction<Void, T>() {
               @Override
               public ListenableFuture<T> apply(@Nullable Void input) {
                 try {
-                  return Futures.immediateFuture(callable.call());
+                  return callable.call();
                 } catch (Throwable thrown) {
                   return Futures.immediateFailedFuture(thrown);
                 }
@@ -73,52 +74,95 @@ public class WeightedListeningExecutorService extends AbstractListeningExecutorS
         new Runnable() {
           @Override
           public void run() {
-            semaphore.release(weight);
+            semaphore.release(amounts);
           }
         },
         com.google.common.util.concurrent.MoreExecutors.directExecutor());
     return future;
   }
 
-  public ListenableFuture<?> submit(final Runnable task, int weight) {
-    return submit(task, null, weight);
+  private static <T> Callable<ListenableFuture<T>> immediately(final Callable<T> task) {
+    return new Callable<ListenableFuture<T>>() {
+      @Override
+      public ListenableFuture<T> call() throws Exception {
+        return Futures.immediateFuture(task.call());
+      }
+    };
+  }
+
+  public ListenableFuture<?> submit(final Runnable task, ResourceAmounts amounts) {
+    return submit(task, null, amounts);
   }
 
   @Nonnull
   @Override
   public ListenableFuture<?> submit(Runnable task) {
-    return submit(task, defaultWeight);
+    return submit(task, defaultAmounts);
   }
 
   public <T> ListenableFuture<T> submit(
       final Runnable task,
       @Nullable final T result,
-      int weight) {
+      ResourceAmounts amounts) {
     return withSemaphore(
-        weight,
-        new Callable<T>() {
-          @Override
-          public T call() throws Exception {
-            task.run();
-            return result;
-          }
-        });
+        amounts,
+        ListeningMultiSemaphore.DEFAULT_PRIORITY,
+        immediately(
+            new Callable<T>() {
+              @Override
+              public T call() throws Exception {
+                task.run();
+                return result;
+              }
+            }));
   }
 
   @Nonnull
   @Override
   public <T> ListenableFuture<T> submit(Runnable task, @Nullable T result) {
-    return submit(task, result, defaultWeight);
+    return submit(task, result, defaultAmounts);
+  }
+
+  public <T> ListenableFuture<T> submit(Callable<T> task, ResourceAmounts amounts) {
+    return submit(task, amounts, ListeningMultiSemaphore.DEFAULT_PRIORITY);
+  }
+
+  /**
+   * @param priority how soon to run the task, relative to other tasks waiting for resources, as
+   *     for {@link ListeningMultiSemaphore#acquire(ResourceAmounts, long)}.
+   */
+  public <T> ListenableFuture<T> submit(
+      Callable<T> task,
+      ResourceAmounts amounts,
+      long priority) {
+    return withSemaphore(amounts, priority, immediately(task));
+  }
+
+  /**
+   * Like {@link #submit(Callable, ResourceAmounts, long)}, but for a task which returns a future of
+   * its result: the resources stay acquired until that future completes, not just until the task
+   * returns, so the task can wait for work such as a process without holding a thread. Work chained
+   * on that future which needs a thread can run on {@link #getDelegate()}, which doesn't acquire
+   * any more resources.
+   */
+  public <T> ListenableFuture<T> submitAsync(
+      Callable<ListenableFuture<T>> task,
+      ResourceAmounts amounts,
+      long priority) {
+    return withSemaphore(amounts, priority, task);
   }
 
-  public <T> ListenableFuture<T> submit(Callable<T> task, int weight) {
-    return withSemaphore(weight, task);
+  /**
+   * @return the executor which runs the tasks once their resources are acquired.
+   */
+  public ListeningExecutorService getDelegate() {
+    return delegate;
   }
 
   @Nonnull
   @Override
   public <T> ListenableFuture<T> submit(Callable<T> task) {
-    return submit(task, defaultWeight);
+    return submit(task, defaultAmounts);
   }
 
   @Override
@@ -17,11 +17,14 @@
 package com.facebook.buck.zip;
 
 import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
 
 /**
  * An implementation of an {@link OutputStream} that will zip output. Note that, just as with
@@ -89,6 +92,35 @@ public abstract class CustomZipOutputStream extends OutputStream {
    */
   protected abstract void actuallyWrite(byte b[], int off, int len) throws IOException;
 
+  /**
+   * Adds {@code entry} of the zip file {@code source} to this zip, with the same name and contents.
+   * This uncompresses the entry and compresses it again, but subclasses which can copy the
+   * compressed data as-is should do so.
+   */
+  public void copyEntry(ZipFile source, ZipEntry entry) throws IOException {
+    ZipEntry newEntry = new ZipEntry(entry);
+
+    // For deflated entries, the act of re-"putting" this entry means we're re-compressing
+    // the data that we've just uncompressed.  Due to various environmental issues (e.g. a
+    // newer version of zlib, changed compression settings), we may end up with a different
+    // compressed size.  This causes an issue in java's `java.util.zip.ZipOutputStream`
+    // implementation, as it only updates the compressed size field if one of `crc`,
+    // `compressedSize`, or `size` is -1.  When we copy the entry as-is, none of these are
+    // -1, and we may end up with an incorrect compressed size, in which case, we'll get an
+    // exception.  So, for deflated entries, reset the compressed size to -1 (as the
+    // ZipEntry(String) would).
+    // See https://github.com/spearce/buck/commit/8338c1c3d4a546f577eed0c9941d9f1c2ba0a1b7.
+    if (entry.getMethod() == ZipEntry.DEFLATED) {
+      newEntry.setCompressedSize(-1);
+    }
+
+    putNextEntry(newEntry);
+    try (InputStream inputStream = source.getInputStream(entry)) {
+      ByteStreams.copy(inputStream, this);
+    }
+    closeEntry();
+  }
+
   // javadocs taken from OutputStream and amended to make it clear what we're doing here.
   /**
    * Writes the specified byte to this output stream. Specifically one byte is written to the
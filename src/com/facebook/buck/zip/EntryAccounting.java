@@ -55,6 +55,7 @@ class EntryAccounting {
   private Hasher crc = Hashing.crc32().newHasher();
   private long offset;
   private long externalAttributes = 0;
+  private boolean precomputed = false;
 
   /*
    * General purpose bit flag:
@@ -177,7 +178,9 @@ class EntryAccounting {
 
   public long writeLocalFileHeader(OutputStream out) throws IOException {
     if (method == Method.DEFLATE) {
-      flags |= DATA_DESCRIPTOR_FLAG;
+      if (!precomputed) {
+        flags |= DATA_DESCRIPTOR_FLAG;
+      }
 
       // See http://www.pkware.com/documents/casestudies/APPNOTE.TXT (section 4.4.4)
       // Essentially, we're about to set bits 1 and 2 to indicate to tools such as zipinfo which
@@ -213,8 +216,13 @@ class EntryAccounting {
       ByteIo.writeShort(stream, getCompressionMethod());
       ByteIo.writeInt(stream, getTime());
 
-      // In deflate mode, we don't know the size or CRC of the data.
-      if (isDeflated()) {
+      // In deflate mode, we don't know the size or CRC of the data, unless it was compressed up
+      // front.
+      if (precomputed) {
+        ByteIo.writeInt(stream, entry.getCrc());
+        ByteIo.writeInt(stream, entry.getCompressedSize());
+        ByteIo.writeInt(stream, entry.getSize());
+      } else if (isDeflated()) {
         ByteIo.writeInt(stream, 0);
         ByteIo.writeInt(stream, 0);
         ByteIo.writeInt(stream, 0);
@@ -279,6 +287,24 @@ class EntryAccounting {
     return 0; // We calculate how many bytes we write when closing deflated entries.
   }
 
+  /**
+   * Writes the whole entry, local file header included, when its data has already been compressed
+   * (or, for stored entries, is the data itself) and its CRC and sizes are set. As the header then
+   * carries the CRC and sizes, no data descriptor follows the data.
+   *
+   * @return The number of bytes written.
+   */
+  public long writePrecomputed(OutputStream out, byte[] data) throws IOException {
+    Preconditions.checkState(data.length == entry.getCompressedSize());
+    // We never deflate anything ourselves.
+    deflater.end();
+    precomputed = true;
+
+    long written = writeLocalFileHeader(out);
+    out.write(data);
+    return written + data.length;
+  }
+
   public long close(OutputStream out) throws IOException {
     if (!isDeflated()) {
       // If we're not doing deflation, end the deflater to free native resources.
@@ -0,0 +1,372 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.zip;
+
+import com.facebook.buck.timing.Clock;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+import javax.annotation.Nullable;
+
+/**
+ * A {@link CustomZipOutputStream} which compresses entries on an executor, while still writing
+ * them in the order in which they were put, so the zip is the same however the work was scheduled.
+ * <p>
+ * The data of each entry is held in memory until it is compressed and written, and only a bounded
+ * number of bytes is waiting to be written at any time. An entry which grows past
+ * {@link #MAX_BUFFERED_ENTRY_SIZE} is instead written out as it arrives, on the caller's thread,
+ * as {@link AppendingZipOutputStream} does. Across all the zips being written, at most one entry
+ * per core is compressed on the executor at once; beyond that, the thread writing the zip
+ * compresses its own entries. Entries copied from other zips with
+ * {@link #copyEntry(ZipFile, ZipEntry)} aren't compressed again: their compressed data is
+ * copied as-is, along with their CRC and sizes.
+ */
+public class ParallelZipOutputStream extends CustomZipOutputStream {
+
+  /** Entries bigger than this are streamed rather than held in memory. */
+  @VisibleForTesting
+  static final int MAX_BUFFERED_ENTRY_SIZE = 1024 * 1024;
+
+  /** How much data may be held in memory waiting to be written before we wait for it. */
+  private static final long MAX_PENDING_BYTES = 16 * MAX_BUFFERED_ENTRY_SIZE;
+
+  /**
+   * The executor is shared with the rest of the build and need not be bounded, so zips being
+   * written at once by many rules take a slot here for each entry they compress on it.
+   */
+  private static final Semaphore EXECUTOR_DEFLATERS =
+      new Semaphore(Runtime.getRuntime().availableProcessors());
+
+  private final Clock clock;
+  private final ListeningExecutorService executorService;
+  private final boolean throwExceptionsOnDuplicate;
+  private final Semaphore executorDeflaters;
+  private final Set<String> seenNames = Sets.newHashSet();
+  private final List<EntryAccounting> entries = new ArrayList<>();
+  private final Deque<PendingEntry> pendingEntries = new ArrayDeque<>();
+  private long pendingBytes = 0;
+  private long currentOffset = 0;
+  @Nullable private ZipEntry currentEntry;
+  @Nullable private ByteArrayOutputStream currentData;
+  // Set instead of currentData once the current entry is too big to hold in memory.
+  @Nullable private EntryAccounting currentStreamedEntry;
+  // Entries of a zip are usually copied one after another, so keep the last zip copied from open.
+  // The source is absent if its entries can't be read raw.
+  @Nullable private String currentSourceName;
+  private Optional<RawZipFile> currentSource = Optional.absent();
+
+  public ParallelZipOutputStream(
+      Clock clock,
+      OutputStream out,
+      ListeningExecutorService executorService,
+      boolean throwExceptionsOnDuplicate) {
+    this(clock, out, executorService, throwExceptionsOnDuplicate, EXECUTOR_DEFLATERS);
+  }
+
+  @VisibleForTesting
+  ParallelZipOutputStream(
+      Clock clock,
+      OutputStream out,
+      ListeningExecutorService executorService,
+      boolean throwExceptionsOnDuplicate,
+      Semaphore executorDeflaters) {
+    super(out);
+    this.clock = clock;
+    this.executorService = executorService;
+    this.throwExceptionsOnDuplicate = throwExceptionsOnDuplicate;
+    this.executorDeflaters = executorDeflaters;
+  }
+
+  @Override
+  protected void actuallyPutNextEntry(ZipEntry entry) throws IOException {
+    checkDuplicate(entry);
+    currentEntry = entry;
+    currentData = new ByteArrayOutputStream();
+  }
+
+  @Override
+  protected void actuallyWrite(byte[] b, int off, int len) throws IOException {
+    if (currentStreamedEntry != null) {
+      currentOffset += currentStreamedEntry.write(delegate, b, off, len);
+      return;
+    }
+
+    Preconditions.checkNotNull(currentData);
+    currentData.write(b, off, len);
+    if (currentData.size() > MAX_BUFFERED_ENTRY_SIZE && canStream(currentEntry)) {
+      startStreamingCurrentEntry();
+    }
+  }
+
+  /**
+   * Whether the entry can be written before all of its data is known. Stored entries can only be
+   * if they come with their size and CRC, as the local file header carries them.
+   */
+  private static boolean canStream(@Nullable ZipEntry entry) {
+    return entry != null &&
+        (entry.getMethod() != ZipEntry.STORED || (entry.getSize() >= 0 && entry.getCrc() >= 0));
+  }
+
+  private void startStreamingCurrentEntry() throws IOException {
+    ZipEntry entry = Preconditions.checkNotNull(currentEntry);
+    byte[] buffered = Preconditions.checkNotNull(currentData).toByteArray();
+    currentData = null;
+
+    // The entries before this one have to be written first.
+    while (!pendingEntries.isEmpty()) {
+      writeNextPendingEntry();
+    }
+
+    currentStreamedEntry = new EntryAccounting(clock, entry, currentOffset);
+    entries.add(currentStreamedEntry);
+    currentOffset += currentStreamedEntry.writeLocalFileHeader(delegate);
+    currentOffset += currentStreamedEntry.write(delegate, buffered, 0, buffered.length);
+  }
+
+  @Override
+  protected void actuallyCloseEntry() throws IOException {
+    if (currentStreamedEntry != null) {
+      currentOffset += currentStreamedEntry.close(delegate);
+      currentStreamedEntry = null;
+      currentEntry = null;
+      return;
+    }
+    if (currentEntry == null || currentData == null) {
+      return; // no-op
+    }
+
+    final ZipEntry entry = currentEntry;
+    final byte[] data = currentData.toByteArray();
+    currentEntry = null;
+    currentData = null;
+
+    entry.setSize(data.length);
+    entry.setCrc(Hashing.crc32().hashBytes(data).padToLong());
+    if (entry.getMethod() == ZipEntry.STORED) {
+      entry.setCompressedSize(data.length);
+      addPendingEntry(entry, Futures.immediateFuture(data), data.length);
+      return;
+    }
+
+    if (!executorDeflaters.tryAcquire()) {
+      // Every core is busy compressing already, so there is nothing to gain from queuing up more.
+      byte[] compressed = deflate(entry, data);
+      addPendingEntry(entry, Futures.immediateFuture(compressed), compressed.length);
+      return;
+    }
+    final Runnable releaseDeflater = new ReleaseDeflater(executorDeflaters);
+    ListenableFuture<byte[]> compressed;
+    try {
+      compressed = executorService.submit(
+          new Callable<byte[]>() {
+            @Override
+            public byte[] call() {
+              try {
+                return deflate(entry, data);
+              } finally {
+                releaseDeflater.run();
+              }
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      releaseDeflater.run();
+      throw e;
+    }
+    // A task which is cancelled before it starts never runs, so give its slot back then.
+    compressed.addListener(releaseDeflater, MoreExecutors.directExecutor());
+    addPendingEntry(entry, compressed, data.length);
+  }
+
+  @Override
+  public void copyEntry(ZipFile source, ZipEntry entry) throws IOException {
+    // Big entries are streamed through the usual path instead of being read into memory.
+    if ((entry.getMethod() != ZipEntry.DEFLATED && entry.getMethod() != ZipEntry.STORED) ||
+        entry.getCompressedSize() > MAX_BUFFERED_ENTRY_SIZE) {
+      super.copyEntry(source, entry);
+      return;
+    }
+
+    if (!source.getName().equals(currentSourceName)) {
+      closeCurrentSource();
+      currentSourceName = source.getName();
+      try {
+        currentSource = Optional.of(RawZipFile.open(Paths.get(source.getName())));
+      } catch (ZipException e) {
+        // E.g. a Zip64 archive: ZipFile can still read its entries for us.
+        currentSource = Optional.absent();
+      }
+    }
+    Optional<byte[]> storedData = currentSource.isPresent() ?
+        currentSource.get().readStoredData(entry) :
+        Optional.<byte[]>absent();
+    if (!storedData.isPresent()) {
+      super.copyEntry(source, entry);
+      return;
+    }
+
+    // Close any open entry, as putNextEntry would.
+    closeEntry();
+
+    // Keep everything about the entry, including its extra field and comment, as super does.
+    ZipEntry newEntry = new ZipEntry(entry);
+    checkDuplicate(newEntry);
+    addPendingEntry(newEntry, Futures.immediateFuture(storedData.get()), storedData.get().length);
+  }
+
+  @Override
+  protected void actuallyClose() throws IOException {
+    try {
+      while (!pendingEntries.isEmpty()) {
+        writeNextPendingEntry();
+      }
+      new CentralDirectory().writeCentralDirectory(delegate, currentOffset, entries);
+    } finally {
+      for (PendingEntry pendingEntry : pendingEntries) {
+        pendingEntry.data.cancel(/* mayInterruptIfRunning */ false);
+      }
+      closeCurrentSource();
+      delegate.close();
+    }
+  }
+
+  private void closeCurrentSource() throws IOException {
+    if (currentSource.isPresent()) {
+      currentSource.get().close();
+    }
+    currentSource = Optional.absent();
+    currentSourceName = null;
+  }
+
+  private void checkDuplicate(ZipEntry entry) throws ZipException {
+    if (throwExceptionsOnDuplicate && !seenNames.add(entry.getName())) {
+      // Same exception as ZipOutputStream.
+      throw new ZipException("duplicate entry: " + entry.getName());
+    }
+  }
+
+  /**
+   * @param size How many bytes of data are held in memory for the entry until it is written.
+   */
+  private void addPendingEntry(ZipEntry entry, ListenableFuture<byte[]> data, long size)
+      throws IOException {
+    pendingEntries.add(new PendingEntry(entry, data, size));
+    pendingBytes += size;
+
+    // Write out whatever is ready, and wait for the oldest entries if too much is queued up.
+    while (!pendingEntries.isEmpty() &&
+        (pendingBytes > MAX_PENDING_BYTES || pendingEntries.peek().data.isDone())) {
+      writeNextPendingEntry();
+    }
+  }
+
+  private void writeNextPendingEntry() throws IOException {
+    PendingEntry pendingEntry = pendingEntries.remove();
+    pendingBytes -= pendingEntry.size;
+    byte[] data;
+    try {
+      data = pendingEntry.data.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(
+          "Interrupted while compressing " + pendingEntry.entry.getName());
+    } catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    }
+
+    EntryAccounting accounting = new EntryAccounting(clock, pendingEntry.entry, currentOffset);
+    entries.add(accounting);
+    currentOffset += accounting.writePrecomputed(delegate, data);
+  }
+
+  private static byte[] deflate(ZipEntry entry, byte[] data) {
+    int level = entry instanceof CustomZipEntry ?
+        ((CustomZipEntry) entry).getCompressionLevel() :
+        Deflater.DEFAULT_COMPRESSION;
+    Deflater deflater = new Deflater(level, /* nowrap */ true);
+    try {
+      deflater.setInput(data);
+      deflater.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+      byte[] buffer = new byte[8192];
+      while (!deflater.finished()) {
+        int written = deflater.deflate(buffer);
+        out.write(buffer, 0, written);
+      }
+      entry.setCompressedSize(out.size());
+      return out.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /** Releases a slot in the semaphore of executor deflaters the first time it is run. */
+  private static class ReleaseDeflater implements Runnable {
+    private final Semaphore executorDeflaters;
+    private final AtomicBoolean released = new AtomicBoolean(false);
+
+    public ReleaseDeflater(Semaphore executorDeflaters) {
+      this.executorDeflaters = executorDeflaters;
+    }
+
+    @Override
+    public void run() {
+      if (released.compareAndSet(false, true)) {
+        executorDeflaters.release();
+      }
+    }
+  }
+
+  private static class PendingEntry {
+    private final ZipEntry entry;
+    private final ListenableFuture<byte[]> data;
+    private final long size;
+
+    public PendingEntry(ZipEntry entry, ListenableFuture<byte[]> data, long size) {
+      this.entry = entry;
+      this.data = data;
+      this.size = size;
+    }
+  }
+}
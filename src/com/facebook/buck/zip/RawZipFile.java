@@ -0,0 +1,168 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.zip;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Gives access to the data of the entries of a zip file as it is stored in the file, i.e. still
+ * compressed for deflated entries, so that it can be copied into another zip without being
+ * uncompressed and compressed again.
+ * <p>
+ * {@link java.util.zip.ZipFile} doesn't say where in the file each entry is, so this reads the
+ * central directory to find out. Zip64 archives are not supported.
+ */
+class RawZipFile implements Closeable {
+
+  private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+  private static final int MAX_COMMENT_SIZE = 0xffff;
+  private static final int CENTRAL_DIRECTORY_HEADER_SIZE = 46;
+  private static final int LOCAL_HEADER_SIZE = 30;
+  private static final long ZIP64_MAGIC_OFFSET = 0xFFFFFFFFL;
+
+  private final FileChannel channel;
+  // The offset of the local header of each entry, by name. Like ZipFile, the first entry wins if
+  // there are several with the same name.
+  private final Map<String, Long> localHeaderOffsets;
+
+  private RawZipFile(FileChannel channel, Map<String, Long> localHeaderOffsets) {
+    this.channel = channel;
+    this.localHeaderOffsets = localHeaderOffsets;
+  }
+
+  public static RawZipFile open(Path zipFile) throws IOException {
+    FileChannel channel = FileChannel.open(zipFile, StandardOpenOption.READ);
+    try {
+      return new RawZipFile(channel, readLocalHeaderOffsets(zipFile, channel));
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * @return The data of {@code entry} as stored in the zip, or absent if there is no entry with
+   *     its name and stored size in this zip.
+   */
+  public Optional<byte[]> readStoredData(ZipEntry entry) throws IOException {
+    Long localHeaderOffset = localHeaderOffsets.get(entry.getName());
+    if (localHeaderOffset == null ||
+        entry.getCompressedSize() < 0 ||
+        entry.getCompressedSize() > Integer.MAX_VALUE) {
+      return Optional.absent();
+    }
+
+    ByteBuffer header = read(localHeaderOffset, LOCAL_HEADER_SIZE);
+    if (header.getInt(0) != (int) ZipEntry.LOCSIG) {
+      throw new ZipException("Invalid local file header for " + entry.getName());
+    }
+    long dataOffset = localHeaderOffset + LOCAL_HEADER_SIZE +
+        getUnsignedShort(header, 26) + getUnsignedShort(header, 28);
+    if (dataOffset + entry.getCompressedSize() > channel.size()) {
+      return Optional.absent();
+    }
+    return Optional.of(read(dataOffset, (int) entry.getCompressedSize()).array());
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  private static Map<String, Long> readLocalHeaderOffsets(Path zipFile, FileChannel channel)
+      throws IOException {
+    // The end of central directory record is followed only by the archive comment, so search
+    // backwards for its signature.
+    long fileSize = channel.size();
+    int tailSize = (int) Math.min(fileSize, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE);
+    ByteBuffer tail = read(channel, fileSize - tailSize, tailSize);
+    int end = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE;
+    while (end >= 0 && tail.getInt(end) != (int) ZipEntry.ENDSIG) {
+      end--;
+    }
+    if (end < 0) {
+      throw new ZipException("Cannot find the central directory of " + zipFile);
+    }
+
+    long centralDirectorySize = getUnsignedInt(tail, end + 12);
+    long centralDirectoryOffset = getUnsignedInt(tail, end + 16);
+    if (centralDirectoryOffset == ZIP64_MAGIC_OFFSET) {
+      throw new ZipException("Zip64 archives are not supported: " + zipFile);
+    }
+
+    ByteBuffer centralDirectory =
+        read(channel, centralDirectoryOffset, (int) centralDirectorySize);
+    Map<String, Long> offsets = new HashMap<>();
+    int position = 0;
+    while (position + CENTRAL_DIRECTORY_HEADER_SIZE <= centralDirectorySize &&
+        centralDirectory.getInt(position) == (int) ZipEntry.CENSIG) {
+      int nameLength = getUnsignedShort(centralDirectory, position + 28);
+      int extraLength = getUnsignedShort(centralDirectory, position + 30);
+      int commentLength = getUnsignedShort(centralDirectory, position + 32);
+      long localHeaderOffset = getUnsignedInt(centralDirectory, position + 42);
+
+      byte[] nameBytes = new byte[nameLength];
+      centralDirectory.position(position + CENTRAL_DIRECTORY_HEADER_SIZE);
+      centralDirectory.get(nameBytes);
+      String name = new String(nameBytes, Charsets.UTF_8);
+      if (!offsets.containsKey(name)) {
+        offsets.put(name, localHeaderOffset);
+      }
+
+      position += CENTRAL_DIRECTORY_HEADER_SIZE + nameLength + extraLength + commentLength;
+    }
+    return offsets;
+  }
+
+  private ByteBuffer read(long offset, int length) throws IOException {
+    return read(channel, offset, length);
+  }
+
+  private static ByteBuffer read(FileChannel channel, long offset, int length)
+      throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, offset + buffer.position()) == -1) {
+        throw new EOFException();
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  private static int getUnsignedShort(ByteBuffer buffer, int index) {
+    return buffer.getShort(index) & 0xffff;
+  }
+
+  private static long getUnsignedInt(ByteBuffer buffer, int index) {
+    return buffer.getInt(index) & 0xffffffffL;
+  }
+}
@@ -23,6 +23,8 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Function;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
 import com.google.common.io.ByteStreams;
 
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
@@ -33,9 +35,12 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.PosixFilePermission;
 import java.util.Enumeration;
+import java.util.Map;
 import java.util.Set;
+import java.util.zip.ZipEntry;
 
 public class Unzip {
 
@@ -63,17 +68,7 @@ public class Unzip {
         ZipArchiveEntry entry = entries.nextElement();
         String fileName = entry.getName();
         Path target = relativePath.resolve(fileName);
-        if (filesystem.exists(target)) {
-          switch (existingFileMode) {
-            case OVERWRITE:
-              // Unpack the file or directory as usual, overwriting the file.
-              break;
-            case OVERWRITE_AND_CLEAN_DIRECTORIES:
-              // Delete the file or directory before unpacking it.
-              filesystem.deleteRecursivelyIfExists(target);
-              break;
-          }
-        }
+        prepareTarget(filesystem, target, existingFileMode);
 
         // TODO(bolinfest): Keep track of which directories have already been written to avoid
         // making unnecessary Files.createDirectories() calls. In practice, a single zip file will
@@ -185,6 +180,191 @@ public class Unzip {
     return filesWritten.build();
   }
 
+  /**
+   * Unzips an archive which is read sequentially from {@code zipStream}, so it can be unpacked
+   * while it is still being downloaded, to the root of {@code filesystem}. Returns the paths of the
+   * written files.
+   * <p>
+   * Permissions and symlinks are only recorded in the central directory at the end of the archive,
+   * so they are applied once all entries have been written. The stream is not closed.
+   */
+  public static ImmutableList<Path> extractZipStream(
+      InputStream zipStream,
+      ProjectFilesystem filesystem,
+      ExistingFileMode existingFileMode) throws IOException {
+    return extractZipStream(
+        zipStream,
+        filesystem,
+        filesystem.getRootPath().getFileSystem().getPath(""),
+        existingFileMode,
+        ImmutableSet.<Path>builder(),
+        ImmutableSet.<Path>builder());
+  }
+
+  /**
+   * Like {@link #extractZipStream(InputStream, ProjectFilesystem, ExistingFileMode)}, but unpacks
+   * the archive into the empty directory {@code stagingDir}, so that it only replaces anything in
+   * the project once the caller has made sure it is intact. If unpacking fails, the staging
+   * directory is deleted.
+   */
+  public static StagedZip stageZipStream(
+      InputStream zipStream,
+      ProjectFilesystem filesystem,
+      Path stagingDir) throws IOException {
+    ImmutableSet.Builder<Path> entries = ImmutableSet.builder();
+    ImmutableSet.Builder<Path> directories = ImmutableSet.builder();
+    try {
+      extractZipStream(
+          zipStream,
+          filesystem,
+          stagingDir,
+          ExistingFileMode.OVERWRITE,
+          entries,
+          directories);
+    } catch (IOException | RuntimeException e) {
+      filesystem.deleteRecursivelyIfExists(stagingDir);
+      throw e;
+    }
+    return new StagedZip(filesystem, stagingDir, entries.build(), directories.build());
+  }
+
+  private static ImmutableList<Path> extractZipStream(
+      InputStream zipStream,
+      ProjectFilesystem filesystem,
+      Path relativePath,
+      ExistingFileMode existingFileMode,
+      ImmutableSet.Builder<Path> entries,
+      ImmutableSet.Builder<Path> directories) throws IOException {
+    Path root = filesystem.getRootPath().getFileSystem().getPath("");
+
+    ImmutableList.Builder<Path> filesWritten = ImmutableList.builder();
+    Map<String, Path> writtenFilesByEntryName = Maps.newHashMap();
+    try (ZipStreamReader zip = new ZipStreamReader(zipStream)) {
+      for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+        Path entryPath = root.resolve(entry.getName());
+        Path target = relativePath.resolve(entryPath);
+        prepareTarget(filesystem, target, existingFileMode);
+        entries.add(entryPath);
+
+        if (entry.isDirectory()) {
+          directories.add(entryPath);
+          filesystem.mkdirs(target);
+        } else {
+          filesystem.createParentDirs(target);
+          // We don't know yet whether this entry is a symlink, so make sure we never write through
+          // a symlink left behind by a previous unpack.
+          if (filesystem.isSymLink(target)) {
+            filesystem.deleteFileAtPath(target);
+          }
+
+          filesWritten.add(target);
+          writtenFilesByEntryName.put(entry.getName(), target);
+          try (OutputStream out = filesystem.newFileOutputStream(target)) {
+            ByteStreams.copy(zip, out);
+          }
+        }
+      }
+
+      for (ZipStreamReader.CentralDirectoryRecord record : zip.readCentralDirectory()) {
+        Path target = writtenFilesByEntryName.get(record.getName());
+        if (target == null) {
+          continue;
+        }
+        if (record.isUnixSymlink()) {
+          // Symlinks are stored as entries whose contents are the target of the link.
+          String linkTarget;
+          try (InputStream is = filesystem.newFileInputStream(target)) {
+            linkTarget = new String(ByteStreams.toByteArray(is), Charsets.UTF_8);
+          }
+          filesystem.createSymLink(
+              target,
+              filesystem.getRootPath().getFileSystem().getPath(linkTarget),
+              /* force */ true);
+          continue;
+        }
+        // See the comment in extractZipFile about how we store executable permissions.
+        Set<PosixFilePermission> permissions =
+            MorePosixFilePermissions.fromMode(record.getExternalAttributes() >> 16);
+        if (permissions.contains(PosixFilePermission.OWNER_EXECUTE)) {
+          MoreFiles.makeExecutable(filesystem.resolve(target));
+        }
+      }
+    }
+    return filesWritten.build();
+  }
+
+  /**
+   * An archive unpacked by {@link #stageZipStream} into a staging directory, waiting to be moved
+   * into place or thrown away.
+   */
+  public static class StagedZip {
+    private final ProjectFilesystem filesystem;
+    private final Path stagingDir;
+    // Entry paths, relative to the staging directory and in the order they appear in the archive.
+    private final ImmutableSet<Path> entries;
+    private final ImmutableSet<Path> directories;
+
+    private StagedZip(
+        ProjectFilesystem filesystem,
+        Path stagingDir,
+        ImmutableSet<Path> entries,
+        ImmutableSet<Path> directories) {
+      this.filesystem = filesystem;
+      this.stagingDir = stagingDir;
+      this.entries = entries;
+      this.directories = directories;
+    }
+
+    /**
+     * Moves the unpacked entries to the same paths relative to the root of the filesystem, treating
+     * existing files as {@link #extractZipStream(InputStream, ProjectFilesystem, ExistingFileMode)}
+     * would have, and deletes the staging directory. Returns the paths of the moved files.
+     */
+    public ImmutableList<Path> moveIntoPlace(ExistingFileMode existingFileMode)
+        throws IOException {
+      ImmutableList.Builder<Path> filesWritten = ImmutableList.builder();
+      for (Path entry : entries) {
+        prepareTarget(filesystem, entry, existingFileMode);
+        if (directories.contains(entry)) {
+          filesystem.mkdirs(entry);
+        } else {
+          filesystem.createParentDirs(entry);
+          // Moving replaces a symlink at the target rather than writing through it, and keeps the
+          // staged file's permissions, or the staged symlink.
+          filesystem.move(
+              stagingDir.resolve(entry),
+              entry,
+              StandardCopyOption.REPLACE_EXISTING);
+          filesWritten.add(entry);
+        }
+      }
+      delete();
+      return filesWritten.build();
+    }
+
+    /** Deletes the staging directory and everything still in it. */
+    public void delete() throws IOException {
+      filesystem.deleteRecursivelyIfExists(stagingDir);
+    }
+  }
+
+  private static void prepareTarget(
+      ProjectFilesystem filesystem,
+      Path target,
+      ExistingFileMode existingFileMode) throws IOException {
+    if (filesystem.exists(target)) {
+      switch (existingFileMode) {
+        case OVERWRITE:
+          // Unpack the file or directory as usual, overwriting the file.
+          break;
+        case OVERWRITE_AND_CLEAN_DIRECTORIES:
+          // Delete the file or directory before unpacking it.
+          filesystem.deleteRecursivelyIfExists(target);
+          break;
+      }
+    }
+  }
+
   public static ImmutableList<Path> extractZipFile(
       Path zipFile,
       ProjectFilesystem filesystem,
@@ -19,6 +19,7 @@ package com.facebook.buck.zip;
 import com.facebook.buck.timing.Clock;
 import com.facebook.buck.timing.DefaultClock;
 import com.facebook.buck.util.HumanReadableException;
+import com.google.common.util.concurrent.ListeningExecutorService;
 
 import java.io.BufferedOutputStream;
 import java.io.IOException;
@@ -97,6 +98,44 @@ public class ZipOutputStreams {
     }
   }
 
+  /**
+   * Create a new {@link CustomZipOutputStream} that compresses entries on {@code executorService}
+   * and handles duplicate entries in the way dictated by {@code mode}. Entries are still written in
+   * the order they are added. See {@link ParallelZipOutputStream}.
+   *
+   * @param zipFile The file to write to.
+   * @param mode How to handle duplicate entries. Overwriting existing entries isn't supported.
+   * @param executorService The executor to compress entries on.
+   */
+  public static CustomZipOutputStream newParallelOutputStream(
+      Path zipFile,
+      HandleDuplicates mode,
+      ListeningExecutorService executorService) throws IOException {
+    return newParallelOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(zipFile)),
+        mode,
+        executorService);
+  }
+
+  public static CustomZipOutputStream newParallelOutputStream(
+      OutputStream out,
+      HandleDuplicates mode,
+      ListeningExecutorService executorService) {
+    switch (mode) {
+      case APPEND_TO_ZIP:
+      case THROW_EXCEPTION:
+        return new ParallelZipOutputStream(
+            new DefaultClock(),
+            out,
+            executorService,
+            mode == HandleDuplicates.THROW_EXCEPTION);
+      case OVERWRITE_EXISTING:
+      default:
+        throw new HumanReadableException(
+            "Unable to determine which parallel zip output mode to use: %s", mode);
+    }
+  }
+
   public enum HandleDuplicates {
     /** Duplicate entries are simply appended to the zip. */
     APPEND_TO_ZIP,
@@ -16,7 +16,7 @@
 
 package com.facebook.buck.zip;
 
-import static com.facebook.buck.zip.ZipOutputStreams.HandleDuplicates.OVERWRITE_EXISTING;
+import static com.facebook.buck.zip.ZipOutputStreams.HandleDuplicates.THROW_EXCEPTION;
 
 import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.io.MorePaths;
@@ -174,8 +174,12 @@ public class ZipStep implements Step {
     try (
       BufferedOutputStream baseOut =
           new BufferedOutputStream(filesystem.newFileOutputStream(pathToZipFile));
+      // The entries are keyed by name above, so there can't be duplicates.
       CustomZipOutputStream out =
-          ZipOutputStreams.newOutputStream(baseOut, OVERWRITE_EXISTING)) {
+          ZipOutputStreams.newParallelOutputStream(
+              baseOut,
+              THROW_EXCEPTION,
+              context.getExecutorService(ExecutionContext.ExecutorPool.CPU))) {
 
       filesystem.walkRelativeFileTree(baseDir, pathFileVisitor);
 
@@ -0,0 +1,364 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.zip;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import javax.annotation.Nullable;
+
+/**
+ * Reads the entries of a zip archive sequentially from a stream, so an archive can be unpacked
+ * while it is still being downloaded.
+ * <p>
+ * Unlike {@link java.util.zip.ZipInputStream}, this also parses the central directory once all the
+ * entries have been read. The central directory is the only place that records an entry's
+ * external attributes, which is where we store POSIX permissions and whether an entry is a
+ * symlink (see {@link com.facebook.buck.io.ProjectFilesystem#getFileAttributesForZipEntry}).
+ * <p>
+ * Reading the data of the current entry is done through the {@link InputStream} methods of this
+ * class. Closing this reader does not close the underlying stream.
+ *
+ * <a href="http://www.pkware.com/documents/casestudies/APPNOTE.TXT">
+ *   http://www.pkware.com/documents/casestudies/APPNOTE.TXT
+ * </a>
+ */
+class ZipStreamReader extends InputStream {
+
+  private static final int BUFFER_SIZE = 8192;
+  private static final int DATA_DESCRIPTOR_FLAG = 1 << 3;
+  private static final long ZIP64_MAGIC_SIZE = 0xFFFFFFFFL;
+
+  private final PushbackInputStream in;
+  private final Inflater inflater = new Inflater(/* nowrap */ true);
+  private final CRC32 crc = new CRC32();
+  private final byte[] inputBuffer = new byte[BUFFER_SIZE];
+  private final byte[] scratch = new byte[46];
+  private int inputBufferLength = 0;
+
+  @Nullable
+  private ZipEntry currentEntry;
+  private int currentFlags;
+  private long currentRemaining;
+  private boolean currentEntryExhausted;
+
+  // The signature which terminated the run of local entries, once we have reached it.
+  @Nullable
+  private Long centralDirectorySignature;
+
+  public ZipStreamReader(InputStream in) {
+    this.in = new PushbackInputStream(in, BUFFER_SIZE);
+  }
+
+  /**
+   * Advances to the next entry in the archive, skipping any unread data of the current entry.
+   *
+   * @return the next entry, or {@code null} once the central directory has been reached.
+   */
+  @Nullable
+  public ZipEntry getNextEntry() throws IOException {
+    if (currentEntry != null) {
+      closeEntry();
+    }
+    if (centralDirectorySignature != null) {
+      return null;
+    }
+
+    long signature = readUnsignedInt();
+    if (signature == ZipEntry.CENSIG || signature == ZipEntry.ENDSIG) {
+      centralDirectorySignature = signature;
+      return null;
+    }
+    if (signature != ZipEntry.LOCSIG) {
+      throw new ZipException(
+          String.format("Invalid local file header signature: 0x%08x", signature));
+    }
+
+    readFully(scratch, 26);
+    int flags = getShort(scratch, 2);
+    int method = getShort(scratch, 4);
+    long entryCrc = getUnsignedInt(scratch, 10);
+    long compressedSize = getUnsignedInt(scratch, 14);
+    long size = getUnsignedInt(scratch, 18);
+    int nameLength = getShort(scratch, 22);
+    int extraLength = getShort(scratch, 24);
+
+    byte[] nameBytes = new byte[nameLength];
+    readFully(nameBytes, nameLength);
+    skipFully(extraLength);
+
+    ZipEntry entry = new ZipEntry(new String(nameBytes, Charsets.UTF_8));
+    entry.setMethod(method);
+    if ((flags & DATA_DESCRIPTOR_FLAG) == 0) {
+      if (compressedSize == ZIP64_MAGIC_SIZE || size == ZIP64_MAGIC_SIZE) {
+        throw new ZipException("Zip64 entries are not supported: " + entry.getName());
+      }
+      entry.setCrc(entryCrc);
+      entry.setCompressedSize(compressedSize);
+      entry.setSize(size);
+    }
+
+    switch (method) {
+      case ZipEntry.STORED:
+        if ((flags & DATA_DESCRIPTOR_FLAG) != 0) {
+          throw new ZipException(
+              "Stored entries with data descriptors can't be streamed: " + entry.getName());
+        }
+        currentRemaining = size;
+        break;
+      case ZipEntry.DEFLATED:
+        inflater.reset();
+        break;
+      default:
+        throw new ZipException(
+            String.format("Unsupported compression method %d for %s", method, entry.getName()));
+    }
+
+    crc.reset();
+    currentEntry = entry;
+    currentFlags = flags;
+    currentEntryExhausted = false;
+    return entry;
+  }
+
+  /**
+   * Reads the central directory. May only be called once {@link #getNextEntry()} has returned
+   * {@code null}.
+   */
+  public ImmutableList<CentralDirectoryRecord> readCentralDirectory() throws IOException {
+    Preconditions.checkState(
+        centralDirectorySignature != null,
+        "All entries must be read before the central directory.");
+
+    ImmutableList.Builder<CentralDirectoryRecord> records = ImmutableList.builder();
+    long signature = centralDirectorySignature;
+    while (signature == ZipEntry.CENSIG) {
+      readFully(scratch, 42);
+      int versionMadeBy = getShort(scratch, 0);
+      int nameLength = getShort(scratch, 24);
+      int extraLength = getShort(scratch, 26);
+      int commentLength = getShort(scratch, 28);
+      long externalAttributes = getUnsignedInt(scratch, 34);
+
+      byte[] nameBytes = new byte[nameLength];
+      readFully(nameBytes, nameLength);
+      skipFully(extraLength + commentLength);
+
+      records.add(
+          new CentralDirectoryRecord(
+              new String(nameBytes, Charsets.UTF_8),
+              versionMadeBy,
+              externalAttributes));
+      signature = readUnsignedInt();
+    }
+    centralDirectorySignature = signature;
+    return records.build();
+  }
+
+  @Override
+  public int read() throws IOException {
+    byte[] single = new byte[1];
+    int read = read(single, 0, 1);
+    return read == -1 ? -1 : single[0] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (currentEntry == null || currentEntryExhausted) {
+      return -1;
+    }
+    if (len == 0) {
+      return 0;
+    }
+
+    int read;
+    if (currentEntry.getMethod() == ZipEntry.STORED) {
+      read = readStored(b, off, len);
+    } else {
+      read = readDeflated(b, off, len);
+    }
+
+    if (read == -1) {
+      currentEntryExhausted = true;
+      finishEntry();
+    } else {
+      crc.update(b, off, read);
+    }
+    return read;
+  }
+
+  /**
+   * Releases the resources held by this reader. The underlying stream is not closed, as it is
+   * owned by the caller.
+   */
+  @Override
+  public void close() {
+    inflater.end();
+  }
+
+  private int readStored(byte[] b, int off, int len) throws IOException {
+    if (currentRemaining == 0) {
+      return -1;
+    }
+    int read = in.read(b, off, (int) Math.min(len, currentRemaining));
+    if (read == -1) {
+      throw new EOFException("Unexpected end of stream in entry " + getCurrentName());
+    }
+    currentRemaining -= read;
+    return read;
+  }
+
+  private int readDeflated(byte[] b, int off, int len) throws IOException {
+    try {
+      while (true) {
+        int inflated = inflater.inflate(b, off, len);
+        if (inflated > 0) {
+          return inflated;
+        }
+        if (inflater.finished()) {
+          // The inflater may have been handed bytes past the end of this entry, so give them
+          // back to be read as the next header.
+          int remaining = inflater.getRemaining();
+          if (remaining > 0) {
+            in.unread(inputBuffer, inputBufferLength - remaining, remaining);
+          }
+          return -1;
+        }
+        if (inflater.needsDictionary()) {
+          throw new ZipException("Preset dictionaries are not supported: " + getCurrentName());
+        }
+        if (inflater.needsInput()) {
+          inputBufferLength = in.read(inputBuffer, 0, inputBuffer.length);
+          if (inputBufferLength == -1) {
+            throw new EOFException("Unexpected end of stream in entry " + getCurrentName());
+          }
+          inflater.setInput(inputBuffer, 0, inputBufferLength);
+        }
+      }
+    } catch (DataFormatException e) {
+      throw new ZipException(
+          String.format("Invalid deflate data in %s: %s", getCurrentName(), e.getMessage()));
+    }
+  }
+
+  private void closeEntry() throws IOException {
+    byte[] discard = new byte[BUFFER_SIZE];
+    while (read(discard, 0, discard.length) != -1) {
+      // Skip the rest of the entry.
+    }
+    currentEntry = null;
+  }
+
+  private void finishEntry() throws IOException {
+    ZipEntry entry = Preconditions.checkNotNull(currentEntry);
+    long expectedCrc = entry.getCrc();
+    if ((currentFlags & DATA_DESCRIPTOR_FLAG) != 0) {
+      // The data descriptor signature is optional.
+      long value = readUnsignedInt();
+      if (value == ZipEntry.EXTSIG) {
+        value = readUnsignedInt();
+      }
+      expectedCrc = value;
+      readFully(scratch, 8);
+      entry.setCrc(expectedCrc);
+      entry.setCompressedSize(getUnsignedInt(scratch, 0));
+      entry.setSize(getUnsignedInt(scratch, 4));
+    }
+
+    if (expectedCrc != crc.getValue()) {
+      throw new ZipException(
+          String.format(
+              "Invalid CRC for %s: expected 0x%08x but got 0x%08x",
+              entry.getName(),
+              expectedCrc,
+              crc.getValue()));
+    }
+  }
+
+  private String getCurrentName() {
+    return currentEntry == null ? "<none>" : currentEntry.getName();
+  }
+
+  private long readUnsignedInt() throws IOException {
+    readFully(scratch, 4);
+    return getUnsignedInt(scratch, 0);
+  }
+
+  private void readFully(byte[] b, int len) throws IOException {
+    ByteStreams.readFully(in, b, 0, len);
+  }
+
+  private void skipFully(int len) throws IOException {
+    ByteStreams.skipFully(in, len);
+  }
+
+  private static int getShort(byte[] b, int off) {
+    return (b[off] & 0xff) | ((b[off + 1] & 0xff) << 8);
+  }
+
+  private static long getUnsignedInt(byte[] b, int off) {
+    return getShort(b, off) | ((long) getShort(b, off + 2) << 16);
+  }
+
+  /**
+   * The parts of a central directory file header which are not available from the local header.
+   */
+  public static class CentralDirectoryRecord {
+    // The "version made by" system indicating UNIX-style external attributes.
+    private static final int PLATFORM_UNIX = 3;
+    private static final int S_IFMT = 0170000;
+    private static final int S_IFLNK = 0120000;
+
+    private final String name;
+    private final int versionMadeBy;
+    private final long externalAttributes;
+
+    CentralDirectoryRecord(String name, int versionMadeBy, long externalAttributes) {
+      this.name = name;
+      this.versionMadeBy = versionMadeBy;
+      this.externalAttributes = externalAttributes;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getExternalAttributes() {
+      return externalAttributes;
+    }
+
+    /**
+     * Mirrors {@link org.apache.commons.compress.archivers.zip.ZipArchiveEntry#isUnixSymlink()}.
+     */
+    public boolean isUnixSymlink() {
+      return (versionMadeBy >> 8) == PLATFORM_UNIX &&
+          ((externalAttributes >> 16) & S_IFMT) == S_IFLNK;
+    }
+  }
+}
@@ -45,6 +45,7 @@ public class AndroidBinaryBuilder extends AbstractNodeBuilder<AndroidBinaryDescr
             new ProGuardConfig(FakeBuckConfig.builder().build()),
             ImmutableMap.<NdkCxxPlatforms.TargetCpuType, NdkCxxPlatform>of(),
             MoreExecutors.newDirectExecutorService(),
+            /* dexInProcess */ false,
             CxxPlatformUtils.DEFAULT_CONFIG),
         target);
   }
@@ -17,6 +17,7 @@
 package com.facebook.buck.android;
 
 import static com.facebook.buck.util.Verbosity.COMMANDS_AND_SPECIAL_OUTPUT;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.android.DxStep.Option;
@@ -24,10 +25,12 @@ import com.facebook.buck.cli.VerbosityParser;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.Step;
+import com.facebook.buck.step.StepExecutionResult;
 import com.facebook.buck.step.TestExecutionContext;
 import com.facebook.buck.testutil.FakeProjectFilesystem;
 import com.facebook.buck.testutil.MoreAsserts;
 import com.facebook.buck.testutil.TestConsole;
+import com.facebook.buck.testutil.integration.TemporaryPaths;
 import com.facebook.buck.util.Verbosity;
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
@@ -36,10 +39,12 @@ import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.io.Resources;
 
 import org.easymock.EasyMock;
 import org.easymock.EasyMockSupport;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
 
 import java.io.IOException;
@@ -49,6 +54,9 @@ import java.util.EnumSet;
 
 public class DxStepTest extends EasyMockSupport {
 
+  @Rule
+  public TemporaryPaths tmp = new TemporaryPaths();
+
   private static final String EXPECTED_DX_PREFIX =
       Paths.get("/usr/bin/dx") +
           " --dex";
@@ -272,6 +280,28 @@ public class DxStepTest extends EasyMockSupport {
     }
   }
 
+  @Test
+  public void testRunInProcessDexesClasses() throws Exception {
+    try (ExecutionContext context = createExecutionContext(2)) {
+      ProjectFilesystem filesystem = new ProjectFilesystem(tmp.getRoot());
+      Path classFile = Paths.get("classes/com/facebook/buck/android/DxStepTest.class");
+      filesystem.createParentDirs(classFile);
+      filesystem.writeBytesToPath(
+          Resources.toByteArray(getClass().getResource("DxStepTest.class")),
+          classFile);
+
+      DxStep dx = new DxStep(
+          filesystem,
+          Paths.get("classes.dex"),
+          ImmutableSet.of(Paths.get("classes")),
+          EnumSet.of(Option.USE_CUSTOM_DX_IF_AVAILABLE, Option.RUN_IN_PROCESS));
+
+      assertEquals(StepExecutionResult.SUCCESS, dx.execute(context));
+      assertTrue(filesystem.exists(Paths.get("classes.dex")));
+      verifyAll();
+    }
+  }
+
   private ExecutionContext createExecutionContext(int verbosityLevel) throws IOException {
     Verbosity verbosity = VerbosityParser.getVerbosityForLevel(verbosityLevel);
     TestConsole console = new TestConsole(verbosity);
@@ -27,13 +27,17 @@ import com.facebook.buck.android.aapt.RDotTxtEntry.IdType;
 import com.facebook.buck.android.aapt.RDotTxtEntry.RType;
 import com.facebook.buck.rules.DefaultTargetNodeToBuildRuleTransformer;
 import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.model.BuildId;
 import com.facebook.buck.rules.BuildRuleResolver;
 import com.facebook.buck.rules.FakeSourcePath;
 import com.facebook.buck.rules.SourcePathResolver;
 import com.facebook.buck.rules.TargetGraph;
+import com.facebook.buck.step.TestExecutionContext;
 import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.facebook.buck.testutil.integration.TemporaryPaths;
 import com.facebook.buck.timing.FakeClock;
+import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 
@@ -45,6 +49,9 @@ import org.junit.Test;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.xml.xpath.XPathExpressionException;
@@ -72,6 +79,9 @@ public class MiniAaptTest {
   @Rule
   public ExpectedException thrown = ExpectedException.none();
 
+  @Rule
+  public TemporaryPaths tmp = new TemporaryPaths();
+
   @Test
   public void testFindingResourceIdsInXml()
       throws IOException, XPathExpressionException, ResourceParseException {
@@ -608,4 +618,59 @@ public class MiniAaptTest {
            ), resources);
   }
 
+  @Test
+  public void testExecuteAssignsTheSameIdsEveryTime() throws Exception {
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmp.getRoot());
+    filesystem.mkdirs(Paths.get("res/layout"));
+    filesystem.mkdirs(Paths.get("res/values"));
+    for (int i = 0; i < 8; i++) {
+      filesystem.writeLinesToPath(
+          ImmutableList.of(
+              "<?xml version=\"1.0\" encoding=\"UTF-8\"?>",
+              "<RelativeLayout>",
+              "<TextView android:layout_below=\"@+id/title" + i + "\" ",
+              "android:id=\"@+id/text" + i + "\" ",
+              "android:text=\"@string/text" + i + "\" />",
+              "</RelativeLayout>"),
+          Paths.get(String.format("res/layout/layout%d.xml", i)));
+      filesystem.writeLinesToPath(
+          ImmutableList.of(
+              "<?xml version=\"1.0\" encoding=\"UTF-8\"?>",
+              "<resources>",
+              "<string name=\"text" + i + "\">Text</string>",
+              "<declare-styleable name=\"View" + i + "\">",
+              "  <attr name=\"attr" + i + "\" />",
+              "</declare-styleable>",
+              "</resources>"),
+          Paths.get(String.format("res/values/values%d.xml", i)));
+    }
+
+    List<String> rDotTxt = null;
+    for (int run = 0; run < 3; run++) {
+      MiniAapt aapt = new MiniAapt(
+          resolver,
+          filesystem,
+          new FakeSourcePath(filesystem, "res"),
+          Paths.get("R.txt"),
+          ImmutableSet.<Path>of());
+      assertEquals(0, aapt.execute(TestExecutionContext.newInstance()).getExitCode());
+      List<String> lines = filesystem.readLines(Paths.get("R.txt"));
+      if (rDotTxt != null) {
+        assertEquals(rDotTxt, lines);
+      }
+      rDotTxt = lines;
+    }
+
+    // Ids defined in the same element are numbered in the order of the names of their attributes.
+    Map<String, Integer> ids = new HashMap<>();
+    for (String line : rDotTxt) {
+      List<String> parts = Splitter.on(' ').splitToList(line);
+      if (parts.get(1).equals("id")) {
+        ids.put(parts.get(2), Integer.decode(parts.get(3)));
+      }
+    }
+    for (int i = 0; i < 8; i++) {
+      assertEquals(ids.get("text" + i) + 1, (int) ids.get("title" + i));
+    }
+  }
 }
@@ -17,13 +17,19 @@
 package com.facebook.buck.artifact_cache;
 
 import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.BuckEventBusFactory;
 import com.facebook.buck.io.BorrowablePath;
 import com.facebook.buck.io.LazyPath;
 import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.slb.HttpService;
 import com.facebook.buck.testutil.FakeProjectFilesystem;
 import com.facebook.buck.util.concurrent.FakeListeningExecutorService;
+import com.google.common.base.Functions;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 
@@ -38,6 +44,10 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 public class AbstractNetworkCacheTest {
 
+  private static final ImmutableSet<RuleKey> RULE_KEYS = ImmutableSet.of(
+      new RuleKey("00000000000000000000000000000000"),
+      new RuleKey("11111111111111111111111111111111"));
+
   @Test
   public void testBigArtifactIsNotStored()
       throws InterruptedException, IOException, ExecutionException {
@@ -56,6 +66,109 @@ public class AbstractNetworkCacheTest {
     testStoreCall(4, Optional.<Long>absent(), 5, 10, 100, 1000);
   }
 
+  @Test
+  public void testMultiContainsIsNotRetriedAfterAFailure() {
+    AtomicInteger multiContainsCallCount = new AtomicInteger(0);
+    AbstractNetworkCache cache =
+        createCacheFailingMultiContains(multiContainsCallCount, Integer.MAX_VALUE);
+
+    Assert.assertEquals(ImmutableMap.of(), cache.multiContains(RULE_KEYS));
+    Assert.assertEquals(ImmutableMap.of(), cache.multiContains(RULE_KEYS));
+    Assert.assertEquals(1, multiContainsCallCount.get());
+  }
+
+  @Test
+  public void testMultiContainsIsRetriedAfterBackingOff() {
+    AtomicInteger multiContainsCallCount = new AtomicInteger(0);
+    AbstractNetworkCache cache = createCacheFailingMultiContains(multiContainsCallCount, 2);
+    ImmutableMap<RuleKey, Boolean> found = ImmutableMap.of(
+        new RuleKey("00000000000000000000000000000000"), true,
+        new RuleKey("11111111111111111111111111111111"), true);
+
+    // The first failure skips the next batch, and the second the two after that.
+    ImmutableList.Builder<Integer> callCounts = ImmutableList.builder();
+    for (int i = 0; i < 5; i++) {
+      Assert.assertEquals(ImmutableMap.of(), cache.multiContains(RULE_KEYS));
+      callCounts.add(multiContainsCallCount.get());
+    }
+    Assert.assertEquals(ImmutableList.of(1, 1, 2, 2, 2), callCounts.build());
+
+    // Once a request succeeds, every batch is sent again.
+    Assert.assertEquals(found, cache.multiContains(RULE_KEYS));
+    Assert.assertEquals(found, cache.multiContains(RULE_KEYS));
+    Assert.assertEquals(4, multiContainsCallCount.get());
+  }
+
+  @Test
+  public void testMultiContainsBackOffIsLimited() {
+    AtomicInteger multiContainsCallCount = new AtomicInteger(0);
+    AbstractNetworkCache cache =
+        createCacheFailingMultiContains(multiContainsCallCount, Integer.MAX_VALUE);
+
+    // Fail often enough in a row for the back-off to reach its limit.
+    while (multiContainsCallCount.get() < 10) {
+      cache.multiContains(RULE_KEYS);
+    }
+    int batches = 0;
+    while (multiContainsCallCount.get() < 11) {
+      cache.multiContains(RULE_KEYS);
+      batches++;
+    }
+    Assert.assertEquals(AbstractNetworkCache.MAX_SKIPPED_MULTI_CONTAINS_BATCHES + 1, batches);
+  }
+
+  /**
+   * @return a cache whose multiContains requests fail the first {@code failures} times, and
+   *     then find every rule key.
+   */
+  private static AbstractNetworkCache createCacheFailingMultiContains(
+      final AtomicInteger multiContainsCallCount,
+      final int failures) {
+    return new AbstractNetworkCache(
+        NetworkCacheArgs.builder()
+            .setCacheName("AbstractNetworkCacheTest")
+            .setFetchClient(EasyMock.createMock(HttpService.class))
+            .setStoreClient(EasyMock.createMock(HttpService.class))
+            .setDoStore(true)
+            .setProjectFilesystem(new FakeProjectFilesystem())
+            .setBuckEventBus(BuckEventBusFactory.newInstance())
+            .setHttpWriteExecutorService(new FakeListeningExecutorService())
+            .setErrorTextTemplate("super error message")
+            .build()) {
+      @Override
+      protected CacheResult fetchImpl(
+          RuleKey ruleKey,
+          LazyPath output,
+          HttpArtifactCacheEvent.Finished.Builder eventBuilder) throws IOException {
+        return null;
+      }
+
+      @Override
+      protected CacheResult fetchStreamingImpl(
+          RuleKey ruleKey,
+          ArtifactStreamConsumer consumer,
+          HttpArtifactCacheEvent.Finished.Builder eventBuilder) throws IOException {
+        return null;
+      }
+
+      @Override
+      protected ImmutableMap<RuleKey, Boolean> multiContainsImpl(ImmutableSet<RuleKey> ruleKeys)
+          throws IOException {
+        if (multiContainsCallCount.incrementAndGet() <= failures) {
+          throw new IOException("MULTI_CONTAINS is not supported");
+        }
+        return Maps.toMap(ruleKeys, Functions.constant(true));
+      }
+
+      @Override
+      protected void storeImpl(
+          ArtifactInfo info,
+          Path file,
+          HttpArtifactCacheEvent.Finished.Builder eventBuilder) throws IOException {
+      }
+    };
+  }
+
   private void testStoreCall(
       int expectStoreCallCount,
       Optional<Long> maxArtifactSizeBytes,
@@ -89,6 +202,20 @@ public class AbstractNetworkCacheTest {
         return null;
       }
 
+      @Override
+      protected CacheResult fetchStreamingImpl(
+          RuleKey ruleKey,
+          ArtifactStreamConsumer consumer,
+          HttpArtifactCacheEvent.Finished.Builder eventBuilder) throws IOException {
+        return null;
+      }
+
+      @Override
+      protected ImmutableMap<RuleKey, Boolean> multiContainsImpl(ImmutableSet<RuleKey> ruleKeys)
+          throws IOException {
+        return null;
+      }
+
       @Override
       protected void storeImpl(
           ArtifactInfo info,
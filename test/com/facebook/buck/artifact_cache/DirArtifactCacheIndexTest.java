@@ -0,0 +1,161 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+public class DirArtifactCacheIndexTest {
+
+  @Rule
+  public TemporaryPaths tmpDir = new TemporaryPaths();
+
+  private Path cacheRoot;
+
+  @Before
+  public void setUp() throws IOException {
+    cacheRoot = tmpDir.newFolder("cache");
+  }
+
+  @Test
+  public void missingIndexIsBuiltFromAccessTimes() throws IOException {
+    writeFile("aa/bb/aabb", 1, 2000);
+    writeFile("cc/dd/ccdd", 1, 1000);
+    writeFile("tmp/artifact.tmp", 1, 0);
+
+    DirArtifactCacheIndex index = newIndex();
+    assertEquals(ImmutableList.of("cc/dd/ccdd", "aa/bb/aabb"), index.getPathsByLastAccess());
+    assertEquals(2, index.getTotalSizeBytes());
+  }
+
+  @Test
+  public void leastRecentlyUsedFilesAreEvicted() throws IOException {
+    DirArtifactCacheIndex index = newIndex();
+    index.add("a", 3, 0);
+    index.add("b", 3, 1);
+    index.add("c", 3, 2);
+    index.access("a", 3);
+
+    assertEquals(ImmutableList.of("b", "c"), index.evict(4));
+    assertEquals(ImmutableList.of("a"), index.getPathsByLastAccess());
+    assertEquals(3, index.getTotalSizeBytes());
+  }
+
+  @Test
+  public void changesAreSharedThroughTheLog() throws IOException {
+    // Neither index has to read the log to record changes.
+    DirArtifactCacheIndex first = newIndex();
+    DirArtifactCacheIndex second = newIndex();
+    first.add("a", 1, 0);
+    second.add("b", 1, 1);
+    first.access("a", 2);
+    first.flush();
+    second.flush();
+
+    DirArtifactCacheIndex third = newIndex();
+    assertEquals(ImmutableList.of("a", "b"), third.getPathsByLastAccess());
+    third.evict(1);
+    third.flush();
+
+    assertEquals(ImmutableList.of("b"), newIndex().getPathsByLastAccess());
+  }
+
+  @Test
+  public void loadedIndexSeesChangesMadeByOthersSinceItWasRead() throws IOException {
+    DirArtifactCacheIndex first = newIndex();
+    DirArtifactCacheIndex second = newIndex();
+    first.add("a", 1, 0);
+    first.flush();
+    assertEquals(ImmutableList.of("a"), first.getPathsByLastAccess());
+
+    second.add("b", 1, 1);
+    second.add("c", 1, 2);
+    second.flush();
+    assertEquals(3, first.getTotalSizeBytes());
+    assertEquals(ImmutableList.of("a"), first.evict(2));
+
+    // Enough accesses that flushing compacts the log, which must keep the other index's files.
+    for (int i = 0; i < 20000; i++) {
+      first.access("c", 3 + i);
+    }
+    first.flush();
+    second.access("b", 30000);
+    second.flush();
+
+    assertEquals(ImmutableList.of("c", "b"), newIndex().getPathsByLastAccess());
+    assertEquals(ImmutableList.of("c", "b"), first.getPathsByLastAccess());
+  }
+
+  @Test
+  public void loadedIndexRereadsALogRewrittenByOthers() throws IOException {
+    writeFile("aa/bb/aabb", 1, 0);
+    DirArtifactCacheIndex first = newIndex();
+    assertEquals(ImmutableList.of("aa/bb/aabb"), first.getPathsByLastAccess());
+
+    // Another index finds the log damaged, and rewrites it from the cache directory.
+    writeFile("cc/dd/ccdd", 1, 1000);
+    Path log = cacheRoot.resolve(DirArtifactCacheIndex.INDEX_FILE_NAME);
+    byte[] contents = Files.readAllBytes(log);
+    Files.write(log, Arrays.copyOf(contents, contents.length - 1));
+    assertEquals(
+        ImmutableList.of("aa/bb/aabb", "cc/dd/ccdd"),
+        newIndex().getPathsByLastAccess());
+
+    assertEquals(ImmutableList.of("aa/bb/aabb", "cc/dd/ccdd"), first.getPathsByLastAccess());
+  }
+
+  @Test
+  public void truncatedLogIsRebuilt() throws IOException {
+    writeFile("aa/bb/aabb", 1, 0);
+    DirArtifactCacheIndex index = newIndex();
+    index.add("aa/bb/aabb", 1, 0);
+    index.add("cc/dd/ccdd", 1, 0);
+    index.flush();
+
+    Path log = cacheRoot.resolve(DirArtifactCacheIndex.INDEX_FILE_NAME);
+    byte[] contents = Files.readAllBytes(log);
+    Files.write(log, Arrays.copyOf(contents, contents.length - 1));
+
+    assertEquals(ImmutableList.of("aa/bb/aabb"), newIndex().getPathsByLastAccess());
+    assertTrue(Files.size(log) > 0);
+  }
+
+  private DirArtifactCacheIndex newIndex() {
+    return new DirArtifactCacheIndex(cacheRoot, cacheRoot.resolve("tmp"));
+  }
+
+  private void writeFile(String path, int size, long lastAccessMillis) throws IOException {
+    Path file = cacheRoot.resolve(path);
+    Files.createDirectories(file.getParent());
+    Files.write(file, new String(new char[size]).replace('\0', 'x').getBytes(UTF_8));
+    Files.setAttribute(file, "lastAccessTime", FileTime.fromMillis(lastAccessMillis));
+  }
+}
@@ -56,10 +56,16 @@ import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 public class DirArtifactCacheTest {
   @Rule
@@ -538,7 +544,7 @@ public class DirArtifactCacheTest {
   }
 
   @Test
-  public void testDeleteAfterStoreIfFull() throws IOException {
+  public void testDeleteAfterStoreIfFull() throws Exception {
     Path cacheDir = tmpDir.newFolder();
     Path fileX = tmpDir.newFile("x");
     Path fileY = tmpDir.newFile("y");
@@ -551,9 +557,10 @@ public class DirArtifactCacheTest {
                 fileY, HashCode.fromInt(1),
                 fileZ, HashCode.fromInt(2)));
 
-    // The reason max size is 9 bytes is because a 1-byte entry actually takes 6 bytes to store.
+    // The reason max size is 9 bytes is because a 1-byte entry actually takes 5 bytes to store.
     // If the cache trims the size down to 2/3 (6 bytes) every time it hits the max it means after
-    // every store only the most recent artifact should be left.
+    // every store only the most recent artifact should be left. Old files are deleted by the
+    // store which fills the cache, so wait for each store to finish.
     dirArtifactCache = new DirArtifactCache(
         "dir",
         new ProjectFilesystem(cacheDir),
@@ -585,7 +592,7 @@ public class DirArtifactCacheTest {
 
     dirArtifactCache.store(
         ArtifactInfo.builder().addRuleKeys(ruleKeyX).build(),
-        BorrowablePath.notBorrowablePath(fileX));
+        BorrowablePath.notBorrowablePath(fileX)).get();
     assertEquals(CacheResultType.HIT, dirArtifactCache.fetch(
             ruleKeyX,
             LazyPath.ofInstance(fileX)).getType());
@@ -601,7 +608,7 @@ public class DirArtifactCacheTest {
 
     dirArtifactCache.store(
         ArtifactInfo.builder().addRuleKeys(ruleKeyY).build(),
-        BorrowablePath.notBorrowablePath(fileY));
+        BorrowablePath.notBorrowablePath(fileY)).get();
     assertEquals(CacheResultType.MISS, dirArtifactCache.fetch(
             ruleKeyX,
             LazyPath.ofInstance(fileX)).getType());
@@ -620,7 +627,7 @@ public class DirArtifactCacheTest {
 
     dirArtifactCache.store(
         ArtifactInfo.builder().addRuleKeys(ruleKeyZ).build(),
-        BorrowablePath.notBorrowablePath(fileZ));
+        BorrowablePath.notBorrowablePath(fileZ)).get();
 
     assertEquals(CacheResultType.MISS, dirArtifactCache.fetch(
             ruleKeyX,
@@ -703,6 +710,91 @@ public class DirArtifactCacheTest {
     cache.close();
   }
 
+  @Test
+  public void testFileConsumerReadsArtifactInPlace() throws Exception {
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmpDir.getRoot());
+    dirArtifactCache =
+        new DirArtifactCache(
+            "dir",
+            filesystem,
+            Paths.get("cache"),
+            /* doStore */ true,
+            /* maxCacheSizeBytes */ Optional.<Long>absent());
+
+    RuleKey ruleKey = new RuleKey("0000");
+    ImmutableMap<String, String> metadata = ImmutableMap.of("some", "metadata");
+    Path data = Paths.get("data");
+    filesystem.writeContentsToPath("contents", data);
+    dirArtifactCache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKey).setMetadata(metadata).build(),
+        BorrowablePath.notBorrowablePath(data)).get();
+
+    final List<ImmutableMap<String, String>> consumedMetadata = new ArrayList<>();
+    final ByteBuffer consumedArtifact = ByteBuffer.allocate(100);
+    CacheResult result = dirArtifactCache.fetchStreaming(
+        ruleKey,
+        new ArtifactFileConsumer() {
+          @Override
+          public void consume(ImmutableMap<String, String> metadata, FileChannel artifact)
+              throws IOException {
+            consumedMetadata.add(metadata);
+            artifact.read(consumedArtifact);
+          }
+
+          @Override
+          public void consume(InputStream artifact) {
+            throw new AssertionError("The artifact should be read in place.");
+          }
+        });
+
+    assertEquals(CacheResultType.HIT, result.getType());
+    assertEquals(ImmutableList.of(metadata), consumedMetadata);
+    consumedArtifact.flip();
+    assertEquals("contents", UTF_8.decode(consumedArtifact).toString());
+  }
+
+  @Test
+  public void testIndexIsWrittenOnceStoresFinish() throws Exception {
+    Path cacheDir = tmpDir.newFolder();
+    // Start from an existing index, which is appended to rather than rebuilt.
+    new DirArtifactCacheIndex(cacheDir, cacheDir.resolve("tmp")).getPathsByLastAccess();
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmpDir.getRoot());
+    dirArtifactCache = new DirArtifactCache(
+        "dir",
+        filesystem,
+        tmpDir.getRoot().relativize(cacheDir),
+        /* doStore */ true,
+        /* maxCacheSizeBytes */ Optional.of(1024L * 1024L));
+
+    Path data = Paths.get("data");
+    filesystem.writeContentsToPath("contents", data);
+    dirArtifactCache.store(
+        ArtifactInfo.builder().addRuleKeys(new RuleKey("aaaa")).build(),
+        BorrowablePath.notBorrowablePath(data)).get();
+
+    // Without closing the cache, another reader of the index sees the stored files.
+    assertEquals(
+        ImmutableSet.of(
+            Paths.get("aa", "aa", "aaaa").toString(),
+            Paths.get("aa", "aa", "aaaa.metadata").toString()),
+        ImmutableSet.copyOf(
+            new DirArtifactCacheIndex(cacheDir, cacheDir.resolve("tmp")).getPathsByLastAccess()));
+  }
+
+  @Test(expected = RejectedExecutionException.class)
+  public void testWriterRejectsWorkOnceClosed() throws IOException {
+    DirArtifactCache cache = new DirArtifactCache(
+        "dir",
+        new ProjectFilesystem(tmpDir.newFolder()),
+        Paths.get("cache"),
+        /* doStore */ true,
+        /* maxCacheSizeBytes */ Optional.of(0L));
+    cache.close();
+
+    // This used to be silently dropped, leaving the caller waiting for it forever.
+    cache.deleteOldFiles();
+  }
+
   @Test
   public void testFolderLevelsForRuleKeys() throws IOException {
     DirArtifactCache cache = new DirArtifactCache(
@@ -21,11 +21,13 @@ import com.facebook.buck.io.LazyPath;
 import com.facebook.buck.rules.RuleKey;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
@@ -61,6 +63,29 @@ public class InMemoryArtifactCache implements ArtifactCache {
     return CacheResult.hit("in-memory", artifact.metadata, artifact.data.length);
   }
 
+  @Override
+  public CacheResult fetchStreaming(RuleKey ruleKey, ArtifactStreamConsumer consumer) {
+    Artifact artifact = artifacts.get(ruleKey);
+    if (artifact == null) {
+      return CacheResult.miss();
+    }
+    try {
+      consumer.consume(new ByteArrayInputStream(artifact.data));
+    } catch (IOException e) {
+      return CacheResult.error("in-memory", e.getMessage());
+    }
+    return CacheResult.hit("in-memory", artifact.metadata, artifact.data.length);
+  }
+
+  @Override
+  public ImmutableMap<RuleKey, Boolean> multiContains(ImmutableSet<RuleKey> ruleKeys) {
+    ImmutableMap.Builder<RuleKey, Boolean> result = ImmutableMap.builder();
+    for (RuleKey ruleKey : ruleKeys) {
+      result.put(ruleKey, artifacts.containsKey(ruleKey));
+    }
+    return result.build();
+  }
+
   public void store(
       ArtifactInfo info,
       byte[] data) {
@@ -16,22 +16,30 @@
 
 package com.facebook.buck.artifact_cache;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 
 import com.facebook.buck.io.BorrowablePath;
 import com.facebook.buck.io.LazyPath;
+import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.testutil.integration.TemporaryPaths;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
 
 import org.hamcrest.Matchers;
+import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Paths;
 
 public class MultiArtifactCacheTest {
@@ -39,10 +47,17 @@ public class MultiArtifactCacheTest {
   @Rule
   public TemporaryPaths tmp = new TemporaryPaths();
 
+  private ProjectFilesystem filesystem;
+
   private static final RuleKey dummyRuleKey =
       new RuleKey("76b1c1beae69428db2d1befb31cf743ac8ce90df");
   private static final LazyPath dummyFile = LazyPath.ofInstance(Paths.get("dummy"));
 
+  @Before
+  public void setUp() {
+    filesystem = new ProjectFilesystem(tmp.getRoot());
+  }
+
   // An cache which always returns errors from fetching.
   class ErroringArtifactCache extends NoopArtifactCache {
 
@@ -57,9 +72,11 @@ public class MultiArtifactCacheTest {
   public void testCacheFetch() throws InterruptedException, IOException {
     DummyArtifactCache dummyArtifactCache1 = new DummyArtifactCache();
     DummyArtifactCache dummyArtifactCache2 = new DummyArtifactCache();
-    MultiArtifactCache multiArtifactCache = new MultiArtifactCache(ImmutableList.of(
-        (ArtifactCache) dummyArtifactCache1,
-        dummyArtifactCache2));
+    MultiArtifactCache multiArtifactCache = new MultiArtifactCache(
+        ImmutableList.of(
+            (ArtifactCache) dummyArtifactCache1,
+            dummyArtifactCache2),
+        filesystem);
 
     assertEquals(
         "Fetch should fail",
@@ -90,9 +107,11 @@ public class MultiArtifactCacheTest {
   public void testCacheStore() throws InterruptedException, IOException {
     DummyArtifactCache dummyArtifactCache1 = new DummyArtifactCache();
     DummyArtifactCache dummyArtifactCache2 = new DummyArtifactCache();
-    MultiArtifactCache multiArtifactCache = new MultiArtifactCache(ImmutableList.<ArtifactCache>of(
-        dummyArtifactCache1,
-        dummyArtifactCache2));
+    MultiArtifactCache multiArtifactCache = new MultiArtifactCache(
+        ImmutableList.<ArtifactCache>of(
+            dummyArtifactCache1,
+            dummyArtifactCache2),
+        filesystem);
 
     multiArtifactCache.store(
         ArtifactInfo.builder().addRuleKeys(dummyRuleKey).build(),
@@ -112,7 +131,8 @@ public class MultiArtifactCacheTest {
   @Test
   public void preserveErrorsFromInnerCache() throws InterruptedException, IOException {
     ErroringArtifactCache inner = new ErroringArtifactCache();
-    MultiArtifactCache cache = new MultiArtifactCache(ImmutableList.<ArtifactCache>of(inner));
+    MultiArtifactCache cache =
+        new MultiArtifactCache(ImmutableList.<ArtifactCache>of(inner), filesystem);
     CacheResult result = cache.fetch(dummyRuleKey, dummyFile);
     assertSame(result.getType(), CacheResultType.ERROR);
     cache.close();
@@ -123,9 +143,11 @@ public class MultiArtifactCacheTest {
     InMemoryArtifactCache cache1 = new InMemoryArtifactCache();
     InMemoryArtifactCache cache2 = new InMemoryArtifactCache();
     MultiArtifactCache multiArtifactCache =
-        new MultiArtifactCache(ImmutableList.<ArtifactCache>of(
-            cache1,
-            cache2));
+        new MultiArtifactCache(
+            ImmutableList.<ArtifactCache>of(
+                cache1,
+                cache2),
+            filesystem);
 
     LazyPath output = LazyPath.ofInstance(tmp.newFile());
 
@@ -146,4 +168,76 @@ public class MultiArtifactCacheTest {
     multiArtifactCache.close();
   }
 
+  @Test
+  public void multiContainsOnlyReportsMissesWhenAllCachesAgree() throws Exception {
+    RuleKey inFirstCache = new RuleKey("aaaa");
+    RuleKey inSecondCache = new RuleKey("bbbb");
+    RuleKey inNeither = new RuleKey("cccc");
+    InMemoryArtifactCache cache1 = new InMemoryArtifactCache();
+    InMemoryArtifactCache cache2 = new InMemoryArtifactCache();
+    cache1.store(ArtifactInfo.builder().addRuleKeys(inFirstCache).build(), new byte[0]);
+    cache2.store(ArtifactInfo.builder().addRuleKeys(inSecondCache).build(), new byte[0]);
+
+    MultiArtifactCache multiArtifactCache =
+        new MultiArtifactCache(ImmutableList.<ArtifactCache>of(cache1, cache2), filesystem);
+    assertEquals(
+        ImmutableMap.of(inFirstCache, true, inSecondCache, true, inNeither, false),
+        multiArtifactCache.multiContains(
+            ImmutableSet.of(inFirstCache, inSecondCache, inNeither)));
+
+    // A cache which can't answer means we can't know whether an artifact is missing.
+    MultiArtifactCache withNoopCache =
+        new MultiArtifactCache(ImmutableList.of(cache1, new NoopArtifactCache()), filesystem);
+    assertEquals(
+        ImmutableMap.of(inFirstCache, true),
+        withNoopCache.multiContains(ImmutableSet.of(inFirstCache, inNeither)));
+
+    multiArtifactCache.close();
+    withNoopCache.close();
+  }
+
+  @Test
+  public void cacheFetchStreamingPushesArtifactToHigherCache() throws Exception {
+    InMemoryArtifactCache cache1 = new InMemoryArtifactCache();
+    InMemoryArtifactCache cache2 = new InMemoryArtifactCache();
+    MultiArtifactCache multiArtifactCache =
+        new MultiArtifactCache(
+            ImmutableList.<ArtifactCache>of(
+                cache1,
+                cache2),
+            filesystem);
+
+    ImmutableMap<String, String> metadata = ImmutableMap.of("hello", "world");
+    final byte[] data = "artifact contents".getBytes(StandardCharsets.UTF_8);
+    cache2.store(
+        ArtifactInfo.builder().addRuleKeys(dummyRuleKey).setMetadata(metadata).build(),
+        data);
+
+    // Only read part of the artifact; the rest should still be propagated.
+    final byte[] firstByte = new byte[1];
+    CacheResult result = multiArtifactCache.fetchStreaming(
+        dummyRuleKey,
+        new ArtifactStreamConsumer() {
+          @Override
+          public void consume(InputStream artifact) throws IOException {
+            ByteStreams.readFully(artifact, firstByte);
+          }
+        });
+    assertThat(result.getType(), Matchers.equalTo(CacheResultType.HIT));
+    assertEquals(data[0], firstByte[0]);
+
+    assertThat(cache1.hasArtifact(dummyRuleKey), Matchers.is(true));
+    LazyPath output = LazyPath.ofInstance(tmp.newFile());
+    result = cache1.fetch(dummyRuleKey, output);
+    assertThat(result.getMetadata(), Matchers.equalTo(metadata));
+    assertArrayEquals(data, Files.readAllBytes(output.get()));
+
+    // The copy made while streaming goes in buck-out's temporary directory, and is then deleted.
+    assertThat(
+        filesystem.getDirectoryContents(filesystem.getBuckPaths().getTmpDir()),
+        Matchers.empty());
+
+    multiArtifactCache.close();
+  }
+
 }
@@ -16,12 +16,16 @@
 
 package com.facebook.buck.artifact_cache;
 
+import com.facebook.buck.artifact_cache.thrift.BuckCacheMultiContainsRequest;
+import com.facebook.buck.artifact_cache.thrift.BuckCacheMultiContainsResponse;
 import com.facebook.buck.artifact_cache.thrift.BuckCacheRequest;
 import com.facebook.buck.artifact_cache.thrift.BuckCacheRequestType;
 import com.facebook.buck.artifact_cache.thrift.BuckCacheResponse;
 import com.facebook.buck.artifact_cache.thrift.PayloadInfo;
+import com.facebook.buck.artifact_cache.thrift.RuleKey;
 import com.facebook.buck.slb.ThriftProtocol;
 import com.facebook.buck.slb.ThriftUtil;
+import com.google.common.collect.ImmutableList;
 import com.google.common.io.ByteSource;
 
 import org.apache.thrift.TException;
@@ -156,6 +160,48 @@ public class ThriftArtifactCacheProtocolTest {
     }
   }
 
+  @Test
+  public void testMultiContainsRoundTrip() throws IOException, TException {
+    RuleKey presentKey = new RuleKey();
+    presentKey.setHashString("aaaa");
+    RuleKey missingKey = new RuleKey();
+    missingKey.setHashString("bbbb");
+
+    BuckCacheRequest cacheRequest = new BuckCacheRequest();
+    cacheRequest.setType(BuckCacheRequestType.MULTI_CONTAINS);
+    cacheRequest.setMultiContainsRequest(
+        new BuckCacheMultiContainsRequest()
+            .setRuleKeys(ImmutableList.of(presentKey, missingKey)));
+    BuckCacheRequest actualRequest = new BuckCacheRequest();
+    ThriftUtil.deserialize(PROTOCOL, ThriftUtil.serialize(PROTOCOL, cacheRequest), actualRequest);
+    Assert.assertEquals(cacheRequest, actualRequest);
+
+    BuckCacheResponse cacheResponse = new BuckCacheResponse();
+    cacheResponse.setWasSuccessful(true);
+    cacheResponse.setType(BuckCacheRequestType.MULTI_CONTAINS);
+    cacheResponse.setMultiContainsResponse(
+        new BuckCacheMultiContainsResponse().setRuleKeys(ImmutableList.of(presentKey)));
+    byte[] responseRawData;
+    try (ByteArrayOutputStream stream = new ByteArrayOutputStream();
+         DataOutputStream dataStream = new DataOutputStream(stream)) {
+      byte[] header = ThriftUtil.serialize(PROTOCOL, cacheResponse);
+      dataStream.writeInt(header.length);
+      dataStream.write(header);
+      dataStream.flush();
+      responseRawData = stream.toByteArray();
+    }
+
+    try (ThriftArtifactCacheProtocol.Response response =
+             ThriftArtifactCacheProtocol.parseResponse(
+                 PROTOCOL,
+                 new ByteArrayInputStream(responseRawData))) {
+      Assert.assertEquals(cacheResponse, response.getThriftData());
+      Assert.assertEquals(
+          ImmutableList.of(presentKey),
+          response.getThriftData().getMultiContainsResponse().getRuleKeys());
+    }
+  }
+
   private byte[] createBuffer(int sizeBytes) {
     byte[] buffer = new byte[sizeBytes];
     for (int i = 0; i < sizeBytes; ++i) {
@@ -33,6 +33,7 @@ import com.facebook.buck.testutil.integration.ProjectWorkspace;
 import com.facebook.buck.testutil.integration.ProjectWorkspace.ProcessResult;
 import com.facebook.buck.testutil.integration.TestDataHelper;
 import com.facebook.buck.util.HumanReadableException;
+import com.facebook.buck.util.concurrent.ResourceAmounts;
 import com.facebook.buck.util.environment.Architecture;
 import com.facebook.buck.util.environment.Platform;
 import com.google.common.base.Functions;
@@ -597,4 +598,39 @@ public class BuckConfigTest {
         .build();
     assertFalse(buckConfig.hasUserDefinedValue("cache", "mode"));
   }
+
+  @Test
+  public void resourceAmountsDefaultToTheNumberOfThreads() {
+    BuckConfig buckConfig = FakeBuckConfig.builder()
+        .setSections(
+            ImmutableMap.of(
+                "build", ImmutableMap.of("threads", "3"),
+                "resources", ImmutableMap.of("memory", "8")))
+        .build();
+    assertEquals(ResourceAmounts.of(3, 8, 3, 3), buckConfig.getMaximumResourceAmounts());
+  }
+
+  @Test
+  public void resourceAmountsPerRuleType() {
+    BuckConfig buckConfig = FakeBuckConfig.builder()
+        .setSections(
+            ImmutableMap.of(
+                "resources_per_rule",
+                ImmutableMap.of("cxx_link", "2, 4, 1, 0", "java_library", "1,1,0,0")))
+        .build();
+    assertEquals(
+        ImmutableMap.of(
+            "cxx_link", ResourceAmounts.of(2, 4, 1, 0),
+            "java_library", ResourceAmounts.of(1, 1, 0, 0)),
+        buckConfig.getResourceAmountsPerRuleType());
+  }
+
+  @Test(expected = HumanReadableException.class)
+  public void resourceAmountsPerRuleTypeMustHaveEveryResource() {
+    FakeBuckConfig.builder()
+        .setSections(
+            ImmutableMap.of("resources_per_rule", ImmutableMap.of("cxx_link", "2, 4")))
+        .build()
+        .getResourceAmountsPerRuleType();
+  }
 }
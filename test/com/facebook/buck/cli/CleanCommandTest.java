@@ -29,7 +29,9 @@ import com.facebook.buck.jvm.java.intellij.Project;
 import com.facebook.buck.parser.Parser;
 import com.facebook.buck.rules.ActionGraphCache;
 import com.facebook.buck.rules.Cell;
+import com.facebook.buck.rules.TargetNodeHashCache;
 import com.facebook.buck.rules.TestCellBuilder;
+import com.facebook.buck.shell.WorkerProcessPool;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.testutil.FakeProjectFilesystem;
 import com.facebook.buck.testutil.TestConsole;
@@ -50,6 +52,7 @@ import org.kohsuke.args4j.CmdLineException;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Unit test for {@link CleanCommand}.
@@ -129,7 +132,9 @@ public class CleanCommandTest extends EasyMockSupport {
         new NullFileHashCache(),
         new HashMap<ExecutionContext.ExecutorPool, ListeningExecutorService>(),
         CommandRunnerParamsForTesting.BUILD_ENVIRONMENT_DESCRIPTION,
-        new ActionGraphCache());
+        new ActionGraphCache(),
+        new TargetNodeHashCache(),
+        Optional.<ConcurrentMap<String, WorkerProcessPool>>absent());
   }
 
 }
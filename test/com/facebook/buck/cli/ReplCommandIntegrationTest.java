@@ -41,7 +41,9 @@ import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.jvm.java.FakeJavaPackageFinder;
 import com.facebook.buck.parser.Parser;
 import com.facebook.buck.rules.Cell;
+import com.facebook.buck.rules.TargetNodeHashCache;
 import com.facebook.buck.rules.TestCellBuilder;
+import com.facebook.buck.shell.WorkerProcessPool;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.testutil.TestConsole;
 import com.facebook.buck.testutil.integration.ProjectWorkspace;
@@ -61,6 +63,7 @@ import org.easymock.EasyMock;
 import java.io.InputStream;
 import java.nio.file.Paths;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Unit test for {@link ReplCommand}.
@@ -133,6 +136,8 @@ public class ReplCommandIntegrationTest {
         new NullFileHashCache(),
         new HashMap<ExecutionContext.ExecutorPool, ListeningExecutorService>(),
         CommandRunnerParamsForTesting.BUILD_ENVIRONMENT_DESCRIPTION,
-        new ActionGraphCache());
+        new ActionGraphCache(),
+        new TargetNodeHashCache(),
+        Optional.<ConcurrentMap<String, WorkerProcessPool>>absent());
   }
 }
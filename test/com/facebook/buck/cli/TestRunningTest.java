@@ -85,6 +85,7 @@ import java.io.IOException;
 import java.io.StringWriter;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
@@ -1085,4 +1086,39 @@ public class TestRunningTest {
 
     assertThat(ret, equalTo(TestRunning.TEST_FAILURES_EXIT_CODE));
   }
+
+  @Test
+  public void testRunsWithTheLongestRecordedDurationsAreStartedFirst() {
+    SourcePathResolver resolver = new SourcePathResolver(
+        new BuildRuleResolver(TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer()));
+    List<TestRun> testRuns = new ArrayList<>();
+    for (String target : ImmutableList.of("//:short", "//:unknown", "//:long")) {
+      testRuns.add(
+          TestRun.of(
+              new FakeTestRule(
+                  ImmutableSet.<Label>of(),
+                  BuildTargetFactory.newInstance(target),
+                  resolver,
+                  ImmutableSortedSet.<BuildRule>of()),
+              ImmutableList.<Step>of(),
+              new Callable<TestResults>() {
+                @Override
+                public TestResults call() {
+                  throw new UnsupportedOperationException();
+                }
+              },
+              TestRule.NOOP_REPORTING_CALLBACK));
+    }
+
+    // The run without a recorded duration is treated as taking the average time.
+    TestRunning.sortLongestFirst(
+        testRuns,
+        ImmutableMap.of("//:short", 1000L, "//:long", 5000L));
+
+    List<String> order = new ArrayList<>();
+    for (TestRun testRun : testRuns) {
+      order.add(testRun.getTest().getBuildTarget().getFullyQualifiedName());
+    }
+    assertEquals(ImmutableList.of("//:long", "//:unknown", "//:short"), order);
+  }
 }
@@ -19,8 +19,13 @@ package com.facebook.buck.cxx;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.cli.FakeBuckConfig;
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.BuckEventBusFactory;
+import com.facebook.buck.event.ConsoleEvent;
+import com.facebook.buck.event.FakeBuckEventListener;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.rules.BuildRuleResolver;
 import com.facebook.buck.rules.DefaultTargetNodeToBuildRuleTransformer;
@@ -30,10 +35,13 @@ import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.TestExecutionContext;
 import com.facebook.buck.testutil.TestConsole;
 import com.facebook.buck.testutil.integration.DebuggableTemporaryFolder;
+import com.facebook.buck.util.ListeningProcessExecutor;
 import com.google.common.base.Optional;
+import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableBiMap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListenableFuture;
 
 import org.hamcrest.Matchers;
 import org.junit.Rule;
@@ -135,4 +143,87 @@ public class CxxCompileStepIntegrationTest {
     assertCompDir(Paths.get("blah"), Optional.<String>absent());
   }
 
+  @Test
+  public void compileStartedWithoutWaitingIsFinishedOnceTheCompilerExits() throws Exception {
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmp.getRoot().toPath());
+    CxxPlatform platform = DefaultCxxPlatforms.build(
+        new CxxBuckConfig(FakeBuckConfig.builder().build()));
+    BuildRuleResolver resolver =
+        new BuildRuleResolver(TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer());
+    SourcePathResolver pathResolver = new SourcePathResolver(resolver);
+    ImmutableList<String> compiler =
+        platform.getCc().resolve(resolver).getCommandPrefix(pathResolver);
+    Path output = Paths.get("output.o");
+    Path relativeInput = Paths.get("input.c");
+    Path scratchDir = Paths.get("scratchDir");
+    filesystem.mkdirs(scratchDir);
+
+    BuckEventBus eventBus = BuckEventBusFactory.newInstance();
+    FakeBuckEventListener listener = new FakeBuckEventListener();
+    eventBus.register(listener);
+    ExecutionContext executionContext = TestExecutionContext.newBuilder()
+        .setBuckEventBus(eventBus)
+        .setListeningProcessExecutor(Optional.of(new ListeningProcessExecutor()))
+        .build();
+
+    // A compile which fails reports its errors once it's finished.
+    filesystem.writeContentsToPath("int main() { return missing; }", relativeInput);
+    CxxPreprocessAndCompileStep step = createCompileStep(
+        filesystem,
+        pathResolver,
+        compiler,
+        output,
+        relativeInput,
+        scratchDir);
+    Optional<ListenableFuture<?>> work = step.start(executionContext);
+    assertTrue(work.isPresent());
+    work.get().get();
+    assertNotEquals(0, step.finish(executionContext).getExitCode());
+    ImmutableList<ConsoleEvent> errors =
+        FluentIterable.from(listener.getEvents()).filter(ConsoleEvent.class).toList();
+    assertEquals(1, errors.size());
+    assertThat(errors.get(0).getMessage(), Matchers.containsString("missing"));
+
+    // A compile which succeeds writes its output.
+    filesystem.writeContentsToPath("int main() { return 0; }", relativeInput);
+    step = createCompileStep(
+        filesystem,
+        pathResolver,
+        compiler,
+        output,
+        relativeInput,
+        scratchDir);
+    work = step.start(executionContext);
+    assertTrue(work.isPresent());
+    work.get().get();
+    assertEquals(0, step.finish(executionContext).getExitCode());
+    assertTrue(filesystem.exists(output));
+  }
+
+  private static CxxPreprocessAndCompileStep createCompileStep(
+      ProjectFilesystem filesystem,
+      SourcePathResolver pathResolver,
+      ImmutableList<String> compiler,
+      Path output,
+      Path input,
+      Path scratchDir) {
+    return new CxxPreprocessAndCompileStep(
+        filesystem,
+        CxxPreprocessAndCompileStep.Operation.COMPILE,
+        output,
+        Paths.get("output.dep"),
+        input,
+        CxxSource.Type.C,
+        Optional.<CxxPreprocessAndCompileStep.ToolCommand>absent(),
+        Optional.of(
+            new CxxPreprocessAndCompileStep.ToolCommand(
+                compiler,
+                ImmutableMap.<String, String>of(),
+                Optional.<ImmutableList<String>>absent())),
+        HeaderPathNormalizer.empty(pathResolver),
+        CxxPlatforms.DEFAULT_DEBUG_PATH_SANITIZER,
+        CxxPlatformUtils.DEFAULT_CONFIG.getHeaderVerification(),
+        scratchDir);
+  }
+
 }
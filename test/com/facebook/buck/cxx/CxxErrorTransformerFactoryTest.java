@@ -127,6 +127,33 @@ public class CxxErrorTransformerFactoryTest {
         equalTo(String.format("In file included from %s:7,", expectedPath)));
   }
 
+  @Test
+  public void shouldProperlyTransformEachLineOfOutputReadInFull() {
+    assertThat(
+        transformer.transformLines(
+            String.format(
+                "In file included from %s:\n   from %s:3:2:\n",
+                originalPath,
+                originalPath)),
+        equalTo(
+            String.format("In file included from %s:", expectedPath) + System.lineSeparator() +
+            String.format("   from %s:3:2:", expectedPath) + System.lineSeparator()));
+  }
+
+  @Test
+  public void shouldNotAddALineSeparatorTheOutputDidNotEndWith() {
+    assertThat(
+        transformer.transformLines(
+            String.format(
+                "In file included from %s:\n   from %s:3:2:",
+                originalPath,
+                originalPath)),
+        equalTo(
+            String.format("In file included from %s:", expectedPath) + System.lineSeparator() +
+            String.format("   from %s:3:2:", expectedPath)));
+    assertThat(transformer.transformLines(""), equalTo(""));
+  }
+
   @Test
   public void shouldProperlyTransformLinesInSubsequentIncludeTrace() {
     assertThat(
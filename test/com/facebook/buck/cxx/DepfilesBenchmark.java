@@ -0,0 +1,149 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cxx;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.io.MoreFiles;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.rules.BuildRuleResolver;
+import com.facebook.buck.rules.DefaultTargetNodeToBuildRuleTransformer;
+import com.facebook.buck.rules.PathSourcePath;
+import com.facebook.buck.rules.SourcePath;
+import com.facebook.buck.rules.SourcePathResolver;
+import com.facebook.buck.rules.TargetGraph;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.TestExecutionContext;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Param;
+import com.google.caliper.api.Macrobenchmark;
+import com.google.common.base.Functions;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures processing a depfile the size of those of large C++ sources, which include thousands of
+ * headers from dozens of libraries' symlink trees as well as the system headers.
+ */
+public class DepfilesBenchmark {
+  private static final int LIBRARY_COUNT = 50;
+  private static final int SYSTEM_HEADER_COUNT = 500;
+
+  @Param({"1000", "5000"})
+  private int headerCount = 1000;
+
+  private Path root;
+  private ProjectFilesystem filesystem;
+  private ExecutionContext context;
+  private HeaderPathNormalizer normalizer;
+  private HeaderVerification headerVerification;
+  private Path sourceDepFile;
+  private Path destDepFile;
+  private Path inputPath;
+  private Path outputPath;
+
+  @Before
+  public void setUpTest() throws Exception {
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() throws Exception {
+    root = Files.createTempDirectory("depfiles-benchmark").toRealPath();
+    filesystem = new ProjectFilesystem(root);
+    context = TestExecutionContext.newInstance();
+    SourcePathResolver pathResolver = new SourcePathResolver(
+        new BuildRuleResolver(TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer()));
+    headerVerification = HeaderVerification.of(HeaderVerification.Mode.IGNORE);
+    inputPath = Paths.get("lib/source.cpp");
+    outputPath = Paths.get("buck-out/gen/lib/source.cpp.o");
+    sourceDepFile = Paths.get("buck-out/gen/lib/source.cpp.o.dep.tmp");
+    destDepFile = Paths.get("buck-out/gen/lib/source.cpp.o.dep");
+    filesystem.mkdirs(sourceDepFile.getParent());
+
+    HeaderPathNormalizer.Builder normalizerBuilder =
+        new HeaderPathNormalizer.Builder(pathResolver, Functions.<Path>identity());
+    List<ImmutableMap.Builder<Path, SourcePath>> headerMaps = new ArrayList<>();
+    for (int i = 0; i < LIBRARY_COUNT; i++) {
+      headerMaps.add(ImmutableMap.<Path, SourcePath>builder());
+    }
+    try (BufferedWriter writer =
+             Files.newBufferedWriter(filesystem.resolve(sourceDepFile), StandardCharsets.UTF_8)) {
+      writer.write(outputPath + ": " + inputPath);
+      for (int i = 0; i < headerCount; i++) {
+        int library = i % LIBRARY_COUNT;
+        Path header = Paths.get("lib" + library, "module" + (i / LIBRARY_COUNT % 10), i + ".h");
+        headerMaps.get(library).put(
+            header,
+            new PathSourcePath(filesystem, Paths.get("lib" + library).resolve(header)));
+        writer.write(" \\\n  " + getSymlinkTreeRoot(library).resolve(header));
+      }
+      for (int i = 0; i < SYSTEM_HEADER_COUNT; i++) {
+        writer.write(" \\\n  /usr/include/c++/v1/../../include/system" + i + ".h");
+      }
+      writer.write("\n");
+    }
+    for (int i = 0; i < LIBRARY_COUNT; i++) {
+      normalizerBuilder.addSymlinkTree(
+          new PathSourcePath(filesystem, getSymlinkTreeRoot(i)),
+          headerMaps.get(i).build());
+    }
+    normalizer = normalizerBuilder.build();
+  }
+
+  private Path getSymlinkTreeRoot(int library) {
+    return root.resolve("buck-out/gen/lib" + library + "/lib" + library + "#headers");
+  }
+
+  @After
+  @AfterExperiment
+  public void tearDown() throws Exception {
+    context.close();
+    MoreFiles.deleteRecursively(root);
+  }
+
+  @Test
+  public void writesEveryManagedHeader() throws Exception {
+    assertEquals(0, parseAndWriteDepfile());
+    assertEquals(headerCount, filesystem.readLines(destDepFile).size());
+  }
+
+  @Macrobenchmark
+  public int parseAndWriteDepfile() throws Exception {
+    return Depfiles.parseAndWriteBuckCompatibleDepfile(
+        context,
+        filesystem,
+        normalizer,
+        headerVerification,
+        sourceDepFile,
+        destDepFile,
+        inputPath,
+        outputPath);
+  }
+}
@@ -29,6 +29,8 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collection;
 
@@ -193,4 +195,14 @@ public class DepfilesTest {
           Depfiles.parseDepfile(new StringReader(input)),
           Matchers.equalTo(new Depfiles.Depfile(expectedTarget, expectedPrereqs)));
   }
+
+  @Test
+  public void parseDepfileBytes() throws IOException {
+    assertThat(
+        String.format(
+            "[%s] should parse correctly as bytes",
+            input),
+        Depfiles.parseDepfile(ByteBuffer.wrap(input.getBytes(StandardCharsets.UTF_8))),
+        Matchers.equalTo(new Depfiles.Depfile(expectedTarget, expectedPrereqs)));
+  }
 }
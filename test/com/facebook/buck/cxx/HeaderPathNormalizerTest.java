@@ -96,5 +96,34 @@ public class HeaderPathNormalizerTest {
         normalizer.getSourcePathForAbsolutePath(filesystem.resolve(header)),
         Matchers.equalTo(headerDirPath));
   }
+  @Test
+  public void nestedHeaderDirsUseTheClosestDir() {
+    SourcePathResolver pathResolver = new SourcePathResolver(
+        new BuildRuleResolver(TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer())
+    );
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    Path outerDir = filesystem.getRootPath().getFileSystem().getPath("foo");
+    Path innerDir = filesystem.getRootPath().getFileSystem().getPath("foo/bar");
+    SourcePath outerDirPath = new PathSourcePath(filesystem, outerDir);
+    SourcePath innerDirPath = new PathSourcePath(filesystem, innerDir);
+    HeaderPathNormalizer normalizer =
+        new HeaderPathNormalizer.Builder(pathResolver, Functions.<Path>identity())
+            .addHeaderDir(outerDirPath)
+            .addHeaderDir(innerDirPath)
+            .build();
+    assertThat(
+        normalizer.getSourcePathForAbsolutePath(filesystem.resolve("foo/bar/baz.h")),
+        Matchers.equalTo(innerDirPath));
+    assertThat(
+        normalizer.getSourcePathForAbsolutePath(filesystem.resolve("foo/baz.h")),
+        Matchers.equalTo(outerDirPath));
+    assertThat(
+        normalizer.getRelativePathForUnnormalizedPath(filesystem.resolve("foo/bar/baz/qux.h")),
+        Matchers.equalTo(Optional.of(innerDir.resolve("baz/qux.h"))));
+    // Names only match whole names, not prefixes of them.
+    assertThat(
+        normalizer.getAbsolutePathForUnnormalizedPath(filesystem.resolve("foobar/baz.h")),
+        Matchers.equalTo(Optional.<Path>absent()));
+  }
 
 }
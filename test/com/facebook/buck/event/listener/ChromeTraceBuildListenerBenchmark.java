@@ -0,0 +1,164 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event.listener;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.artifact_cache.CacheResult;
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.BuckEventBusFactory;
+import com.facebook.buck.io.MoreFiles;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.model.BuildId;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.rules.BuildRuleEvent;
+import com.facebook.buck.rules.BuildRuleKeys;
+import com.facebook.buck.rules.BuildRuleResolver;
+import com.facebook.buck.rules.BuildRuleStatus;
+import com.facebook.buck.rules.BuildRuleSuccessType;
+import com.facebook.buck.rules.DefaultTargetNodeToBuildRuleTransformer;
+import com.facebook.buck.rules.FakeBuildRule;
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.rules.SourcePathResolver;
+import com.facebook.buck.rules.TargetGraph;
+import com.facebook.buck.step.StepEvent;
+import com.facebook.buck.timing.DefaultClock;
+import com.facebook.buck.util.ObjectMappers;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Param;
+import com.google.caliper.api.Macrobenchmark;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.HashCode;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Measures the cost of tracing a build with {@link ChromeTraceBuildListener}, from the first event
+ * until the trace is written out.
+ */
+public class ChromeTraceBuildListenerBenchmark {
+  private static final int STEPS_PER_RULE = 4;
+
+  @Param({"1000", "50000"})
+  private int ruleCount = 100;
+
+  @Param({"false", "true"})
+  private boolean compressTraces = false;
+
+  private Path root;
+  private ProjectFilesystem filesystem;
+  private ObjectMapper mapper;
+  private ImmutableList<BuildRule> rules;
+
+  @Before
+  public void setUpTest() throws Exception {
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() throws Exception {
+    root = Files.createTempDirectory("chrome-trace-benchmark").toRealPath();
+    filesystem = new ProjectFilesystem(root);
+    mapper = ObjectMappers.newDefaultInstance();
+    SourcePathResolver pathResolver = new SourcePathResolver(
+        new BuildRuleResolver(TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer()));
+    ImmutableList.Builder<BuildRule> allRules = ImmutableList.builder();
+    for (int i = 0; i < ruleCount; i++) {
+      allRules.add(
+          new FakeBuildRule(
+              BuildTargetFactory.newInstance("//bench:rule" + i),
+              pathResolver,
+              ImmutableSortedSet.<BuildRule>of()));
+    }
+    rules = allRules.build();
+  }
+
+  @After
+  @AfterExperiment
+  public void tearDown() throws Exception {
+    MoreFiles.deleteRecursively(root);
+  }
+
+  @Test
+  public void tracesEveryRule() throws Exception {
+    ChromeTraceBuildListener listener = traceBuild();
+
+    List<Map<String, Object>> events;
+    try (InputStream in = filesystem.newFileInputStream(listener.getTracePath())) {
+      events = mapper.readValue(in, new TypeReference<List<Map<String, Object>>>() {});
+    }
+    int ruleEvents = 0;
+    for (Map<String, Object> event : events) {
+      if (String.valueOf(event.get("name")).startsWith("//bench:rule")) {
+        ruleEvents++;
+      }
+    }
+    assertEquals(2 * ruleCount, ruleEvents);
+  }
+
+  @Macrobenchmark
+  public ChromeTraceBuildListener traceBuild() throws Exception {
+    BuildId buildId = new BuildId();
+    ChromeTraceBuildListener listener = new ChromeTraceBuildListener(
+        filesystem,
+        buildId,
+        new DefaultClock(),
+        mapper,
+        /* tracesToKeep */ 1,
+        compressTraces);
+    BuckEventBus eventBus = BuckEventBusFactory.newInstance(new DefaultClock(), buildId);
+    eventBus.register(listener);
+
+    RuleKey ruleKey = new RuleKey("abc123");
+    for (BuildRule rule : rules) {
+      eventBus.post(BuildRuleEvent.started(rule));
+      for (int i = 0; i < STEPS_PER_RULE; i++) {
+        StepEvent.Started stepStarted =
+            StepEvent.started("step" + i, "a step of " + rule, UUID.randomUUID());
+        eventBus.post(stepStarted);
+        eventBus.post(StepEvent.finished(stepStarted, 0));
+      }
+      eventBus.post(
+          BuildRuleEvent.finished(
+              rule,
+              BuildRuleKeys.of(ruleKey),
+              BuildRuleStatus.SUCCESS,
+              CacheResult.miss(),
+              Optional.of(BuildRuleSuccessType.BUILT_LOCALLY),
+              Optional.<HashCode>absent(),
+              Optional.<Long>absent()));
+    }
+
+    listener.outputTrace(buildId);
+    return listener;
+  }
+}
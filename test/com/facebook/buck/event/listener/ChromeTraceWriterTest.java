@@ -0,0 +1,186 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event.listener;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.event.ChromeTraceEvent;
+import com.facebook.buck.util.ObjectMappers;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+public class ChromeTraceWriterTest {
+
+  private final ObjectMapper mapper = ObjectMappers.newDefaultInstance();
+
+  @Test
+  public void writesEventsInOrderAsAJsonArray() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ChromeTraceWriter writer = new ChromeTraceWriter(
+        mapper,
+        out,
+        /* maxQueuedEvents */ 2,
+        new StalledThreadFactory(new CountDownLatch(0)));
+    for (int i = 0; i < 10; i++) {
+      writer.writeEvent(newEvent("event" + i, ChromeTraceEvent.Phase.IMMEDIATE));
+    }
+    assertTrue(writer.close(10, TimeUnit.SECONDS));
+
+    List<ChromeTraceEvent> events = readEvents(out);
+    assertEquals(10, events.size());
+    for (int i = 0; i < 10; i++) {
+      assertEquals("event" + i, events.get(i).getName());
+    }
+  }
+
+  @Test
+  public void dropsDroppableEventsAndTheirEndsWhenTheQueueIsFull() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    CountDownLatch writerStarted = new CountDownLatch(1);
+    ChromeTraceWriter writer = new ChromeTraceWriter(
+        mapper,
+        out,
+        /* maxQueuedEvents */ 3,
+        new StalledThreadFactory(writerStarted));
+
+    writer.writeEvent(newEvent("build", ChromeTraceEvent.Phase.BEGIN));
+    writer.writeDroppableEvent(newEvent("step1", ChromeTraceEvent.Phase.BEGIN));
+    writer.writeDroppableEvent(newEvent("step2", ChromeTraceEvent.Phase.BEGIN));
+    // The queue is full, and nothing is taking events off it yet.
+    writer.writeDroppableEvent(newEvent("step3", ChromeTraceEvent.Phase.BEGIN));
+    writer.writeDroppableEvent(newEvent("counter", ChromeTraceEvent.Phase.IMMEDIATE));
+    writerStarted.countDown();
+
+    writer.writeDroppableEvent(newEvent("step3", ChromeTraceEvent.Phase.END));
+    writer.writeDroppableEvent(newEvent("step2", ChromeTraceEvent.Phase.END));
+    writer.writeDroppableEvent(newEvent("step1", ChromeTraceEvent.Phase.END));
+    writer.writeEvent(newEvent("build", ChromeTraceEvent.Phase.END));
+    assertTrue(writer.close(10, TimeUnit.SECONDS));
+
+    assertEquals(3, writer.getDroppedEventCount());
+    List<ChromeTraceEvent> events = readEvents(out);
+    ImmutableList.Builder<String> written = ImmutableList.builder();
+    for (ChromeTraceEvent event : events) {
+      written.add(event.getName() + " " + event.getPhase());
+    }
+    assertEquals(
+        ImmutableList.of(
+            "build BEGIN",
+            "step1 BEGIN",
+            "step2 BEGIN",
+            "step2 END",
+            "step1 END",
+            "build END",
+            "trace_stats METADATA"),
+        written.build());
+    assertEquals(
+        ImmutableMap.of("dropped_events", "3"),
+        events.get(events.size() - 1).getArgs());
+  }
+
+  @Test
+  public void traceIsFinishedByTheWritingThreadWhenCloseTimesOut() throws Exception {
+    CloseRecordingOutputStream out = new CloseRecordingOutputStream();
+    CountDownLatch writerStarted = new CountDownLatch(1);
+    ChromeTraceWriter writer = new ChromeTraceWriter(
+        mapper,
+        out,
+        /* maxQueuedEvents */ 3,
+        new StalledThreadFactory(writerStarted));
+    writer.writeEvent(newEvent("build", ChromeTraceEvent.Phase.IMMEDIATE));
+
+    assertFalse(writer.close(100, TimeUnit.MILLISECONDS));
+    // The writing thread may still be using the stream, so close() mustn't touch it.
+    assertNull(out.closingThread);
+
+    writerStarted.countDown();
+    assertTrue(out.closed.await(10, TimeUnit.SECONDS));
+    assertNotSame(Thread.currentThread(), out.closingThread);
+    readEvents(out);
+  }
+
+  private List<ChromeTraceEvent> readEvents(ByteArrayOutputStream out) throws Exception {
+    return mapper.readValue(
+        out.toByteArray(),
+        new TypeReference<List<ChromeTraceEvent>>() {});
+  }
+
+  private static ChromeTraceEvent newEvent(String name, ChromeTraceEvent.Phase phase) {
+    return new ChromeTraceEvent(
+        "buck",
+        name,
+        phase,
+        /* processId */ 0,
+        /* threadId */ 1,
+        /* microTime */ 0,
+        ImmutableMap.<String, String>of());
+  }
+
+  private static class CloseRecordingOutputStream extends ByteArrayOutputStream {
+    private final CountDownLatch closed = new CountDownLatch(1);
+    @Nullable
+    private volatile Thread closingThread;
+
+    @Override
+    public void close() throws IOException {
+      closingThread = Thread.currentThread();
+      super.close();
+      closed.countDown();
+    }
+  }
+
+  /**
+   * Makes threads which don't start running until {@code latch} is released.
+   */
+  private static class StalledThreadFactory implements ThreadFactory {
+    private final CountDownLatch latch;
+
+    public StalledThreadFactory(CountDownLatch latch) {
+      this.latch = latch;
+    }
+
+    @Override
+    public Thread newThread(final Runnable runnable) {
+      return new Thread(
+          new Runnable() {
+            @Override
+            public void run() {
+              Uninterruptibles.awaitUninterruptibly(latch);
+              runnable.run();
+            }
+          });
+    }
+  }
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+
+public class CompactDirectedGraphTest {
+
+  private final ListeningExecutorService executor = MoreExecutors.newDirectExecutorService();
+
+  /**
+   * <pre>
+   *   A     F
+   *  / \    |
+   * B   C   G
+   *  \ / \
+   *   D   E
+   * </pre>
+   */
+  private static CompactDirectedGraph<String> createGraph() {
+    CompactDirectedGraph.Builder<String> builder = CompactDirectedGraph.builder();
+    for (String node : ImmutableList.of("A", "B", "C", "D", "E", "F", "G")) {
+      builder.addNode(node);
+    }
+    // Add edges out of order, to check that each node's edges are sorted by node order.
+    return builder
+        .addEdge("A", "C")
+        .addEdge("A", "B")
+        .addEdge("C", "E")
+        .addEdge("C", "D")
+        .addEdge("B", "D")
+        .addEdge("F", "G")
+        .build();
+  }
+
+  @Test
+  public void countsNodesAndEdges() throws Exception {
+    CompactDirectedGraph<String> graph = createGraph();
+    assertEquals(7, graph.getNodeCount());
+    assertEquals(6, graph.getEdgeCount());
+    assertEquals(ImmutableList.of("A", "B", "C", "D", "E", "F", "G"), graph.getNodes());
+    assertTrue(graph.containsNode("A"));
+    assertFalse(graph.containsNode("H"));
+  }
+
+  @Test
+  public void transitiveClosureIsInNodeOrder() throws Exception {
+    CompactDirectedGraph<String> graph = createGraph();
+    assertEquals(
+        ImmutableList.of("A", "B", "C", "D", "E"),
+        ImmutableList.copyOf(graph.getTransitiveClosure(ImmutableList.of("A"), executor)));
+    assertEquals(
+        ImmutableList.of("C", "D", "E", "G"),
+        ImmutableList.copyOf(
+            graph.getTransitiveClosure(ImmutableList.of("G", "C", "H"), executor)));
+  }
+
+  @Test
+  public void breadthFirstSearchFollowsEdgesLevelByLevel() throws Exception {
+    CompactDirectedGraph<String> graph = createGraph();
+    assertEquals(
+        ImmutableList.of("A", "B", "C", "D", "E"),
+        ImmutableList.copyOf(
+            graph.breadthFirstSearch(
+                ImmutableList.of("A"),
+                CompactDirectedGraph.Direction.OUTGOING,
+                Integer.MAX_VALUE,
+                /* within */ null,
+                executor)));
+    assertEquals(
+        ImmutableList.of("D", "B", "C", "A"),
+        ImmutableList.copyOf(
+            graph.breadthFirstSearch(
+                ImmutableList.of("D"),
+                CompactDirectedGraph.Direction.INCOMING,
+                Integer.MAX_VALUE,
+                /* within */ null,
+                executor)));
+  }
+
+  @Test
+  public void breadthFirstSearchStopsAtMaxDepth() throws Exception {
+    CompactDirectedGraph<String> graph = createGraph();
+    assertEquals(
+        ImmutableList.of("A"),
+        ImmutableList.copyOf(
+            graph.breadthFirstSearch(
+                ImmutableList.of("A"),
+                CompactDirectedGraph.Direction.OUTGOING,
+                0,
+                /* within */ null,
+                executor)));
+    assertEquals(
+        ImmutableList.of("E", "C"),
+        ImmutableList.copyOf(
+            graph.breadthFirstSearch(
+                ImmutableList.of("E"),
+                CompactDirectedGraph.Direction.INCOMING,
+                1,
+                /* within */ null,
+                executor)));
+  }
+
+  @Test
+  public void breadthFirstSearchStaysWithinTheGivenNodes() throws Exception {
+    CompactDirectedGraph<String> graph = createGraph();
+    CompactDirectedGraph<String>.NodeSet within =
+        graph.getTransitiveClosure(ImmutableList.of("C"), executor);
+    CompactDirectedGraph<String>.NodeSet result =
+        graph.breadthFirstSearch(
+            ImmutableList.of("D", "F"),
+            CompactDirectedGraph.Direction.INCOMING,
+            Integer.MAX_VALUE,
+            within,
+            executor);
+    assertEquals(ImmutableList.of("D", "C"), ImmutableList.copyOf(result));
+    assertEquals(ImmutableSet.of("C", "D"), result);
+    assertTrue(result.contains("C"));
+    assertFalse(result.contains("B"));
+    assertFalse(result.contains("H"));
+  }
+
+  @Test
+  public void searchingLargeLevelsInParallelFindsNodesInTheSameOrder() throws Exception {
+    // Wide levels, so that they are split up into chunks.
+    int nodeCount = 50000;
+    Random random = new Random(42);
+    CompactDirectedGraph.Builder<Integer> builder = CompactDirectedGraph.builder();
+    for (int i = 0; i < nodeCount; i++) {
+      builder.addNode(i);
+    }
+    for (int i = 1; i < nodeCount; i++) {
+      for (int j = 0; j < 3; j++) {
+        builder.addEdge(i, random.nextInt(i));
+      }
+    }
+    CompactDirectedGraph<Integer> graph = builder.build();
+    ImmutableList<Integer> roots = ImmutableList.of(nodeCount - 1, nodeCount / 2, 0);
+    assertEquals(
+        naiveBreadthFirstSearch(graph, roots, 2),
+        ImmutableList.copyOf(
+            graph.breadthFirstSearch(
+                roots,
+                CompactDirectedGraph.Direction.OUTGOING,
+                2,
+                /* within */ null,
+                executor)));
+
+    ListeningExecutorService pool = MoreExecutors.listeningDecorator(
+        Executors.newFixedThreadPool(4));
+    try {
+      for (CompactDirectedGraph.Direction direction : CompactDirectedGraph.Direction.values()) {
+        for (int maxDepth : ImmutableList.of(2, Integer.MAX_VALUE)) {
+          assertEquals(
+              ImmutableList.copyOf(
+                  graph.breadthFirstSearch(
+                      roots,
+                      direction,
+                      maxDepth,
+                      /* within */ null,
+                      executor)),
+              ImmutableList.copyOf(
+                  graph.breadthFirstSearch(
+                      roots,
+                      direction,
+                      maxDepth,
+                      /* within */ null,
+                      pool)));
+        }
+      }
+      assertEquals(
+          graph.getTransitiveClosure(roots, executor),
+          graph.getTransitiveClosure(roots, pool));
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Follows the outgoing edges of the nodes of a graph with the nodes' numbers.
+   */
+  private static ImmutableList<Integer> naiveBreadthFirstSearch(
+      CompactDirectedGraph<Integer> graph,
+      ImmutableList<Integer> roots,
+      int maxDepth) throws InterruptedException {
+    Set<Integer> visited = new LinkedHashSet<>(roots);
+    List<Integer> level = new ArrayList<>(roots);
+    for (int depth = 0; depth < maxDepth; depth++) {
+      List<Integer> nextLevel = new ArrayList<>();
+      for (int node : level) {
+        ImmutableList<Integer> deps = ImmutableList.copyOf(
+            graph.breadthFirstSearch(
+                ImmutableList.of(node),
+                CompactDirectedGraph.Direction.OUTGOING,
+                1,
+                /* within */ null,
+                MoreExecutors.newDirectExecutorService()));
+        for (int dep : deps.subList(1, deps.size())) {
+          if (visited.add(dep)) {
+            nextLevel.add(dep);
+          }
+        }
+      }
+      level = nextLevel;
+    }
+    return ImmutableList.copyOf(visited);
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.httpserver;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+
+import com.facebook.buck.artifact_cache.ArtifactCache;
+import com.facebook.buck.artifact_cache.ArtifactStreamConsumer;
+import com.facebook.buck.artifact_cache.CacheResult;
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.google.common.base.Optional;
+
+import org.easymock.EasyMockSupport;
+import org.eclipse.jetty.http.HttpURI;
+import org.eclipse.jetty.server.HttpChannel;
+import org.eclipse.jetty.server.HttpOutput;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Response;
+import org.junit.Test;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+public class ArtifactCacheHandlerTest extends EasyMockSupport {
+
+  private static final RuleKey RULE_KEY = new RuleKey("0123456789abcdef");
+
+  @Test
+  public void failedFetchIsReportedAsMissingBeforeAnythingIsSent() throws Exception {
+    Request baseRequest = createFetchRequest(/* written */ false);
+    HttpServletResponse response = createMock(HttpServletResponse.class);
+    response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+    response.flushBuffer();
+
+    HttpServletRequest request = createMock(HttpServletRequest.class);
+    ArtifactCacheHandler handler = createHandler();
+
+    replayAll();
+    handler.handle("/artifacts/key/" + RULE_KEY, baseRequest, request, response);
+    verifyAll();
+  }
+
+  @Test
+  public void failedFetchAbortsTheConnectionOnceSomethingIsSent() throws Exception {
+    Request baseRequest = createFetchRequest(/* written */ true);
+    HttpChannel<?> channel = createMock(HttpChannel.class);
+    expect(baseRequest.getHttpChannel()).andStubReturn((HttpChannel) channel);
+    channel.abort();
+    // Neither a status nor the rest of the response is sent.
+    HttpServletResponse response = createMock(HttpServletResponse.class);
+
+    HttpServletRequest request = createMock(HttpServletRequest.class);
+    ArtifactCacheHandler handler = createHandler();
+
+    replayAll();
+    handler.handle("/artifacts/key/" + RULE_KEY, baseRequest, request, response);
+    verifyAll();
+  }
+
+  private Request createFetchRequest(boolean written) {
+    HttpOutput output = createMock(HttpOutput.class);
+    expect(output.isWritten()).andStubReturn(written);
+    Response baseResponse = createMock(Response.class);
+    expect(baseResponse.getHttpOutput()).andStubReturn(output);
+
+    Request baseRequest = createMock(Request.class);
+    expect(baseRequest.getMethod()).andReturn("GET");
+    expect(baseRequest.getUri()).andReturn(new HttpURI("/artifacts/key/" + RULE_KEY));
+    expect(baseRequest.getResponse()).andStubReturn(baseResponse);
+    baseRequest.setHandled(true);
+    return baseRequest;
+  }
+
+  private ArtifactCacheHandler createHandler() {
+    ArtifactCache cache = createMock(ArtifactCache.class);
+    expect(cache.fetchStreaming(eq(RULE_KEY), anyObject(ArtifactStreamConsumer.class)))
+        .andReturn(CacheResult.error("dir", "Failed to read the artifact."));
+    ArtifactCacheHandler handler = new ArtifactCacheHandler(new FakeProjectFilesystem());
+    handler.setArtifactCache(Optional.of(cache));
+    return handler;
+  }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.httpserver;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.artifact_cache.ArtifactCache;
+import com.facebook.buck.artifact_cache.ArtifactInfo;
+import com.facebook.buck.artifact_cache.DirArtifactCache;
+import com.facebook.buck.artifact_cache.FetchResponseReadResult;
+import com.facebook.buck.artifact_cache.HttpArtifactCacheBinaryProtocol;
+import com.facebook.buck.io.BorrowablePath;
+import com.facebook.buck.io.MoreFiles;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.util.ObjectMappers;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Param;
+import com.google.caliper.api.Macrobenchmark;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+
+/**
+ * Measures the throughput of fetching artifacts from the cache served by {@link WebServer}, with
+ * many clients fetching concurrently.
+ */
+public class ServedCacheBenchmark {
+  private static final int ARTIFACT_COUNT = 32;
+  private static final int FETCHES_PER_THREAD = 16;
+
+  @Param({"1", "8", "32"})
+  private int threadCount = 4;
+
+  @Param({"1024", "1048576", "16777216"})
+  private int artifactSizeBytes = 1024;
+
+  private Path root;
+  private DirArtifactCache cache;
+  private WebServer webServer;
+  private ListeningExecutorService executorService;
+  private ImmutableList<RuleKey> ruleKeys;
+
+  @Before
+  public void setUpTest() throws Exception {
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() throws Exception {
+    root = Files.createTempDirectory("served-cache-benchmark").toRealPath();
+    ProjectFilesystem filesystem = new ProjectFilesystem(root);
+    cache = new DirArtifactCache(
+        "dir",
+        filesystem,
+        Paths.get("cache"),
+        /* doStore */ true,
+        /* maxCacheSizeBytes */ Optional.<Long>absent());
+
+    byte[] contents = new byte[artifactSizeBytes];
+    Random random = new Random(0);
+    ImmutableList.Builder<RuleKey> keys = ImmutableList.builder();
+    for (int i = 0; i < ARTIFACT_COUNT; i++) {
+      RuleKey ruleKey = new RuleKey(String.format("%08x", i));
+      Path artifact = Paths.get("artifact" + i);
+      random.nextBytes(contents);
+      filesystem.writeBytesToPath(contents, artifact);
+      cache.store(
+          ArtifactInfo.builder().addRuleKeys(ruleKey).build(),
+          BorrowablePath.borrowablePath(artifact)).get();
+      keys.add(ruleKey);
+    }
+    ruleKeys = keys.build();
+
+    webServer = new WebServer(
+        /* port */ 0,
+        filesystem,
+        "/static/",
+        ObjectMappers.newDefaultInstance());
+    webServer.updateAndStartIfNeeded(Optional.<ArtifactCache>of(cache));
+    executorService = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(threadCount));
+  }
+
+  @After
+  @AfterExperiment
+  public void tearDown() throws Exception {
+    executorService.shutdown();
+    webServer.stop();
+    cache.close();
+    MoreFiles.deleteRecursively(root);
+  }
+
+  @Test
+  public void servesEveryArtifact() throws Exception {
+    for (RuleKey ruleKey : ruleKeys) {
+      HttpURLConnection connection = openFetch(ruleKey);
+      assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode());
+      try (DataInputStream in = new DataInputStream(connection.getInputStream())) {
+        FetchResponseReadResult result =
+            HttpArtifactCacheBinaryProtocol.readFetchResponse(in, ByteStreams.nullOutputStream());
+        assertEquals(result.getExpectedHashCode(), result.getActualHashCode());
+        assertEquals(ImmutableMap.<String, String>of(), result.getMetadata());
+      }
+    }
+  }
+
+  @Macrobenchmark
+  public long fetchConcurrently() throws Exception {
+    List<ListenableFuture<Long>> fetches = new ArrayList<>(threadCount);
+    for (int i = 0; i < threadCount; i++) {
+      final int thread = i;
+      fetches.add(
+          executorService.submit(
+              new Callable<Long>() {
+                @Override
+                public Long call() throws IOException {
+                  long bytes = 0;
+                  for (int j = 0; j < FETCHES_PER_THREAD; j++) {
+                    RuleKey ruleKey = ruleKeys.get((thread + j) % ruleKeys.size());
+                    try (InputStream in = openFetch(ruleKey).getInputStream()) {
+                      bytes += ByteStreams.copy(in, ByteStreams.nullOutputStream());
+                    }
+                  }
+                  return bytes;
+                }
+              }));
+    }
+    long totalBytes = 0;
+    for (long bytes : Futures.allAsList(fetches).get()) {
+      totalBytes += bytes;
+    }
+    return totalBytes;
+  }
+
+  private HttpURLConnection openFetch(RuleKey ruleKey) throws IOException {
+    URL url = new URL(
+        String.format(
+            "http://127.0.0.1:%d/artifacts/key/%s",
+            webServer.getPort().get(),
+            ruleKey));
+    return (HttpURLConnection) url.openConnection();
+  }
+}
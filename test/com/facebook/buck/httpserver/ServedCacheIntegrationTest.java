@@ -24,6 +24,7 @@ import com.facebook.buck.artifact_cache.ArtifactCache;
 import com.facebook.buck.artifact_cache.ArtifactCacheBuckConfig;
 import com.facebook.buck.artifact_cache.ArtifactCaches;
 import com.facebook.buck.artifact_cache.ArtifactInfo;
+import com.facebook.buck.artifact_cache.ArtifactStreamConsumer;
 import com.facebook.buck.artifact_cache.CacheResult;
 import com.facebook.buck.artifact_cache.CacheResultType;
 import com.facebook.buck.artifact_cache.DirArtifactCacheTestUtil;
@@ -41,9 +42,11 @@ import com.facebook.buck.util.ObjectMappers;
 import com.facebook.buck.util.environment.Architecture;
 import com.facebook.buck.util.environment.Platform;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
@@ -55,6 +58,7 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.DataOutputStream;
 import java.io.FilterInputStream;
 import java.io.IOException;
@@ -97,7 +101,7 @@ public class ServedCacheIntegrationTest {
         DIRECT_EXECUTOR_SERVICE);
     dirCache.store(
         ArtifactInfo.builder().addRuleKeys(A_FILE_RULE_KEY).setMetadata(A_FILE_METADATA).build(),
-        BorrowablePath.notBorrowablePath(A_FILE_PATH));
+        BorrowablePath.notBorrowablePath(A_FILE_PATH)).get();
   }
 
   @After
@@ -192,6 +196,52 @@ public class ServedCacheIntegrationTest {
     }
   }
 
+  private static class StreamingOnlyArtifactCache implements ArtifactCache {
+    private final ArtifactCache delegate;
+
+    public StreamingOnlyArtifactCache(ArtifactCache delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public CacheResult fetch(RuleKey ruleKey, LazyPath output) {
+      return delegate.fetch(ruleKey, output);
+    }
+
+    @Override
+    public CacheResult fetchStreaming(RuleKey ruleKey, final ArtifactStreamConsumer consumer) {
+      // Hide whether the consumer can read artifacts in place.
+      return delegate.fetchStreaming(
+          ruleKey,
+          new ArtifactStreamConsumer() {
+            @Override
+            public void consume(InputStream artifact) throws IOException {
+              consumer.consume(artifact);
+            }
+          });
+    }
+
+    @Override
+    public ImmutableMap<RuleKey, Boolean> multiContains(ImmutableSet<RuleKey> ruleKeys) {
+      return delegate.multiContains(ruleKeys);
+    }
+
+    @Override
+    public ListenableFuture<Void> store(ArtifactInfo info, BorrowablePath output) {
+      return delegate.store(info, output);
+    }
+
+    @Override
+    public boolean isStoreSupported() {
+      return delegate.isStoreSupported();
+    }
+
+    @Override
+    public void close() {
+      delegate.close();
+    }
+  }
+
   @Test
   public void testExceptionDuringTheRead() throws Exception {
     ProjectFilesystem throwingStreamFilesystem = new ProjectFilesystem(tmpDir.getRoot()) {
@@ -213,7 +263,9 @@ public class ServedCacheIntegrationTest {
         throwingStreamFilesystem,
         "/static/",
         MAPPER);
-    webServer.updateAndStartIfNeeded(Optional.of(dirCache));
+    // Artifacts of caches which can only stream them are served from a scratch copy.
+    webServer.updateAndStartIfNeeded(
+        Optional.<ArtifactCache>of(new StreamingOnlyArtifactCache(dirCache)));
 
     ArtifactCache serverBackedCache = ArtifactCaches.newInstance(
         createMockLocalHttpCacheConfig(webServer.getPort().get()),
@@ -342,6 +394,24 @@ public class ServedCacheIntegrationTest {
         return CacheResult.miss();
       }
 
+      @Override
+      public CacheResult fetchStreaming(RuleKey ruleKey, ArtifactStreamConsumer consumer) {
+        if (ruleKey.equals(bFileRuleKey)) {
+          try {
+            consumer.consume(new ByteArrayInputStream("second".getBytes(Charsets.UTF_8)));
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+          return CacheResult.hit("secondCache");
+        }
+        return CacheResult.miss();
+      }
+
+      @Override
+      public ImmutableMap<RuleKey, Boolean> multiContains(ImmutableSet<RuleKey> ruleKeys) {
+        return ImmutableMap.of();
+      }
+
       @Override
       public ListenableFuture<Void> store(
           ArtifactInfo info,
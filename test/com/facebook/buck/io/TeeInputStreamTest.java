@@ -106,4 +106,17 @@ public class TeeInputStreamTest {
       assertThat(destinationStream.toString(UTF_8), is("X"));
     }
   }
+
+  @Test
+  public void skipCopiesSkippedBytes() throws IOException {
+    byte[] input = new byte[] { 'X', 'Y', 'Z' };
+    try (ByteArrayInputStream sourceStream = new ByteArrayInputStream(input);
+         ByteArrayOutputStream destinationStream = new ByteArrayOutputStream();
+         TeeInputStream teeStream = new TeeInputStream(sourceStream, destinationStream)) {
+      assertThat(teeStream.skip(2), is(equalTo(2L)));
+      assertThat(teeStream.read(), is(equalTo((int) 'Z')));
+      assertThat(teeStream.skip(1), is(equalTo(0L)));
+      assertThat(destinationStream.toString(UTF_8), is("XYZ"));
+    }
+  }
 }
@@ -17,17 +17,22 @@
 package com.facebook.buck.jvm.java;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.io.MorePaths;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.jvm.java.runner.FileClassPathRunner;
 import com.facebook.buck.model.BuildId;
+import com.facebook.buck.shell.WorkerJobParams;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.test.selectors.TestSelectorList;
 import com.facebook.buck.testutil.FakeProjectFilesystem;
 import com.facebook.buck.testutil.MoreAsserts;
 import com.facebook.buck.testutil.TestConsole;
 import com.facebook.buck.util.Verbosity;
+import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -199,4 +204,111 @@ public class JUnitStepTest {
     assertEquals("Debugging. Suspending JVM. Connect a JDWP debugger to port 5005 to proceed.",
         console.getTextWrittenToStdErr().trim());
   }
+
+  @Test
+  public void testsWhichNeedAJvmOfTheirOwnDontRunInPooledJvms() {
+    ProjectFilesystem filesystem = FakeProjectFilesystem.createJavaOnlyFilesystem();
+    ExecutionContext executionContext = TestExecutionContext.newBuilder()
+        .setConsole(new TestConsole(Verbosity.STANDARD_INFORMATION))
+        .build();
+    JUnitJvmArgs args = createPoolableJvmArgs(filesystem);
+
+    assertTrue(createPooledStep(filesystem, args, 2).canRunInPooledJvm(executionContext));
+    assertFalse(createPooledStep(filesystem, args, 0).canRunInPooledJvm(executionContext));
+    assertFalse(
+        createPooledStep(
+            filesystem,
+            args.withExtraJvmArgs(ImmutableList.of("-Xmx1g")),
+            2)
+            .canRunInPooledJvm(executionContext));
+    assertFalse(
+        createPooledStep(filesystem, args.withCodeCoverageEnabled(true), 2)
+            .canRunInPooledJvm(executionContext));
+    assertFalse(
+        new JUnitStep(
+            filesystem,
+            /* nativeLibsEnvironment */ ImmutableMap.<String, String>of(),
+            /* testRuleTimeoutMs*/ Optional.of(1000L),
+            new ExternalJavaRuntimeLauncher("/foo/bar/custom/java"),
+            args,
+            /* runnerPoolSize */ 2)
+            .canRunInPooledJvm(executionContext));
+  }
+
+  @Test
+  public void pooledJvmJobsCarryTheClasspathAndSystemProperties() {
+    ProjectFilesystem filesystem = FakeProjectFilesystem.createJavaOnlyFilesystem();
+    ExecutionContext executionContext = TestExecutionContext.newBuilder()
+        .setConsole(new TestConsole(Verbosity.STANDARD_INFORMATION))
+        .setDefaultTestTimeoutMillis(5000L)
+        .build();
+    JUnitJvmArgs args = createPoolableJvmArgs(filesystem)
+        .withTestSelectorList(
+            TestSelectorList.builder()
+                .addRawSelectors("FooTest", "BarTest#testBaz")
+                .build());
+
+    WorkerJobParams params =
+        createPooledStep(filesystem, args, 2).getPooledJvmJobParams(executionContext);
+
+    assertEquals(
+        ImmutableList.of(
+            "/foo/bar/custom/java",
+            "-Djava.io.tmpdir=" + filesystem.resolve("buck-out/tmp/junit-runner"),
+            "-classpath",
+            "build/classes/junit",
+            "com.facebook.buck.testrunner.JUnitWorkerMain"),
+        params.getStartupCommand());
+    assertEquals(2, params.getMaxWorkers());
+    assertTrue(params.isPersistent());
+    assertEquals(
+        Joiner.on('\n').join(
+            "--classpath-file",
+            filesystem.resolve("classpath-file").toString(),
+            "--shared-classpath-file",
+            filesystem.resolve("shared-classpath-file").toString(),
+            "--system-property",
+            "buck.testrunner_classes=build/classes/junit",
+            "--system-property",
+            "com.facebook.buck.buildId=pretend-build-id",
+            "--system-property",
+            "com.facebook.buck.moduleBasePath=module/submodule",
+            "--output",
+            "buck-out/gen/theresults",
+            "--default-test-timeout",
+            "5000",
+            "--test-selectors",
+            "FooTest$#",
+            "--test-selectors",
+            "BarTest$#testBaz$",
+            "com.example.FooTest"),
+        params.getJobArgs());
+  }
+
+  private static JUnitJvmArgs createPoolableJvmArgs(ProjectFilesystem filesystem) {
+    return JUnitJvmArgs.builder()
+        .setTmpDirectory(Paths.get("buck-out/gen/thetmp"))
+        .setBuildId(new BuildId("pretend-build-id"))
+        .setBuckModuleBaseSourceCodePath(Paths.get("module/submodule"))
+        .setClasspathFile(filesystem.resolve("classpath-file"))
+        .setSharedClasspathFile(filesystem.resolve("shared-classpath-file"))
+        .setTestRunnerClasspath(Paths.get("build/classes/junit"))
+        .setTestType(TestType.JUNIT)
+        .setDirectoryForTestResults(Paths.get("buck-out/gen/theresults"))
+        .addTestClasses("com.example.FooTest")
+        .build();
+  }
+
+  private static JUnitStep createPooledStep(
+      ProjectFilesystem filesystem,
+      JUnitJvmArgs args,
+      int runnerPoolSize) {
+    return new JUnitStep(
+        filesystem,
+        /* nativeLibsEnvironment */ ImmutableMap.<String, String>of(),
+        /* testRuleTimeoutMs*/ Optional.<Long>absent(),
+        new ExternalJavaRuntimeLauncher("/foo/bar/custom/java"),
+        args,
+        runnerPoolSize);
+  }
 }
@@ -30,6 +30,7 @@ import com.facebook.buck.step.TargetDevice;
 import com.facebook.buck.testutil.MoreAsserts;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedSet;
 
 import org.hamcrest.Matchers;
@@ -117,6 +118,48 @@ public class JavaTestRuleTest {
         Matchers.<BuildRule>contains(firstOrderDep, transitiveDep));
   }
 
+  @Test
+  public void testClassesAreSplitIntoShardsOfAboutTheSameDuration() {
+    ImmutableList<ImmutableList<String>> shards = JavaTest.splitIntoShards(
+        ImmutableList.of("ATest", "BTest", "CTest", "DTest"),
+        ImmutableMap.of(
+            "ATest", 30_000L,
+            "BTest", 20_000L,
+            "CTest", 10_000L,
+            "DTest", 20_000L),
+        /* maxShards */ 2);
+
+    assertEquals(
+        ImmutableList.of(
+            ImmutableList.of("ATest", "CTest"),
+            ImmutableList.of("BTest", "DTest")),
+        shards);
+  }
+
+  @Test
+  public void testClassesAreNotSplitIntoShardsShorterThanTheMinimumDuration() {
+    ImmutableList<String> testClasses = ImmutableList.of("ATest", "BTest", "CTest");
+
+    assertEquals(
+        ImmutableList.of(testClasses),
+        JavaTest.splitIntoShards(
+            testClasses,
+            ImmutableMap.of("ATest", 3_000L, "BTest", 3_000L, "CTest", 3_000L),
+            /* maxShards */ 3));
+  }
+
+  @Test
+  public void testClassesAreNotSplitWithoutRecordedDurations() {
+    ImmutableList<String> testClasses = ImmutableList.of("ATest", "BTest");
+
+    assertEquals(
+        ImmutableList.of(testClasses),
+        JavaTest.splitIntoShards(
+            testClasses,
+            ImmutableMap.<String, Long>of(),
+            /* maxShards */ 2));
+  }
+
   private JavaTest newRule(ImmutableList<String> vmArgs) throws NoSuchBuildTargetException {
     return (JavaTest) JavaTestBuilder
         .createBuilder(BuildTargetFactory.newInstance("//example:test"))
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Param;
+import com.google.caliper.api.Macrobenchmark;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Sets;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Builds a synthetic graph of targets the way the parser does, creating a new target each time
+ * a target's name is read, and keeps it, as the daemon keeps its target nodes.
+ * <p>
+ * The graph holds on to one instance of each target, however many times its name was read, so its
+ * heap grows with the number of distinct targets rather than with the number of edges. Compare
+ * heap histograms ({@code jmap -histo:live}) of the benchmark's worker to see this.
+ */
+public class BuildTargetHeapBenchmark {
+  private static final int DEPS_PER_TARGET = 5;
+  private static final int TARGETS_PER_PACKAGE = 20;
+  // One in this many targets has a flavor.
+  private static final int FLAVORED_TARGET_INTERVAL = 4;
+
+  @Param({"200000"})
+  private int targetCount = 2000;
+
+  private ImmutableList<String> names;
+
+  @Before
+  public void setUpTest() {
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() {
+    ImmutableList.Builder<String> namesBuilder = ImmutableList.builder();
+    for (int i = 0; i < targetCount; i++) {
+      namesBuilder.add(
+          "//project/package" + (i / TARGETS_PER_PACKAGE) +
+          ":target" + (i % TARGETS_PER_PACKAGE) +
+          (i % FLAVORED_TARGET_INTERVAL == 0 ? "#shared" : ""));
+    }
+    names = namesBuilder.build();
+  }
+
+  /**
+   * A random graph in which targets depend on targets with lower numbers, mostly nearby ones.
+   */
+  private Map<BuildTarget, ImmutableSortedSet<BuildTarget>> createGraph() {
+    Random random = new Random(42);
+    Map<BuildTarget, ImmutableSortedSet<BuildTarget>> graph = new HashMap<>();
+    for (int i = 0; i < targetCount; i++) {
+      ImmutableSortedSet.Builder<BuildTarget> deps = ImmutableSortedSet.naturalOrder();
+      for (int j = 0; i > 0 && j < DEPS_PER_TARGET; j++) {
+        int dep = random.nextBoolean() ?
+            Math.max(0, i - 1 - random.nextInt(2 * TARGETS_PER_PACKAGE)) :
+            random.nextInt(i);
+        deps.add(BuildTargetFactory.newInstance(names.get(dep)));
+      }
+      graph.put(BuildTargetFactory.newInstance(names.get(i)), deps.build());
+    }
+    return graph;
+  }
+
+  @Test
+  public void graphHoldsOneInstanceOfEachTargetAndBaseName() {
+    Map<BuildTarget, ImmutableSortedSet<BuildTarget>> graph = createGraph();
+
+    Set<BuildTarget> targets = Sets.newIdentityHashSet();
+    Set<String> baseNames = Sets.newIdentityHashSet();
+    Set<Set<Flavor>> flavorSets = Sets.newIdentityHashSet();
+    for (Map.Entry<BuildTarget, ImmutableSortedSet<BuildTarget>> entry : graph.entrySet()) {
+      targets.add(entry.getKey());
+      targets.addAll(entry.getValue());
+    }
+    for (BuildTarget target : targets) {
+      baseNames.add(target.getBaseName());
+      flavorSets.add(target.getFlavors());
+    }
+
+    assertEquals(targetCount, targets.size());
+    assertEquals(targetCount / TARGETS_PER_PACKAGE, baseNames.size());
+    assertEquals(2, flavorSets.size());
+    assertSame(
+        BuildTargetFactory.newInstance(names.get(0)),
+        BuildTargetFactory.newInstance(names.get(0)));
+  }
+
+  @Macrobenchmark
+  public int parseGraph() {
+    return createGraph().size();
+  }
+}
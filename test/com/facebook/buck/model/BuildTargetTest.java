@@ -19,10 +19,12 @@ package com.facebook.buck.model;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
 
@@ -180,4 +182,40 @@ public class BuildTargetTest {
     assertThat(appendedFlavor.getFlavors(), Matchers.equalTo(expectedFlavors));
   }
 
+  @Test
+  public void equalTargetsAreTheSameInstance() {
+    Flavor biz = ImmutableFlavor.of("biz");
+    BuildTarget target = BuildTarget.builder(ROOT, "//foo/bar", "baz").addFlavors(biz).build();
+
+    assertSame(
+        target,
+        BuildTarget.builder(ROOT, "//foo/bar", "baz").addFlavors(biz).build());
+    assertSame(
+        target,
+        BuildTarget.of(
+            UnflavoredBuildTarget.of(ROOT, Optional.<String>absent(), "//foo/bar", "baz"),
+            ImmutableSortedSet.of(biz)));
+    assertSame(
+        target,
+        BuildTarget.builder(ROOT, "//foo/bar", "baz").build().withFlavors(biz));
+    assertSame(
+        target,
+        BuildTarget.builder(ROOT, "//foo/bar", "baz").build().withAppendedFlavors(biz));
+  }
+
+  @Test
+  public void equalFlavorSetsAreTheSameInstance() {
+    BuildTarget target = BuildTarget
+        .builder(ROOT, "//foo/bar", "baz")
+        .addFlavors(ImmutableFlavor.of("biz"), ImmutableFlavor.of("aaa"))
+        .build();
+    BuildTarget otherTarget = BuildTarget
+        .builder(ROOT, "//foo/other", "qux")
+        .addFlavors(ImmutableFlavor.of("aaa"))
+        .build()
+        .withAppendedFlavors(ImmutableFlavor.of("biz"));
+
+    assertSame(target.getFlavors(), otherTarget.getFlavors());
+  }
+
 }
@@ -17,6 +17,7 @@
 package com.facebook.buck.model;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 import org.junit.Test;
 
@@ -35,4 +36,13 @@ public class FlavorTest {
         Flavor.replaceInvalidCharacters("abcd/ABCD/e_fg+h-i.jkl.mn/opq@#$$r/()049"));
   }
 
+  @Test
+  public void equalFlavorsAreTheSameInstance() {
+    Flavor flavor = ImmutableFlavor.of("biz");
+
+    assertSame(flavor, ImmutableFlavor.of("biz"));
+    assertSame(flavor, ImmutableFlavor.builder().name("biz").build());
+    assertSame(flavor, Flavor.TO_FLAVOR.apply("biz"));
+  }
+
 }
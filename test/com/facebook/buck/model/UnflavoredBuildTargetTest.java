@@ -0,0 +1,64 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.model;
+
+import static org.junit.Assert.assertSame;
+
+import com.google.common.base.Optional;
+
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+public class UnflavoredBuildTargetTest {
+
+  private static final Path ROOT = Paths.get("/opt/src/buck");
+
+  @Test
+  public void equalTargetsAreTheSameInstance() {
+    UnflavoredBuildTarget target =
+        UnflavoredBuildTarget.of(ROOT, Optional.<String>absent(), "//foo/bar", "baz");
+
+    assertSame(
+        target,
+        UnflavoredBuildTarget.of(ROOT, Optional.<String>absent(), "//foo/bar", "baz"));
+    assertSame(
+        target,
+        UnflavoredBuildTarget.builder("//foo/bar", "baz").setCellPath(ROOT).build());
+    assertSame(
+        target,
+        BuildTarget.builder(ROOT, "//foo/bar", "baz")
+            .addFlavors(ImmutableFlavor.of("biz"))
+            .build()
+            .getUnflavoredBuildTarget());
+  }
+
+  @Test
+  public void targetsInTheSamePackageShareTheirBaseName() {
+    UnflavoredBuildTarget target =
+        UnflavoredBuildTarget.of(ROOT, Optional.<String>absent(), "//foo/bar", "baz");
+    UnflavoredBuildTarget otherTarget = UnflavoredBuildTarget.of(
+        ROOT,
+        Optional.<String>absent(),
+        new StringBuilder("//foo/").append("bar").toString(),
+        "qux");
+
+    assertSame(target.getBaseName(), otherTarget.getBaseName());
+  }
+
+}
@@ -416,6 +416,7 @@ public class ParsePipelineTest {
           this.executorService,
           this.eventBus,
           this.projectBuildFileParserPool,
+          Optional.<PersistentRawNodeCache>absent(),
           speculativeParsing.value());
     }
 
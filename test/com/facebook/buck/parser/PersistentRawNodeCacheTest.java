@@ -0,0 +1,157 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.cli.FakeBuckConfig;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.rules.Cell;
+import com.facebook.buck.rules.TestCellBuilder;
+import com.facebook.buck.testutil.integration.DebuggableTemporaryFolder;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+
+public class PersistentRawNodeCacheTest {
+
+  @Rule
+  public DebuggableTemporaryFolder tmp = new DebuggableTemporaryFolder();
+
+  private ProjectFilesystem filesystem;
+  private Path buildFile;
+
+  @Before
+  public void setUp() throws IOException {
+    filesystem = new ProjectFilesystem(tmp.getRootPath().toRealPath());
+    filesystem.mkdirs(Paths.get("foo/bar"));
+    filesystem.writeContentsToPath("genrule(name = 'foo')\n", Paths.get("foo/BUCK"));
+    filesystem.writeContentsToPath("", Paths.get("foo/Foo.java"));
+    buildFile = filesystem.resolve("foo/BUCK");
+  }
+
+  @Test
+  public void storedNodesAreReturnedWhileUnchanged() throws Exception {
+    Cell cell = createCell("[foo]", "bar = baz");
+    ImmutableList<Map<String, Object>> rawNodes = createRawNodes();
+    new PersistentRawNodeCache().store(cell, buildFile, rawNodes);
+
+    assertEquals(Optional.of(rawNodes), new PersistentRawNodeCache().lookup(cell, buildFile));
+  }
+
+  @Test
+  public void changedBuildFileIsNotReturned() throws Exception {
+    Cell cell = createCell("[foo]", "bar = baz");
+    new PersistentRawNodeCache().store(cell, buildFile, createRawNodes());
+
+    filesystem.writeContentsToPath("genrule(name = 'bar')\n", Paths.get("foo/BUCK"));
+    assertEquals(
+        Optional.<ImmutableList<Map<String, Object>>>absent(),
+        new PersistentRawNodeCache().lookup(cell, buildFile));
+  }
+
+  @Test
+  public void changedConfigIsNotReturned() throws Exception {
+    new PersistentRawNodeCache().store(
+        createCell("[foo]", "bar = baz"),
+        buildFile,
+        createRawNodes());
+
+    assertEquals(
+        Optional.<ImmutableList<Map<String, Object>>>absent(),
+        new PersistentRawNodeCache().lookup(createCell("[foo]", "bar = qux"), buildFile));
+  }
+
+  @Test
+  public void fileAddedToPackageIsNotReturned() throws Exception {
+    Cell cell = createCell("[foo]", "bar = baz");
+    new PersistentRawNodeCache().store(cell, buildFile, createRawNodes());
+
+    filesystem.writeContentsToPath("", Paths.get("foo/Bar.java"));
+    assertEquals(
+        Optional.<ImmutableList<Map<String, Object>>>absent(),
+        new PersistentRawNodeCache().lookup(cell, buildFile));
+  }
+
+  @Test
+  public void directoryAddedToPackageIsNotReturned() throws Exception {
+    Cell cell = createCell("[foo]", "bar = baz");
+    new PersistentRawNodeCache().store(cell, buildFile, createRawNodes());
+
+    filesystem.mkdirs(Paths.get("foo/baz"));
+    assertEquals(
+        Optional.<ImmutableList<Map<String, Object>>>absent(),
+        new PersistentRawNodeCache().lookup(cell, buildFile));
+  }
+
+  @Test
+  public void fileAddedDeepInPackageIsNotReturned() throws Exception {
+    filesystem.mkdirs(Paths.get("foo/baz/qux"));
+    Cell cell = createCell("[foo]", "bar = baz");
+    new PersistentRawNodeCache().store(cell, buildFile, createRawNodes());
+
+    filesystem.writeContentsToPath("", Paths.get("foo/baz/qux/Bar.java"));
+    assertEquals(
+        Optional.<ImmutableList<Map<String, Object>>>absent(),
+        new PersistentRawNodeCache().lookup(cell, buildFile));
+  }
+
+  @Test
+  public void fileAddedToNestedPackageIsIgnored() throws Exception {
+    filesystem.writeContentsToPath("", Paths.get("foo/bar/BUCK"));
+    Cell cell = createCell("[foo]", "bar = baz");
+    ImmutableList<Map<String, Object>> rawNodes = createRawNodes();
+    new PersistentRawNodeCache().store(cell, buildFile, rawNodes);
+
+    filesystem.writeContentsToPath("", Paths.get("foo/bar/Bar.java"));
+    assertEquals(Optional.of(rawNodes), new PersistentRawNodeCache().lookup(cell, buildFile));
+  }
+
+  private Cell createCell(String... iniFileLines) throws Exception {
+    return new TestCellBuilder()
+        .setFilesystem(filesystem)
+        .setBuckConfig(
+            FakeBuckConfig.builder()
+                .setFilesystem(filesystem)
+                .setSections(iniFileLines)
+                .build())
+        .build();
+  }
+
+  private ImmutableList<Map<String, Object>> createRawNodes() {
+    return ImmutableList.<Map<String, Object>>of(
+        ImmutableMap.<String, Object>of(
+            "buck.base_path", "foo",
+            "buck.type", "genrule",
+            "name", "foo",
+            "out", "foo.txt",
+            "srcs", ImmutableList.of("Foo.java")),
+        ImmutableMap.<String, Object>of(
+            "__includes", ImmutableList.of(buildFile.toString())),
+        ImmutableMap.<String, Object>of(
+            "__configs", ImmutableMap.of("foo", ImmutableMap.of("bar", "baz"))));
+  }
+}
@@ -16,6 +16,8 @@
 
 package com.facebook.buck.query;
 
+import com.facebook.buck.graph.CompactDirectedGraph;
+import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
@@ -23,6 +25,7 @@ import com.google.common.util.concurrent.ListeningExecutorService;
 
 import java.util.Collection;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 
 /** Utility class used to test the QueryParser */
 public class FakeQueryEnvironment implements QueryEnvironment<QueryTarget> {
@@ -70,6 +73,22 @@ public class FakeQueryEnvironment implements QueryEnvironment<QueryTarget> {
     throw new QueryException("Method not implemented in FakeQueryEnvironment");
   }
 
+  @Override
+  public Optional<CompactDirectedGraph<QueryTarget>> getCompactGraph()
+      throws QueryException, InterruptedException {
+    throw new QueryException("Method not implemented in FakeQueryEnvironment");
+  }
+
+  @Override
+  public Optional<ConcurrentMap<QueryExpression, Set<QueryTarget>>> getResultCache() {
+    return Optional.absent();
+  }
+
+  @Override
+  public Optional<ListeningExecutorService> getOperandExecutor() {
+    return Optional.absent();
+  }
+
   @Override
   public String getTargetKind(QueryTarget target)
       throws InterruptedException, QueryException {
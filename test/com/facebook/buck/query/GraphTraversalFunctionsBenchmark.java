@@ -0,0 +1,337 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.query;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.graph.CompactDirectedGraph;
+import com.facebook.buck.graph.DefaultTraversableGraph;
+import com.facebook.buck.graph.MutableDirectedGraph;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.util.concurrent.MostExecutors;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Param;
+import com.google.caliper.api.Macrobenchmark;
+import com.google.common.base.Optional;
+import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+
+/**
+ * Compares running {@code deps}, {@code rdeps} and {@code allpaths} on a {@link
+ * CompactDirectedGraph} with running them on {@link QueryEnvironment#getFwdDeps} and
+ * {@link QueryEnvironment#getReverseDeps} over the graph's sets of edges, and evaluating them and
+ * the operands of set operations on them on one thread with evaluating them in parallel.
+ */
+public class GraphTraversalFunctionsBenchmark {
+  private static final int DEPS_PER_TARGET = 5;
+  private static final int TARGETS_PER_PACKAGE = 20;
+
+  @Param({"10000", "100000"})
+  private int targetCount = 2000;
+
+  @Param({"false", "true"})
+  private boolean useCompactGraph = true;
+
+  @Param({"false", "true"})
+  private boolean evaluateInParallel = true;
+
+  private ListeningExecutorService executor;
+  private GraphQueryEnvironment env;
+  private QueryExpression depsQuery;
+  private QueryExpression rdepsQuery;
+  private QueryExpression allPathsQuery;
+  private QueryExpression setOperationsQuery;
+
+  @Before
+  public void setUpTest() throws Exception {
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() throws Exception {
+    executor = evaluateInParallel ?
+        MoreExecutors.listeningDecorator(
+            MostExecutors.newMultiThreadExecutor(
+                "query",
+                Runtime.getRuntime().availableProcessors())) :
+        MoreExecutors.newDirectExecutorService();
+
+    // A random graph in which targets depend on targets with lower numbers, mostly nearby ones.
+    Random random = new Random(42);
+    MutableDirectedGraph<QueryTarget> graph = new MutableDirectedGraph<>();
+    ImmutableList.Builder<QueryTarget> targetsBuilder = ImmutableList.builder();
+    for (int i = 0; i < targetCount; i++) {
+      QueryTarget target = getTarget(i);
+      targetsBuilder.add(target);
+      graph.addNode(target);
+    }
+    ImmutableList<QueryTarget> targets = targetsBuilder.build();
+    for (int i = 1; i < targetCount; i++) {
+      for (int j = 0; j < DEPS_PER_TARGET; j++) {
+        int dep = random.nextBoolean() ?
+            Math.max(0, i - 1 - random.nextInt(2 * TARGETS_PER_PACKAGE)) :
+            random.nextInt(i);
+        graph.addEdge(targets.get(i), targets.get(dep));
+      }
+    }
+    env = new GraphQueryEnvironment(
+        new DefaultTraversableGraph<>(graph),
+        useCompactGraph,
+        evaluateInParallel);
+
+    QueryTarget top = getTarget(targetCount - 1);
+    QueryTarget middle = getTarget(targetCount / 2);
+    QueryTarget bottom = getTarget(TARGETS_PER_PACKAGE);
+    depsQuery = QueryExpression.parse("deps(" + top + ")", env);
+    rdepsQuery = QueryExpression.parse("rdeps(//..., " + bottom + ")", env);
+    allPathsQuery = QueryExpression.parse("allpaths(" + top + ", " + middle + ")", env);
+    // Independent operands, one of which appears twice.
+    setOperationsQuery = QueryExpression.parse(
+        "(deps(" + top + ") - deps(" + middle + ")) + " +
+            "(rdeps(//..., " + bottom + ") ^ deps(" + top + "))",
+        env);
+  }
+
+  @After
+  @AfterExperiment
+  public void tearDown() throws Exception {
+    executor.shutdownNow();
+  }
+
+  private static QueryTarget getTarget(int i) {
+    return QueryBuildTarget.of(
+        BuildTargetFactory.newInstance(
+            "//package" + (i / TARGETS_PER_PACKAGE) + ":target" + (i % TARGETS_PER_PACKAGE)));
+  }
+
+  @Test
+  public void givesTheSameResultsInTheSameOrderAsEvaluatingOnSetsOnOneThread() throws Exception {
+    GraphQueryEnvironment setsEnv = new GraphQueryEnvironment(env.graph, false, false);
+    ListeningExecutorService directExecutor = MoreExecutors.newDirectExecutorService();
+    for (QueryExpression query :
+        ImmutableList.of(depsQuery, rdepsQuery, allPathsQuery, setOperationsQuery)) {
+      assertEquals(
+          query.toString(),
+          ImmutableList.copyOf(setsEnv.evaluateQuery(query, directExecutor)),
+          ImmutableList.copyOf(env.evaluateQuery(query, executor)));
+    }
+  }
+
+  @Macrobenchmark
+  public int deps() throws Exception {
+    return env.evaluateQuery(depsQuery, executor).size();
+  }
+
+  @Macrobenchmark
+  public int rdeps() throws Exception {
+    return env.evaluateQuery(rdepsQuery, executor).size();
+  }
+
+  @Macrobenchmark
+  public int allPaths() throws Exception {
+    return env.evaluateQuery(allPathsQuery, executor).size();
+  }
+
+  @Macrobenchmark
+  public int setOperations() throws Exception {
+    return env.evaluateQuery(setOperationsQuery, executor).size();
+  }
+
+  /**
+   * A query environment over a fixed graph, which returns the deps of targets in the same order
+   * as {@code BuckQueryEnvironment}, and evaluates queries the way it does.
+   */
+  private static class GraphQueryEnvironment implements QueryEnvironment<QueryTarget> {
+    private final DefaultTraversableGraph<QueryTarget> graph;
+    private final Map<String, QueryTarget> targetsByName = new HashMap<>();
+    private final Optional<CompactDirectedGraph<QueryTarget>> compactGraph;
+    private final boolean evaluateInParallel;
+    private Optional<ConcurrentMap<QueryExpression, Set<QueryTarget>>> resultCache =
+        Optional.absent();
+    private Optional<ListeningExecutorService> operandExecutor = Optional.absent();
+
+    public GraphQueryEnvironment(
+        DefaultTraversableGraph<QueryTarget> graph,
+        boolean useCompactGraph,
+        boolean evaluateInParallel) {
+      this.graph = graph;
+      this.evaluateInParallel = evaluateInParallel;
+      for (QueryTarget target : graph.getNodes()) {
+        targetsByName.put(target.toString(), target);
+      }
+      if (useCompactGraph) {
+        CompactDirectedGraph.Builder<QueryTarget> builder = CompactDirectedGraph.builder();
+        for (QueryTarget target : ImmutableSortedSet.copyOf(graph.getNodes())) {
+          builder.addNode(target);
+        }
+        for (QueryTarget target : graph.getNodes()) {
+          for (QueryTarget dep : graph.getOutgoingNodesFor(target)) {
+            builder.addEdge(target, dep);
+          }
+        }
+        this.compactGraph = Optional.of(builder.build());
+      } else {
+        this.compactGraph = Optional.absent();
+      }
+    }
+
+    public Set<QueryTarget> evaluateQuery(
+        QueryExpression query,
+        ListeningExecutorService executor) throws Exception {
+      if (!evaluateInParallel) {
+        return query.eval(this, executor);
+      }
+      resultCache = Optional.<ConcurrentMap<QueryExpression, Set<QueryTarget>>>of(
+          new ConcurrentHashMap<QueryExpression, Set<QueryTarget>>());
+      operandExecutor = Optional.of(
+          MoreExecutors.listeningDecorator(Executors.newCachedThreadPool()));
+      try {
+        return query.eval(this, executor);
+      } finally {
+        operandExecutor.get().shutdownNow();
+        operandExecutor = Optional.absent();
+        resultCache = Optional.absent();
+      }
+    }
+
+    @Override
+    public Set<QueryTarget> getTargetsMatchingPattern(
+        String pattern,
+        ListeningExecutorService executor) {
+      if (pattern.equals("//...")) {
+        return graph.getNodes();
+      }
+      QueryTarget target = targetsByName.get(pattern);
+      return target == null ? ImmutableSet.<QueryTarget>of() : ImmutableSet.of(target);
+    }
+
+    @Override
+    public Collection<QueryTarget> getFwdDeps(Iterable<QueryTarget> targets) {
+      Set<QueryTarget> result = new LinkedHashSet<>();
+      for (QueryTarget target : targets) {
+        result.addAll(ImmutableSortedSet.copyOf(graph.getOutgoingNodesFor(target)));
+      }
+      return result;
+    }
+
+    @Override
+    public Collection<QueryTarget> getReverseDeps(Iterable<QueryTarget> targets) {
+      Set<QueryTarget> result = new LinkedHashSet<>();
+      for (QueryTarget target : targets) {
+        result.addAll(ImmutableSortedSet.copyOf(graph.getIncomingNodesFor(target)));
+      }
+      return result;
+    }
+
+    @Override
+    public Set<QueryTarget> getTransitiveClosure(Set<QueryTarget> targets) {
+      Set<QueryTarget> visited = new HashSet<>(targets);
+      Deque<QueryTarget> toVisit = new ArrayDeque<>(targets);
+      while (!toVisit.isEmpty()) {
+        for (QueryTarget dep : graph.getOutgoingNodesFor(toVisit.pop())) {
+          if (visited.add(dep)) {
+            toVisit.push(dep);
+          }
+        }
+      }
+      return ImmutableSortedSet.copyOf(visited);
+    }
+
+    @Override
+    public void buildTransitiveClosure(
+        Set<QueryTarget> targetNodes,
+        int maxDepth,
+        ListeningExecutorService executor) {
+      // The whole graph is already built.
+    }
+
+    @Override
+    public Optional<CompactDirectedGraph<QueryTarget>> getCompactGraph() {
+      return compactGraph;
+    }
+
+    @Override
+    public Optional<ConcurrentMap<QueryExpression, Set<QueryTarget>>> getResultCache() {
+      return resultCache;
+    }
+
+    @Override
+    public Optional<ListeningExecutorService> getOperandExecutor() {
+      return operandExecutor;
+    }
+
+    @Override
+    public String getTargetKind(QueryTarget target) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ImmutableSet<QueryTarget> getTestsForTarget(QueryTarget target) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ImmutableSet<QueryTarget> getBuildFiles(Set<QueryTarget> targets) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ImmutableSet<QueryTarget> getFileOwners(ImmutableList<String> files) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ImmutableSet<QueryTarget> getTargetsInAttribute(QueryTarget target, String attribute) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ImmutableSet<Object> filterAttributeContents(
+        QueryTarget target,
+        String attribute,
+        Predicate<Object> predicate) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Iterable<QueryFunction> getFunctions() {
+      return DEFAULT_QUERY_FUNCTIONS;
+    }
+  }
+}
@@ -45,6 +45,7 @@ import org.junit.rules.ExpectedException;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.StandardWatchEventKinds;
 import java.util.HashMap;
 import java.util.Map;
@@ -54,6 +55,8 @@ public class ActionGraphCacheTest {
 
   private static final int CACHE_HIT_COUNTER_INDEX = 0;
   private static final int CACHE_MISS_COUNTER_INDEX = 1;
+  private static final int CACHE_EVICTION_COUNTER_INDEX = 3;
+  private static final int CACHE_HIT_AT_POSITION_0_INDEX = 4;
   private static final boolean CHECK_GRAPHS = true;
   private static final boolean NOT_CHECK_GRAPHS = false;
 
@@ -113,12 +116,12 @@ public class ActionGraphCacheTest {
   }
 
   @Test
-  public void missOnCache() {
-    ActionGraphCache cache = new ActionGraphCache();
+  public void missOnCacheButHitOnPreviousGraph() {
+    ActionGraphCache cache = new ActionGraphCache(MoreExecutors.newDirectExecutorService(), 2);
 
     ActionGraphAndResolver resultRun1 =
         cache.getActionGraph(eventBus, CHECK_GRAPHS, targetGraph, 0);
-    // Each time you call it for a different TargetGraph so all calls should be misses.
+    // The first two calls are for different TargetGraphs so should be misses.
     ImmutableList<Counter> counters = cache.getCounters();
     assertEquals(((IntegerCounter) counters.get(CACHE_HIT_COUNTER_INDEX)).get(), 0);
     assertEquals(((IntegerCounter) counters.get(CACHE_MISS_COUNTER_INDEX)).get(), 1);
@@ -133,11 +136,14 @@ public class ActionGraphCacheTest {
     assertEquals(((IntegerCounter) counters.get(CACHE_HIT_COUNTER_INDEX)).get(), 0);
     assertEquals(((IntegerCounter) counters.get(CACHE_MISS_COUNTER_INDEX)).get(), 2);
 
+    // Going back to the first TargetGraph finds its ActionGraph, behind the second one.
     ActionGraphAndResolver resultRun3 =
         cache.getActionGraph(eventBus, CHECK_GRAPHS, targetGraph, 0);
     counters = cache.getCounters();
-    assertEquals(((IntegerCounter) counters.get(CACHE_HIT_COUNTER_INDEX)).get(), 0);
-    assertEquals(((IntegerCounter) counters.get(CACHE_MISS_COUNTER_INDEX)).get(), 3);
+    assertEquals(((IntegerCounter) counters.get(CACHE_HIT_COUNTER_INDEX)).get(), 1);
+    assertEquals(((IntegerCounter) counters.get(CACHE_MISS_COUNTER_INDEX)).get(), 2);
+    assertEquals(((IntegerCounter) counters.get(CACHE_HIT_AT_POSITION_0_INDEX)).get(), 0);
+    assertEquals(((IntegerCounter) counters.get(CACHE_HIT_AT_POSITION_0_INDEX + 1)).get(), 1);
 
     // Run1 and Run2 should not match, but Run1 and Run3 should
     Map<BuildRule, RuleKey> resultRun1RuleKeys = getRuleKeysFromBuildRules(
@@ -220,6 +226,69 @@ public class ActionGraphCacheTest {
     assertEquals(((IntegerCounter) counters.get(CACHE_MISS_COUNTER_INDEX)).get(), 4);
   }
 
+  @Test
+  public void leastRecentlyUsedGraphIsEvicted() {
+    ActionGraphCache cache = new ActionGraphCache(MoreExecutors.newDirectExecutorService(), 2);
+    TargetGraph subgraph = targetGraph.getSubgraph(ImmutableSet.of(nodeB));
+    TargetGraph otherGraph = TargetGraphFactory.newInstance(createTargetNode("C"));
+
+    cache.getActionGraph(eventBus, NOT_CHECK_GRAPHS, targetGraph, 0);
+    cache.getActionGraph(eventBus, NOT_CHECK_GRAPHS, subgraph, 0);
+    cache.getActionGraph(eventBus, NOT_CHECK_GRAPHS, targetGraph, 0);
+    // This evicts the subgraph, which is now the least recently used.
+    cache.getActionGraph(eventBus, NOT_CHECK_GRAPHS, otherGraph, 0);
+    assertEquals(2, cache.getNumberOfEntries());
+    cache.getActionGraph(eventBus, NOT_CHECK_GRAPHS, targetGraph, 0);
+    cache.getActionGraph(eventBus, NOT_CHECK_GRAPHS, subgraph, 0);
+
+    ImmutableList<Counter> counters = cache.getCounters();
+    assertEquals(((IntegerCounter) counters.get(CACHE_HIT_COUNTER_INDEX)).get(), 2);
+    assertEquals(((IntegerCounter) counters.get(CACHE_MISS_COUNTER_INDEX)).get(), 4);
+    assertEquals(((IntegerCounter) counters.get(CACHE_EVICTION_COUNTER_INDEX)).get(), 2);
+  }
+
+  @Test
+  public void onlyTheLatestGraphIsKeptByDefault() {
+    ActionGraphCache cache = new ActionGraphCache(MoreExecutors.newDirectExecutorService());
+    cache.getActionGraph(eventBus, NOT_CHECK_GRAPHS, targetGraph, 0);
+    cache.getActionGraph(
+        eventBus,
+        NOT_CHECK_GRAPHS,
+        targetGraph.getSubgraph(ImmutableSet.of(nodeB)),
+        0);
+    assertEquals(1, cache.getNumberOfEntries());
+    cache.getActionGraph(eventBus, NOT_CHECK_GRAPHS, targetGraph, 0);
+
+    ImmutableList<Counter> counters = cache.getCounters();
+    assertEquals(((IntegerCounter) counters.get(CACHE_HIT_COUNTER_INDEX)).get(), 0);
+    assertEquals(((IntegerCounter) counters.get(CACHE_MISS_COUNTER_INDEX)).get(), 3);
+  }
+
+  @Test
+  public void addingFilesOnlyInvalidatesGraphsWithNodesInTheirPackage() {
+    ActionGraphCache cache = new ActionGraphCache(MoreExecutors.newDirectExecutorService(), 2);
+    TargetGraph otherGraph = TargetGraphFactory.newInstance(
+        JavaLibraryBuilder.createBuilder(BuildTargetFactory.newInstance("//bar/baz:C")).build());
+    cache.getActionGraph(eventBus, NOT_CHECK_GRAPHS, targetGraph, 0);
+    cache.getActionGraph(eventBus, NOT_CHECK_GRAPHS, otherGraph, 0);
+
+    cache.invalidateBasedOn(
+        WatchEventsForTests.createPathEvent(
+            Paths.get("qux/Qux.java"),
+            StandardWatchEventKinds.ENTRY_CREATE));
+    assertEquals(2, cache.getNumberOfEntries());
+
+    cache.invalidateBasedOn(
+        WatchEventsForTests.createPathEvent(
+            Paths.get("foo/sub/Foo.java"),
+            StandardWatchEventKinds.ENTRY_CREATE));
+    assertEquals(1, cache.getNumberOfEntries());
+
+    cache.getActionGraph(eventBus, NOT_CHECK_GRAPHS, otherGraph, 0);
+    ImmutableList<Counter> counters = cache.getCounters();
+    assertEquals(((IntegerCounter) counters.get(CACHE_HIT_COUNTER_INDEX)).get(), 1);
+  }
+
   private TargetNode<?> createTargetNode(String name, TargetNode<?>... deps) {
     BuildTarget buildTarget = BuildTargetFactory.newInstance("//foo:" + name);
     JavaLibraryBuilder targetNodeBuilder = JavaLibraryBuilder.createBuilder(buildTarget);
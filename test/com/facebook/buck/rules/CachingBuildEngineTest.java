@@ -25,11 +25,13 @@ import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.hasItem;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.artifact_cache.ArtifactCache;
 import com.facebook.buck.artifact_cache.ArtifactInfo;
+import com.facebook.buck.artifact_cache.ArtifactStreamConsumer;
 import com.facebook.buck.artifact_cache.CacheResult;
 import com.facebook.buck.artifact_cache.CacheResultType;
 import com.facebook.buck.artifact_cache.InMemoryArtifactCache;
@@ -60,9 +62,11 @@ import com.facebook.buck.rules.keys.SupportsInputBasedRuleKey;
 import com.facebook.buck.shell.Genrule;
 import com.facebook.buck.shell.GenruleBuilder;
 import com.facebook.buck.step.AbstractExecutionStep;
+import com.facebook.buck.step.AsyncStep;
 import com.facebook.buck.step.DefaultStepRunner;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.Step;
+import com.facebook.buck.step.StepEvent;
 import com.facebook.buck.step.StepExecutionResult;
 import com.facebook.buck.step.StepFailedException;
 import com.facebook.buck.step.StepRunner;
@@ -79,8 +83,9 @@ import com.facebook.buck.timing.IncrementingFakeClock;
 import com.facebook.buck.util.ObjectMappers;
 import com.facebook.buck.util.cache.DefaultFileHashCache;
 import com.facebook.buck.util.cache.NullFileHashCache;
-import com.facebook.buck.util.concurrent.ListeningSemaphore;
+import com.facebook.buck.util.concurrent.ListeningMultiSemaphore;
 import com.facebook.buck.util.concurrent.MoreFutures;
+import com.facebook.buck.util.concurrent.ResourceAmounts;
 import com.facebook.buck.util.concurrent.WeightedListeningExecutorService;
 import com.facebook.buck.zip.CustomZipEntry;
 import com.facebook.buck.zip.CustomZipOutputStream;
@@ -105,6 +110,7 @@ import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 
 import org.easymock.EasyMockSupport;
 import org.hamcrest.Matchers;
@@ -129,6 +135,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
@@ -408,9 +415,9 @@ public class CachingBuildEngineTest {
           Paths.get("buck-out/gen/src/com/facebook/orca/orca.jar"),
           "Imagine this is the contents of a valid JAR file.");
       expect(
-          artifactCache.fetch(
+          artifactCache.fetchStreaming(
               eq(ruleKeyBuilderFactory.build(buildRule)),
-              isA(LazyPath.class)))
+              isA(ArtifactStreamConsumer.class)))
           .andDelegateTo(
               new FakeArtifactCacheThatWritesAZipFile(desiredZipEntries));
 
@@ -494,9 +501,9 @@ public class CachingBuildEngineTest {
           Paths.get("buck-out/gen/src/com/facebook/orca/orca.jar"),
           "Imagine this is the contents of a valid JAR file.");
       expect(
-          artifactCache.fetch(
+          artifactCache.fetchStreaming(
               eq(ruleKeyBuilderFactory.build(buildRule)),
-              isA(LazyPath.class)))
+              isA(ArtifactStreamConsumer.class)))
           .andDelegateTo(
               new FakeArtifactCacheThatWritesAZipFile(desiredZipEntries));
 
@@ -613,6 +620,116 @@ public class CachingBuildEngineTest {
                   Optional.<Long>absent())));
     }
 
+    @Test
+    public void testCacheMissInSpeculativeModeProbesTransitiveDepsAtOnce() throws Exception {
+      BuildTarget leafTarget = BuildTargetFactory.newInstance("//src/com/facebook/orca:leaf");
+      FakeBuildRule leaf = new FakeBuildRule(leafTarget, filesystem, pathResolver);
+      BuildTarget depTarget = BuildTargetFactory.newInstance("//src/com/facebook/orca:lib");
+      FakeBuildRule dep = new FakeBuildRule(depTarget, filesystem, pathResolver, leaf);
+      FakeBuildRule ruleToTest = new FakeBuildRule(BUILD_TARGET, filesystem, pathResolver, dep);
+
+      final List<ImmutableSet<RuleKey>> probes = Lists.newArrayList();
+      final List<RuleKey> fetches = Lists.newArrayList();
+      InMemoryArtifactCache recordingCache = new InMemoryArtifactCache() {
+        @Override
+        public CacheResult fetchStreaming(RuleKey ruleKey, ArtifactStreamConsumer consumer) {
+          fetches.add(ruleKey);
+          return super.fetchStreaming(ruleKey, consumer);
+        }
+
+        @Override
+        public ImmutableMap<RuleKey, Boolean> multiContains(ImmutableSet<RuleKey> ruleKeys) {
+          probes.add(ruleKeys);
+          return super.multiContains(ruleKeys);
+        }
+      };
+      BuildContext context =
+          FakeBuildContext.newBuilder()
+              .setArtifactCache(recordingCache)
+              .setJavaPackageFinder(new FakeJavaPackageFinder())
+              .setActionGraph(new ActionGraph(ImmutableList.<BuildRule>of()))
+              .build();
+
+      CachingBuildEngine cachingBuildEngine =
+          new CachingBuildEngine(
+              toWeighted(MoreExecutors.newDirectExecutorService()),
+              fileHashCache,
+              CachingBuildEngine.BuildMode.SPECULATIVE,
+              CachingBuildEngine.DependencySchedulingOrder.RANDOM,
+              CachingBuildEngine.DepFiles.ENABLED,
+              256L,
+              Optional.<Long>absent(),
+              ObjectMappers.newDefaultInstance(),
+              resolver,
+              0);
+
+      BuildResult result = cachingBuildEngine.build(context, ruleToTest).get();
+      assertEquals(BuildRuleSuccessType.BUILT_LOCALLY, result.getSuccess());
+
+      // The miss of the top-level rule looks up both of the rules below it in a single request,
+      // after which only the top-level rule has made a request for its artifact.
+      assertEquals(
+          ImmutableList.of(
+              ImmutableSet.of(
+                  cachingBuildEngine.getRuleKey(depTarget),
+                  cachingBuildEngine.getRuleKey(leafTarget))),
+          probes);
+      assertEquals(ImmutableList.of(cachingBuildEngine.getRuleKey(BUILD_TARGET)), fetches);
+    }
+
+    @Test
+    public void testFailedSpeculativeProbeIsRetriedByTheNextMiss() throws Exception {
+      BuildTarget leafTarget = BuildTargetFactory.newInstance("//src/com/facebook/orca:leaf");
+      FakeBuildRule leaf = new FakeBuildRule(leafTarget, filesystem, pathResolver);
+      BuildTarget depTarget = BuildTargetFactory.newInstance("//src/com/facebook/orca:lib");
+      FakeBuildRule dep = new FakeBuildRule(depTarget, filesystem, pathResolver, leaf);
+      FakeBuildRule ruleToTest = new FakeBuildRule(BUILD_TARGET, filesystem, pathResolver, dep);
+
+      // The first probe fails, so the cache answers for none of its rule keys.
+      final List<ImmutableSet<RuleKey>> probes = Lists.newArrayList();
+      InMemoryArtifactCache flakyCache = new InMemoryArtifactCache() {
+        @Override
+        public ImmutableMap<RuleKey, Boolean> multiContains(ImmutableSet<RuleKey> ruleKeys) {
+          probes.add(ruleKeys);
+          if (probes.size() == 1) {
+            return ImmutableMap.of();
+          }
+          return super.multiContains(ruleKeys);
+        }
+      };
+      BuildContext context =
+          FakeBuildContext.newBuilder()
+              .setArtifactCache(flakyCache)
+              .setJavaPackageFinder(new FakeJavaPackageFinder())
+              .setActionGraph(new ActionGraph(ImmutableList.<BuildRule>of()))
+              .build();
+
+      CachingBuildEngine cachingBuildEngine =
+          new CachingBuildEngine(
+              toWeighted(MoreExecutors.newDirectExecutorService()),
+              fileHashCache,
+              CachingBuildEngine.BuildMode.SPECULATIVE,
+              CachingBuildEngine.DependencySchedulingOrder.RANDOM,
+              CachingBuildEngine.DepFiles.ENABLED,
+              256L,
+              Optional.<Long>absent(),
+              ObjectMappers.newDefaultInstance(),
+              resolver,
+              0);
+
+      BuildResult result = cachingBuildEngine.build(context, ruleToTest).get();
+      assertEquals(BuildRuleSuccessType.BUILT_LOCALLY, result.getSuccess());
+
+      // The miss of the dep looks up the leaf again, since the first probe never answered for it.
+      assertEquals(
+          ImmutableList.of(
+              ImmutableSet.of(
+                  cachingBuildEngine.getRuleKey(depTarget),
+                  cachingBuildEngine.getRuleKey(leafTarget)),
+              ImmutableSet.of(cachingBuildEngine.getRuleKey(leafTarget))),
+          probes);
+    }
+
     @Test
     public void testMatchingTopLevelRuleKeyStillProcessesDepInDeepMode() throws Exception {
       // The EventBus should be updated with events indicating how the rule was built.
@@ -892,6 +1009,11 @@ public class CachingBuildEngineTest {
             public CacheResult fetch(RuleKey ruleKey, LazyPath output) {
               return CacheResult.error("cache", "error");
             }
+
+            @Override
+            public CacheResult fetchStreaming(RuleKey ruleKey, ArtifactStreamConsumer consumer) {
+              return CacheResult.error("cache", "error");
+            }
           };
 
       // Use the artifact cache when running a simple rule that will build locally.
@@ -926,6 +1048,54 @@ public class CachingBuildEngineTest {
       assertThat(result.getCacheResult().getType(), equalTo(CacheResultType.ERROR));
     }
 
+    @Test
+    public void testArtifactThatFailsVerificationIsNotUnpacked() throws Exception {
+      // Create an artifact cache that streams a whole artifact, but then finds it to be corrupt.
+      Path output = Paths.get("buck-out/gen/src/com/facebook/orca/orca.jar");
+      ArtifactCache cache =
+          new FakeArtifactCacheThatWritesAZipFile(
+              ImmutableMap.of(output, "Imagine this is the contents of a corrupt JAR file.")) {
+            @Override
+            public CacheResult fetchStreaming(RuleKey ruleKey, ArtifactStreamConsumer consumer) {
+              super.fetchStreaming(ruleKey, consumer);
+              return CacheResult.error("cache", "artifact had invalid checksum");
+            }
+          };
+
+      BuildContext buildContext =
+          FakeBuildContext.newBuilder()
+              .setArtifactCache(cache)
+              .setJavaPackageFinder(new FakeJavaPackageFinder())
+              .setActionGraph(new ActionGraph(ImmutableList.<BuildRule>of()))
+              .build();
+
+      BuildRule rule =
+          new EmptyBuildRule(
+              new FakeBuildRuleParamsBuilder("//:rule")
+                  .setProjectFilesystem(filesystem)
+                  .build(),
+              pathResolver);
+      CachingBuildEngine cachingBuildEngine =
+          new CachingBuildEngine(
+              toWeighted(MoreExecutors.newDirectExecutorService()),
+              fileHashCache,
+              CachingBuildEngine.BuildMode.SHALLOW,
+              CachingBuildEngine.DependencySchedulingOrder.RANDOM,
+              CachingBuildEngine.DepFiles.ENABLED,
+              256L,
+              Optional.<Long>absent(),
+              ObjectMappers.newDefaultInstance(),
+              resolver,
+              0);
+
+      BuildResult result = cachingBuildEngine.build(buildContext, rule).get();
+      assertThat(result.getSuccess(), equalTo(BuildRuleSuccessType.BUILT_LOCALLY));
+      assertThat(result.getCacheResult().getType(), equalTo(CacheResultType.ERROR));
+      assertFalse(
+          "The entries of an artifact that failed verification should not be extracted.",
+          filesystem.exists(output));
+    }
+
     @Test
     public void buildingRuleLocallyInvalidatesOutputs() throws Exception {
       // First, write something to the output file and get it's hash.
@@ -1197,6 +1367,38 @@ public class CachingBuildEngineTest {
           equalTo(3));
     }
 
+    @Test
+    public void prepareScheduleFindsRemainingCriticalPaths() throws Exception {
+      BuildRule bottom = new FakeBuildRule("//:bottom", pathResolver);
+      BuildRule middle = new FakeBuildRule("//:middle", pathResolver, bottom);
+      BuildRule side = new FakeBuildRule("//:side", pathResolver, bottom);
+      BuildRule top = new FakeBuildRule("//:top", pathResolver, middle, side);
+      BuildRule other = new FakeBuildRule("//:other", pathResolver, middle);
+
+      CachingBuildEngine cachingBuildEngine =
+          new CachingBuildEngine(
+              toWeighted(MoreExecutors.newDirectExecutorService()),
+              new NullFileHashCache(),
+              CachingBuildEngine.BuildMode.SHALLOW,
+              CachingBuildEngine.DependencySchedulingOrder.CRITICAL_PATH,
+              CachingBuildEngine.DepFiles.ENABLED,
+              256L,
+              Optional.<Long>absent(),
+              ObjectMappers.newDefaultInstance(),
+              resolver,
+              0);
+
+      cachingBuildEngine.prepareSchedule(ImmutableList.of(top, other));
+
+      // Without any history, every rule is taken to take as long as the others, so the critical
+      // path is the longest chain of rules waiting on each rule.
+      assertThat(cachingBuildEngine.getRemainingCriticalPath(top), equalTo(1L));
+      assertThat(cachingBuildEngine.getRemainingCriticalPath(other), equalTo(1L));
+      assertThat(cachingBuildEngine.getRemainingCriticalPath(side), equalTo(2L));
+      assertThat(cachingBuildEngine.getRemainingCriticalPath(middle), equalTo(2L));
+      assertThat(cachingBuildEngine.getRemainingCriticalPath(bottom), equalTo(3L));
+    }
+
     @Test
     public void artifactCacheSizeLimit() throws Exception {
       // Create a simple rule which just writes something new to the output file.
@@ -2843,12 +3045,64 @@ public class CachingBuildEngineTest {
                   .build(),
               pathResolver,
               RuleScheduleInfo.DEFAULT.withJobsMultiplier(2));
-      ListeningSemaphore semaphore = new ListeningSemaphore(3);
+      ListeningMultiSemaphore semaphore = new ListeningMultiSemaphore(
+          ResourceAmounts.of(3, 1, 1, 1),
+          ListeningMultiSemaphore.Fairness.FAIR);
+      CachingBuildEngine cachingBuildEngine =
+          new CachingBuildEngine(
+              new WeightedListeningExecutorService(
+                  semaphore,
+                  /* defaultAmounts */ ResourceAmounts.of(1, 0, 0, 0),
+                  listeningDecorator(Executors.newCachedThreadPool())),
+              fileHashCache,
+              CachingBuildEngine.BuildMode.SHALLOW,
+              CachingBuildEngine.DependencySchedulingOrder.RANDOM,
+              CachingBuildEngine.DepFiles.ENABLED,
+              256L,
+              Optional.<Long>absent(),
+              pathResolver,
+              Functions.constant(
+                  new CachingBuildEngine.RuleKeyFactories(
+                      NOOP_RULE_KEY_FACTORY,
+                      NOOP_INPUT_BASED_RULE_KEY_FACTORY,
+                      NOOP_RULE_KEY_FACTORY,
+                      NOOP_DEP_FILE_RULE_KEY_FACTORY)));
+      ListenableFuture<BuildResult> result1 = cachingBuildEngine.build(buildContext, rule1);
+      rule1.waitForStart();
+      assertThat(rule1.hasStarted(), equalTo(true));
+      ListenableFuture<BuildResult> result2 = cachingBuildEngine.build(buildContext, rule2);
+      waitForQueueLength(semaphore, 1);
+      assertThat(rule2.hasStarted(), equalTo(false));
+      rule1.finish();
+      result1.get();
+      rule2.finish();
+      result2.get();
+    }
+
+    @Test
+    public void customResourceAmounts() throws Exception {
+      ControlledRule rule1 =
+          new ControlledRule(
+              new FakeBuildRuleParamsBuilder(BuildTargetFactory.newInstance("//:rule1"))
+                  .setProjectFilesystem(filesystem)
+                  .build(),
+              pathResolver,
+              RuleScheduleInfo.DEFAULT.withMemory(2));
+      ControlledRule rule2 =
+          new ControlledRule(
+              new FakeBuildRuleParamsBuilder(BuildTargetFactory.newInstance("//:rule2"))
+                  .setProjectFilesystem(filesystem)
+                  .build(),
+              pathResolver,
+              RuleScheduleInfo.DEFAULT.withMemory(2));
+      ListeningMultiSemaphore semaphore = new ListeningMultiSemaphore(
+          ResourceAmounts.of(10, 3, 1, 1),
+          ListeningMultiSemaphore.Fairness.FAIR);
       CachingBuildEngine cachingBuildEngine =
           new CachingBuildEngine(
               new WeightedListeningExecutorService(
                   semaphore,
-                  /* defaultWeight */ 1,
+                  /* defaultAmounts */ ResourceAmounts.of(1, 0, 0, 0),
                   listeningDecorator(Executors.newCachedThreadPool())),
               fileHashCache,
               CachingBuildEngine.BuildMode.SHALLOW,
@@ -2867,8 +3121,7 @@ public class CachingBuildEngineTest {
       rule1.waitForStart();
       assertThat(rule1.hasStarted(), equalTo(true));
       ListenableFuture<BuildResult> result2 = cachingBuildEngine.build(buildContext, rule2);
-      Thread.sleep(250);
-      assertThat(semaphore.getQueueLength(), equalTo(1));
+      waitForQueueLength(semaphore, 1);
       assertThat(rule2.hasStarted(), equalTo(false));
       rule1.finish();
       result1.get();
@@ -2876,6 +3129,20 @@ public class CachingBuildEngineTest {
       result2.get();
     }
 
+    /**
+     * Waits for the given number of jobs to be waiting on the semaphore. Other work, such as
+     * calculating rule keys, may queue up for a moment, so this waits for it to clear rather than
+     * checking once.
+     */
+    private void waitForQueueLength(ListeningMultiSemaphore semaphore, int length)
+        throws InterruptedException {
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+      while (semaphore.getQueueLength() != length && System.nanoTime() < deadline) {
+        Thread.sleep(1);
+      }
+      assertThat(semaphore.getQueueLength(), equalTo(length));
+    }
+
     private class ControlledRule extends AbstractBuildRule implements OverrideScheduleRule {
 
       private final RuleScheduleInfo ruleScheduleInfo;
@@ -3109,6 +3376,82 @@ public class CachingBuildEngineTest {
               .filter(BuildRuleEvent.class));
     }
 
+    @Test
+    public void ruleWaitingForAnAsyncStepFinishesItsStepsOnceTheStepIsDone() throws Exception {
+      BuckEventBus buckEventBus = BuckEventBusFactory.newInstance(new IncrementingFakeClock());
+      FakeBuckEventListener listener = new FakeBuckEventListener();
+      buckEventBus.register(listener);
+
+      // A rule whose first step waits without a thread for work the test completes.
+      WaitingStep waitingStep = new WaitingStep();
+      SleepStep laterStep = new SleepStep(0);
+      BuildRule rule =
+          new RuleWithSteps(
+              new FakeBuildRuleParamsBuilder(BuildTargetFactory.newInstance("//:rule"))
+                  .setProjectFilesystem(filesystem)
+                  .build(),
+              pathResolver,
+              ImmutableList.<Step>of(waitingStep, laterStep),
+              /* output */ null);
+
+      // Create the build engine.
+      CachingBuildEngine cachingBuildEngine =
+          new CachingBuildEngine(
+              toWeighted(SERVICE),
+              fileHashCache,
+              CachingBuildEngine.BuildMode.SHALLOW,
+              CachingBuildEngine.DependencySchedulingOrder.RANDOM,
+              CachingBuildEngine.DepFiles.ENABLED,
+              256L,
+              Optional.<Long>absent(),
+              pathResolver,
+              Functions.constant(
+                  new CachingBuildEngine.RuleKeyFactories(
+                      NOOP_RULE_KEY_FACTORY,
+                      NOOP_INPUT_BASED_RULE_KEY_FACTORY,
+                      NOOP_RULE_KEY_FACTORY,
+                      NOOP_DEP_FILE_RULE_KEY_FACTORY)));
+
+      BuildContext context =
+          FakeBuildContext.newBuilder()
+              .setEventBus(buckEventBus)
+              .setStepRunner(createStepRunner(buckEventBus))
+              .setJavaPackageFinder(new FakeJavaPackageFinder())
+              .setActionGraph(new ActionGraph(ImmutableList.<BuildRule>of()))
+              .build();
+
+      // Run the build, which waits for the work without finishing the rule.
+      ListenableFuture<BuildResult> result = cachingBuildEngine.build(context, rule);
+      waitingStep.started.await();
+      assertFalse(result.isDone());
+      assertThat(
+          FluentIterable.from(listener.getEvents())
+              .filter(StepEvent.Finished.class)
+              .size(),
+          equalTo(0));
+
+      // Once the work is done, the step is finished and the later step runs.
+      waitingStep.work.set(null);
+      assertEquals(BuildRuleSuccessType.BUILT_LOCALLY, result.get().getSuccess());
+      assertThat(
+          FluentIterable.from(listener.getEvents())
+              .filter(StepEvent.Finished.class)
+              .transform(
+                  new Function<StepEvent, String>() {
+                    @Override
+                    public String apply(StepEvent event) {
+                      return event.getShortStepName();
+                    }
+                  })
+              .toList(),
+          equalTo(ImmutableList.of(waitingStep.getShortName(), laterStep.getShortName())));
+
+      // Verify that events have correct thread IDs
+      assertRelatedBuildRuleEventsOnSameThread(
+          FluentIterable.from(listener.getEvents())
+              .filter(BuildRuleEvent.class));
+    }
+
     /**
      * Verify that the begin and end events in build rule event pairs occur on the same thread.
      */
@@ -3329,7 +3672,7 @@ public class CachingBuildEngineTest {
   /**
    * Implementation of {@link ArtifactCache} that, when its fetch method is called, takes the
    * location of requested {@link File} and writes a zip file there with the entries specified to
-   * its constructor.
+   * its constructor. When streamed, the same zip file is passed to the consumer instead.
    * <p>
    * This makes it possible to react to a call to
    * {@link ArtifactCache#store(ArtifactInfo, BorrowablePath)} and ensure that
@@ -3353,6 +3696,29 @@ public class CachingBuildEngineTest {
       return CacheResult.hit("dir");
     }
 
+    @Override
+    public CacheResult fetchStreaming(RuleKey ruleKey, ArtifactStreamConsumer consumer) {
+      try {
+        Path file = Files.createTempFile("buck_artifact_", ".zip");
+        try {
+          writeEntriesToZip(file, ImmutableMap.copyOf(desiredEntries));
+          try (InputStream artifact = Files.newInputStream(file)) {
+            consumer.consume(artifact);
+          }
+        } finally {
+          Files.delete(file);
+        }
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      return CacheResult.hit("dir");
+    }
+
+    @Override
+    public ImmutableMap<RuleKey, Boolean> multiContains(ImmutableSet<RuleKey> ruleKeys) {
+      return ImmutableMap.of();
+    }
+
     @Override
     public ListenableFuture<Void> store(
         ArtifactInfo info,
@@ -3465,6 +3831,32 @@ public class CachingBuildEngineTest {
     }
   }
 
+  private static class WaitingStep extends AbstractExecutionStep implements AsyncStep {
+
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final SettableFuture<Void> work = SettableFuture.create();
+
+    public WaitingStep() {
+      super("waiting step");
+    }
+
+    @Override
+    public Optional<ListenableFuture<?>> start(ExecutionContext context) {
+      started.countDown();
+      return Optional.<ListenableFuture<?>>of(work);
+    }
+
+    @Override
+    public StepExecutionResult finish(ExecutionContext context) {
+      return StepExecutionResult.SUCCESS;
+    }
+
+    @Override
+    public StepExecutionResult execute(ExecutionContext context) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
   private static class FailingStep extends AbstractExecutionStep {
 
     public FailingStep() {
@@ -3505,8 +3897,10 @@ public class CachingBuildEngineTest {
 
   private static WeightedListeningExecutorService toWeighted(ListeningExecutorService service) {
     return new WeightedListeningExecutorService(
-        new ListeningSemaphore(Integer.MAX_VALUE),
-        /* defaultPermits */ 1,
+        new ListeningMultiSemaphore(
+            ResourceAmounts.of(Integer.MAX_VALUE, Integer.MAX_VALUE, 0, 0),
+            ListeningMultiSemaphore.Fairness.FAIR),
+        /* defaultAmounts */ ResourceAmounts.of(1, 0, 0, 0),
         service);
   }
 
@@ -67,4 +67,8 @@ public class FakeBuildEngine implements BuildEngine {
     return 0;
   }
 
+  @Override
+  public void prepareSchedule(Iterable<BuildRule> rules) {
+  }
+
 }
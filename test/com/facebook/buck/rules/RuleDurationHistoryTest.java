@@ -0,0 +1,201 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static com.facebook.buck.event.TestEventConfigerator.configureTestEventAtTime;
+import static org.junit.Assert.assertThat;
+
+import com.facebook.buck.artifact_cache.CacheResult;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.util.ObjectMappers;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+
+import org.hamcrest.Matchers;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+public class RuleDurationHistoryTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private final ObjectMapper objectMapper = ObjectMappers.newDefaultInstance();
+  private Path storageFile;
+  private BuildRule rule;
+  private FakeRuleKeyBuilderFactory ruleKeyBuilderFactory;
+
+  @Before
+  public void setUp() {
+    storageFile = tmp.getRoot().toPath().resolve(RuleDurationHistory.RULE_DURATIONS_JSON);
+    SourcePathResolver pathResolver = new SourcePathResolver(
+        new BuildRuleResolver(TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer()));
+    rule = new FakeBuildRule(BuildTargetFactory.newInstance("//:rule"), pathResolver);
+    ruleKeyBuilderFactory = new FakeRuleKeyBuilderFactory(
+        ImmutableMap.of(rule.getBuildTarget(), new RuleKey("aaaa")));
+  }
+
+  @Test
+  public void recordsTheTimeLocallyBuiltRulesRanFor() {
+    RuleDurationHistory history = RuleDurationHistory.load(storageFile, objectMapper);
+    history.ruleStarted(at(BuildRuleEvent.started(rule), 0));
+    history.ruleSuspended(at(BuildRuleEvent.suspended(rule, ruleKeyBuilderFactory), 100));
+    history.ruleResumed(at(BuildRuleEvent.resumed(rule, ruleKeyBuilderFactory), 1000));
+    history.ruleSuspended(at(BuildRuleEvent.suspended(rule, ruleKeyBuilderFactory), 1300));
+    history.ruleFinished(
+        at(finished(rule, Optional.of(BuildRuleSuccessType.BUILT_LOCALLY)), 1300));
+
+    // The time the rule spent suspended, waiting on its deps, isn't counted.
+    assertThat(
+        history.getDurationMillis(rule.getBuildTarget()),
+        Matchers.equalTo(Optional.of(400L)));
+  }
+
+  @Test
+  public void nestedResumesDontRestartTheClock() {
+    RuleDurationHistory history = RuleDurationHistory.load(storageFile, objectMapper);
+    history.ruleResumed(at(BuildRuleEvent.resumed(rule, ruleKeyBuilderFactory), 0));
+    history.ruleResumed(at(BuildRuleEvent.resumed(rule, ruleKeyBuilderFactory), 100));
+    history.ruleSuspended(at(BuildRuleEvent.suspended(rule, ruleKeyBuilderFactory), 200));
+    history.ruleSuspended(at(BuildRuleEvent.suspended(rule, ruleKeyBuilderFactory), 300));
+    history.ruleFinished(
+        at(finished(rule, Optional.of(BuildRuleSuccessType.BUILT_LOCALLY)), 300));
+
+    assertThat(
+        history.getDurationMillis(rule.getBuildTarget()),
+        Matchers.equalTo(Optional.of(300L)));
+  }
+
+  @Test
+  public void ignoresRulesWhichWerentBuiltLocally() {
+    RuleDurationHistory history = RuleDurationHistory.load(storageFile, objectMapper);
+    history.ruleStarted(at(BuildRuleEvent.started(rule), 0));
+    history.ruleSuspended(at(BuildRuleEvent.suspended(rule, ruleKeyBuilderFactory), 100));
+    history.ruleFinished(
+        at(finished(rule, Optional.of(BuildRuleSuccessType.FETCHED_FROM_CACHE)), 100));
+
+    assertThat(
+        history.getDurationMillis(rule.getBuildTarget()),
+        Matchers.equalTo(Optional.<Long>absent()));
+  }
+
+  @Test
+  public void savedDurationsAreLoadedByLaterBuilds() {
+    RuleDurationHistory history = RuleDurationHistory.load(storageFile, objectMapper);
+    history.ruleStarted(at(BuildRuleEvent.started(rule), 0));
+    history.ruleSuspended(at(BuildRuleEvent.suspended(rule, ruleKeyBuilderFactory), 250));
+    history.ruleFinished(
+        at(finished(rule, Optional.of(BuildRuleSuccessType.BUILT_LOCALLY)), 250));
+    history.save();
+
+    RuleDurationHistory loaded = RuleDurationHistory.load(storageFile, objectMapper);
+    assertThat(
+        loaded.getDurationMillis(rule.getBuildTarget()),
+        Matchers.equalTo(Optional.of(250L)));
+  }
+
+  @Test
+  public void rulesMissingFromManyBuildsAreForgotten() {
+    RuleDurationHistory history = RuleDurationHistory.load(storageFile, objectMapper);
+    history.ruleStarted(at(BuildRuleEvent.started(rule), 0));
+    history.ruleSuspended(at(BuildRuleEvent.suspended(rule, ruleKeyBuilderFactory), 250));
+    history.ruleFinished(
+        at(finished(rule, Optional.of(BuildRuleSuccessType.BUILT_LOCALLY)), 250));
+    history.save();
+
+    for (int i = 1; i < PersistedDurations.MAX_UNUSED_RUNS; i++) {
+      RuleDurationHistory.load(storageFile, objectMapper).save();
+    }
+    assertThat(
+        RuleDurationHistory.load(storageFile, objectMapper)
+            .getDurationMillis(rule.getBuildTarget()),
+        Matchers.equalTo(Optional.of(250L)));
+
+    RuleDurationHistory.load(storageFile, objectMapper).save();
+    assertThat(
+        RuleDurationHistory.load(storageFile, objectMapper)
+            .getDurationMillis(rule.getBuildTarget()),
+        Matchers.equalTo(Optional.<Long>absent()));
+  }
+
+  @Test
+  public void rulesInABuildAreRemembered() {
+    RuleDurationHistory history = RuleDurationHistory.load(storageFile, objectMapper);
+    history.ruleStarted(at(BuildRuleEvent.started(rule), 0));
+    history.ruleSuspended(at(BuildRuleEvent.suspended(rule, ruleKeyBuilderFactory), 250));
+    history.ruleFinished(
+        at(finished(rule, Optional.of(BuildRuleSuccessType.BUILT_LOCALLY)), 250));
+    history.save();
+
+    for (int i = 0; i < PersistedDurations.MAX_UNUSED_RUNS; i++) {
+      history = RuleDurationHistory.load(storageFile, objectMapper);
+      // Fetching the rule from the cache doesn't change its duration, but shows it still exists.
+      history.ruleStarted(at(BuildRuleEvent.started(rule), 0));
+      history.ruleFinished(
+          at(finished(rule, Optional.of(BuildRuleSuccessType.FETCHED_FROM_CACHE)), 10));
+      history.save();
+    }
+    assertThat(
+        RuleDurationHistory.load(storageFile, objectMapper)
+            .getDurationMillis(rule.getBuildTarget()),
+        Matchers.equalTo(Optional.of(250L)));
+    assertThat(
+        tmp.getRoot().list(),
+        Matchers.arrayContaining(storageFile.getFileName().toString()));
+  }
+
+  @Test
+  public void rulesWithoutHistoryAreEstimatedToTakeTheAverageDuration() {
+    RuleDurationHistory history = RuleDurationHistory.load(storageFile, objectMapper);
+    assertThat(
+        history.getEstimatedDurationMillis(BuildTargetFactory.newInstance("//:other")),
+        Matchers.equalTo(1L));
+
+    history.ruleStarted(at(BuildRuleEvent.started(rule), 0));
+    history.ruleSuspended(at(BuildRuleEvent.suspended(rule, ruleKeyBuilderFactory), 600));
+    history.ruleFinished(
+        at(finished(rule, Optional.of(BuildRuleSuccessType.BUILT_LOCALLY)), 600));
+    assertThat(
+        history.getEstimatedDurationMillis(BuildTargetFactory.newInstance("//:other")),
+        Matchers.equalTo(600L));
+  }
+
+  private static <T extends BuildRuleEvent> T at(T event, long millis) {
+    return configureTestEventAtTime(event, millis, TimeUnit.MILLISECONDS, /* threadId */ 0L);
+  }
+
+  private static BuildRuleEvent.Finished finished(
+      BuildRule rule,
+      Optional<BuildRuleSuccessType> successType) {
+    return BuildRuleEvent.finished(
+        rule,
+        BuildRuleKeys.of(new RuleKey("aaaa")),
+        BuildRuleStatus.SUCCESS,
+        CacheResult.miss(),
+        successType,
+        Optional.<HashCode>absent(),
+        Optional.<Long>absent());
+  }
+
+}
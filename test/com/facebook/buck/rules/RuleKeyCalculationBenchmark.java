@@ -0,0 +1,144 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static org.junit.Assert.assertNotNull;
+
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.util.ObjectMappers;
+import com.facebook.buck.util.cache.NullFileHashCache;
+import com.facebook.buck.util.concurrent.ListeningMultiSemaphore;
+import com.facebook.buck.util.concurrent.ResourceAmounts;
+import com.facebook.buck.util.concurrent.WeightedListeningExecutorService;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Param;
+import com.google.caliper.api.Macrobenchmark;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+/**
+ * Measures how the throughput of rule key calculation in {@link CachingBuildEngine} scales with
+ * the number of build threads.
+ */
+public class RuleKeyCalculationBenchmark {
+  // Rules are laid out in layers of this many, each depending on a few rules of the layer below,
+  // so that there are plenty of independent subgraphs to calculate keys for concurrently.
+  private static final int LAYER_WIDTH = 100;
+
+  @Param({"1", "2", "8", "32"})
+  private int threadCount = 4;
+
+  @Param({"1000", "10000"})
+  private int ruleCount = 1000;
+
+  private ListeningExecutorService executorService;
+  private BuildRuleResolver resolver;
+  private ImmutableList<BuildRule> rules;
+
+  @Before
+  public void setUpTest() throws Exception {
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() throws Exception {
+    executorService = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(threadCount));
+    resolver = new BuildRuleResolver(
+        TargetGraph.EMPTY,
+        new DefaultTargetNodeToBuildRuleTransformer());
+    SourcePathResolver pathResolver = new SourcePathResolver(resolver);
+
+    ImmutableList.Builder<BuildRule> allRules = ImmutableList.builder();
+    List<BuildRule> previousLayer = new ArrayList<>();
+    List<BuildRule> layer = new ArrayList<>();
+    for (int i = 0; i < ruleCount; i++) {
+      ImmutableSortedSet.Builder<BuildRule> deps = ImmutableSortedSet.naturalOrder();
+      if (!previousLayer.isEmpty()) {
+        for (int offset : new int[] {0, 1, 7}) {
+          deps.add(previousLayer.get((i + offset) % previousLayer.size()));
+        }
+      }
+      BuildRule rule = new FakeBuildRule(
+          BuildTargetFactory.newInstance("//bench:rule" + i),
+          pathResolver,
+          deps.build());
+      resolver.addToIndex(rule);
+      allRules.add(rule);
+      layer.add(rule);
+      if (layer.size() == LAYER_WIDTH) {
+        previousLayer = layer;
+        layer = new ArrayList<>();
+      }
+    }
+    rules = allRules.build();
+  }
+
+  @After
+  @AfterExperiment
+  public void tearDown() {
+    executorService.shutdown();
+  }
+
+  @Test
+  public void calculatesKeysOfAllRules() throws Exception {
+    CachingBuildEngine engine = calculateRuleKeys();
+    for (BuildRule rule : rules) {
+      assertNotNull(engine.getRuleKey(rule.getBuildTarget()));
+    }
+  }
+
+  @Macrobenchmark
+  public CachingBuildEngine calculateRuleKeys() throws Exception {
+    // Use a new engine each time, as it remembers the keys it has calculated.
+    CachingBuildEngine engine = new CachingBuildEngine(
+        new WeightedListeningExecutorService(
+            new ListeningMultiSemaphore(
+                ResourceAmounts.of(Integer.MAX_VALUE, 0, 0, 0),
+                ListeningMultiSemaphore.Fairness.FAIR),
+            /* defaultAmounts */ ResourceAmounts.of(1, 0, 0, 0),
+            executorService),
+        new NullFileHashCache(),
+        CachingBuildEngine.BuildMode.SHALLOW,
+        CachingBuildEngine.DependencySchedulingOrder.RANDOM,
+        CachingBuildEngine.DepFiles.ENABLED,
+        256L,
+        Optional.<Long>absent(),
+        ObjectMappers.newDefaultInstance(),
+        resolver,
+        0);
+    List<ListenableFuture<RuleKey>> ruleKeys = new ArrayList<>(rules.size());
+    for (BuildRule rule : rules) {
+      ruleKeys.add(engine.calculateRuleKey(rule, FakeBuildContext.NOOP_CONTEXT));
+    }
+    Futures.allAsList(ruleKeys).get();
+    return engine;
+  }
+}
@@ -29,19 +29,25 @@ import com.facebook.buck.model.BuildTargetFactory;
 import com.facebook.buck.testutil.FakeFileHashCache;
 import com.facebook.buck.testutil.FakeProjectFilesystem;
 import com.facebook.buck.testutil.TargetGraphFactory;
+import com.facebook.buck.testutil.WatchEventsForTests;
 import com.facebook.buck.util.cache.FileHashCache;
 import com.facebook.buck.util.cache.NullFileHashCache;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import org.junit.Test;
 
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
 import java.util.Map;
+import java.util.concurrent.Executors;
 
 public class TargetGraphHashingTest {
 
@@ -229,6 +235,113 @@ public class TargetGraphHashingTest {
         not(equalTo(resultB.get(depTarget))));
   }
 
+  @Test
+  public void parallelHashingMatchesSerialHashing() throws IOException, InterruptedException {
+    FakeProjectFilesystem projectFilesystem = new FakeProjectFilesystem();
+    TestCellBuilder cellBuilder = new TestCellBuilder()
+      .setFilesystem(projectFilesystem);
+
+    BuildTarget nodeTarget = BuildTargetFactory.newInstance("//foo:lib");
+    BuildTarget depTarget = BuildTargetFactory.newInstance("//dep:lib");
+    TargetGraph targetGraph = createGraphWithANodeAndADep(
+        nodeTarget,
+        HashCode.fromLong(12345),
+        depTarget,
+        HashCode.fromLong(64738));
+
+    FileHashCache fileHashCache = new FakeFileHashCache(
+        ImmutableMap.of(
+            projectFilesystem.resolve("foo/FooLib.java"), HashCode.fromString("abcdef"),
+            projectFilesystem.resolve("dep/DepLib.java"), HashCode.fromString("123456")));
+
+    Map<BuildTarget, HashCode> serialResult = TargetGraphHashing.hashTargetGraph(
+        cellBuilder.build(),
+        targetGraph,
+        fileHashCache,
+        ImmutableList.<TargetNode<?>>of(targetGraph.get(nodeTarget)));
+
+    ListeningExecutorService executor =
+        MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(4));
+    try {
+      Map<BuildTarget, HashCode> parallelResult = TargetGraphHashing.hashTargetGraph(
+          cellBuilder.build(),
+          targetGraph,
+          fileHashCache,
+          ImmutableList.<TargetNode<?>>of(targetGraph.get(nodeTarget)),
+          executor,
+          Optional.<TargetNodeHashCache>absent());
+      assertThat(parallelResult, equalTo(serialResult));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void nodeHashCacheInvalidatesNodesWithChangedInputsAndTheirAncestors()
+      throws IOException, InterruptedException {
+    FakeProjectFilesystem projectFilesystem = new FakeProjectFilesystem();
+    TestCellBuilder cellBuilder = new TestCellBuilder()
+      .setFilesystem(projectFilesystem);
+
+    BuildTarget nodeTarget = BuildTargetFactory.newInstance("//foo:lib");
+    BuildTarget depTarget = BuildTargetFactory.newInstance("//dep:lib");
+    TargetGraph targetGraph = createGraphWithANodeAndADep(
+        nodeTarget,
+        HashCode.fromLong(12345),
+        depTarget,
+        HashCode.fromLong(64738));
+    ImmutableList<TargetNode<?>> roots =
+        ImmutableList.<TargetNode<?>>of(targetGraph.get(nodeTarget));
+
+    FileHashCache baseCache = new FakeFileHashCache(
+        ImmutableMap.of(
+            projectFilesystem.resolve("foo/FooLib.java"), HashCode.fromString("abcdef"),
+            projectFilesystem.resolve("dep/DepLib.java"), HashCode.fromString("123456")));
+    FileHashCache modifiedCache = new FakeFileHashCache(
+        ImmutableMap.of(
+            projectFilesystem.resolve("foo/FooLib.java"), HashCode.fromString("abcdef"),
+            projectFilesystem.resolve("dep/DepLib.java"), HashCode.fromString("123457")));
+
+    Optional<TargetNodeHashCache> nodeHashCache = Optional.of(new TargetNodeHashCache());
+    Map<BuildTarget, HashCode> baseResult = TargetGraphHashing.hashTargetGraph(
+        cellBuilder.build(),
+        targetGraph,
+        baseCache,
+        roots,
+        MoreExecutors.newDirectExecutorService(),
+        nodeHashCache);
+
+    // Without a change event, the memoized hashes are used and the file contents aren't read.
+    Map<BuildTarget, HashCode> memoizedResult = TargetGraphHashing.hashTargetGraph(
+        cellBuilder.build(),
+        targetGraph,
+        modifiedCache,
+        roots,
+        MoreExecutors.newDirectExecutorService(),
+        nodeHashCache);
+    assertThat(memoizedResult, equalTo(baseResult));
+
+    nodeHashCache.get().invalidateBasedOn(
+        WatchEventsForTests.createPathEvent(
+            Paths.get("dep/DepLib.java"),
+            StandardWatchEventKinds.ENTRY_MODIFY));
+    Map<BuildTarget, HashCode> modifiedResult = TargetGraphHashing.hashTargetGraph(
+        cellBuilder.build(),
+        targetGraph,
+        modifiedCache,
+        roots,
+        MoreExecutors.newDirectExecutorService(),
+        nodeHashCache);
+    Map<BuildTarget, HashCode> freshResult = TargetGraphHashing.hashTargetGraph(
+        cellBuilder.build(),
+        targetGraph,
+        modifiedCache,
+        roots);
+    assertThat(modifiedResult, equalTo(freshResult));
+    assertThat(modifiedResult.get(depTarget), not(equalTo(baseResult.get(depTarget))));
+    assertThat(modifiedResult.get(nodeTarget), not(equalTo(baseResult.get(nodeTarget))));
+  }
+
   private static TargetNode<?> createJavaLibraryTargetNodeWithSrcs(
       BuildTarget buildTarget,
       HashCode hashCode,
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static com.facebook.buck.event.TestEventConfigerator.configureTestEventAtTime;
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.event.AbstractBuckEvent;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.test.TestCaseSummary;
+import com.facebook.buck.test.TestResultSummary;
+import com.facebook.buck.test.TestResults;
+import com.facebook.buck.test.TestRuleEvent;
+import com.facebook.buck.test.result.type.ResultType;
+import com.facebook.buck.test.selectors.TestSelectorList;
+import com.facebook.buck.util.ObjectMappers;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+public class TestDurationHistoryTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private final ObjectMapper objectMapper = ObjectMappers.newDefaultInstance();
+  private Path ruleDurationsFile;
+  private Path testCaseDurationsFile;
+
+  @Before
+  public void setUp() {
+    ruleDurationsFile = tmp.getRoot().toPath().resolve(TestDurationHistory.TEST_DURATIONS_JSON);
+    testCaseDurationsFile =
+        tmp.getRoot().toPath().resolve(TestDurationHistory.TEST_CASE_DURATIONS_JSON);
+  }
+
+  @Test
+  public void recordsRuleAndTestCaseDurationsAcrossRuns() {
+    TestDurationHistory history = load();
+    BuildTarget target = BuildTargetFactory.newInstance("//:test");
+    history.testRunStarted(started(TestSelectorList.empty()));
+    history.testRuleStarted(at(TestRuleEvent.started(target), 1000));
+    history.testRuleFinished(at(TestRuleEvent.finished(target), 1350));
+    history.testRunFinished(
+        TestRunEvent.finished(
+            ImmutableSet.of("//:test"),
+            ImmutableList.of(
+                results("//:test", testCase("FooTest", 300), testCase("BarTest", 200)))));
+
+    TestDurationHistory loaded = load();
+    // The test cases ran in parallel, so the rule took less time than they did altogether.
+    assertEquals(ImmutableMap.of("//:test", 350L), loaded.getRuleDurations());
+    assertEquals(
+        ImmutableMap.of("FooTest", 300L, "BarTest", 200L),
+        loaded.getTestCaseDurations());
+  }
+
+  @Test
+  public void cachedResultsArentRecorded() {
+    TestDurationHistory history = load();
+    history.record(
+        ImmutableList.of(
+            results(
+                "//:test",
+                TestCaseSummary.TO_CACHED_TRANSFORMATION.apply(testCase("FooTest", 300)))));
+
+    assertEquals(ImmutableMap.<String, Long>of(), history.getRuleDurations());
+    assertEquals(ImmutableMap.<String, Long>of(), history.getTestCaseDurations());
+  }
+
+  @Test
+  public void runsWithTestSelectorsArentRecorded() {
+    TestDurationHistory history = load();
+    history.testRunStarted(
+        started(TestSelectorList.builder().addRawSelectors("FooTest").build()));
+    history.testRunFinished(
+        TestRunEvent.finished(
+            ImmutableSet.of("//:test"),
+            ImmutableList.of(results("//:test", testCase("FooTest", 300)))));
+
+    assertEquals(ImmutableMap.<String, Long>of(), history.getRuleDurations());
+  }
+
+  private TestDurationHistory load() {
+    return TestDurationHistory.load(ruleDurationsFile, testCaseDurationsFile, objectMapper);
+  }
+
+  private static <T extends AbstractBuckEvent> T at(T event, long millis) {
+    return configureTestEventAtTime(event, millis, TimeUnit.MILLISECONDS, /* threadId */ 0L);
+  }
+
+  private static TestRunEvent.Started started(TestSelectorList testSelectorList) {
+    return TestRunEvent.started(
+        /* isRunAllTests */ false,
+        testSelectorList,
+        /* shouldExplainTestSelectorList */ false,
+        ImmutableSet.of("//:test"));
+  }
+
+  private static TestResults results(String target, TestCaseSummary... testCases) {
+    return TestResults.of(
+        BuildTargetFactory.newInstance(target),
+        ImmutableList.copyOf(testCases),
+        /* contacts */ ImmutableSet.<String>of(),
+        /* labels */ ImmutableSet.<String>of());
+  }
+
+  private static TestCaseSummary testCase(String name, long time) {
+    return new TestCaseSummary(
+        name,
+        ImmutableList.of(
+            new TestResultSummary(
+                name,
+                "test",
+                ResultType.SUCCESS,
+                time,
+                /* message */ null,
+                /* stacktrace */ null,
+                /* stdOut */ null,
+                /* stdErr */ null)));
+  }
+}
@@ -70,6 +70,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 
 public class ExportFileTest {
 
@@ -283,6 +284,14 @@ public class ExportFileTest {
                 // Do nothing.
               }
 
+              @Override
+              public ListenableFuture<Void> startStepForBuildTarget(
+                  Step step,
+                  Optional<BuildTarget> buildTarget,
+                  Executor finishExecutor) {
+                return Futures.immediateFuture(null);
+              }
+
               @Override
               public <T> ListenableFuture<T> runStepsAndYieldResult(
                   List<Step> steps,
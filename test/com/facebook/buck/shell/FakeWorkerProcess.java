@@ -45,7 +45,7 @@ public class FakeWorkerProcess extends WorkerProcess {
   public synchronized void ensureLaunchAndHandshake() throws IOException {}
 
   @Override
-  public synchronized WorkerJobResult submitAndWaitForJob(String jobArgs) throws IOException {
+  public WorkerJobResult submitAndWaitForJob(String jobArgs) throws IOException {
     return this.jobArgsToJobResultMap.get(jobArgs);
   }
 
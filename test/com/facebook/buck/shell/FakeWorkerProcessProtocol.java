@@ -15,28 +15,59 @@
  */
 package com.facebook.buck.shell;
 
+import com.facebook.buck.model.Pair;
+import com.google.common.collect.ImmutableSet;
+
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
 
 public class FakeWorkerProcessProtocol implements WorkerProcessProtocol {
 
+  private final ImmutableSet<String> capabilities;
+  private final Deque<Integer> sentMessageIDs = new ArrayDeque<>();
   private boolean isClosed = false;
 
+  public FakeWorkerProcessProtocol() {
+    this(ImmutableSet.<String>of());
+  }
+
+  public FakeWorkerProcessProtocol(ImmutableSet<String> capabilities) {
+    this.capabilities = capabilities;
+  }
+
   @Override
   public void sendHandshake(int handshakeID) throws IOException {}
 
   @Override
-  public void receiveHandshake(int handshakeID) throws IOException {}
+  public ImmutableSet<String> receiveHandshake(int handshakeID) throws IOException {
+    return capabilities;
+  }
 
   @Override
-  public void sendCommand(int messageID, Path argsPath, Path stdoutPath, Path stderrPath)
-      throws IOException {}
+  public synchronized void sendCommand(
+      int messageID,
+      Path argsPath,
+      Path stdoutPath,
+      Path stderrPath) throws IOException {
+    sentMessageIDs.add(messageID);
+  }
 
   @Override
   public int receiveCommandResponse(int messageID) throws IOException {
     return 0;
   }
 
+  /**
+   * Responds to the jobs sent, most recent first, with each job's id as its exit code.
+   */
+  @Override
+  public synchronized Pair<Integer, Integer> receiveNextCommandResponse() throws IOException {
+    int messageID = sentMessageIDs.removeLast();
+    return new Pair<>(messageID, messageID);
+  }
+
   @Override
   public void close() throws IOException {
     isClosed = true;
@@ -24,8 +24,11 @@ import com.facebook.buck.step.TestExecutionContext;
 import com.facebook.buck.testutil.TestConsole;
 import com.facebook.buck.util.Console;
 import com.facebook.buck.util.Escaper;
+import com.facebook.buck.util.FakeListeningProcessExecutor;
+import com.facebook.buck.util.FakeListeningProcessState;
 import com.facebook.buck.util.FakeProcess;
 import com.facebook.buck.util.FakeProcessExecutor;
+import com.facebook.buck.util.ProcessExecutor;
 import com.facebook.buck.util.ProcessExecutorParams;
 import com.facebook.buck.util.Verbosity;
 import com.facebook.buck.util.environment.Platform;
@@ -33,7 +36,10 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
 import com.google.common.eventbus.Subscribe;
 
 import org.junit.Test;
@@ -79,6 +85,13 @@ public class ShellStepTest {
     return context;
   }
 
+  private static ExecutionContext createListeningContext(
+      Multimap<ProcessExecutorParams, FakeListeningProcessState> processStates,
+      final Console console) throws IOException {
+    return createContext(ImmutableMap.<ProcessExecutorParams, FakeProcess>of(), console)
+        .withListeningProcessExecutor(new FakeListeningProcessExecutor(processStates));
+  }
+
   private static ProcessExecutorParams createParams() {
     return ProcessExecutorParams
         .builder()
@@ -331,4 +344,70 @@ public class ShellStepTest {
     assertEquals("", process.getOutput());
   }
 
+  @Test
+  public void testStdErrPrintedOnErrorWhenRunByListeningProcessExecutor() throws Exception {
+    ShellStep command = createCommand(/*shouldPrintStdErr*/ false, /*shouldPrintStdOut*/ false);
+    ProcessExecutorParams params = createParams();
+    TestConsole console = new TestConsole(Verbosity.STANDARD_INFORMATION);
+    ExecutionContext context = createListeningContext(
+        ImmutableMultimap.of(
+            params, FakeListeningProcessState.ofStdout(OUTPUT_MSG),
+            params, FakeListeningProcessState.ofStderr(ERROR_MSG),
+            params, FakeListeningProcessState.ofExit(EXIT_FAILURE)),
+        console);
+    assertEquals(EXIT_FAILURE, command.launchAndInteractWithProcess(context, params));
+    assertEquals(ERROR_MSG, console.getTextWrittenToStdErr());
+    assertEquals(OUTPUT_MSG, command.getStdout());
+  }
+
+  @Test
+  public void testStdinGetsToProcessWhenRunByListeningProcessExecutor() throws Exception {
+    ShellStep command = createCommand(
+        ImmutableMap.<String, String>of(),
+        ImmutableList.of("cat", "-"),
+        null,
+        /*shouldPrintStdErr*/ false,
+        /*shouldPrintStdOut*/ false,
+        Optional.of("hello world!"));
+    ProcessExecutorParams params = createParams();
+    TestConsole console = new TestConsole(Verbosity.STANDARD_INFORMATION);
+    ExecutionContext context = createListeningContext(
+        ImmutableMultimap.of(
+            params, FakeListeningProcessState.ofExpectedStdin("hello world!"),
+            params, FakeListeningProcessState.ofExpectStdinClosed(),
+            params, FakeListeningProcessState.ofExit(EXIT_SUCCESS)),
+        console);
+    assertEquals(EXIT_SUCCESS, command.launchAndInteractWithProcess(context, params));
+  }
+
+  @Test
+  public void testStepWithCustomOptionsIsNotRunByListeningProcessExecutor() throws Exception {
+    ShellStep command = new ShellStep(Paths.get(".").toAbsolutePath().normalize()) {
+      @Override
+      public String getShortName() {
+        return "test";
+      }
+      @Override
+      protected ImmutableList<String> getShellCommandInternal(ExecutionContext context) {
+        return ImmutableList.of("test");
+      }
+      @Override
+      protected void addOptions(
+          ExecutionContext context,
+          ImmutableSet.Builder<ProcessExecutor.Option> options) {
+        options.add(ProcessExecutor.Option.EXPECTING_STD_OUT);
+      }
+    };
+    ProcessExecutorParams params = createParams();
+    TestConsole console = new TestConsole(Verbosity.STANDARD_INFORMATION);
+    ExecutionContext context = createContext(
+        ImmutableMap.of(params, new FakeProcess(EXIT_SUCCESS, OUTPUT_MSG, "")),
+        console)
+        .withListeningProcessExecutor(
+            new FakeListeningProcessExecutor(
+                ImmutableMultimap.<ProcessExecutorParams, FakeListeningProcessState>of()));
+    assertEquals(EXIT_SUCCESS, command.launchAndInteractWithProcess(context, params));
+    assertEquals(OUTPUT_MSG, command.getStdout());
+  }
+
 }
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.shell;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.facebook.buck.util.FakeProcessExecutor;
+import com.facebook.buck.util.ProcessExecutorParams;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class WorkerProcessPoolTest {
+
+  @Test
+  public void idleProcessesAreReused() throws Exception {
+    try (TestPool pool = new TestPool(2, /* multiplexed */ false)) {
+      WorkerProcess first = pool.borrowWorkerProcess();
+      pool.returnWorkerProcess(first);
+
+      assertThat(pool.borrowWorkerProcess(), Matchers.sameInstance(first));
+      assertThat(pool.started, Matchers.hasSize(1));
+    }
+  }
+
+  @Test
+  public void jobsWaitForAnIdleProcessOnceThePoolIsFull() throws Exception {
+    try (TestPool pool = new TestPool(2, /* multiplexed */ false)) {
+      WorkerProcess first = pool.borrowWorkerProcess();
+      WorkerProcess second = pool.borrowWorkerProcess();
+      assertThat(second, Matchers.not(Matchers.sameInstance(first)));
+
+      ExecutorService executor = Executors.newSingleThreadExecutor();
+      try {
+        Future<WorkerProcess> third = executor.submit(
+            new Callable<WorkerProcess>() {
+              @Override
+              public WorkerProcess call() throws Exception {
+                return pool.borrowWorkerProcess();
+              }
+            });
+        try {
+          third.get(100, TimeUnit.MILLISECONDS);
+          throw new AssertionError("Expected the third job to wait for a process.");
+        } catch (TimeoutException e) {
+          // Expected.
+        }
+
+        pool.returnWorkerProcess(second);
+        assertThat(third.get(), Matchers.sameInstance(second));
+        assertThat(pool.started, Matchers.hasSize(2));
+      } finally {
+        executor.shutdownNow();
+      }
+    }
+  }
+
+  @Test
+  public void multiplexedProcessesAreSharedOnceThePoolIsFull() throws Exception {
+    try (TestPool pool = new TestPool(2, /* multiplexed */ true)) {
+      WorkerProcess first = pool.borrowWorkerProcess();
+      WorkerProcess second = pool.borrowWorkerProcess();
+      WorkerProcess third = pool.borrowWorkerProcess();
+      WorkerProcess fourth = pool.borrowWorkerProcess();
+
+      assertThat(pool.started, Matchers.contains(first, second));
+      assertThat(third, Matchers.sameInstance(first));
+      assertThat(fourth, Matchers.sameInstance(second));
+    }
+  }
+
+  @Test
+  public void destroyedProcessesAreReplaced() throws Exception {
+    try (TestPool pool = new TestPool(1, /* multiplexed */ false)) {
+      WorkerProcess first = pool.borrowWorkerProcess();
+      pool.destroyWorkerProcess(first);
+      pool.returnWorkerProcess(first);
+
+      WorkerProcess second = pool.borrowWorkerProcess();
+      assertThat(second, Matchers.not(Matchers.sameInstance(first)));
+      assertThat(pool.started, Matchers.hasSize(2));
+    }
+  }
+
+  @Test
+  public void closingThePoolClosesItsProcesses() throws Exception {
+    final FakeWorkerProcessProtocol protocol = new FakeWorkerProcessProtocol();
+    WorkerProcessPool pool = new WorkerProcessPool(1, HashCode.fromInt(0)) {
+      @Override
+      protected WorkerProcess startWorkerProcess() throws IOException {
+        WorkerProcess process = new WorkerProcess(
+            new FakeProcessExecutor(),
+            ProcessExecutorParams.builder()
+                .setCommand(ImmutableList.<String>of())
+                .build(),
+            new FakeProjectFilesystem(),
+            Paths.get("tmp").toAbsolutePath().normalize());
+        process.setProtocol(protocol);
+        return process;
+      }
+    };
+    pool.borrowWorkerProcess();
+
+    assertFalse(protocol.isClosed());
+    pool.close();
+    assertTrue(protocol.isClosed());
+  }
+
+  private static class TestPool extends WorkerProcessPool {
+
+    private final boolean multiplexed;
+    private final List<WorkerProcess> started = new ArrayList<>();
+
+    public TestPool(int maxWorkers, boolean multiplexed) {
+      super(maxWorkers, HashCode.fromInt(0));
+      this.multiplexed = multiplexed;
+    }
+
+    @Override
+    protected WorkerProcess startWorkerProcess() throws IOException {
+      WorkerProcess process =
+          new FakeWorkerProcess(ImmutableMap.<String, WorkerJobResult>of()) {
+            @Override
+            public boolean supportsMultiplexedJobs() {
+              return multiplexed;
+            }
+          };
+      started.add(process);
+      return process;
+    }
+  }
+}
@@ -19,6 +19,7 @@ package com.facebook.buck.shell;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
+import com.facebook.buck.model.Pair;
 import com.facebook.buck.util.FakeProcess;
 import com.facebook.buck.util.FakeProcessExecutor;
 import com.facebook.buck.util.HumanReadableException;
@@ -123,6 +124,25 @@ public class WorkerProcessProtocolZeroTest {
     protocol.receiveHandshake(handshakeID);
   }
 
+  @Test
+  public void testReceiveHandshakeReturnsCapabilities() throws IOException {
+    JsonReader jsonReader = new JsonReader(new StringReader(
+        "[{\"id\":123,\"type\":\"handshake\",\"protocol_version\":\"0\"," +
+            "\"capabilities\":[\"multiplexed_jobs\",\"something_new\"]}"));
+
+    WorkerProcessProtocol protocol = new WorkerProcessProtocolZero(
+        fakeProcessExecutor,
+        fakeLaunchedProcess,
+        dummyJsonWriter,
+        jsonReader);
+
+    assertThat(
+        protocol.receiveHandshake(123),
+        Matchers.containsInAnyOrder(
+            WorkerProcessProtocolZero.CAPABILITY_MULTIPLEXED_JOBS,
+            "something_new"));
+  }
+
   @Test
   public void testReceiveHandshakeWithMalformedJSON() throws IOException {
     String malformedJson = "=^..^= meow";
@@ -241,6 +261,21 @@ public class WorkerProcessProtocolZeroTest {
     protocol.receiveCommandResponse(messageID);
   }
 
+  @Test
+  public void testReceiveNextCommandResponse() throws IOException {
+    JsonReader jsonReader = createMockJsonReaderForReceiveCommandResponse(456, "result", 3);
+
+    WorkerProcessProtocol protocol = new WorkerProcessProtocolZero(
+        fakeProcessExecutor,
+        fakeLaunchedProcess,
+        dummyJsonWriter,
+        jsonReader);
+
+    assertThat(
+        protocol.receiveNextCommandResponse(),
+        Matchers.equalTo(new Pair<>(456, 3)));
+  }
+
   @Test
   public void testReceiveCommandResponseWithMalformedJSON() throws IOException {
     String malformedJson = "><(((('> blub";
@@ -16,11 +16,13 @@
 
 package com.facebook.buck.shell;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.model.Pair;
 import com.facebook.buck.testutil.FakeProjectFilesystem;
 import com.facebook.buck.util.FakeProcessExecutor;
 import com.facebook.buck.util.ProcessExecutorParams;
@@ -34,6 +36,15 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class WorkerProcessTest {
 
@@ -44,8 +55,8 @@ public class WorkerProcessTest {
   }
 
   @Test
-  public void testSubmitAndWaitForJob() throws IOException {
-    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+  public void testSubmitAndWaitForJob() throws IOException, InterruptedException {
+    final ProjectFilesystem filesystem = new FakeProjectFilesystem();
     Path tmpPath = Files.createTempDirectory("tmp").toAbsolutePath().normalize();
     Path argsPath = Paths.get(tmpPath.toString(), "0.args");
     Path stdoutPath = Paths.get(tmpPath.toString(), "0.out");
@@ -64,11 +75,180 @@ public class WorkerProcessTest {
         createDummyParams(),
         filesystem,
         tmpPath);
-    process.setProtocol(new FakeWorkerProcessProtocol());
+    final List<Optional<String>> sentArgs = new ArrayList<>();
+    process.setProtocol(
+        new FakeWorkerProcessProtocol() {
+          @Override
+          public synchronized void sendCommand(
+              int messageID,
+              Path argsPath,
+              Path stdoutPath,
+              Path stderrPath) throws IOException {
+            super.sendCommand(messageID, argsPath, stdoutPath, stderrPath);
+            sentArgs.add(filesystem.readFileIfItExists(argsPath));
+          }
+        });
 
     WorkerJobResult expectedResult = WorkerJobResult.of(exitCode, stdout, stderr);
     assertThat(process.submitAndWaitForJob(jobArgs), Matchers.equalTo(expectedResult));
-    assertThat(filesystem.readFileIfItExists(argsPath).get(), Matchers.equalTo(jobArgs));
+    assertEquals(ImmutableList.of(Optional.of(jobArgs)), sentArgs);
+
+    // The job's files are deleted once its result has been read.
+    assertFalse(filesystem.exists(argsPath));
+    assertFalse(filesystem.exists(stdoutPath));
+    assertFalse(filesystem.exists(stderrPath));
+  }
+
+  @Test
+  public void testMultiplexedJobsGetTheirOwnResponses() throws Exception {
+    final ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    Path tmpPath = Files.createTempDirectory("tmp").toAbsolutePath().normalize();
+
+    // Don't respond until both jobs have been sent, and then respond to the second one first.
+    final CountDownLatch bothSent = new CountDownLatch(2);
+    final Map<Integer, Optional<String>> sentArgs = new ConcurrentHashMap<>();
+    FakeWorkerProcessProtocol protocol = new FakeWorkerProcessProtocol() {
+      @Override
+      public void sendCommand(
+          int messageID,
+          Path argsPath,
+          Path stdoutPath,
+          Path stderrPath) throws IOException {
+        super.sendCommand(messageID, argsPath, stdoutPath, stderrPath);
+        sentArgs.put(messageID, filesystem.readFileIfItExists(argsPath));
+        bothSent.countDown();
+      }
+
+      @Override
+      public Pair<Integer, Integer> receiveNextCommandResponse() throws IOException {
+        try {
+          bothSent.await();
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+        return super.receiveNextCommandResponse();
+      }
+    };
+    final WorkerProcess process = new WorkerProcess(
+        new FakeProcessExecutor(),
+        createDummyParams(),
+        filesystem,
+        tmpPath) {
+      @Override
+      public boolean supportsMultiplexedJobs() {
+        return true;
+      }
+    };
+    process.setProtocol(protocol);
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      List<Future<WorkerJobResult>> results = new ArrayList<>();
+      for (final String jobArgs : ImmutableList.of("first job", "second job")) {
+        results.add(
+            executor.submit(
+                new Callable<WorkerJobResult>() {
+                  @Override
+                  public WorkerJobResult call() throws Exception {
+                    return process.submitAndWaitForJob(jobArgs);
+                  }
+                }));
+      }
+
+      // The fake protocol uses each job's id as its exit code.
+      int firstID = results.get(0).get().getExitCode();
+      int secondID = results.get(1).get().getExitCode();
+      assertThat(sentArgs.get(firstID), Matchers.equalTo(Optional.of("first job")));
+      assertThat(sentArgs.get(secondID), Matchers.equalTo(Optional.of("second job")));
+      assertFalse(filesystem.exists(tmpPath.resolve(firstID + ".args")));
+      assertFalse(filesystem.exists(tmpPath.resolve(secondID + ".args")));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testResponseToAnInterruptedJobIsDropped() throws Exception {
+    final ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    final Path tmpPath = Files.createTempDirectory("tmp").toAbsolutePath().normalize();
+
+    // Hold the responses back until the test releases them, and then respond to the second job
+    // first.
+    final CountDownLatch reading = new CountDownLatch(1);
+    final CountDownLatch secondSent = new CountDownLatch(2);
+    final CountDownLatch respond = new CountDownLatch(1);
+    FakeWorkerProcessProtocol protocol = new FakeWorkerProcessProtocol() {
+      @Override
+      public void sendCommand(
+          int messageID,
+          Path argsPath,
+          Path stdoutPath,
+          Path stderrPath) throws IOException {
+        super.sendCommand(messageID, argsPath, stdoutPath, stderrPath);
+        secondSent.countDown();
+      }
+
+      @Override
+      public Pair<Integer, Integer> receiveNextCommandResponse() throws IOException {
+        reading.countDown();
+        try {
+          respond.await();
+        } catch (InterruptedException e) {
+          throw new IOException(e);
+        }
+        return super.receiveNextCommandResponse();
+      }
+    };
+    final WorkerProcess process = new WorkerProcess(
+        new FakeProcessExecutor(),
+        createDummyParams(),
+        filesystem,
+        tmpPath) {
+      @Override
+      public boolean supportsMultiplexedJobs() {
+        return true;
+      }
+    };
+    process.setProtocol(protocol);
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      // The first job's thread reads the responses, and the second job's thread waits for it.
+      Future<WorkerJobResult> first = executor.submit(
+          new Callable<WorkerJobResult>() {
+            @Override
+            public WorkerJobResult call() throws Exception {
+              return process.submitAndWaitForJob("first job");
+            }
+          });
+      reading.await();
+      final List<Throwable> secondFailures = new ArrayList<>();
+      Thread second = new Thread(
+          new Runnable() {
+            @Override
+            public void run() {
+              try {
+                process.submitAndWaitForJob("second job");
+              } catch (IOException | InterruptedException e) {
+                secondFailures.add(e);
+              }
+            }
+          });
+      second.start();
+      secondSent.await();
+      second.interrupt();
+      second.join();
+      assertThat(secondFailures, Matchers.hasSize(1));
+      assertThat(secondFailures.get(0), Matchers.instanceOf(InterruptedException.class));
+
+      // The second job's response is dropped on the way to the first's, along with its files.
+      respond.countDown();
+      int firstID = first.get().getExitCode();
+      int secondID = firstID + 1;
+      assertFalse(filesystem.exists(tmpPath.resolve(secondID + ".args")));
+    } finally {
+      executor.shutdownNow();
+    }
   }
 
   @Test
@@ -35,6 +35,7 @@ import com.facebook.buck.util.environment.Platform;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
 
 import org.hamcrest.Matchers;
 import org.junit.Test;
@@ -72,7 +73,12 @@ public class WorkerShellStepTest {
       ImmutableList<String> startupCommand,
       String startupArgs,
       String jobArgs) {
-    return WorkerJobParams.of(startupCommand, startupArgs, jobArgs);
+    return WorkerJobParams.of(
+        startupCommand,
+        startupArgs,
+        jobArgs,
+        /* maxWorkers */ 1,
+        /* persistent */ false);
   }
 
   @Test
@@ -183,22 +189,21 @@ public class WorkerShellStepTest {
   @Test
   public void testJobIsExecutedAndResultIsReceived()
       throws IOException, InterruptedException {
-    WorkerShellStep step = createXargsShellStep(
-        createJobParams(
-            ImmutableList.of("startupCommand"),
-            "startupArgs",
-            "myJobArgs"),
-        null,
-        null);
+    WorkerJobParams jobParams = createJobParams(
+        ImmutableList.of("startupCommand"),
+        "startupArgs",
+        "myJobArgs");
+    WorkerShellStep step = createXargsShellStep(jobParams, null, null);
 
     WorkerJobResult jobResult = WorkerJobResult.of(
         0,
         Optional.of("my stdout"),
         Optional.of("my stderr"));
-    WorkerProcess workerProcess = new FakeWorkerProcess(ImmutableMap.of("myJobArgs", jobResult));
+    final WorkerProcess workerProcess =
+        new FakeWorkerProcess(ImmutableMap.of("myJobArgs", jobResult));
 
-    ConcurrentHashMap<String, WorkerProcess> workerProcessMap = new ConcurrentHashMap<>();
-    workerProcessMap.put("/bin/bash -e -c startupCommand startupArgs", workerProcess);
+    String key = "/bin/bash -e -c startupCommand startupArgs";
+    ConcurrentHashMap<String, WorkerProcessPool> workerProcessMap = new ConcurrentHashMap<>();
 
     BuckEventBus eventBus = BuckEventBusFactory.newInstance();
     FakeBuckEventListener listener = new FakeBuckEventListener();
@@ -208,11 +213,26 @@ public class WorkerShellStepTest {
     ExecutionContext context = TestExecutionContext
         .newBuilder()
         .setPlatform(Platform.LINUX)
-        .setWorkerProcesses(workerProcessMap)
+        .setWorkerProcessPools(workerProcessMap)
         .setConsole(console)
         .setBuckEventBus(eventBus)
         .build();
 
+    workerProcessMap.put(
+        key,
+        new WorkerProcessPool(
+            1,
+            WorkerShellStep.getPoolHash(
+                key,
+                jobParams,
+                /* maxWorkers */ 1,
+                step.getEnvironmentForProcess(context))) {
+          @Override
+          protected WorkerProcess startWorkerProcess() {
+            return workerProcess;
+          }
+        });
+
     int exitCode = step.execute(context).getExitCode();
     assertThat(exitCode, Matchers.equalTo(0));
 
@@ -227,6 +247,27 @@ public class WorkerShellStepTest {
     assertThat(((ConsoleEvent) secondEvent).getMessage(), Matchers.is("my stderr"));
   }
 
+  @Test
+  public void testPoolHashDependsOnMaxWorkersAndEnvironment() {
+    String key = "/bin/bash -e -c startupCommand startupArgs";
+    WorkerJobParams jobParams = createJobParams(
+        ImmutableList.of("startupCommand"),
+        "startupArgs",
+        "myJobArgs");
+    HashCode poolHash =
+        WorkerShellStep.getPoolHash(key, jobParams, 1, ImmutableMap.of("FOO", "foo"));
+
+    assertThat(
+        WorkerShellStep.getPoolHash(key, jobParams, 1, ImmutableMap.of("FOO", "foo")),
+        Matchers.equalTo(poolHash));
+    assertThat(
+        WorkerShellStep.getPoolHash(key, jobParams, 2, ImmutableMap.of("FOO", "foo")),
+        Matchers.not(Matchers.equalTo(poolHash)));
+    assertThat(
+        WorkerShellStep.getPoolHash(key, jobParams, 1, ImmutableMap.of("FOO", "bar")),
+        Matchers.not(Matchers.equalTo(poolHash)));
+  }
+
   @Test
   public void testGetEnvironmentForProcess() {
     WorkerShellStep step = new WorkerShellStep(
@@ -40,4 +40,14 @@ public class WorkerToolBuilder extends AbstractNodeBuilder<WorkerToolDescription
     arg.args = Optional.fromNullable(args);
     return this;
   }
+
+  public WorkerToolBuilder setMaxWorkers(int maxWorkers) {
+    arg.maxWorkers = Optional.of(maxWorkers);
+    return this;
+  }
+
+  public WorkerToolBuilder setPersistent(boolean persistent) {
+    arg.persistent = Optional.of(persistent);
+    return this;
+  }
 }
@@ -61,6 +61,33 @@ public class WorkerToolTest {
         "getArgs should return the args string supplied in the definition.",
         "arg1 arg2",
         Matchers.is(((WorkerTool) workerRule).getArgs()));
+
+    assertThat(
+        "Worker tools should start a single process unless told otherwise.",
+        ((WorkerTool) workerRule).getMaxWorkers(),
+        Matchers.is(1));
+    assertThat(((WorkerTool) workerRule).isPersistent(), Matchers.is(false));
+  }
+
+  @Test
+  public void testCreateWorkerToolWithPoolSettings() throws NoSuchBuildTargetException {
+    BuildRuleResolver resolver =
+        new BuildRuleResolver(TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer());
+
+    BuildRule shBinaryRule = new ShBinaryBuilder(
+        BuildTargetFactory.newInstance("//:my_exe"))
+        .setMain(new FakeSourcePath("bin/exe"))
+        .build(resolver);
+
+    WorkerTool workerRule = (WorkerTool) WorkerToolBuilder
+        .newWorkerToolBuilder(BuildTargetFactory.newInstance("//:worker_rule"))
+        .setExe(shBinaryRule.getBuildTarget())
+        .setMaxWorkers(4)
+        .setPersistent(true)
+        .build(resolver);
+
+    assertThat(workerRule.getMaxWorkers(), Matchers.is(4));
+    assertThat(workerRule.isPersistent(), Matchers.is(true));
   }
 
   @Test
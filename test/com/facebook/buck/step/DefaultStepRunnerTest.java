@@ -27,12 +27,15 @@ import com.facebook.buck.model.BuildTarget;
 import com.google.common.base.Optional;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
 
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 
 public class DefaultStepRunnerTest {
@@ -125,6 +128,84 @@ public class DefaultStepRunnerTest {
     }
   }
 
+  @Test
+  public void testAsyncStepIsFinishedOnceItsWorkIsDone() throws Exception {
+    BuckEventBus eventBus = BuckEventBusFactory.newInstance();
+    FakeBuckEventListener listener = new FakeBuckEventListener();
+    eventBus.register(listener);
+    ExecutionContext context = TestExecutionContext.newBuilder()
+        .setBuckEventBus(eventBus)
+        .build();
+    DefaultStepRunner runner = new DefaultStepRunner(context);
+
+    WaitingStep passingStep = new WaitingStep(0);
+    ListenableFuture<Void> passed = runner.startStepForBuildTarget(
+        passingStep,
+        Optional.<BuildTarget>absent(),
+        MoreExecutors.directExecutor());
+    assertFalse(passed.isDone());
+    assertEquals(1, FluentIterable.from(listener.getEvents()).filter(StepEvent.class).size());
+    passingStep.work.set(null);
+    passed.get();
+
+    WaitingStep failingStep = new WaitingStep(1);
+    ListenableFuture<Void> failed = runner.startStepForBuildTarget(
+        failingStep,
+        Optional.<BuildTarget>absent(),
+        MoreExecutors.directExecutor());
+    failingStep.work.set(null);
+    try {
+      failed.get();
+      fail("Failing step should have failed the future");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof StepFailedException);
+      assertEquals(((StepFailedException) e.getCause()).getStep(), failingStep);
+    }
+
+    ImmutableList<StepEvent> events = FluentIterable.from(listener.getEvents())
+        .filter(StepEvent.class)
+        .toList();
+    assertEquals(4, events.size());
+    assertTrue(events.get(1) instanceof StepEvent.Finished);
+    assertTrue(events.get(0).isRelatedTo(events.get(1)));
+    assertTrue(events.get(3) instanceof StepEvent.Finished);
+    assertTrue(events.get(2).isRelatedTo(events.get(3)));
+  }
+
+  private static class WaitingStep implements AsyncStep {
+    private final SettableFuture<Void> work = SettableFuture.create();
+    private final int exitCode;
+
+    public WaitingStep(int exitCode) {
+      this.exitCode = exitCode;
+    }
+
+    @Override
+    public Optional<ListenableFuture<?>> start(ExecutionContext context) {
+      return Optional.<ListenableFuture<?>>of(work);
+    }
+
+    @Override
+    public StepExecutionResult finish(ExecutionContext context) {
+      return StepExecutionResult.of(exitCode);
+    }
+
+    @Override
+    public StepExecutionResult execute(ExecutionContext context) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public String getShortName() {
+      return "wait";
+    }
+
+    @Override
+    public String getDescription(ExecutionContext context) {
+      return "wait, then " + (exitCode == 0 ? "success" : "fail");
+    }
+  }
+
   private static class ExplosionStep implements Step {
     @Override
     public StepExecutionResult execute(ExecutionContext context) {
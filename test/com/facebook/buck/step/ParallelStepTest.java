@@ -0,0 +1,121 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.step;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ParallelStepTest {
+
+  @Test
+  public void stepsRunAtTheSameTime() throws Exception {
+    // Neither step can finish until both have started.
+    final CountDownLatch started = new CountDownLatch(2);
+    Step step = new AbstractExecutionStep("wait") {
+      @Override
+      public StepExecutionResult execute(ExecutionContext context) throws InterruptedException {
+        started.countDown();
+        return started.await(10, TimeUnit.SECONDS) ?
+            StepExecutionResult.SUCCESS :
+            StepExecutionResult.ERROR;
+      }
+    };
+
+    ParallelStep parallelStep = new ParallelStep(ImmutableList.of(step, step));
+    assertEquals(
+        StepExecutionResult.SUCCESS,
+        parallelStep.execute(TestExecutionContext.newInstance()));
+    assertEquals("wait", parallelStep.getShortName());
+  }
+
+  @Test
+  public void stepsTheExecutorHasntStartedAreRunByTheCallingThread() throws Exception {
+    // An executor whose only thread is busy never starts the steps it's given.
+    ListeningExecutorService busyExecutor =
+        MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor());
+    final CountDownLatch finished = new CountDownLatch(1);
+    busyExecutor.submit(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              finished.await();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+          }
+        });
+    Map<ExecutionContext.ExecutorPool, ListeningExecutorService> executors = new HashMap<>();
+    executors.put(ExecutionContext.ExecutorPool.CPU, busyExecutor);
+    ExecutionContext context = TestExecutionContext.newBuilder()
+        .setExecutors(executors)
+        .build();
+
+    final AtomicInteger runs = new AtomicInteger();
+    Step step = new AbstractExecutionStep("count") {
+      @Override
+      public StepExecutionResult execute(ExecutionContext context) {
+        runs.incrementAndGet();
+        return StepExecutionResult.SUCCESS;
+      }
+    };
+
+    try {
+      assertEquals(
+          StepExecutionResult.SUCCESS,
+          new ParallelStep(ImmutableList.of(step, step, step)).execute(context));
+      assertEquals(3, runs.get());
+    } finally {
+      finished.countDown();
+      busyExecutor.shutdown();
+    }
+  }
+
+  @Test
+  public void failsWithTheFirstFailingStep() throws Exception {
+    Step succeeds = new AbstractExecutionStep("succeeds") {
+      @Override
+      public StepExecutionResult execute(ExecutionContext context) {
+        return StepExecutionResult.SUCCESS;
+      }
+    };
+    Step fails = new AbstractExecutionStep("fails") {
+      @Override
+      public StepExecutionResult execute(ExecutionContext context) {
+        return StepExecutionResult.of(3);
+      }
+    };
+
+    assertEquals(
+        3,
+        new ParallelStep(ImmutableList.of(succeeds, fails, succeeds))
+            .execute(TestExecutionContext.newInstance())
+            .getExitCode());
+  }
+}
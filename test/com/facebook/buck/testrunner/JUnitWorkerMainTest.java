@@ -0,0 +1,142 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.testrunner;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+
+public class JUnitWorkerMainTest {
+
+  @Rule
+  public TemporaryPaths tmp = new TemporaryPaths();
+
+  @Test
+  public void readsMessagesAsBuckWritesThem() throws IOException {
+    JUnitWorkerMain.ProtocolReader reader = new JUnitWorkerMain.ProtocolReader(
+        new StringReader(
+            "[{\"id\":0,\"type\":\"handshake\",\"protocol_version\":\"0\",\"capabilities\":[]}," +
+            "{\"id\":1,\"type\":\"command\",\"args_path\":\"/tmp/args\"," +
+            "\"stdout_path\":\"/tmp/std\\\"out\\\\\",\"stderr_path\":\"/tmp/\\u00e9rr\"}\n" +
+            "]"));
+
+    Map<String, Object> handshake = reader.nextMessage();
+    assertEquals(0L, handshake.get("id"));
+    assertEquals("handshake", handshake.get("type"));
+    assertEquals(ImmutableList.of(), handshake.get("capabilities"));
+
+    Map<String, Object> command = reader.nextMessage();
+    assertEquals(1L, command.get("id"));
+    assertEquals("/tmp/args", command.get("args_path"));
+    assertEquals("/tmp/std\"out\\", command.get("stdout_path"));
+    assertEquals("/tmp/érr", command.get("stderr_path"));
+
+    assertNull(reader.nextMessage());
+  }
+
+  @Test
+  public void returnsNullWhenTheInputEndsBeforeTheArrayIsClosed() throws IOException {
+    JUnitWorkerMain.ProtocolReader reader = new JUnitWorkerMain.ProtocolReader(
+        new StringReader("[{\"id\":0,\"capabilities\":[\"a\", \"b\"], \"ok\": true}"));
+
+    assertEquals(ImmutableList.of("a", "b"), reader.nextMessage().get("capabilities"));
+    assertNull(reader.nextMessage());
+  }
+
+  @Test
+  public void jobsCreateTempFilesInTheDirectoryTheWorkerWasStartedWith() throws Exception {
+    Path workerTmp = tmp.newFolder("worker-tmp");
+    Path results = tmp.newFolder("results");
+    Path classpathFile = tmp.newFile("classpath");
+    Path argsFile = tmp.newFile("args");
+    Files.write(
+        argsFile,
+        Joiner.on('\n').join(
+            "--classpath-file",
+            classpathFile.toString(),
+            "--output",
+            results.toString(),
+            "--default-test-timeout",
+            "0",
+            CreatesTempFile.class.getName()).getBytes(UTF_8));
+
+    Process worker = new ProcessBuilder(
+        Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+        "-Djava.io.tmpdir=" + workerTmp,
+        "-classpath",
+        System.getProperty("java.class.path"),
+        JUnitWorkerMain.class.getName())
+        .redirectError(ProcessBuilder.Redirect.INHERIT)
+        .start();
+    try (OutputStream in = worker.getOutputStream()) {
+      in.write(
+          String.format(
+              "[{\"id\":0,\"type\":\"handshake\",\"protocol_version\":\"0\"}," +
+              "{\"id\":1,\"type\":\"command\",\"args_path\":\"%1$s\"," +
+              "\"stdout_path\":\"%2$s\",\"stderr_path\":\"%3$s\"}," +
+              "{\"id\":2,\"type\":\"command\",\"args_path\":\"%1$s\"," +
+              "\"stdout_path\":\"%2$s\",\"stderr_path\":\"%3$s\"}]",
+              argsFile,
+              tmp.getRoot().resolve("stdout"),
+              tmp.getRoot().resolve("stderr")).getBytes(UTF_8));
+    }
+    String responses = new String(ByteStreams.toByteArray(worker.getInputStream()), UTF_8);
+    assertEquals(0, worker.waitFor());
+    assertEquals(
+        "[{\"id\":0,\"type\":\"handshake\",\"protocol_version\":\"0\",\"capabilities\":[]}" +
+        ",{\"id\":1,\"type\":\"result\",\"exit_code\":0}" +
+        ",{\"id\":2,\"type\":\"result\",\"exit_code\":0}]",
+        responses);
+
+    // Both jobs wrote to the worker's temporary directory.
+    int tempFiles = 0;
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(workerTmp, "job*.tmp")) {
+      for (Path ignored : files) {
+        tempFiles++;
+      }
+    }
+    assertEquals(2, tempFiles);
+  }
+
+  /**
+   * Run by the worker started in {@link #jobsCreateTempFilesInTheDirectoryTheWorkerWasStartedWith}.
+   */
+  public static class CreatesTempFile {
+    @Test
+    public void createTempFile() throws IOException {
+      File.createTempFile("job", ".tmp");
+    }
+  }
+}
@@ -66,7 +66,7 @@ abstract class AbstractFakeListeningProcessState {
   public static FakeListeningProcessState ofStderr(String stderr) {
     return FakeListeningProcessState.builder()
         .setType(Type.STDERR)
-        .setStdout(StandardCharsets.UTF_8.encode(stderr))
+        .setStderr(StandardCharsets.UTF_8.encode(stderr))
         .build();
   }
 
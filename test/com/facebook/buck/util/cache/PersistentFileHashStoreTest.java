@@ -0,0 +1,171 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.testutil.integration.DebuggableTemporaryFolder;
+import com.google.common.base.Optional;
+import com.google.common.hash.HashCode;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+public class PersistentFileHashStoreTest {
+
+  private static final HashCode HASH = HashCode.fromInt(42);
+
+  @Rule
+  public DebuggableTemporaryFolder tmp = new DebuggableTemporaryFolder();
+
+  private ProjectFilesystem filesystem;
+  private Path storePath;
+
+  @Before
+  public void setUp() throws IOException {
+    filesystem = new ProjectFilesystem(tmp.getRootPath());
+    storePath = tmp.getRootPath().resolve("buck-out/.filehashes");
+  }
+
+  @Test
+  public void savedHashesAreLoaded() throws IOException {
+    Path path = writeOldFile("Foo.java", "class Foo {}");
+    PersistentFileHashStore store = PersistentFileHashStore.load(storePath);
+    store.put(path, readAttributes(path), System.currentTimeMillis(), HASH);
+    store.save();
+
+    PersistentFileHashStore loaded = PersistentFileHashStore.load(storePath);
+    assertEquals(Optional.of(HASH), loaded.get(path, readAttributes(path)));
+  }
+
+  @Test
+  public void changedFilesAreNotMatched() throws IOException {
+    Path path = writeOldFile("Foo.java", "class Foo {}");
+    PersistentFileHashStore store = PersistentFileHashStore.load(storePath);
+    store.put(path, readAttributes(path), System.currentTimeMillis(), HASH);
+
+    writeOldFile("Foo.java", "class Foo { int bar; }");
+    assertEquals(Optional.<HashCode>absent(), store.get(path, readAttributes(path)));
+
+    store.put(path, readAttributes(path), System.currentTimeMillis(), HASH);
+    filesystem.setLastModifiedTime(
+        path,
+        FileTime.fromMillis(readAttributes(path).lastModifiedTime().toMillis() + 1000));
+    assertEquals(Optional.<HashCode>absent(), store.get(path, readAttributes(path)));
+  }
+
+  @Test
+  public void recentlyModifiedFilesAreNotStored() throws IOException {
+    Path path = Paths.get("Foo.java");
+    filesystem.writeContentsToPath("class Foo {}", path);
+    PersistentFileHashStore store = PersistentFileHashStore.load(storePath);
+    store.put(path, readAttributes(path), System.currentTimeMillis(), HASH);
+
+    assertEquals(Optional.<HashCode>absent(), store.get(path, readAttributes(path)));
+    store.save();
+    assertFalse(Files.exists(storePath));
+  }
+
+  @Test
+  public void unusedHashesAreDropped() throws IOException {
+    Path unused = writeOldFile("Foo.java", "class Foo {}");
+    Path used = writeOldFile("Bar.java", "class Bar {}");
+    PersistentFileHashStore store = PersistentFileHashStore.load(storePath);
+    store.put(unused, readAttributes(unused), System.currentTimeMillis(), HASH);
+    store.save();
+
+    for (int i = 0; i < PersistentFileHashStore.MAX_UNUSED_RUNS; i++) {
+      store = PersistentFileHashStore.load(storePath);
+      store.put(used, readAttributes(used), System.currentTimeMillis(), HASH);
+      store.save();
+    }
+
+    PersistentFileHashStore loaded = PersistentFileHashStore.load(storePath);
+    assertEquals(Optional.<HashCode>absent(), loaded.get(unused, readAttributes(unused)));
+    assertEquals(Optional.of(HASH), loaded.get(used, readAttributes(used)));
+  }
+
+  @Test
+  public void usedHashesAreKept() throws IOException {
+    Path path = writeOldFile("Foo.java", "class Foo {}");
+    Path other = writeOldFile("Bar.java", "class Bar {}");
+    PersistentFileHashStore store = PersistentFileHashStore.load(storePath);
+    store.put(path, readAttributes(path), System.currentTimeMillis(), HASH);
+    store.save();
+
+    for (int i = 0; i < PersistentFileHashStore.MAX_UNUSED_RUNS * 2; i++) {
+      store = PersistentFileHashStore.load(storePath);
+      assertEquals(Optional.of(HASH), store.get(path, readAttributes(path)));
+      store.put(other, readAttributes(other), System.currentTimeMillis(), HASH);
+      store.save();
+    }
+  }
+
+  @Test
+  public void unreadableStoreIsIgnored() throws IOException {
+    Files.createDirectories(storePath.getParent());
+    Files.write(storePath, new byte[] {1, 2, 3});
+    Path path = writeOldFile("Foo.java", "class Foo {}");
+
+    PersistentFileHashStore store = PersistentFileHashStore.load(storePath);
+    assertEquals(Optional.<HashCode>absent(), store.get(path, readAttributes(path)));
+  }
+
+  @Test
+  public void fileHashCacheUsesStoredHashes() throws IOException {
+    Path path = writeOldFile("Foo.java", "class Foo {}");
+    PersistentFileHashStore store = PersistentFileHashStore.load(storePath);
+    store.put(path, readAttributes(path), System.currentTimeMillis(), HASH);
+
+    DefaultFileHashCache cache = new DefaultFileHashCache(filesystem, Optional.of(store));
+    assertEquals(HASH, cache.get(filesystem.resolve(path)));
+  }
+
+  @Test
+  public void fileHashCacheStoresComputedHashes() throws IOException {
+    Path path = writeOldFile("Foo.java", "class Foo {}");
+    PersistentFileHashStore store = PersistentFileHashStore.load(storePath);
+
+    DefaultFileHashCache cache = new DefaultFileHashCache(filesystem, Optional.of(store));
+    HashCode hashCode = cache.get(filesystem.resolve(path));
+    assertEquals(Optional.of(hashCode), store.get(path, readAttributes(path)));
+  }
+
+  private Path writeOldFile(String name, String contents) throws IOException {
+    Path path = Paths.get(name);
+    filesystem.writeContentsToPath(contents, path);
+    filesystem.setLastModifiedTime(
+        path,
+        FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1)));
+    return path;
+  }
+
+  private BasicFileAttributes readAttributes(Path path) throws IOException {
+    return filesystem.readAttributes(path, BasicFileAttributes.class);
+  }
+}
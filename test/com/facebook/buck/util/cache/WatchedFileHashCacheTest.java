@@ -20,6 +20,8 @@ import static com.facebook.buck.testutil.WatchEventsForTests.createOverflowEvent
 import static com.facebook.buck.testutil.WatchEventsForTests.createPathEvent;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.testutil.FakeProjectFilesystem;
@@ -125,4 +127,29 @@ public class WatchedFileHashCacheTest {
     assertFalse("Cache should not contain path", cache.willGet(dir));
   }
 
+  @Test
+  public void whenNotifiedOfChangeOnlyPathAndContainingDirsAreRemoved() throws IOException {
+    WatchedFileHashCache cache =
+        new WatchedFileHashCache(new FakeProjectFilesystem());
+    Path dir = Paths.get("foo");
+    Path changed = dir.resolve("bar.txt");
+    Path sibling = dir.resolve("baz.txt");
+    Path otherDir = Paths.get("qux");
+    cache.loadingCache.put(
+        dir,
+        HashCodeAndFileType.ofDirectory(HashCode.fromInt(1), ImmutableSet.<Path>of()));
+    cache.loadingCache.put(changed, HashCodeAndFileType.ofFile(HashCode.fromInt(2)));
+    cache.loadingCache.put(sibling, HashCodeAndFileType.ofFile(HashCode.fromInt(3)));
+    cache.loadingCache.put(
+        otherDir,
+        HashCodeAndFileType.ofDirectory(HashCode.fromInt(4), ImmutableSet.<Path>of()));
+
+    cache.onFileSystemChange(createPathEvent(changed, StandardWatchEventKinds.ENTRY_MODIFY));
+
+    assertNull(cache.loadingCache.getIfPresent(dir));
+    assertNull(cache.loadingCache.getIfPresent(changed));
+    assertNotNull(cache.loadingCache.getIfPresent(sibling));
+    assertNotNull(cache.loadingCache.getIfPresent(otherDir));
+  }
+
 }
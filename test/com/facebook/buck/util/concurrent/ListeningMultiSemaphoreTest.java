@@ -0,0 +1,249 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.concurrent;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.model.Pair;
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import org.hamcrest.Matchers;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class ListeningMultiSemaphoreTest {
+
+  @Test
+  public void acquireRelease() {
+    ListeningMultiSemaphore semaphore = new ListeningMultiSemaphore(
+        ResourceAmounts.of(2, 4, 1, 1),
+        ListeningMultiSemaphore.Fairness.FAIR);
+    assertThat(semaphore.getAvailableAmounts(), Matchers.equalTo(ResourceAmounts.of(2, 4, 1, 1)));
+
+    AtomicBoolean first = acquire(semaphore, ResourceAmounts.of(1, 3, 1, 0));
+    assertThat(semaphore.getAvailableAmounts(), Matchers.equalTo(ResourceAmounts.of(1, 1, 0, 1)));
+    assertThat(semaphore.getQueueLength(), Matchers.equalTo(0));
+    assertTrue(first.get());
+
+    semaphore.release(ResourceAmounts.of(1, 3, 1, 0));
+    assertThat(semaphore.getAvailableAmounts(), Matchers.equalTo(ResourceAmounts.of(2, 4, 1, 1)));
+    assertThat(semaphore.getQueueLength(), Matchers.equalTo(0));
+  }
+
+  @Test
+  public void blockedOnOneResourceOnly() {
+    ListeningMultiSemaphore semaphore = new ListeningMultiSemaphore(
+        ResourceAmounts.of(4, 4, 0, 0),
+        ListeningMultiSemaphore.Fairness.FAIR);
+
+    // There's plenty of CPU left after the first acquisition, but not enough memory.
+    AtomicBoolean first = acquire(semaphore, ResourceAmounts.of(1, 3, 0, 0));
+    assertTrue(first.get());
+    AtomicBoolean second = acquire(semaphore, ResourceAmounts.of(1, 2, 0, 0));
+    assertFalse(second.get());
+    assertThat(semaphore.getQueueLength(), Matchers.equalTo(1));
+
+    // Release the first acquisition and verify that the second acquire was unblocked.
+    semaphore.release(ResourceAmounts.of(1, 3, 0, 0));
+    assertTrue(second.get());
+    assertThat(semaphore.getAvailableAmounts(), Matchers.equalTo(ResourceAmounts.of(3, 2, 0, 0)));
+    assertThat(semaphore.getQueueLength(), Matchers.equalTo(0));
+  }
+
+  @Test
+  public void acquisitionsOfMoreThanTheMaximumAreReducedToIt() {
+    ListeningMultiSemaphore semaphore = new ListeningMultiSemaphore(
+        ResourceAmounts.of(2, 2, 0, 0),
+        ListeningMultiSemaphore.Fairness.FAIR);
+
+    AtomicBoolean first = acquire(semaphore, ResourceAmounts.of(1, 5, 3, 0));
+    assertTrue(first.get());
+    assertThat(semaphore.getAvailableAmounts(), Matchers.equalTo(ResourceAmounts.of(1, 0, 0, 0)));
+
+    semaphore.release(ResourceAmounts.of(1, 5, 3, 0));
+    assertThat(semaphore.getAvailableAmounts(), Matchers.equalTo(ResourceAmounts.of(2, 2, 0, 0)));
+  }
+
+  @Test
+  public void fairAcquisitionsWaitBehindBlockedOnes() {
+    ListeningMultiSemaphore semaphore = new ListeningMultiSemaphore(
+        ResourceAmounts.of(4, 4, 0, 0),
+        ListeningMultiSemaphore.Fairness.FAIR);
+    AtomicBoolean first = acquire(semaphore, ResourceAmounts.of(1, 3, 0, 0));
+    AtomicBoolean second = acquire(semaphore, ResourceAmounts.of(1, 3, 0, 0));
+    AtomicBoolean third = acquire(semaphore, ResourceAmounts.of(1, 0, 0, 0));
+    assertTrue(first.get());
+    assertFalse(second.get());
+    assertFalse(third.get());
+    assertThat(semaphore.getQueueLength(), Matchers.equalTo(2));
+
+    semaphore.release(ResourceAmounts.of(1, 3, 0, 0));
+    assertTrue(second.get());
+    assertTrue(third.get());
+  }
+
+  @Test
+  public void fastAcquisitionsGoAheadOfBlockedOnes() {
+    ListeningMultiSemaphore semaphore = new ListeningMultiSemaphore(
+        ResourceAmounts.of(4, 4, 0, 0),
+        ListeningMultiSemaphore.Fairness.FAST);
+    AtomicBoolean first = acquire(semaphore, ResourceAmounts.of(1, 3, 0, 0));
+    AtomicBoolean second = acquire(semaphore, ResourceAmounts.of(1, 3, 0, 0));
+    AtomicBoolean third = acquire(semaphore, ResourceAmounts.of(1, 0, 0, 0));
+    assertTrue(first.get());
+    assertFalse(second.get());
+    assertTrue(third.get());
+    assertThat(semaphore.getQueueLength(), Matchers.equalTo(1));
+  }
+
+  @Test
+  public void higherPriorityAcquisitionsAreAdmittedFirst() {
+    ListeningMultiSemaphore semaphore = new ListeningMultiSemaphore(
+        ResourceAmounts.of(1, 0, 0, 0),
+        ListeningMultiSemaphore.Fairness.FAIR);
+    AtomicBoolean first = acquire(semaphore, ResourceAmounts.of(1, 0, 0, 0), 5);
+    AtomicBoolean low = acquire(semaphore, ResourceAmounts.of(1, 0, 0, 0), 1);
+    AtomicBoolean high = acquire(semaphore, ResourceAmounts.of(1, 0, 0, 0), 10);
+    AtomicBoolean otherHigh = acquire(semaphore, ResourceAmounts.of(1, 0, 0, 0), 10);
+    assertTrue(first.get());
+    assertThat(semaphore.getQueueLength(), Matchers.equalTo(3));
+
+    // Equal priorities are admitted in the order they were acquired.
+    semaphore.release(ResourceAmounts.of(1, 0, 0, 0));
+    assertTrue(high.get());
+    assertFalse(otherHigh.get());
+    assertFalse(low.get());
+
+    semaphore.release(ResourceAmounts.of(1, 0, 0, 0));
+    assertTrue(otherHigh.get());
+    assertFalse(low.get());
+
+    semaphore.release(ResourceAmounts.of(1, 0, 0, 0));
+    assertTrue(low.get());
+    assertThat(semaphore.getQueueLength(), Matchers.equalTo(0));
+  }
+
+  @Test
+  public void fairAcquisitionsGoAheadOfLowerPriorityBlockedOnes() {
+    ListeningMultiSemaphore semaphore = new ListeningMultiSemaphore(
+        ResourceAmounts.of(4, 4, 0, 0),
+        ListeningMultiSemaphore.Fairness.FAIR);
+    AtomicBoolean first = acquire(semaphore, ResourceAmounts.of(1, 3, 0, 0), 1);
+    AtomicBoolean second = acquire(semaphore, ResourceAmounts.of(1, 3, 0, 0), 1);
+    AtomicBoolean third = acquire(semaphore, ResourceAmounts.of(1, 0, 0, 0), 2);
+    assertTrue(first.get());
+    assertFalse(second.get());
+    assertTrue(third.get());
+    assertThat(semaphore.getQueueLength(), Matchers.equalTo(1));
+  }
+
+  @Test
+  public void cancelledWhileBlocked() {
+    ListeningMultiSemaphore semaphore = new ListeningMultiSemaphore(
+        ResourceAmounts.of(1, 1, 0, 0),
+        ListeningMultiSemaphore.Fairness.FAIR);
+
+    // Do an initial acquire to grab all of the memory.
+    semaphore.acquire(ResourceAmounts.of(0, 1, 0, 0));
+
+    // Initiate a second acquisition that'll block on the first one and then immediately cancel it.
+    ListenableFuture<Void> future = semaphore.acquire(ResourceAmounts.of(1, 1, 0, 0));
+    assertFalse(future.isDone());
+    future.cancel(/* mayInterruptWhileRunning */ false);
+
+    // Now release the first acquisition and verify that the cancelled acquisition gave back what
+    // it would have acquired.
+    semaphore.release(ResourceAmounts.of(0, 1, 0, 0));
+    assertThat(semaphore.getAvailableAmounts(), Matchers.equalTo(ResourceAmounts.of(1, 1, 0, 0)));
+    assertThat(semaphore.getQueueLength(), Matchers.equalTo(0));
+  }
+
+  @Test
+  public void fuzz() {
+    Random random = new Random();
+    ResourceAmounts maximumAmounts = ResourceAmounts.of(10, 10, 10, 10);
+    ListeningMultiSemaphore semaphore =
+        new ListeningMultiSemaphore(maximumAmounts, ListeningMultiSemaphore.Fairness.FAST);
+
+    // Dispatch 1000 acquisitions of random sizes.
+    List<Pair<ResourceAmounts, AtomicBoolean>> tasks = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      ResourceAmounts amounts = ResourceAmounts.of(
+          1 + random.nextInt(10),
+          random.nextInt(10),
+          random.nextInt(3),
+          random.nextInt(3));
+      AtomicBoolean flag = acquire(semaphore, amounts);
+      tasks.add(new Pair<>(amounts, flag));
+    }
+
+    // At this point we should have some queued acquisitions.
+    assertThat(semaphore.getQueueLength(), Matchers.greaterThan(0));
+
+    // Now iterate through the acquisitions, releasing their resources as they complete.  We'll
+    // stop once we're no longer making progress.
+    while (true) {
+      List<Pair<ResourceAmounts, AtomicBoolean>> remaining = new ArrayList<>();
+      for (Pair<ResourceAmounts, AtomicBoolean> task : tasks) {
+        if (task.getSecond().get()) {
+          semaphore.release(task.getFirst());
+        } else {
+          remaining.add(task);
+        }
+      }
+      if (remaining.size() == tasks.size()) {
+        assertThat(remaining.size(), Matchers.equalTo(0));
+        break;
+      }
+      tasks = remaining;
+    }
+
+    // Now verify nothing is left in the queue, and all the resources are available again.
+    assertThat(semaphore.getQueueLength(), Matchers.equalTo(0));
+    assertThat(semaphore.getAvailableAmounts(), Matchers.equalTo(maximumAmounts));
+  }
+
+  private AtomicBoolean acquire(ListeningMultiSemaphore semaphore, ResourceAmounts amounts) {
+    return acquire(semaphore, amounts, ListeningMultiSemaphore.DEFAULT_PRIORITY);
+  }
+
+  private AtomicBoolean acquire(
+      ListeningMultiSemaphore semaphore,
+      ResourceAmounts amounts,
+      long priority) {
+    final AtomicBoolean bool = new AtomicBoolean(false);
+    Futures.transform(
+        semaphore.acquire(amounts, priority),
+        new Function<Void, Object>() {
+          @Override
+          public Object apply(Void input) {
+            bool.set(true);
+            return null;
+          }
+        });
+    return bool;
+  }
+
+}
@@ -21,7 +21,9 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 
 import org.hamcrest.Matchers;
 import org.junit.Test;
@@ -35,30 +37,44 @@ public class WeightedListeningExecutorServiceTest {
   public void submit() {
     WeightedListeningExecutorService service =
         new WeightedListeningExecutorService(
-            new ListeningSemaphore(1),
-            1,
+            new ListeningMultiSemaphore(
+                ResourceAmounts.of(1, 1, 0, 0),
+                ListeningMultiSemaphore.Fairness.FAIR),
+            ResourceAmounts.of(1, 0, 0, 0),
             newDirectExecutorService());
-    AtomicBoolean first = submitSetBool(service, 1);
+    AtomicBoolean first = submitSetBool(service, ResourceAmounts.of(1, 1, 0, 0));
     assertTrue(first.get());
   }
 
   @Test
   public void blockedSubmit() {
+    ListeningMultiSemaphore semaphore = new ListeningMultiSemaphore(
+        ResourceAmounts.of(1, 1, 0, 0),
+        ListeningMultiSemaphore.Fairness.FAIR);
     WeightedListeningExecutorService service =
         new WeightedListeningExecutorService(
-            new ListeningSemaphore(1),
-            1,
+            semaphore,
+            ResourceAmounts.of(1, 0, 0, 0),
             newDirectExecutorService());
-    AtomicBoolean first = submitSetBool(service, 2);
+    // Enough CPU is available, but not enough memory.
+    semaphore.acquire(ResourceAmounts.of(0, 1, 0, 0));
+    AtomicBoolean first = submitSetBool(service, ResourceAmounts.of(1, 1, 0, 0));
     assertFalse(first.get());
+    semaphore.release(ResourceAmounts.of(0, 1, 0, 0));
+    assertTrue(first.get());
   }
 
   @Test
   public void cancelled() {
-    ListeningSemaphore semaphore = new ListeningSemaphore(1);
+    ListeningMultiSemaphore semaphore = new ListeningMultiSemaphore(
+        ResourceAmounts.of(1, 1, 0, 0),
+        ListeningMultiSemaphore.Fairness.FAIR);
     ExplicitRunExecutorService wrappedService = new ExplicitRunExecutorService();
     WeightedListeningExecutorService service =
-        new WeightedListeningExecutorService(semaphore, 1, wrappedService);
+        new WeightedListeningExecutorService(
+            semaphore,
+            ResourceAmounts.of(1, 0, 0, 0),
+            wrappedService);
     final AtomicBoolean flag = new AtomicBoolean(false);
     ListenableFuture<Void> future =
         service.submit(
@@ -70,15 +86,47 @@ public class WeightedListeningExecutorServiceTest {
               }
             });
     assertFalse(future.isDone());
-    assertThat(semaphore.availablePermits(), Matchers.equalTo(0));
+    assertThat(semaphore.getAvailableAmounts(), Matchers.equalTo(ResourceAmounts.of(0, 1, 0, 0)));
     future.cancel(/* mayInterruptIfRunning */ false);
     wrappedService.run();
     assertTrue(future.isCancelled());
     assertFalse(flag.get());
-    assertThat(semaphore.availablePermits(), Matchers.equalTo(1));
+    assertThat(semaphore.getAvailableAmounts(), Matchers.equalTo(ResourceAmounts.of(1, 1, 0, 0)));
+  }
+
+  @Test
+  public void submitAsyncHoldsResourcesUntilTheReturnedFutureCompletes() {
+    ListeningMultiSemaphore semaphore = new ListeningMultiSemaphore(
+        ResourceAmounts.of(1, 1, 0, 0),
+        ListeningMultiSemaphore.Fairness.FAIR);
+    WeightedListeningExecutorService service =
+        new WeightedListeningExecutorService(
+            semaphore,
+            ResourceAmounts.of(1, 0, 0, 0),
+            newDirectExecutorService());
+    final SettableFuture<String> work = SettableFuture.create();
+    ListenableFuture<String> future =
+        service.submitAsync(
+            new Callable<ListenableFuture<String>>() {
+              @Override
+              public ListenableFuture<String> call() throws Exception {
+                return work;
+              }
+            },
+            ResourceAmounts.of(1, 1, 0, 0),
+            ListeningMultiSemaphore.DEFAULT_PRIORITY);
+    AtomicBoolean second = submitSetBool(service, ResourceAmounts.of(1, 0, 0, 0));
+    assertFalse(future.isDone());
+    assertFalse(second.get());
+    work.set("done");
+    assertThat(Futures.getUnchecked(future), Matchers.equalTo("done"));
+    assertTrue(second.get());
+    assertThat(semaphore.getAvailableAmounts(), Matchers.equalTo(ResourceAmounts.of(1, 1, 0, 0)));
   }
 
-  private AtomicBoolean submitSetBool(WeightedListeningExecutorService service, int weight) {
+  private AtomicBoolean submitSetBool(
+      WeightedListeningExecutorService service,
+      ResourceAmounts amounts) {
     final AtomicBoolean bool = new AtomicBoolean(false);
     service.submit(
         new Callable<Void>() {
@@ -88,7 +136,7 @@ public class WeightedListeningExecutorServiceTest {
             return null;
           }
         },
-        weight);
+        amounts);
     return bool;
   }
 
@@ -16,13 +16,17 @@
 
 package com.facebook.buck.zip;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.junit.Assume.assumeThat;
 
 import com.facebook.buck.io.MoreFiles;
 import com.facebook.buck.io.MorePosixFilePermissions;
+import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.testutil.Zip;
 import com.facebook.buck.testutil.integration.TemporaryPaths;
 import com.facebook.buck.util.environment.Platform;
@@ -36,12 +40,15 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.attribute.PosixFilePermissions;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 
 public class UnzipTest {
   private static final byte[] DUMMY_FILE_CONTENTS = "BUCK Unzip Test String!\nNihao\n".getBytes();
@@ -144,4 +151,145 @@ public class UnzipTest {
     assertThat(Files.readSymbolicLink(link).toString(), Matchers.equalTo("target.txt"));
   }
 
+  @Test
+  public void testExtractZipStream() throws IOException {
+    try (Zip zip = new Zip(zipFile, true)) {
+      zip.add("1.bin", DUMMY_FILE_CONTENTS);
+      zip.add("subdir/2.bin", DUMMY_FILE_CONTENTS);
+      zip.addDir("emptydir");
+    }
+
+    Path extractFolder = tmpFolder.newFolder();
+    ImmutableList<Path> result;
+    try (InputStream input = Files.newInputStream(zipFile)) {
+      result = Unzip.extractZipStream(
+          input,
+          new ProjectFilesystem(extractFolder),
+          Unzip.ExistingFileMode.OVERWRITE);
+    }
+    assertArrayEquals(
+        DUMMY_FILE_CONTENTS,
+        Files.readAllBytes(extractFolder.resolve("1.bin")));
+    assertArrayEquals(
+        DUMMY_FILE_CONTENTS,
+        Files.readAllBytes(extractFolder.resolve("subdir/2.bin")));
+    assertTrue(Files.isDirectory(extractFolder.resolve("emptydir")));
+    assertEquals(ImmutableList.of(Paths.get("1.bin"), Paths.get("subdir/2.bin")), result);
+  }
+
+  @Test
+  public void testStageZipStreamOnlyReplacesFilesOnceMovedIntoPlace() throws IOException {
+    try (Zip zip = new Zip(zipFile, true)) {
+      zip.add("1.bin", DUMMY_FILE_CONTENTS);
+      zip.addDir("subdir");
+      zip.add("subdir/2.bin", DUMMY_FILE_CONTENTS);
+    }
+
+    Path extractFolder = tmpFolder.newFolder();
+    ProjectFilesystem filesystem = new ProjectFilesystem(extractFolder);
+    filesystem.writeContentsToPath("old", Paths.get("1.bin"));
+    filesystem.mkdirs(Paths.get("subdir"));
+    filesystem.writeContentsToPath("stale", Paths.get("subdir/stale.bin"));
+    Path stagingDir = Paths.get("staging");
+    filesystem.mkdirs(stagingDir);
+
+    Unzip.StagedZip stagedZip;
+    try (InputStream input = Files.newInputStream(zipFile)) {
+      stagedZip = Unzip.stageZipStream(input, filesystem, stagingDir);
+    }
+    assertEquals("old", filesystem.readFileIfItExists(Paths.get("1.bin")).get());
+    assertTrue(filesystem.exists(Paths.get("subdir/stale.bin")));
+    assertFalse(filesystem.exists(Paths.get("subdir/2.bin")));
+
+    ImmutableList<Path> result =
+        stagedZip.moveIntoPlace(Unzip.ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES);
+    assertArrayEquals(
+        DUMMY_FILE_CONTENTS,
+        Files.readAllBytes(extractFolder.resolve("1.bin")));
+    assertArrayEquals(
+        DUMMY_FILE_CONTENTS,
+        Files.readAllBytes(extractFolder.resolve("subdir/2.bin")));
+    assertFalse(filesystem.exists(Paths.get("subdir/stale.bin")));
+    assertFalse(filesystem.exists(stagingDir));
+    assertEquals(ImmutableList.of(Paths.get("1.bin"), Paths.get("subdir/2.bin")), result);
+  }
+
+  @Test
+  public void testStageZipStreamCleansUpAfterCorruptArchive() throws IOException {
+    try (Zip zip = new Zip(zipFile, true)) {
+      zip.add("1.bin", DUMMY_FILE_CONTENTS);
+    }
+    byte[] bytes = Files.readAllBytes(zipFile);
+
+    Path extractFolder = tmpFolder.newFolder();
+    ProjectFilesystem filesystem = new ProjectFilesystem(extractFolder);
+    Path stagingDir = Paths.get("staging");
+    filesystem.mkdirs(stagingDir);
+    try {
+      // Cut the archive off in the middle of its only entry.
+      Unzip.stageZipStream(
+          new ByteArrayInputStream(bytes, 0, 40),
+          filesystem,
+          stagingDir);
+      fail("Expected the truncated archive to be rejected.");
+    } catch (IOException e) {
+      // Expected.
+    }
+    assertFalse(filesystem.exists(stagingDir));
+    assertFalse(filesystem.exists(Paths.get("1.bin")));
+  }
+
+  @Test
+  public void testExtractZipStreamPreservesExecutePermissionsAndSymlinks() throws IOException {
+    assumeThat(Platform.detect(), Matchers.is(Matchers.not(Platform.WINDOWS)));
+
+    // The attributes are only stored in the central directory, after all of the entries.
+    try (ZipArchiveOutputStream zip = new ZipArchiveOutputStream(zipFile.toFile())) {
+      ZipArchiveEntry entry = new ZipArchiveEntry("test.exe");
+      entry.setUnixMode((int) MorePosixFilePermissions.toMode(
+          PosixFilePermissions.fromString("r-x------")));
+      entry.setMethod(ZipEntry.DEFLATED);
+      zip.putArchiveEntry(entry);
+      zip.write(DUMMY_FILE_CONTENTS);
+      zip.closeArchiveEntry();
+
+      entry = new ZipArchiveEntry("link.txt");
+      entry.setUnixMode((int) MoreFiles.S_IFLNK);
+      String target = "test.exe";
+      entry.setSize(target.getBytes(Charsets.UTF_8).length);
+      entry.setMethod(ZipEntry.STORED);
+      zip.putArchiveEntry(entry);
+      zip.write(target.getBytes(Charsets.UTF_8));
+      zip.closeArchiveEntry();
+    }
+
+    Path extractFolder = tmpFolder.newFolder();
+    try (InputStream input = Files.newInputStream(zipFile)) {
+      Unzip.extractZipStream(
+          input,
+          new ProjectFilesystem(extractFolder),
+          Unzip.ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES);
+    }
+    Path exe = extractFolder.resolve("test.exe");
+    assertTrue(Files.isExecutable(exe));
+    assertArrayEquals(DUMMY_FILE_CONTENTS, Files.readAllBytes(exe));
+    Path link = extractFolder.resolve("link.txt");
+    assertTrue(Files.isSymbolicLink(link));
+    assertThat(Files.readSymbolicLink(link).toString(), Matchers.equalTo("test.exe"));
+  }
+
+  @Test(expected = ZipException.class)
+  public void testExtractZipStreamRejectsCorruptEntries() throws IOException {
+    try (Zip zip = new Zip(zipFile, true)) {
+      zip.add("1.bin", DUMMY_FILE_CONTENTS);
+    }
+    byte[] bytes = Files.readAllBytes(zipFile);
+    // Flip a bit in the stored CRC of the local header.
+    bytes[14] ^= 1;
+
+    Unzip.extractZipStream(
+        new ByteArrayInputStream(bytes),
+        new ProjectFilesystem(tmpFolder.newFolder()),
+        Unzip.ExistingFileMode.OVERWRITE);
+  }
 }
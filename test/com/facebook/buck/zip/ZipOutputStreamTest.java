@@ -18,6 +18,7 @@ package com.facebook.buck.zip;
 
 import static com.facebook.buck.zip.ZipOutputStreams.HandleDuplicates.APPEND_TO_ZIP;
 import static com.facebook.buck.zip.ZipOutputStreams.HandleDuplicates.OVERWRITE_EXISTING;
+import static com.facebook.buck.zip.ZipOutputStreams.HandleDuplicates.THROW_EXCEPTION;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Calendar.SEPTEMBER;
 import static java.util.zip.Deflater.BEST_COMPRESSION;
@@ -33,6 +34,7 @@ import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.io.MorePosixFilePermissions;
 import com.facebook.buck.testutil.Zip;
+import com.facebook.buck.timing.DefaultClock;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.hash.HashCode;
@@ -40,13 +42,21 @@ import com.google.common.hash.Hashing;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.CharStreams;
 import com.google.common.io.Resources;
+import com.google.common.util.concurrent.ForwardingListeningExecutorService;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
 
+import org.apache.commons.compress.archivers.zip.Zip64Mode;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
 import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.hamcrest.Matchers;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -59,7 +69,13 @@ import java.util.Calendar;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.Random;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.JarOutputStream;
 import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
@@ -519,4 +535,257 @@ public class ZipOutputStreamTest {
     }
   }
 
+  @Test
+  public void parallelStreamWritesTheSameZipHoweverEntriesAreScheduled() throws Exception {
+    ListeningExecutorService executorService =
+        MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(4));
+    try {
+      Path reference = Files.createTempFile("reference", ".zip");
+      writeManyEntries(reference, MoreExecutors.newDirectExecutorService());
+      writeManyEntries(output, executorService);
+
+      assertArrayEquals(Files.readAllBytes(reference), Files.readAllBytes(output));
+    } finally {
+      executorService.shutdown();
+    }
+
+    String packageName = getClass().getPackage().getName().replace(".", "/");
+    byte[] input = Resources.toByteArray(
+        Resources.getResource(packageName + "/macbeth.properties"));
+    try (ZipInputStream in = new ZipInputStream(Files.newInputStream(output))) {
+      for (int i = 0; i < 100; i++) {
+        ZipEntry entry = in.getNextEntry();
+        assertEquals("entry" + i, entry.getName());
+        if (i % 10 == 0) {
+          assertArrayEquals("stored".getBytes(UTF_8), ByteStreams.toByteArray(in));
+        } else {
+          assertArrayEquals(input, ByteStreams.toByteArray(in));
+        }
+      }
+      assertNull(in.getNextEntry());
+    }
+  }
+
+  @Test(expected = ZipException.class)
+  public void writingTheSameFileMoreThanOnceToAParallelStreamIsAnError() throws IOException {
+    try (CustomZipOutputStream out = ZipOutputStreams.newParallelOutputStream(
+        output,
+        THROW_EXCEPTION,
+        MoreExecutors.newDirectExecutorService())) {
+      out.putNextEntry(new ZipEntry("example.txt"));
+      out.putNextEntry(new ZipEntry("example.txt"));
+    }
+  }
+
+  @Test
+  public void parallelStreamCopiesCompressedEntriesWithoutRecompressingThem() throws IOException {
+    String packageName = getClass().getPackage().getName().replace(".", "/");
+    byte[] input = Resources.toByteArray(
+        Resources.getResource(packageName + "/macbeth.properties"));
+
+    // Compress the source as well as possible, so that compressing it again with the default
+    // level would give a different size.
+    Path source = Files.createTempFile("source", ".zip");
+    try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(source))) {
+      out.setLevel(BEST_COMPRESSION);
+      out.putNextEntry(new ZipEntry("macbeth.properties"));
+      out.write(input);
+      ZipEntry stored = new ZipEntry("stored");
+      stored.setMethod(ZipEntry.STORED);
+      stored.setSize(6);
+      stored.setCrc(Hashing.crc32().hashBytes("stored".getBytes(UTF_8)).padToLong());
+      out.putNextEntry(stored);
+      out.write("stored".getBytes(UTF_8));
+    }
+
+    try (
+        java.util.zip.ZipFile zip = new java.util.zip.ZipFile(source.toFile());
+        CustomZipOutputStream out = ZipOutputStreams.newParallelOutputStream(
+            output,
+            THROW_EXCEPTION,
+            MoreExecutors.newDirectExecutorService())) {
+      for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements(); ) {
+        out.copyEntry(zip, entries.nextElement());
+      }
+    }
+
+    try (
+        java.util.zip.ZipFile original = new java.util.zip.ZipFile(source.toFile());
+        java.util.zip.ZipFile copy = new java.util.zip.ZipFile(output.toFile())) {
+      ZipEntry originalEntry = original.getEntry("macbeth.properties");
+      ZipEntry copiedEntry = copy.getEntry("macbeth.properties");
+      assertEquals(originalEntry.getCompressedSize(), copiedEntry.getCompressedSize());
+      assertEquals(originalEntry.getCrc(), copiedEntry.getCrc());
+      assertArrayEquals(input, ByteStreams.toByteArray(copy.getInputStream(copiedEntry)));
+
+      copiedEntry = copy.getEntry("stored");
+      assertEquals(ZipEntry.STORED, copiedEntry.getMethod());
+      assertArrayEquals(
+          "stored".getBytes(UTF_8),
+          ByteStreams.toByteArray(copy.getInputStream(copiedEntry)));
+    }
+  }
+
+  @Test
+  public void parallelStreamCompressesEntriesItselfOnceEveryCoreIsCompressing() throws Exception {
+    int cores = Runtime.getRuntime().availableProcessors();
+    final AtomicInteger submitted = new AtomicInteger();
+    final ListeningExecutorService delegate =
+        MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor());
+    ListeningExecutorService executorService = new ForwardingListeningExecutorService() {
+      @Override
+      protected ListeningExecutorService delegate() {
+        return delegate;
+      }
+
+      @Override
+      public <T> ListenableFuture<T> submit(Callable<T> task) {
+        submitted.incrementAndGet();
+        return super.submit(task);
+      }
+    };
+
+    // Keep the executor busy, so that nothing submitted to it is compressed before we've checked.
+    final CountDownLatch compressionAllowed = new CountDownLatch(1);
+    delegate.submit(
+        new Runnable() {
+          @Override
+          public void run() {
+            Uninterruptibles.awaitUninterruptibly(compressionAllowed);
+          }
+        });
+    int submittedWhileBusy;
+    try (CustomZipOutputStream out = new ParallelZipOutputStream(
+        new DefaultClock(),
+        new BufferedOutputStream(Files.newOutputStream(output)),
+        executorService,
+        /* throwExceptionsOnDuplicate */ true,
+        new Semaphore(cores))) {
+      try {
+        for (int i = 0; i <= cores; i++) {
+          out.putNextEntry(new ZipEntry("entry" + i));
+          out.write(("contents" + i).getBytes(UTF_8));
+        }
+        out.closeEntry();
+        submittedWhileBusy = submitted.get();
+      } finally {
+        compressionAllowed.countDown();
+      }
+    } finally {
+      delegate.shutdown();
+    }
+    assertEquals(cores, submittedWhileBusy);
+
+    try (ZipInputStream in = new ZipInputStream(Files.newInputStream(output))) {
+      for (int i = 0; i <= cores; i++) {
+        ZipEntry entry = in.getNextEntry();
+        assertEquals("entry" + i, entry.getName());
+        assertArrayEquals(("contents" + i).getBytes(UTF_8), ByteStreams.toByteArray(in));
+      }
+      assertNull(in.getNextEntry());
+    }
+  }
+
+  @Test
+  public void parallelStreamWritesEntriesTooBigToHoldInMemoryAsTheyArrive() throws IOException {
+    byte[] big = new byte[ParallelZipOutputStream.MAX_BUFFERED_ENTRY_SIZE * 2 + 1];
+    new Random(0).nextBytes(big);
+
+    try (CustomZipOutputStream out = ZipOutputStreams.newParallelOutputStream(
+        output,
+        THROW_EXCEPTION,
+        MoreExecutors.newDirectExecutorService())) {
+      out.putNextEntry(new ZipEntry("before"));
+      out.write("before".getBytes(UTF_8));
+
+      out.putNextEntry(new ZipEntry("deflated"));
+      for (int offset = 0; offset < big.length; offset += 4096) {
+        out.write(big, offset, Math.min(4096, big.length - offset));
+      }
+
+      ZipEntry stored = new ZipEntry("stored");
+      stored.setMethod(ZipEntry.STORED);
+      stored.setSize(big.length);
+      stored.setCrc(Hashing.crc32().hashBytes(big).padToLong());
+      out.putNextEntry(stored);
+      out.write(big);
+
+      out.putNextEntry(new ZipEntry("after"));
+      out.write("after".getBytes(UTF_8));
+    }
+
+    try (java.util.zip.ZipFile zip = new java.util.zip.ZipFile(output.toFile())) {
+      List<String> names = Lists.newArrayList();
+      for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements(); ) {
+        names.add(entries.nextElement().getName());
+      }
+      assertEquals(ImmutableList.of("before", "deflated", "stored", "after"), names);
+      assertArrayEquals(
+          "before".getBytes(UTF_8),
+          ByteStreams.toByteArray(zip.getInputStream(zip.getEntry("before"))));
+      assertArrayEquals(big, ByteStreams.toByteArray(zip.getInputStream(zip.getEntry("deflated"))));
+      assertEquals(ZipEntry.STORED, zip.getEntry("stored").getMethod());
+      assertArrayEquals(big, ByteStreams.toByteArray(zip.getInputStream(zip.getEntry("stored"))));
+      assertArrayEquals(
+          "after".getBytes(UTF_8),
+          ByteStreams.toByteArray(zip.getInputStream(zip.getEntry("after"))));
+    }
+  }
+
+  @Test
+  public void parallelStreamCopiesEntriesOfZip64Archives() throws IOException {
+    Path source = Files.createTempFile("source", ".zip");
+    try (ZipArchiveOutputStream out = new ZipArchiveOutputStream(source.toFile())) {
+      out.setUseZip64(Zip64Mode.Always);
+      out.putArchiveEntry(new ZipArchiveEntry("entry"));
+      out.write("contents".getBytes(UTF_8));
+      out.closeArchiveEntry();
+    }
+    // Point the end of central directory record at the Zip64 one, as archives too big for it do.
+    byte[] bytes = Files.readAllBytes(source);
+    int endOfCentralDirectory = bytes.length - 22;
+    for (int i = 16; i < 20; i++) {
+      bytes[endOfCentralDirectory + i] = (byte) 0xff;
+    }
+    Files.write(source, bytes);
+
+    try (
+        java.util.zip.ZipFile zip = new java.util.zip.ZipFile(source.toFile());
+        CustomZipOutputStream out = ZipOutputStreams.newParallelOutputStream(
+            output,
+            THROW_EXCEPTION,
+            MoreExecutors.newDirectExecutorService())) {
+      out.copyEntry(zip, zip.getEntry("entry"));
+    }
+
+    try (java.util.zip.ZipFile copy = new java.util.zip.ZipFile(output.toFile())) {
+      assertArrayEquals(
+          "contents".getBytes(UTF_8),
+          ByteStreams.toByteArray(copy.getInputStream(copy.getEntry("entry"))));
+    }
+  }
+
+  private void writeManyEntries(Path zipFile, ListeningExecutorService executorService)
+      throws IOException {
+    String packageName = getClass().getPackage().getName().replace(".", "/");
+    byte[] input = Resources.toByteArray(
+        Resources.getResource(packageName + "/macbeth.properties"));
+
+    try (CustomZipOutputStream out = ZipOutputStreams.newParallelOutputStream(
+        zipFile,
+        THROW_EXCEPTION,
+        executorService)) {
+      for (int i = 0; i < 100; i++) {
+        CustomZipEntry entry = new CustomZipEntry("entry" + i);
+        if (i % 10 == 0) {
+          entry.setCompressionLevel(NO_COMPRESSION);
+          out.putNextEntry(entry);
+          out.write("stored".getBytes(UTF_8));
+        } else {
+          out.putNextEntry(entry);
+          out.write(input);
+        }
+      }
+    }
+  }
 }